@@ -0,0 +1,358 @@
+package com.susu;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.io.RCFile;
+import org.apache.hadoop.hive.ql.io.orc.CompressionKind;
+import org.apache.hadoop.hive.ql.io.orc.OrcFile;
+import org.apache.hadoop.hive.ql.io.orc.Reader;
+import org.apache.hadoop.hive.ql.io.orc.RecordReader;
+import org.apache.hadoop.hive.ql.io.orc.Writer;
+import org.apache.hadoop.hive.serde.serdeConstants;
+import org.apache.hadoop.hive.serde2.AbstractSerDe;
+import org.apache.hadoop.hive.serde2.ColumnProjectionUtils;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.columnar.BytesRefArrayWritable;
+import org.apache.hadoop.hive.serde2.columnar.ColumnarSerDe;
+import org.apache.hadoop.hive.serde2.lazy.LazySimpleSerDe;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.util.LineReader;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 比较 HiveOption 中 student / emp 两张表的结构在不同存储格式下的写入速度、文件大小、全表扫描和只读 name 列的速度
+ * 1、TEXT：LazySimpleSerDe，分隔符与建表语句相同（student 用 , 和 :，emp 用 \t , :）
+ * 2、RCFILE / RCFILE_ZLIB：ColumnarSerDe，只读 name 列时通过 ColumnProjectionUtils 跳过其它列
+ * 3、ORC_NONE / ORC_ZLIB / ORC_SNAPPY：只读 name 列时通过 Reader.Options.include 跳过其它列
+ *
+ * 所有格式都用本地的 RawLocalFileSystem（不写 .crc），读取时对每个字段计算 ObjectInspectorUtils.hashCode，
+ * 保证 lazy 的 serde 真正解析了字段；文件大小在 setup 时输出到 stdout
+ * 结果是每秒处理的行数
+ *
+ * hive 的 serde 和 ORC writer 依赖 hadoop-mapreduce-client-core，已在 pom 中声明
+ *
+ * 运行：mvn -Pjmh test-compile exec:exec -Djmh.args="StorageFormatBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class StorageFormatBenchmark {
+
+    static final int ROWS = 100000;
+
+    public enum Format {
+        TEXT, RCFILE, RCFILE_ZLIB, ORC_NONE, ORC_ZLIB, ORC_SNAPPY
+    }
+
+    @Param({"student", "emp"})
+    public String schema;
+
+    @Param({"TEXT", "RCFILE", "RCFILE_ZLIB", "ORC_NONE", "ORC_ZLIB", "ORC_SNAPPY"})
+    public Format format;
+
+    private static final String[] CITIES = {"shanghai", "beijing", "shenzhen", "guangzhou", "hangzhou",
+            "nanjing", "chengdu", "wuhan", "xian", "suzhou"};
+    private static final String[] AGENTS = {"mobile", "web", "pad", "mini_program"};
+    private static final String[] DEDUCTIONS = {"tax", "insurance", "pension", "housing"};
+
+    private final Configuration conf = new Configuration();
+    private FileSystem fs;
+    private File dir;
+    private Path readPath;
+    private Path writePath;
+    private Properties table;
+    private StructObjectInspector javaInspector;
+    private List<Object> rows;
+
+    @Setup
+    public void setup() throws Exception {
+        fs = FileSystem.getLocal(conf).getRawFileSystem();
+        dir = Files.createTempDirectory("storage-format").toFile();
+        readPath = new Path(dir.getAbsolutePath(), "read");
+        writePath = new Path(dir.getAbsolutePath(), "write");
+        table = "student".equals(schema) ? student() : emp();
+        javaInspector = (StructObjectInspector) TypeInfoUtils.getStandardJavaObjectInspectorFromTypeInfo(
+                TypeInfoUtils.getTypeInfoFromTypeString(structType(table)));
+        rows = generate(schema, ROWS);
+        write(readPath);
+        long bytes = fs.getFileStatus(readPath).getLen();
+        System.out.println(String.format(Locale.ROOT, "%s %s file bytes=%d bytes/row=%.1f",
+                schema, format, bytes, bytes / (double) ROWS));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        fs.delete(new Path(dir.getAbsolutePath()), true);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long write() throws Exception {
+        write(writePath);
+        return fs.getFileStatus(writePath).getLen();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long fullScan() throws Exception {
+        return scan(false);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long projection() throws Exception {
+        return scan(true);
+    }
+
+    /**
+     * student 表：create table student (name string, age int, agent string, adress struct&lt;street:STRING,city:STRING&gt;)
+     */
+    private static Properties student() {
+        Properties table = new Properties();
+        table.setProperty(serdeConstants.LIST_COLUMNS, "name,age,agent,adress");
+        table.setProperty(serdeConstants.LIST_COLUMN_TYPES, "string:int:string:struct<street:string,city:string>");
+        table.setProperty(serdeConstants.FIELD_DELIM, ",");
+        table.setProperty(serdeConstants.COLLECTION_DELIM, ":");
+        return table;
+    }
+
+    /**
+     * emp 表（不含分区字段）：name string, salary int, subordinate array&lt;string&gt;, deductions map&lt;string,float&gt;,
+     * address struct&lt;street:string,city:string&gt;
+     */
+    private static Properties emp() {
+        Properties table = new Properties();
+        table.setProperty(serdeConstants.LIST_COLUMNS, "name,salary,subordinate,deductions,address");
+        table.setProperty(serdeConstants.LIST_COLUMN_TYPES,
+                "string:int:array<string>:map<string,float>:struct<street:string,city:string>");
+        table.setProperty(serdeConstants.FIELD_DELIM, "\t");
+        table.setProperty(serdeConstants.COLLECTION_DELIM, ",");
+        table.setProperty(serdeConstants.MAPKEY_DELIM, ":");
+        return table;
+    }
+
+    private static String structType(Properties table) {
+        String[] names = table.getProperty(serdeConstants.LIST_COLUMNS).split(",");
+        List<String> types = new ArrayList<>();
+        for (Object type : TypeInfoUtils.getTypeInfosFromTypeString(table.getProperty(serdeConstants.LIST_COLUMN_TYPES))) {
+            types.add(type.toString());
+        }
+        StringBuilder sb = new StringBuilder("struct<");
+        for (int i = 0; i < names.length; i++) {
+            sb.append(i == 0 ? "" : ",").append(names[i]).append(':').append(types.get(i));
+        }
+        return sb.append('>').toString();
+    }
+
+    /**
+     * 城市、街道、agent 的取值很少，与真实数据一样适合字典编码；名字基本不重复
+     */
+    static List<Object> generate(String schema, int count) {
+        Random random = new Random(42);
+        List<Object> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = "user_" + random.nextInt(10000000);
+            List<Object> address = Arrays.<Object>asList("street_" + random.nextInt(200), CITIES[random.nextInt(CITIES.length)]);
+            if ("student".equals(schema)) {
+                rows.add(Arrays.<Object>asList(name, 18 + random.nextInt(40), AGENTS[random.nextInt(AGENTS.length)], address));
+            } else {
+                List<String> subordinate = new ArrayList<>();
+                for (int j = random.nextInt(4); j > 0; j--) {
+                    subordinate.add("user_" + random.nextInt(10000000));
+                }
+                Map<String, Float> deductions = new HashMap<>();
+                for (int j = 1 + random.nextInt(3); j > 0; j--) {
+                    deductions.put(DEDUCTIONS[random.nextInt(DEDUCTIONS.length)], random.nextInt(10000) / 100.0F);
+                }
+                rows.add(Arrays.<Object>asList(name, 3000 + random.nextInt(30000), subordinate, deductions, address));
+            }
+        }
+        return rows;
+    }
+
+    private void write(Path path) throws IOException, SerDeException {
+        fs.delete(path, false);
+        switch (format) {
+            case TEXT:
+                writeText(path);
+                break;
+            case RCFILE:
+            case RCFILE_ZLIB:
+                writeRCFile(path, format == Format.RCFILE_ZLIB ? ReflectionUtils.newInstance(DefaultCodec.class, conf) : null);
+                break;
+            default:
+                Writer writer = OrcFile.createWriter(path, OrcFile.writerOptions(conf).fileSystem(fs)
+                        .inspector(javaInspector).compress(orcCompression()));
+                try {
+                    for (Object row : rows) {
+                        writer.addRow(row);
+                    }
+                } finally {
+                    writer.close();
+                }
+        }
+    }
+
+    private CompressionKind orcCompression() {
+        switch (format) {
+            case ORC_ZLIB:
+                return CompressionKind.ZLIB;
+            case ORC_SNAPPY:
+                return CompressionKind.SNAPPY;
+            default:
+                return CompressionKind.NONE;
+        }
+    }
+
+    private void writeText(Path path) throws IOException, SerDeException {
+        AbstractSerDe serde = serde(new LazySimpleSerDe(), conf);
+        try (FSDataOutputStream out = fs.create(path)) {
+            for (Object row : rows) {
+                Text line = (Text) serde.serialize(row, javaInspector);
+                out.write(line.getBytes(), 0, line.getLength());
+                out.write('\n');
+            }
+        }
+    }
+
+    private void writeRCFile(Path path, CompressionCodec codec) throws IOException, SerDeException {
+        Configuration writeConf = new Configuration(conf);
+        writeConf.setInt(RCFile.COLUMN_NUMBER_CONF_STR, javaInspector.getAllStructFieldRefs().size());
+        AbstractSerDe serde = serde(new ColumnarSerDe(), writeConf);
+        RCFile.Writer writer = new RCFile.Writer(fs, writeConf, path, null, codec);
+        try {
+            for (Object row : rows) {
+                writer.append(serde.serialize(row, javaInspector));
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private AbstractSerDe serde(AbstractSerDe serde, Configuration serdeConf) throws SerDeException {
+        serde.initialize(serdeConf, table);
+        return serde;
+    }
+
+    /**
+     * 返回所有读到的字段的 hash 之和，避免 JIT 消除读取
+     */
+    private long scan(boolean nameOnly) throws IOException, SerDeException {
+        switch (format) {
+            case TEXT:
+                return scanText(nameOnly);
+            case RCFILE:
+            case RCFILE_ZLIB:
+                return scanRCFile(nameOnly);
+            default:
+                return scanOrc(nameOnly);
+        }
+    }
+
+    private long scanText(boolean nameOnly) throws IOException, SerDeException {
+        AbstractSerDe serde = serde(new LazySimpleSerDe(), conf);
+        StructObjectInspector inspector = (StructObjectInspector) serde.getObjectInspector();
+        long hash = 0L;
+        Text line = new Text();
+        try (LineReader reader = new LineReader(fs.open(readPath), 64 * 1024)) {
+            while (reader.readLine(line) > 0) {
+                hash += consume(serde.deserialize(line), inspector, nameOnly);
+            }
+        }
+        return hash;
+    }
+
+    private long scanRCFile(boolean nameOnly) throws IOException, SerDeException {
+        Configuration readConf = new Configuration(conf);
+        if (nameOnly) {
+            ColumnProjectionUtils.appendReadColumns(readConf, Collections.singletonList(0));
+        } else {
+            ColumnProjectionUtils.setReadAllColumns(readConf);
+        }
+        AbstractSerDe serde = serde(new ColumnarSerDe(), readConf);
+        StructObjectInspector inspector = (StructObjectInspector) serde.getObjectInspector();
+        long hash = 0L;
+        RCFile.Reader reader = new RCFile.Reader(fs, readPath, readConf);
+        try {
+            LongWritable rowId = new LongWritable();
+            BytesRefArrayWritable columns = new BytesRefArrayWritable();
+            while (reader.next(rowId)) {
+                reader.getCurrentRow(columns);
+                hash += consume(serde.deserialize(columns), inspector, nameOnly);
+            }
+        } finally {
+            reader.close();
+        }
+        return hash;
+    }
+
+    private long scanOrc(boolean nameOnly) throws IOException {
+        Reader reader = OrcFile.createReader(readPath, OrcFile.readerOptions(conf).filesystem(fs));
+        boolean[] include = new boolean[reader.getTypes().size()];
+        //类型 0 是整行的 struct，类型 1 是 name 列
+        Arrays.fill(include, !nameOnly);
+        include[0] = true;
+        include[1] = true;
+        StructObjectInspector inspector = (StructObjectInspector) reader.getObjectInspector();
+        long hash = 0L;
+        RecordReader rows = reader.rowsOptions(new Reader.Options().include(include));
+        try {
+            Object row = null;
+            while (rows.hasNext()) {
+                row = rows.next(row);
+                hash += consume(row, inspector, nameOnly);
+            }
+        } finally {
+            rows.close();
+        }
+        return hash;
+    }
+
+    private static long consume(Object row, StructObjectInspector inspector, boolean nameOnly) {
+        if (nameOnly) {
+            StructField name = inspector.getAllStructFieldRefs().get(0);
+            return ObjectInspectorUtils.hashCode(inspector.getStructFieldData(row, name), name.getFieldObjectInspector());
+        }
+        return ObjectInspectorUtils.hashCode(row, (ObjectInspector) inspector);
+    }
+}
@@ -0,0 +1,87 @@
+package com.susu.hook;
+
+import org.apache.hadoop.conf.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在生成的大 insert ... values 语句上比较 RedactionEngine 与逐个规则 String.replaceAll 的耗时和分配
+ * dirty=false 时语句中没有敏感信息，dirty=true 时每 100 行有一个手机号、一个身份证号和一个字面量
+ *
+ * 运行：mvn -Pjmh test-compile exec:exec -Djmh.args="-prof gc RedactorBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RedactorBenchmark {
+
+    /**
+     * 每行约 60 个字符，20000 行约 1.2MB
+     */
+    @Param({"1000", "20000"})
+    public int rows;
+
+    @Param({"false", "true"})
+    public boolean dirty;
+
+    private static final String[] LITERALS = {"topsecret", "internal_only", "do_not_share"};
+
+    private String query;
+    private RedactionEngine engine;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder("insert into table emp_log partition (dt='2020-01-01') values ");
+        for (int i = 0; i < rows; i++) {
+            sb.append(i == 0 ? "" : ", ").append("(").append(i).append(", 'user_").append(random.nextInt(1000000))
+                    .append("', ").append(random.nextInt(100000) / 100.0).append(", '");
+            if (dirty && i % 100 == 0) {
+                sb.append("139").append(10000000 + random.nextInt(90000000)).append("', '110105199001011234', '")
+                        .append(LITERALS[i % LITERALS.length]);
+            } else {
+                sb.append("remark ").append(random.nextInt(1000)).append("', 'n/a', 'ok");
+            }
+            sb.append("')");
+        }
+        query = sb.toString();
+        Configuration conf = new Configuration(false);
+        conf.setStrings(RedactionEngine.LITERALS, LITERALS);
+        engine = RedactionEngine.get(conf);
+    }
+
+    @Benchmark
+    public String engine() {
+        return engine.redact(query);
+    }
+
+    /**
+     * 常见的写法：每个规则一个 replaceAll，每次都重新编译正则并生成一个新的字符串
+     */
+    @Benchmark
+    public String replaceAll() {
+        String redacted = query;
+        for (String[] rule : RedactionEngine.BUILTIN) {
+            redacted = redacted.replaceAll(rule[1], rule[2]);
+        }
+        for (String literal : LITERALS) {
+            redacted = redacted.replaceAll("(?i)" + literal, RedactionEngine.DEFAULT_REPLACEMENT);
+        }
+        return redacted;
+    }
+}
@@ -0,0 +1,25 @@
+package com.susu.udf;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * GenericUDAFMyAverage / GenericUDAFMyAverage2 接受的所有入参类型
+ */
+public class AverageEvaluatorBenchmark extends EvaluatorBenchmark {
+
+    @Param({"GenericUDAFMyAverage", "GenericUDAFMyAverage2"})
+    public String udaf;
+
+    @Param({"tinyint", "smallint", "int", "bigint", "float", "double", "decimal(10,2)", "string", "timestamp"})
+    public String type;
+
+    @Override
+    protected String udaf() {
+        return udaf;
+    }
+
+    @Override
+    protected String type() {
+        return type;
+    }
+}
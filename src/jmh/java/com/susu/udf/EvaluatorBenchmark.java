@@ -0,0 +1,203 @@
+package com.susu.udf;
+
+import org.apache.hadoop.hive.common.type.HiveDecimal;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFResolver;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Timestamp;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UDAF Evaluator 的 JMH 基准，子类用 @Param 指定 UDAF 类名（udaf）和入参类型（type）
+ *
+ * 运行：mvn -Pjmh test-compile exec:exec
+ * 只跑一部分：mvn -Pjmh test-compile exec:exec -Djmh.args="-prof gc SumEvaluatorBenchmark.complete -p type=int"
+ *
+ * complete / partial1 的单位是每行，mergeAndTerminate 的单位是每个中间结果；
+ * 默认带 -prof gc，结果中的 gc.alloc.rate.norm 就是每行（每个中间结果）分配的字节数
+ */
+@State(Scope.Thread)
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public abstract class EvaluatorBenchmark {
+
+    /**
+     * 每次调用处理的行数
+     */
+    static final int ROWS = 10000;
+
+    /**
+     * map 端 hash 聚合的分组数，也是 mergeAndTerminate 中合并的中间结果个数
+     */
+    static final int GROUPS = 100;
+
+    @Param({"0.0", "0.2"})
+    public double nullRatio;
+
+    private Object[][] rows;
+
+    private GenericUDAFEvaluator completeEvaluator;
+    private GenericUDAFEvaluator partial1Evaluator;
+    private AggregationBuffer[] partial1Buffers;
+
+    private GenericUDAFEvaluator partial2Evaluator;
+    private GenericUDAFEvaluator finalEvaluator;
+    private Object[] partials;
+
+    /**
+     * UDAF 的类名（com.susu.udf 下）
+     */
+    protected abstract String udaf();
+
+    /**
+     * 入参的 hive 类型名，如 int、decimal(10,2)
+     */
+    protected abstract String type();
+
+    @Setup
+    public void setup() throws Exception {
+        GenericUDAFResolver resolver = (GenericUDAFResolver) Class.forName("com.susu.udf." + udaf()).newInstance();
+        TypeInfo[] argTypes = new TypeInfo[]{TypeInfoUtils.getTypeInfoFromTypeString(type())};
+        PrimitiveTypeInfo typeInfo = (PrimitiveTypeInfo) argTypes[0];
+        ObjectInspector[] inputOis = new ObjectInspector[]{
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableObjectInspector(typeInfo)};
+
+        //与真实的表数据一样，入参是 writable 对象
+        PrimitiveObjectInspector javaOi = PrimitiveObjectInspectorFactory.getPrimitiveJavaObjectInspector(typeInfo);
+        Random random = new Random(42);
+        rows = new Object[ROWS][];
+        for (int i = 0; i < ROWS; i++) {
+            Object value = random.nextDouble() < nullRatio ? null
+                    : ObjectInspectorUtils.copyToStandardObject(randomValue(typeInfo, random), javaOi,
+                    ObjectInspectorCopyOption.WRITABLE);
+            rows[i] = new Object[]{value};
+        }
+
+        completeEvaluator = resolver.getEvaluator(argTypes);
+        completeEvaluator.init(Mode.COMPLETE, inputOis);
+
+        partial1Evaluator = resolver.getEvaluator(argTypes);
+        ObjectInspector partialOi = partial1Evaluator.init(Mode.PARTIAL1, inputOis);
+        partial1Buffers = new AggregationBuffer[GROUPS];
+        for (int i = 0; i < GROUPS; i++) {
+            partial1Buffers[i] = partial1Evaluator.getNewAggregationBuffer();
+        }
+
+        //terminatePartial 会复用返回的对象，这里拷贝一份作为 merge 的输入
+        iteratePartial1();
+        ObjectInspector standardPartialOi = ObjectInspectorUtils.getStandardObjectInspector(partialOi,
+                ObjectInspectorCopyOption.WRITABLE);
+        partials = new Object[GROUPS];
+        for (int i = 0; i < GROUPS; i++) {
+            partials[i] = ObjectInspectorUtils.copyToStandardObject(
+                    partial1Evaluator.terminatePartial(partial1Buffers[i]), partialOi, ObjectInspectorCopyOption.WRITABLE);
+        }
+        partial2Evaluator = resolver.getEvaluator(argTypes);
+        ObjectInspector mergedOi = partial2Evaluator.init(Mode.PARTIAL2, new ObjectInspector[]{standardPartialOi});
+        finalEvaluator = resolver.getEvaluator(argTypes);
+        finalEvaluator.init(Mode.FINAL, new ObjectInspector[]{mergedOi});
+    }
+
+    private static Object randomValue(PrimitiveTypeInfo typeInfo, Random random) {
+        switch (typeInfo.getPrimitiveCategory()) {
+            case BYTE:
+                return (byte) random.nextInt(128);
+            case SHORT:
+                return (short) random.nextInt(10000);
+            case INT:
+                return random.nextInt(1000000);
+            case LONG:
+                return random.nextLong() >>> 20;
+            case FLOAT:
+                return random.nextFloat() * 1000.0F;
+            case DOUBLE:
+                return random.nextDouble() * 1000.0D;
+            case DECIMAL:
+                return HiveDecimal.create(random.nextInt(10000000)).scaleByPowerOfTen(-2);
+            case STRING:
+                return Integer.toString(random.nextInt(1000000));
+            case TIMESTAMP:
+                return new Timestamp(1500000000000L + random.nextInt(1000000000));
+            default:
+                throw new IllegalArgumentException("Unsupported type " + typeInfo);
+        }
+    }
+
+    /**
+     * map 端：第 i 行进入第 i % GROUPS 个分组
+     */
+    private void iteratePartial1() throws Exception {
+        for (AggregationBuffer buffer : partial1Buffers) {
+            partial1Evaluator.reset(buffer);
+        }
+        for (int i = 0; i < ROWS; i++) {
+            partial1Evaluator.iterate(partial1Buffers[i % GROUPS], rows[i]);
+        }
+    }
+
+    /**
+     * COMPLETE：iterate ──> terminate，没有 reduce 阶段的聚合
+     */
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public Object complete() throws Exception {
+        AggregationBuffer buffer = completeEvaluator.getNewAggregationBuffer();
+        for (int i = 0; i < ROWS; i++) {
+            completeEvaluator.iterate(buffer, rows[i]);
+        }
+        return completeEvaluator.terminate(buffer);
+    }
+
+    /**
+     * PARTIAL1：iterate ──> terminatePartial，即 map 端 hash 聚合
+     */
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void partial1(Blackhole blackhole) throws Exception {
+        iteratePartial1();
+        for (AggregationBuffer buffer : partial1Buffers) {
+            blackhole.consume(partial1Evaluator.terminatePartial(buffer));
+        }
+    }
+
+    /**
+     * PARTIAL2 ──> FINAL：combiner 合并各分组的中间结果，reducer 再合并一次并输出最终结果
+     */
+    @Benchmark
+    @OperationsPerInvocation(GROUPS)
+    public Object mergeAndTerminate() throws Exception {
+        AggregationBuffer combined = partial2Evaluator.getNewAggregationBuffer();
+        for (Object partial : partials) {
+            partial2Evaluator.merge(combined, partial);
+        }
+        AggregationBuffer last = finalEvaluator.getNewAggregationBuffer();
+        finalEvaluator.merge(last, partial2Evaluator.terminatePartial(combined));
+        return finalEvaluator.terminate(last);
+    }
+}
@@ -0,0 +1,98 @@
+package com.susu.udf;
+
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredJavaObject;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredObject;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.reflect.Method;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NameUDF、GenericUDFName 与 VectorUDFName 的每行耗时和分配
+ * hive 通过 GenericUDFBridge 执行旧式 UDF：Text 转 String、反射调用 evaluate、返回的 String 再转回 Text；
+ * GenericUDFBridge.initialize 依赖 mapreduce 的 JobConf（本项目只依赖 hadoop-common），这里按同样的步骤直接调用
+ *
+ * 运行：mvn -Pjmh test-compile exec:exec -Djmh.args="-prof gc NameUDFBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class NameUDFBenchmark {
+
+    static final int ROWS = 1024;
+
+    private DeferredObject[][] rows;
+    private NameUDF legacy;
+    private Method legacyEvaluate;
+    private GenericUDF generic;
+    private VectorizedRowBatch batch;
+    private VectorUDFName vectorized;
+
+    @Setup
+    public void setup() throws Exception {
+        Random random = new Random(42);
+        rows = new DeferredObject[ROWS][];
+        //与 VectorizedRowBatch.DEFAULT_SIZE 相同，一个批次正好是全部行
+        batch = new VectorizedRowBatch(2, ROWS);
+        BytesColumnVector input = new BytesColumnVector(ROWS);
+        batch.cols[0] = input;
+        batch.cols[1] = new BytesColumnVector(ROWS);
+        batch.size = ROWS;
+        for (int i = 0; i < ROWS; i++) {
+            Text name = new Text("user_" + random.nextInt(1000000));
+            rows[i] = new DeferredObject[]{new DeferredJavaObject(name)};
+            input.setRef(i, name.getBytes(), 0, name.getLength());
+        }
+        vectorized = new VectorUDFName(0, 1);
+        ObjectInspector[] argOis = new ObjectInspector[]{PrimitiveObjectInspectorFactory.writableStringObjectInspector};
+        legacy = new NameUDF();
+        legacyEvaluate = NameUDF.class.getMethod("evaluate", String.class);
+        generic = new GenericUDFName();
+        generic.initialize(argOis);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void nameUDF(Blackhole blackhole) throws Exception {
+        for (DeferredObject[] row : rows) {
+            String name = row[0].get().toString();
+            blackhole.consume(new Text((String) legacyEvaluate.invoke(legacy, name)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void genericUDFName(Blackhole blackhole) throws Exception {
+        for (DeferredObject[] row : rows) {
+            blackhole.consume(generic.evaluate(row));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public Object vectorUDFName() {
+        vectorized.evaluate(batch);
+        return batch.cols[1];
+    }
+}
@@ -0,0 +1,25 @@
+package com.susu.udf;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * GenericUDAFMySum / GenericUDAFMySum2 接受的所有入参类型
+ */
+public class SumEvaluatorBenchmark extends EvaluatorBenchmark {
+
+    @Param({"GenericUDAFMySum", "GenericUDAFMySum2"})
+    public String udaf;
+
+    @Param({"tinyint", "smallint", "int", "bigint", "float", "double", "decimal(10,2)"})
+    public String type;
+
+    @Override
+    protected String udaf() {
+        return udaf;
+    }
+
+    @Override
+    protected String type() {
+        return type;
+    }
+}
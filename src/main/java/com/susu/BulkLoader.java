@@ -0,0 +1,484 @@
+package com.susu;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 批量加载目录下的文件到 hive 表，代替每个文件执行一次 load data：
+ * 1、递归列出输入目录下的文件（跳过 _ 和 . 开头的），按路径中 city=shanghai/street=jinkelu 形式的目录分组到分区，
+ *    没有这种目录的文件属于非分区表
+ * 2、threads 个线程并行把文件复制到暂存目录的对应分区下，compress 为 true 时用 gzip 压缩（hive 按 .gz 后缀自动解压）
+ * 3、一个分区的文件全部暂存完后立即通过 ConcurrentQueryExecutor 执行一次 load data inpath '暂存目录' into table ... partition (...)，
+ *    不等其它分区；load 成功后删除暂存目录，失败的分区保留
+ * 4、overwrite 时每个分区只 load 一次，分区中的所有文件都保留（每个文件 overwrite 一次只会留下最后一个文件）
+ *
+ * 暂存目录在本地文件系统时使用 load data local inpath，此时 HiveServer2 必须能读到这个目录（同一台机器或共享存储）；
+ * 在 hdfs 上时使用 load data inpath，hive 直接移动文件
+ */
+public class BulkLoader {
+
+    public static final int DEFAULT_THREADS = 8;
+
+    private static final String[] COMPRESSED_SUFFIXES = {".gz", ".bz2", ".snappy", ".deflate", ".lz4", ".lzo"};
+
+    /**
+     * 分区内文件的顺序，决定暂存文件名的序号；Path 只实现了原始类型的 Comparable
+     */
+    private static final Comparator<Path> PATH_ORDER = new Comparator<Path>() {
+        @Override
+        public int compare(Path a, Path b) {
+            return a.toUri().compareTo(b.toUri());
+        }
+    };
+
+    /**
+     * 一个分区的加载结果
+     */
+    public static class PartitionLoad {
+        private final Map<String, String> spec;
+        private final List<Path> files = new ArrayList<>();
+        private final AtomicInteger remaining = new AtomicInteger();
+        private final AtomicLong inputBytes = new AtomicLong();
+        private final AtomicLong stagedBytes = new AtomicLong();
+        private volatile Exception stagingError;
+        private volatile Path stagingDir;
+        private volatile String statement;
+        private volatile Future<ConcurrentQueryExecutor.QueryResult<Long>> load;
+
+        PartitionLoad(Map<String, String> spec) {
+            this.spec = spec;
+        }
+
+        /**
+         * 非分区表为空
+         */
+        public Map<String, String> getSpec() {
+            return spec;
+        }
+
+        public List<Path> getFiles() {
+            return files;
+        }
+
+        public long getInputBytes() {
+            return inputBytes.get();
+        }
+
+        public long getStagedBytes() {
+            return stagedBytes.get();
+        }
+
+        public Path getStagingDir() {
+            return stagingDir;
+        }
+
+        /**
+         * 暂存失败时为 null
+         */
+        public String getStatement() {
+            return statement;
+        }
+
+        public boolean isSuccess() {
+            return stagingError == null && getLoadResult() != null && getLoadResult().isSuccess();
+        }
+
+        /**
+         * 暂存或 load 的错误，成功时为 null
+         */
+        public Exception getError() {
+            if (stagingError != null) {
+                return stagingError;
+            }
+            ConcurrentQueryExecutor.QueryResult<Long> result = getLoadResult();
+            return result == null ? null : result.getError();
+        }
+
+        ConcurrentQueryExecutor.QueryResult<Long> getLoadResult() {
+            try {
+                return load == null ? null : load.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    public static class LoadResult {
+        private final List<PartitionLoad> partitions;
+        private final long millis;
+
+        LoadResult(List<PartitionLoad> partitions, long millis) {
+            this.partitions = partitions;
+            this.millis = millis;
+        }
+
+        public List<PartitionLoad> getPartitions() {
+            return partitions;
+        }
+
+        public int getFiles() {
+            int files = 0;
+            for (PartitionLoad partition : partitions) {
+                files += partition.files.size();
+            }
+            return files;
+        }
+
+        public long getInputBytes() {
+            long bytes = 0L;
+            for (PartitionLoad partition : partitions) {
+                bytes += partition.getInputBytes();
+            }
+            return bytes;
+        }
+
+        public int getFailed() {
+            int failed = 0;
+            for (PartitionLoad partition : partitions) {
+                failed += partition.isSuccess() ? 0 : 1;
+            }
+            return failed;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = Math.max(1L, millis) / 1000.0;
+            return String.format(Locale.ROOT, "partitions=%d failed=%d files=%d bytes=%d seconds=%.1f files/s=%.1f MB/s=%.2f",
+                    partitions.size(), getFailed(), getFiles(), getInputBytes(), seconds, getFiles() / seconds,
+                    getInputBytes() / seconds / 1024 / 1024);
+        }
+    }
+
+    private final ConcurrentQueryExecutor executor;
+    private final Configuration conf;
+    private int threads = DEFAULT_THREADS;
+    private boolean compress = true;
+    private boolean overwrite = true;
+    private boolean keepStaging;
+    private Path stagingRoot = new Path(System.getProperty("java.io.tmpdir"), "hive-bulk-load");
+    private PrintStream progress = System.err;
+
+    /**
+     * load 语句通过 executor 执行，同时执行的 load 数由 executor 的并发数决定
+     */
+    public BulkLoader(ConcurrentQueryExecutor executor, Configuration conf) {
+        this.executor = executor;
+        this.conf = conf;
+    }
+
+    public BulkLoader setThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    public BulkLoader setCompress(boolean compress) {
+        this.compress = compress;
+        return this;
+    }
+
+    public BulkLoader setOverwrite(boolean overwrite) {
+        this.overwrite = overwrite;
+        return this;
+    }
+
+    /**
+     * 暂存目录的父目录，本地路径或 hdfs 路径；每次 load 在其下创建一个随机子目录
+     */
+    public BulkLoader setStagingRoot(Path stagingRoot) {
+        this.stagingRoot = stagingRoot;
+        return this;
+    }
+
+    /**
+     * 为 true 时 load 成功后不删除暂存目录
+     */
+    public BulkLoader setKeepStaging(boolean keepStaging) {
+        this.keepStaging = keepStaging;
+        return this;
+    }
+
+    /**
+     * progress 为 null 时不输出进度
+     */
+    public BulkLoader setProgress(PrintStream progress) {
+        this.progress = progress;
+        return this;
+    }
+
+    /**
+     * 加载 input 下的所有文件到 table，等待所有分区 load 完成后返回
+     */
+    public LoadResult load(Path input, final String table) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        final List<PartitionLoad> partitions = discover(input);
+        FileSystem stagingFs = stagingRoot.getFileSystem(conf);
+        //本地文件系统不写 .crc 文件，暂存目录里只有数据文件
+        stagingFs.setWriteChecksum(false);
+        final Path stagingDir = stagingFs.makeQualified(new Path(stagingRoot, UUID.randomUUID().toString()));
+        final boolean local = "file".equals(stagingDir.toUri().getScheme());
+        final AtomicInteger stagedFiles = new AtomicInteger();
+        final long stagingStart = System.currentTimeMillis();
+
+        //队列有界，调用线程在队列满时自己执行，不会一次把上千个任务都放进内存
+        ThreadPoolExecutor stagers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            for (final PartitionLoad partition : partitions) {
+                partition.stagingDir = new Path(stagingDir, partitionPath(partition.spec));
+                partition.remaining.set(partition.files.size());
+                for (int i = 0; i < partition.files.size(); i++) {
+                    final Path file = partition.files.get(i);
+                    final int seq = i;
+                    stagers.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                if (partition.stagingError == null) {
+                                    stage(file, seq, partition);
+                                    reportStaging(stagedFiles.incrementAndGet(), stagingStart);
+                                }
+                            } catch (IOException | RuntimeException e) {
+                                partition.stagingError = e;
+                            } finally {
+                                //任何异常都要计数，否则这个分区永远等不到 load
+                                if (partition.remaining.decrementAndGet() == 0 && partition.stagingError == null) {
+                                    submitLoad(partition, table, local);
+                                }
+                            }
+                        }
+                    });
+                }
+            }
+        } finally {
+            stagers.shutdown();
+            stagers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        for (PartitionLoad partition : partitions) {
+            ConcurrentQueryExecutor.QueryResult<Long> result = partition.getLoadResult();
+            if (result != null && result.isSuccess() && !keepStaging) {
+                partition.stagingDir.getFileSystem(conf).delete(partition.stagingDir, true);
+            }
+        }
+        LoadResult result = new LoadResult(partitions, System.currentTimeMillis() - start);
+        //失败的分区保留暂存文件，可以手工重新 load
+        if (!keepStaging && result.getFailed() == 0) {
+            stagingFs.delete(stagingDir, true);
+        }
+        if (progress != null) {
+            progress.println("loaded " + result);
+            for (PartitionLoad partition : partitions) {
+                if (!partition.isSuccess()) {
+                    progress.println("failed " + partition.stagingDir + ": " + partition.getError());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 列出文件并按分区分组，分区按路径排序
+     */
+    List<PartitionLoad> discover(Path input) throws IOException {
+        FileSystem fs = input.getFileSystem(conf);
+        Path root = fs.makeQualified(input);
+        Map<String, PartitionLoad> partitions = new TreeMap<>();
+        RemoteIterator<LocatedFileStatus> it = fs.listFiles(root, true);
+        while (it.hasNext()) {
+            LocatedFileStatus status = it.next();
+            if (hidden(root, status.getPath())) {
+                continue;
+            }
+            Map<String, String> spec = partitionSpec(root, status.getPath());
+            String key = partitionPath(spec);
+            PartitionLoad partition = partitions.get(key);
+            if (partition == null) {
+                partition = new PartitionLoad(spec);
+                partitions.put(key, partition);
+            }
+            partition.files.add(status.getPath());
+        }
+        for (PartitionLoad partition : partitions.values()) {
+            Collections.sort(partition.files, PATH_ORDER);
+        }
+        return new ArrayList<>(partitions.values());
+    }
+
+    private static boolean hidden(Path root, Path file) {
+        for (Path p = file; p != null && !p.equals(root); p = p.getParent()) {
+            if (p.getName().startsWith("_") || p.getName().startsWith(".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * root 与文件之间的 key=value 目录，值按 hive 的规则做过 %XX 转义
+     */
+    static Map<String, String> partitionSpec(Path root, Path file) {
+        List<String> dirs = new ArrayList<>();
+        for (Path p = file.getParent(); p != null && !p.equals(root); p = p.getParent()) {
+            dirs.add(p.getName());
+        }
+        Collections.reverse(dirs);
+        Map<String, String> spec = new LinkedHashMap<>();
+        for (String dir : dirs) {
+            int eq = dir.indexOf('=');
+            if (eq > 0) {
+                spec.put(unescape(dir.substring(0, eq)).toLowerCase(Locale.ROOT), unescape(dir.substring(eq + 1)));
+            }
+        }
+        return spec;
+    }
+
+    private static String unescape(String s) {
+        try {
+            return s.indexOf('%') < 0 ? s : URLDecoder.decode(s.replace("+", "%2B"), "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return s;
+        }
+    }
+
+    static String partitionPath(Map<String, String> spec) {
+        if (spec.isEmpty()) {
+            return "_unpartitioned";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> entry : spec.entrySet()) {
+            sb.append(sb.length() == 0 ? "" : "/").append(entry.getKey()).append('=');
+            escape(entry.getValue(), sb);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 字母数字和 _.- 以外的字节转成 %XX，不同的值不会落到同一个暂存目录
+     */
+    private static void escape(String value, StringBuilder sb) {
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '.' || c == '-') {
+                sb.append(c);
+            } else {
+                sb.append(String.format("%%%02X", b & 0xff));
+            }
+        }
+    }
+
+    /**
+     * load data [local] inpath '...' [overwrite] into table t [partition (k='v', ...)]
+     */
+    static String loadStatement(Path dir, boolean local, boolean overwrite, String table, Map<String, String> spec) {
+        StringBuilder sql = new StringBuilder("load data ");
+        if (local) {
+            sql.append("local ");
+        }
+        sql.append("inpath ").append(quote(local ? dir.toUri().getPath() : dir.toString()));
+        if (overwrite) {
+            sql.append(" overwrite");
+        }
+        sql.append(" into table ").append(table);
+        if (!spec.isEmpty()) {
+            sql.append(' ').append(partitionClause(spec));
+        }
+        return sql.toString();
+    }
+
+    /**
+     * partition (k='v', ...)
+     */
+    static String partitionClause(Map<String, String> spec) {
+        StringBuilder sql = new StringBuilder("partition (");
+        boolean first = true;
+        for (Map.Entry<String, String> entry : spec.entrySet()) {
+            sql.append(first ? "" : ", ").append(entry.getKey()).append('=').append(quote(entry.getValue()));
+            first = false;
+        }
+        return sql.append(')').toString();
+    }
+
+    static String quote(String value) {
+        return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+
+    /**
+     * 文件名加上序号，不同子目录下的同名文件不会互相覆盖
+     */
+    private void stage(Path file, int seq, PartitionLoad partition) throws IOException {
+        FileSystem srcFs = file.getFileSystem(conf);
+        FileSystem dstFs = partition.stagingDir.getFileSystem(conf);
+        boolean gzip = compress && !compressed(file.getName());
+        Path target = new Path(partition.stagingDir, String.format("%05d_%s%s", seq, file.getName(), gzip ? ".gz" : ""));
+        long length = srcFs.getFileStatus(file).getLen();
+        try (InputStream in = srcFs.open(file);
+             OutputStream raw = dstFs.create(target, true)) {
+            if (gzip) {
+                GZIPOutputStream out = new GZIPOutputStream(raw, 64 * 1024);
+                IOUtils.copyBytes(in, out, 64 * 1024, false);
+                out.finish();
+            } else {
+                IOUtils.copyBytes(in, raw, 64 * 1024, false);
+            }
+        }
+        partition.inputBytes.addAndGet(length);
+        partition.stagedBytes.addAndGet(dstFs.getFileStatus(target).getLen());
+    }
+
+    private static boolean compressed(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        for (String suffix : COMPRESSED_SUFFIXES) {
+            if (lower.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void submitLoad(PartitionLoad partition, String table, boolean local) {
+        partition.statement = loadStatement(partition.stagingDir, local, overwrite, table, partition.spec);
+        partition.load = executor.submit(partition.statement, ConcurrentQueryExecutor.ROW_COUNT);
+    }
+
+    private void reportStaging(int files, long stagingStart) {
+        if (progress != null && files % 100 == 0) {
+            double seconds = Math.max(1L, System.currentTimeMillis() - stagingStart) / 1000.0;
+            progress.println(String.format(Locale.ROOT, "staged files=%d files/s=%.1f", files, files / seconds));
+        }
+    }
+}
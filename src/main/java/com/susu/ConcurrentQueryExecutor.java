@@ -0,0 +1,309 @@
+package com.susu;
+
+import com.susu.util.LatencyHistogram;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 从 HiveConnectionPool 借连接并发执行多条语句：
+ * 1、最多 concurrency 条语句同时执行，其余在队列中等待
+ * 2、每条语句从开始执行计时，超过 timeoutMillis 时调用 Statement.cancel()，连接标记为不可用
+ *    （hive-jdbc 1.2 不支持 setQueryTimeout，只能自己取消）
+ * 3、每条语句的排队、执行耗时在 QueryResult 中，执行耗时同时计入 getLatency() 的直方图
+ *
+ * 用法：
+ * try (HiveConnectionPool pool = new HiveConnectionPool(HiveConnectionPool.driverManager(url, user, ""), 8);
+ *      ConcurrentQueryExecutor executor = new ConcurrentQueryExecutor(pool, 8, 60000L)) {
+ *     for (ConcurrentQueryExecutor.QueryResult<Long> result : executor.runAll(sqls)) {...}
+ * }
+ */
+public class ConcurrentQueryExecutor implements Closeable {
+
+    /**
+     * 在执行线程上处理结果集，返回的对象放在 QueryResult.getValue() 中
+     */
+    public interface ResultSetHandler<T> {
+        T handle(ResultSet resultSet) throws SQLException;
+    }
+
+    /**
+     * 语句执行完后在执行线程上回调，用于不阻塞提交线程的场景，如 LoadGenerator 的开环压测
+     */
+    public interface ResultListener<T> {
+        void onResult(QueryResult<T> result);
+    }
+
+    /**
+     * 只计算行数
+     */
+    public static final ResultSetHandler<Long> ROW_COUNT = new ResultSetHandler<Long>() {
+        @Override
+        public Long handle(ResultSet resultSet) throws SQLException {
+            long rows = 0L;
+            while (resultSet.next()) {
+                rows++;
+            }
+            return rows;
+        }
+    };
+
+    public static class QueryResult<T> {
+        private final String sql;
+        private final T value;
+        private final int updateCount;
+        private final SQLException error;
+        private final boolean timedOut;
+        private final long queueMillis;
+        private final long executeMillis;
+
+        QueryResult(String sql, T value, int updateCount, SQLException error, boolean timedOut,
+                    long queueMillis, long executeMillis) {
+            this.sql = sql;
+            this.value = value;
+            this.updateCount = updateCount;
+            this.error = error;
+            this.timedOut = timedOut;
+            this.queueMillis = queueMillis;
+            this.executeMillis = executeMillis;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * 语句没有结果集或失败时为 null
+         */
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * 没有结果集的语句的更新行数，其它情况为 -1
+         */
+        public int getUpdateCount() {
+            return updateCount;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        public SQLException getError() {
+            return error;
+        }
+
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+        /**
+         * 提交到开始执行的时间，包括等待空闲线程和借连接
+         */
+        public long getQueueMillis() {
+            return queueMillis;
+        }
+
+        /**
+         * 执行语句和处理结果集的时间
+         */
+        public long getExecuteMillis() {
+            return executeMillis;
+        }
+
+        @Override
+        public String toString() {
+            return (error == null ? "OK" : timedOut ? "TIMEOUT" : "FAILED") + " queue=" + queueMillis
+                    + "ms execute=" + executeMillis + "ms " + sql;
+        }
+    }
+
+    private final HiveConnectionPool pool;
+    private final long timeoutMillis;
+    private final ThreadPoolExecutor workers;
+    private final ScheduledExecutorService canceller;
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * timeoutMillis <= 0 时不限制执行时间；借连接最多等待同样的时间
+     */
+    public ConcurrentQueryExecutor(HiveConnectionPool pool, int concurrency, long timeoutMillis) {
+        this.pool = pool;
+        this.timeoutMillis = timeoutMillis;
+        this.workers = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), daemonThreads("hive-query"));
+        this.canceller = Executors.newSingleThreadScheduledExecutor(daemonThreads("hive-query-canceller"));
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        final AtomicInteger seq = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + seq.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    public <T> Future<QueryResult<T>> submit(String sql, ResultSetHandler<T> handler) {
+        return submit(sql, handler, null);
+    }
+
+    /**
+     * listener 可以为 null
+     */
+    public <T> Future<QueryResult<T>> submit(final String sql, final ResultSetHandler<T> handler,
+                                             final ResultListener<T> listener) {
+        final long submitTime = System.currentTimeMillis();
+        return workers.submit(new Callable<QueryResult<T>>() {
+            @Override
+            public QueryResult<T> call() {
+                QueryResult<T> result = execute(sql, handler, submitTime);
+                if (listener != null) {
+                    listener.onResult(result);
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * 已提交但还没有执行完的语句数
+     */
+    public int getPending() {
+        return workers.getQueue().size() + workers.getActiveCount();
+    }
+
+    /**
+     * 并发执行所有语句，等待全部完成，结果与 sqls 的顺序相同；单条语句失败不影响其它语句
+     */
+    public List<QueryResult<Long>> runAll(List<String> sqls) throws InterruptedException {
+        return runAll(sqls, ROW_COUNT);
+    }
+
+    public <T> List<QueryResult<T>> runAll(List<String> sqls, ResultSetHandler<T> handler) throws InterruptedException {
+        List<Future<QueryResult<T>>> futures = new ArrayList<>(sqls.size());
+        for (String sql : sqls) {
+            futures.add(submit(sql, handler));
+        }
+        List<QueryResult<T>> results = new ArrayList<>(sqls.size());
+        for (Future<QueryResult<T>> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                //execute 只返回结果，不会抛出
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    private <T> QueryResult<T> execute(String sql, ResultSetHandler<T> handler, long submitTime) {
+        Connection connection;
+        try {
+            connection = pool.borrow(timeoutMillis > 0 ? timeoutMillis : Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (SQLException e) {
+            return new QueryResult<>(sql, null, -1, e, false, System.currentTimeMillis() - submitTime, 0L);
+        }
+        long start = System.currentTimeMillis();
+        long queueMillis = start - submitTime;
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        T value = null;
+        int updateCount = -1;
+        SQLException error = null;
+        try {
+            final Statement statement = connection.createStatement();
+            ScheduledFuture<?> cancel = null;
+            if (timeoutMillis > 0) {
+                cancel = canceller.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        timedOut.set(true);
+                        try {
+                            statement.cancel();
+                        } catch (SQLException e) {
+                            //语句可能刚好执行完
+                        }
+                    }
+                }, timeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            try {
+                if (statement.execute(sql)) {
+                    try (ResultSet resultSet = statement.getResultSet()) {
+                        value = handler.handle(resultSet);
+                    }
+                } else {
+                    updateCount = statement.getUpdateCount();
+                }
+            } finally {
+                if (cancel != null) {
+                    cancel.cancel(false);
+                }
+                statement.close();
+            }
+            if (timedOut.get()) {
+                //cancel 与语句完成同时发生，结果不可信
+                error = new SQLException("Query timed out after " + timeoutMillis + " ms");
+            }
+        } catch (SQLException e) {
+            error = timedOut.get() ? new SQLException("Query timed out after " + timeoutMillis + " ms", e) : e;
+        } catch (RuntimeException e) {
+            //ResultSetHandler 抛出的异常同样记录在结果中，耗时照常统计
+            error = new SQLException("Result handler failed: " + e, e);
+        } finally {
+            if (timedOut.get()) {
+                pool.invalidate(connection);
+            }
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                //归还到池中不会失败
+            }
+        }
+        long executeMillis = System.currentTimeMillis() - start;
+        latency.record(executeMillis);
+        return new QueryResult<>(sql, error == null ? value : null, updateCount, error, timedOut.get(),
+                queueMillis, executeMillis);
+    }
+
+    /**
+     * 所有已完成语句的执行耗时，单位毫秒
+     */
+    public LatencyHistogram.Snapshot getLatency() {
+        return latency.snapshot();
+    }
+
+    /**
+     * 等待已提交的语句执行完，不关闭连接池
+     */
+    @Override
+    public void close() {
+        workers.shutdown();
+        try {
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        canceller.shutdownNow();
+    }
+}
@@ -0,0 +1,516 @@
+package com.susu;
+
+import org.apache.hadoop.io.Text;
+
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 动态分区 insert 的执行计划，避免分区很多时每个 task 为每个分区打开一个 writer（超过
+ * hive.exec.max.dynamic.partitions(.pernode) 或者内存溢出）：
+ * 1、先执行 select 动态分区字段, count(1) ... group by 动态分区字段，得到分区数和每个分区的行数
+ * 2、分区数不超过 maxWritersPerTask 时直接执行原来的 insert
+ * 3、否则加上 distribute by / sort by 动态分区字段，同一个分区的数据只进入一个 reducer，
+ *    reducer 数按 hive 的 hash 分配方式估算，使每个 reducer 打开的 writer 不超过 maxWritersPerTask
+ * 4、分区数超过 maxPartitionsPerInsert 或 reducer 不够用时，按第一个动态分区字段的值拆成多条 insert，
+ *    每条用 in (...) 只处理一批分区，一个值下的分区仍然太多时再按下一个字段的值拆分；
+ *    insert overwrite 只覆盖写到的分区，拆分后结果不变
+ *
+ * 每一批输出分区数、估算的单个 reducer 最多 writer 数、reducer 数和耗时
+ */
+public class DynamicPartitionPlanner {
+
+    /**
+     * 与 hive.exec.max.dynamic.partitions.pernode 的默认值相同
+     */
+    public static final int DEFAULT_MAX_WRITERS_PER_TASK = 100;
+    /**
+     * 与 hive.exec.max.dynamic.partitions 的默认值相同
+     */
+    public static final int DEFAULT_MAX_PARTITIONS_PER_INSERT = 1000;
+    /**
+     * 与 hive.exec.reducers.max 的默认值相同
+     */
+    public static final int DEFAULT_MAX_REDUCERS = 1009;
+
+    private static final Comparator<List<String>> VALUES_ORDER = new Comparator<List<String>>() {
+        @Override
+        public int compare(List<String> a, List<String> b) {
+            for (int i = 0; i < a.size(); i++) {
+                String x = a.get(i);
+                String y = b.get(i);
+                int c = x == null ? (y == null ? 0 : -1) : (y == null ? 1 : x.compareTo(y));
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        }
+    };
+
+    /**
+     * insert [overwrite] table t partition (静态字段='值', 动态字段) select 列, 动态分区表达式 from 源 [where 条件]
+     */
+    public static class Insert {
+        private final String table;
+        private boolean overwrite = true;
+        private final Map<String, String> staticPartitions = new LinkedHashMap<>();
+        private final Map<String, String> dynamicPartitions = new LinkedHashMap<>();
+        private String columns;
+        private String from;
+        private String where;
+
+        public Insert(String table) {
+            this.table = table;
+        }
+
+        public Insert overwrite(boolean overwrite) {
+            this.overwrite = overwrite;
+            return this;
+        }
+
+        public Insert staticPartition(String column, String value) {
+            staticPartitions.put(column, value);
+            return this;
+        }
+
+        /**
+         * expression 是查询中计算分区值的表达式，如 address.street；按调用顺序对应表的动态分区字段
+         */
+        public Insert dynamicPartition(String column, String expression) {
+            dynamicPartitions.put(column, expression);
+            return this;
+        }
+
+        /**
+         * 非分区列，如 name, salary
+         */
+        public Insert select(String columns) {
+            this.columns = columns;
+            return this;
+        }
+
+        public Insert from(String from) {
+            this.from = from;
+            return this;
+        }
+
+        public Insert where(String where) {
+            this.where = where;
+            return this;
+        }
+
+        List<String> expressions() {
+            return new ArrayList<>(dynamicPartitions.values());
+        }
+
+        String profileSql() {
+            String keys = join(expressions());
+            return "select " + keys + ", count(1) from " + from + (where == null ? "" : " where " + where) + " group by " + keys;
+        }
+
+        String insertSql(String filter, boolean distribute) {
+            StringBuilder sql = new StringBuilder("insert ").append(overwrite ? "overwrite" : "into").append(" table ")
+                    .append(table).append(" partition (");
+            boolean first = true;
+            for (Map.Entry<String, String> entry : staticPartitions.entrySet()) {
+                sql.append(first ? "" : ", ").append(entry.getKey()).append('=').append(BulkLoader.quote(entry.getValue()));
+                first = false;
+            }
+            for (String column : dynamicPartitions.keySet()) {
+                sql.append(first ? "" : ", ").append(column);
+                first = false;
+            }
+            sql.append(") select ").append(columns).append(", ").append(join(expressions())).append(" from ").append(from);
+            if (where != null && filter != null) {
+                sql.append(" where (").append(where).append(") and (").append(filter).append(')');
+            } else if (where != null || filter != null) {
+                sql.append(" where ").append(where != null ? where : filter);
+            }
+            if (distribute) {
+                //sort by 让同一个分区的行在 reducer 内连续，输出文件更整齐
+                sql.append(" distribute by ").append(join(expressions())).append(" sort by ").append(join(expressions()));
+            }
+            return sql.toString();
+        }
+    }
+
+    /**
+     * 每个动态分区的行数，分区值为 null 的行写入 hive 的默认分区
+     */
+    public static class Profile {
+        private final TreeMap<List<String>, Long> rows = new TreeMap<>(VALUES_ORDER);
+        private long millis;
+
+        public Profile add(long count, String... values) {
+            rows.put(Arrays.asList(values), count);
+            return this;
+        }
+
+        public int getPartitions() {
+            return rows.size();
+        }
+
+        public long getRows() {
+            long total = 0L;
+            for (Long count : rows.values()) {
+                total += count;
+            }
+            return total;
+        }
+
+        public long getMaxRows() {
+            return rows.isEmpty() ? 0L : Collections.max(rows.values());
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        Map<List<String>, Long> getRowsByPartition() {
+            return rows;
+        }
+    }
+
+    public static class Batch {
+        private final List<List<String>> partitions;
+        private final long rows;
+        private final int reducers;
+        private final int maxWriters;
+        private final String sql;
+        private final List<String> settings;
+        private long millis;
+        private SQLException error;
+
+        Batch(List<List<String>> partitions, long rows, int reducers, int maxWriters, String sql, List<String> settings) {
+            this.partitions = partitions;
+            this.rows = rows;
+            this.reducers = reducers;
+            this.maxWriters = maxWriters;
+            this.sql = sql;
+            this.settings = settings;
+        }
+
+        public int getPartitions() {
+            return partitions.size();
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * 0 表示不加 distribute by，由 hive 自己决定
+         */
+        public int getReducers() {
+            return reducers;
+        }
+
+        /**
+         * 估算的单个 task 同时打开的 writer 数
+         */
+        public int getMaxWriters() {
+            return maxWriters;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * 执行 insert 前在同一个会话中执行的 set 语句
+         */
+        public List<String> getSettings() {
+            return settings;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        public SQLException getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "partitions=%d rows=%d reducers=%d maxWriters=%d millis=%d%s",
+                    partitions.size(), rows, reducers, maxWriters, millis, error == null ? "" : " error=" + error.getMessage());
+        }
+    }
+
+    private int maxWritersPerTask = DEFAULT_MAX_WRITERS_PER_TASK;
+    private int maxPartitionsPerInsert = DEFAULT_MAX_PARTITIONS_PER_INSERT;
+    private int maxReducers = DEFAULT_MAX_REDUCERS;
+    private PrintStream progress = System.err;
+
+    public DynamicPartitionPlanner setMaxWritersPerTask(int maxWritersPerTask) {
+        this.maxWritersPerTask = maxWritersPerTask;
+        return this;
+    }
+
+    public DynamicPartitionPlanner setMaxPartitionsPerInsert(int maxPartitionsPerInsert) {
+        this.maxPartitionsPerInsert = maxPartitionsPerInsert;
+        return this;
+    }
+
+    public DynamicPartitionPlanner setMaxReducers(int maxReducers) {
+        this.maxReducers = maxReducers;
+        return this;
+    }
+
+    /**
+     * progress 为 null 时不输出每一批的结果
+     */
+    public DynamicPartitionPlanner setProgress(PrintStream progress) {
+        this.progress = progress;
+        return this;
+    }
+
+    /**
+     * 统计、拆分并执行，任何一批失败时停止并抛出异常，已执行的批次不回滚
+     */
+    public List<Batch> run(Connection connection, Insert insert) throws SQLException {
+        Profile profile = profile(connection, insert);
+        if (progress != null) {
+            progress.println(String.format(Locale.ROOT, "profiled partitions=%d rows=%d maxRows=%d millis=%d",
+                    profile.getPartitions(), profile.getRows(), profile.getMaxRows(), profile.getMillis()));
+        }
+        List<Batch> batches = plan(insert, profile);
+        execute(connection, batches);
+        return batches;
+    }
+
+    public Profile profile(Connection connection, Insert insert) throws SQLException {
+        long start = System.currentTimeMillis();
+        Profile profile = new Profile();
+        int keys = insert.dynamicPartitions.size();
+        try (Statement statement = connection.createStatement()) {
+            statement.setFetchSize(10000);
+            try (ResultSet rs = statement.executeQuery(insert.profileSql())) {
+                while (rs.next()) {
+                    String[] values = new String[keys];
+                    for (int i = 0; i < keys; i++) {
+                        values[i] = rs.getString(i + 1);
+                    }
+                    profile.add(rs.getLong(keys + 1), values);
+                }
+            }
+        }
+        profile.millis = System.currentTimeMillis() - start;
+        return profile;
+    }
+
+    public List<Batch> plan(Insert insert, Profile profile) {
+        if (insert.dynamicPartitions.isEmpty()) {
+            throw new IllegalArgumentException("No dynamic partition column");
+        }
+        List<Batch> batches = new ArrayList<>();
+        Map<List<String>, Long> rows = profile.getRowsByPartition();
+        if (rows.size() <= maxWritersPerTask) {
+            batches.add(new Batch(new ArrayList<>(rows.keySet()), profile.getRows(), 0, rows.size(),
+                    insert.insertSql(null, false), settings(insert, 0, rows.size(), rows.size())));
+            return batches;
+        }
+        int batchSize = Math.min(maxPartitionsPerInsert, maxWritersPerTask * maxReducers);
+        List<Group> groups = split(new ArrayList<>(rows.keySet()), 0, batchSize);
+        for (Group group : groups) {
+            addBatches(insert, rows, group, groups.size() == 1, batches);
+        }
+        return batches;
+    }
+
+    /**
+     * reducer 数达到 maxReducers 后估算的 writer 数仍超过 maxWritersPerTask 时，把这一批再对半拆分
+     */
+    private void addBatches(Insert insert, Map<List<String>, Long> rows, Group group, boolean whole, List<Batch> batches) {
+        int reducers = reducers(group.partitions);
+        int maxWriters = maxWriters(group.partitions, reducers);
+        if (maxWriters > maxWritersPerTask && group.partitions.size() > 1) {
+            for (Group half : split(group.partitions, group.depth, (group.partitions.size() + 1) / 2)) {
+                addBatches(insert, rows, half, false, batches);
+            }
+            return;
+        }
+        long groupRows = 0L;
+        for (List<String> partition : group.partitions) {
+            groupRows += rows.get(partition);
+        }
+        String filter = whole ? null : filter(insert.expressions(), group);
+        batches.add(new Batch(group.partitions, groupRows, reducers, maxWriters, insert.insertSql(filter, true),
+                settings(insert, reducers, maxWriters, group.partitions.size())));
+    }
+
+    /**
+     * 一批分区：前 depth 个动态分区字段的值都相同，按第 depth 个字段的值用 in (...) 过滤
+     */
+    private static class Group {
+        private final List<List<String>> partitions = new ArrayList<>();
+        private final int depth;
+
+        Group(int depth) {
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * 按第 depth 个动态分区字段的值切分，同一个值的分区总在同一批；一个值下的分区数超过 batchSize 时
+     * 再按下一个字段的值切分。partitions 按 VALUES_ORDER 排序，前 depth 个字段的值相同
+     */
+    private static List<Group> split(List<List<String>> partitions, int depth, int batchSize) {
+        List<Group> groups = new ArrayList<>();
+        Group current = new Group(depth);
+        int start = 0;
+        while (start < partitions.size()) {
+            int end = start + 1;
+            while (end < partitions.size() && VALUES_ORDER.compare(partitions.get(start).subList(depth, depth + 1),
+                    partitions.get(end).subList(depth, depth + 1)) == 0) {
+                end++;
+            }
+            List<List<String>> sameValue = partitions.subList(start, end);
+            if (sameValue.size() > batchSize && depth + 1 < sameValue.get(0).size()) {
+                if (!current.partitions.isEmpty()) {
+                    groups.add(current);
+                    current = new Group(depth);
+                }
+                groups.addAll(split(sameValue, depth + 1, batchSize));
+            } else {
+                if (!current.partitions.isEmpty() && current.partitions.size() + sameValue.size() > batchSize) {
+                    groups.add(current);
+                    current = new Group(depth);
+                }
+                current.partitions.addAll(sameValue);
+            }
+            start = end;
+        }
+        if (!current.partitions.isEmpty()) {
+            groups.add(current);
+        }
+        return groups;
+    }
+
+    private static String filter(List<String> expressions, Group group) {
+        StringBuilder filter = new StringBuilder();
+        List<String> first = group.partitions.get(0);
+        for (int i = 0; i < group.depth; i++) {
+            String value = first.get(i);
+            filter.append(expressions.get(i)).append(value == null ? " is null" : " = " + BulkLoader.quote(value)).append(" and ");
+        }
+        String expression = expressions.get(group.depth);
+        StringBuilder in = new StringBuilder();
+        boolean hasNull = false;
+        String last = null;
+        for (List<String> partition : group.partitions) {
+            String value = partition.get(group.depth);
+            if (value == null) {
+                hasNull = true;
+            } else if (!value.equals(last)) {
+                in.append(in.length() == 0 ? "" : ", ").append(BulkLoader.quote(value));
+                last = value;
+            }
+        }
+        if (in.length() == 0) {
+            return filter.append(expression).append(" is null").toString();
+        }
+        if (!hasNull) {
+            return filter.append(expression).append(" in (").append(in).append(')').toString();
+        }
+        String condition = expression + " in (" + in + ") or " + expression + " is null";
+        return group.depth == 0 ? condition : filter.append('(').append(condition).append(')').toString();
+    }
+
+    /**
+     * 最少的 reducer 数，使按 hash 分配后每个 reducer 的分区数不超过 maxWritersPerTask
+     */
+    int reducers(List<List<String>> partitions) {
+        int limit = Math.min(maxReducers, partitions.size());
+        for (int reducers = Math.max(1, (partitions.size() + maxWritersPerTask - 1) / maxWritersPerTask); reducers < limit; reducers++) {
+            if (maxWriters(partitions, reducers) <= maxWritersPerTask) {
+                return reducers;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * 按 ReduceSinkOperator 的方式计算 hash（string 的 hash 与 Text 相同，多列时 h * 31 + hash），
+     * 再取 (hash & Integer.MAX_VALUE) % reducers；分区字段不是 string 时 hash 不同，只是估算
+     */
+    static int maxWriters(List<List<String>> partitions, int reducers) {
+        if (reducers <= 0) {
+            return partitions.size();
+        }
+        int[] writers = new int[reducers];
+        int max = 0;
+        for (List<String> partition : partitions) {
+            int hash = 0;
+            for (String value : partition) {
+                hash = hash * 31 + (value == null ? 0 : new Text(value).hashCode());
+            }
+            int reducer = (hash & Integer.MAX_VALUE) % reducers;
+            max = Math.max(max, ++writers[reducer]);
+        }
+        return max;
+    }
+
+    private List<String> settings(Insert insert, int reducers, int maxWriters, int partitions) {
+        List<String> settings = new ArrayList<>();
+        settings.add("set hive.exec.dynamic.partition=true");
+        if (insert.staticPartitions.isEmpty()) {
+            settings.add("set hive.exec.dynamic.partition.mode=nonstrict");
+        }
+        settings.add("set hive.exec.max.dynamic.partitions="
+                + Math.max(Math.max(DEFAULT_MAX_PARTITIONS_PER_INSERT, maxPartitionsPerInsert), partitions));
+        settings.add("set hive.exec.max.dynamic.partitions.pernode=" + Math.max(maxWritersPerTask, maxWriters));
+        if (reducers > 0) {
+            settings.add("set mapreduce.job.reduces=" + reducers);
+        }
+        return settings;
+    }
+
+    /**
+     * 在同一个连接上依次执行，set 语句只对当前会话生效
+     */
+    public void execute(Connection connection, List<Batch> batches) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (int i = 0; i < batches.size(); i++) {
+                Batch batch = batches.get(i);
+                long start = System.currentTimeMillis();
+                try {
+                    for (String setting : batch.settings) {
+                        statement.execute(setting);
+                    }
+                    statement.execute(batch.sql);
+                } catch (SQLException e) {
+                    batch.error = e;
+                    throw e;
+                } finally {
+                    batch.millis = System.currentTimeMillis() - start;
+                    if (progress != null) {
+                        progress.println("batch " + (i + 1) + "/" + batches.size() + " " + batch);
+                    }
+                }
+            }
+        }
+    }
+
+    private static String join(List<String> values) {
+        StringBuilder sb = new StringBuilder();
+        for (String value : values) {
+            sb.append(sb.length() == 0 ? "" : ", ").append(value);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,297 @@
+package com.susu;
+
+import java.io.Closeable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HiveServer2 的 JDBC 连接池
+ * 1、最多 maxSize 个连接同时被借出，超过时 borrow 等待，超时抛出 SQLException
+ * 2、空闲连接后进先出，最近用过的连接先被借出；空闲超过 maxIdleMillis 的连接由后台线程关闭
+ * 3、空闲超过 validationIntervalMillis 的连接借出前执行一次 validationQuery，失败则关闭并换下一个
+ *    （hive-jdbc 1.2 的 Connection.isValid 不支持，只能用查询校验）
+ *
+ * borrow 返回的 Connection 调用 close() 时归还到池中，不会真正关闭；
+ * 连接状态不确定时（如查询被 cancel）先调用 invalidate，close() 时直接关闭
+ */
+public class HiveConnectionPool implements Closeable {
+
+    public static final long DEFAULT_MAX_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    public static final long DEFAULT_VALIDATION_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    public static final String DEFAULT_VALIDATION_QUERY = "select 1";
+
+    /**
+     * 创建物理连接
+     */
+    public interface ConnectionFactory {
+        Connection connect() throws SQLException;
+    }
+
+    private static class Entry {
+        final Connection connection;
+        long lastUsed;
+
+        Entry(Connection connection) {
+            this.connection = connection;
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    private final ConnectionFactory factory;
+    private final int maxSize;
+    private final long maxIdleMillis;
+    private final String validationQuery;
+    private final long validationIntervalMillis;
+
+    private final Semaphore permits;
+    /**
+     * 头部是最近归还的连接
+     */
+    private final LinkedBlockingDeque<Entry> idle = new LinkedBlockingDeque<>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+
+    public HiveConnectionPool(ConnectionFactory factory, int maxSize) {
+        this(factory, maxSize, DEFAULT_MAX_IDLE_MILLIS, DEFAULT_VALIDATION_QUERY, DEFAULT_VALIDATION_INTERVAL_MILLIS);
+    }
+
+    /**
+     * validationQuery 为 null 时不校验
+     */
+    public HiveConnectionPool(ConnectionFactory factory, int maxSize, long maxIdleMillis,
+                              String validationQuery, long validationIntervalMillis) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        this.factory = factory;
+        this.maxSize = maxSize;
+        this.maxIdleMillis = maxIdleMillis;
+        this.validationQuery = validationQuery;
+        this.validationIntervalMillis = validationIntervalMillis;
+        this.permits = new Semaphore(maxSize, true);
+        this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "hive-pool-evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(1L, Math.min(maxIdleMillis / 2, TimeUnit.MINUTES.toMillis(1)));
+        this.evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evictIdle();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 用 DriverManager 创建连接，如 jdbc:hive2://alinode01:10000/testdb
+     */
+    public static ConnectionFactory driverManager(final String url, final String user, final String password) {
+        return new ConnectionFactory() {
+            @Override
+            public Connection connect() throws SQLException {
+                return DriverManager.getConnection(url, user, password);
+            }
+        };
+    }
+
+    public Connection borrow(long timeout, TimeUnit unit) throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        try {
+            if (!permits.tryAcquire(timeout, unit)) {
+                throw new SQLException("Timed out waiting for a connection after " + unit.toMillis(timeout)
+                        + " ms, pool size " + maxSize);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        try {
+            Entry entry;
+            while ((entry = idle.pollFirst()) != null) {
+                if (validate(entry)) {
+                    return wrap(entry);
+                }
+                destroy(entry);
+            }
+            entry = new Entry(factory.connect());
+            created.incrementAndGet();
+            return wrap(entry);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 标记连接已不可用，close() 时关闭物理连接而不是归还
+     */
+    public void invalidate(Connection connection) {
+        if (Proxy.isProxyClass(connection.getClass())
+                && Proxy.getInvocationHandler(connection) instanceof PooledHandler) {
+            ((PooledHandler) Proxy.getInvocationHandler(connection)).broken = true;
+        }
+    }
+
+    private boolean validate(Entry entry) {
+        try {
+            if (entry.connection.isClosed()) {
+                return false;
+            }
+            if (validationQuery == null || System.currentTimeMillis() - entry.lastUsed < validationIntervalMillis) {
+                return true;
+            }
+            try (Statement statement = entry.connection.createStatement()) {
+                statement.execute(validationQuery);
+            }
+            return true;
+        } catch (SQLException e) {
+            validationFailures.incrementAndGet();
+            return false;
+        }
+    }
+
+    private Connection wrap(Entry entry) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new PooledHandler(entry));
+    }
+
+    private void release(Entry entry, boolean broken) {
+        try {
+            if (broken || closed) {
+                destroy(entry);
+            } else {
+                entry.lastUsed = System.currentTimeMillis();
+                idle.offerFirst(entry);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void destroy(Entry entry) {
+        destroyed.incrementAndGet();
+        try {
+            entry.connection.close();
+        } catch (SQLException e) {
+            //连接已经不可用，忽略
+        }
+    }
+
+    /**
+     * 从尾部（最久没有使用）开始关闭空闲超时的连接
+     */
+    void evictIdle() {
+        long deadline = System.currentTimeMillis() - maxIdleMillis;
+        Iterator<Entry> it = idle.descendingIterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.lastUsed > deadline) {
+                break;
+            }
+            //与 borrow 并发时只有一方能移除成功
+            if (idle.removeLastOccurrence(entry)) {
+                destroy(entry);
+            }
+        }
+    }
+
+    public int getActive() {
+        return maxSize - permits.availablePermits();
+    }
+
+    public int getIdle() {
+        return idle.size();
+    }
+
+    public long getCreated() {
+        return created.get();
+    }
+
+    public long getDestroyed() {
+        return destroyed.get();
+    }
+
+    public long getValidationFailures() {
+        return validationFailures.get();
+    }
+
+    /**
+     * 关闭空闲连接，借出的连接归还时关闭
+     */
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        Entry entry;
+        while ((entry = idle.pollFirst()) != null) {
+            destroy(entry);
+        }
+    }
+
+    /**
+     * 借出的连接：close() 归还，重复 close() 无效果，其它方法转给物理连接
+     */
+    private class PooledHandler implements InvocationHandler {
+        private final Entry entry;
+        private final AtomicBoolean returned = new AtomicBoolean();
+        volatile boolean broken;
+
+        PooledHandler(Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    //多个线程同时 close 时只归还一次
+                    if (returned.compareAndSet(false, true)) {
+                        release(entry, broken);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned.get() || entry.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled(" + entry.connection + ")";
+                default:
+                    if (returned.get()) {
+                        throw new SQLException("Connection has been returned to the pool");
+                    }
+                    try {
+                        return method.invoke(entry.connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+}
@@ -1,10 +1,15 @@
 package com.susu;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
 import java.sql.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class HiveOption {
 
@@ -15,6 +20,10 @@ public class HiveOption {
     private static Statement state = null;
     private static ResultSet res = null;
 
+    //分区列表缓存，几十万分区的表不必每次都 show partitions
+    private static final PartitionCache partitions =
+            new PartitionCache(PartitionCache.jdbc(HiveConnectionPool.driverManager(url, "root", "")));
+
     //加载驱动,创建连接
     @Before
     public void init() throws ClassNotFoundException, SQLException {
@@ -108,6 +117,13 @@ public class HiveOption {
         }
     }
 
+    // 导出查询结果（数据量大时代替逐行 getString 打印）
+    @Test
+    public void exportTab() throws Exception {
+        new ResultExporter().export(con, "select * from student1", ResultExporter.Format.CSV,
+                new File(System.getProperty("java.io.tmpdir"), "student1.csv"));
+    }
+
     // 统计查询（会运行mapreduce作业，资源开销较大）
     @Test
     public void countData() throws SQLException {
@@ -197,29 +213,47 @@ public class HiveOption {
     @Test
     public void addPartition() throws SQLException {
         state.execute("alter table emp add partition(city='shanghai',street='jinkelu') ");
+        partitions.added("emp", empPartition("shanghai", "jinkelu"));
     }
 
     //查看分区表信息
     @Test
     public void showPartition() throws SQLException {
 //        res=state.executeQuery("select * from emp");
-        res = state.executeQuery("show partitions emp");
-        while (res.next()) {
-            System.out.println(res.getString(1));
+        for (String name : partitions.getPartitions("emp")) {
+            System.out.println(name);
         }
     }
 
+    private static Map<String, String> empPartition(String city, String street) {
+        Map<String, String> spec = new LinkedHashMap<>();
+        spec.put("city", city);
+        spec.put("street", street);
+        return spec;
+    }
+
     //插入数据
     @Test
     public void loadParData() throws SQLException {
         String filepath = " '/root/emp' ";
         state.execute("load data local inpath " + filepath + " overwrite into table emp partition (city='shanghai',street='jinkelu')");
+        partitions.added("emp", empPartition("shanghai", "jinkelu"));
+    }
+
+    //批量插入数据：/root/emp_all 下按 city=xx/street=xx 目录存放文件，并行压缩后每个分区 load 一次
+    @Test
+    public void bulkLoadParData() throws Exception {
+        try (HiveConnectionPool pool = new HiveConnectionPool(HiveConnectionPool.driverManager(url, "root", ""), 4);
+             ConcurrentQueryExecutor executor = new ConcurrentQueryExecutor(pool, 4, 600000L)) {
+            new BulkLoader(executor, new Configuration()).load(new Path("file:///root/emp_all"), "emp");
+        }
     }
 
     //删除分区表
     @Test
     public void dropPartition() throws SQLException {
         state.execute("alter   table employees drop partition (city='shanghai',street='jinkelu') ");
+        partitions.dropped("employees", empPartition("shanghai", "jinkelu"));
         /*
         *
         * 1，把一个分区打包成一个har包
@@ -272,6 +306,16 @@ public class HiveOption {
                 "select name,salary,subordinate,deductions,address,address.street from emp");
     }
 
+    //分区很多时先统计分区数，再加 distribute by 或拆成多条 insert，限制每个 task 打开的 writer 数
+    @Test
+    public void loadPartitionDataPlanned() throws SQLException {
+        new DynamicPartitionPlanner().run(con, new DynamicPartitionPlanner.Insert("emp1")
+                .staticPartition("city", "shanghai")
+                .dynamicPartition("street", "address.street")
+                .select("name,salary,subordinate,deductions,address")
+                .from("emp"));
+    }
+
 
     // 释放资源
     @After
@@ -1,9 +1,10 @@
 package com.susu;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.ResultSet;
-import java.sql.Statement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class JdbcApp {
     private static String driverName = "org.apache.hive.jdbc.HiveDriver";
@@ -16,23 +17,42 @@ public class JdbcApp {
             e.printStackTrace();
             System.exit(1);
         }
-        Connection con = DriverManager.getConnection("jdbc:hive2://alinode01:10000/testdb", "root", "");
-        Statement stmt = con.createStatement();
+        //连接池最多 4 个连接，4 条语句同时执行，每条最多 10 分钟
+        try (HiveConnectionPool pool = new HiveConnectionPool(
+                HiveConnectionPool.driverManager("jdbc:hive2://alinode01:10000/testdb", "root", ""), 4);
+             ConcurrentQueryExecutor executor = new ConcurrentQueryExecutor(pool, 4, 10 * 60 * 1000L)) {
 
-       //select table:ename
-        String tableName = "tb1";
-        String sql = "select name from " + tableName;
-        System.out.println("Running: " + sql);
-        ResultSet res = stmt.executeQuery(sql);
-         while(res.next()) {
-            System.out.println(res.getString(1));
-        }
-        // describe table
-        sql = "describe " + tableName;
-        System.out.println("Running: " + sql);
-        res = stmt.executeQuery(sql);
-        while (res.next()) {
-            System.out.println(res.getString(1) + "\t" + res.getString(2));
+            //select table:ename、describe table
+            String tableName = "tb1";
+            List<String> sqls = Arrays.asList("select name from " + tableName, "describe " + tableName);
+            List<ConcurrentQueryExecutor.QueryResult<List<String>>> results = executor.runAll(sqls,
+                    new ConcurrentQueryExecutor.ResultSetHandler<List<String>>() {
+                        @Override
+                        public List<String> handle(ResultSet res) throws SQLException {
+                            int columns = res.getMetaData().getColumnCount();
+                            List<String> rows = new ArrayList<>();
+                            while (res.next()) {
+                                StringBuilder row = new StringBuilder().append(res.getString(1));
+                                for (int i = 2; i <= columns; i++) {
+                                    row.append('\t').append(res.getString(i));
+                                }
+                                rows.add(row.toString());
+                            }
+                            return rows;
+                        }
+                    });
+            for (ConcurrentQueryExecutor.QueryResult<List<String>> result : results) {
+                System.out.println("Running: " + result);
+                if (!result.isSuccess()) {
+                    result.getError().printStackTrace();
+                    continue;
+                }
+                for (String row : result.getValue()) {
+                    System.out.println(row);
+                }
+            }
+            System.out.println("p50=" + executor.getLatency().getPercentile(0.5)
+                    + "ms p99=" + executor.getLatency().getPercentile(0.99) + "ms");
         }
     }
-}
\ No newline at end of file
+}
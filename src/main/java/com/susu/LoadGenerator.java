@@ -0,0 +1,421 @@
+package com.susu;
+
+import com.susu.util.LatencyHistogram;
+import com.susu.util.StripedCounter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * HiveServer2 压测工具：按文件中的查询组合，通过 HiveConnectionPool 和 ConcurrentQueryExecutor 持续发送查询
+ * 1、open（开环）：按固定的到达速率 rate 发送，不等上一条完成；延迟从计划的发送时间算起，服务端变慢时排队时间也计入，
+ *    不会因为发送端被阻塞而低估延迟；未完成的语句超过 maxOutstanding 时新的语句直接计为 rejected
+ * 2、closed（闭环）：concurrency 个客户端，每个执行完一条再发下一条
+ * 每条查询按名称分别记录延迟直方图、错误数和超时数，结束时输出吞吐、p50/p99/p999 和错误率；warmup 期间发出的查询不计入
+ *
+ * 查询文件每行一条语句，# 开头的行是注释，可以带名称和权重（tab 分隔）：
+ * select count(*) from emp
+ * 3	select * from emp where deptno = 10
+ * top_dept	1	select deptno, max(sal) from emp group by deptno
+ *
+ * 运行：java com.susu.LoadGenerator --url jdbc:hive2://alinode01:10000/testdb --user root --queries mix.sql
+ *          --mode open --rate 20 --duration 60 --warmup 10 [--concurrency 64] [--timeout 600] [--poisson]
+ * 离线运行时 --url jdbc:stub:?latency=50&jitter=20&errorRate=0.01，见 StubDriver
+ */
+public class LoadGenerator {
+
+    public enum Mode {
+        OPEN, CLOSED
+    }
+
+    /**
+     * 带权重的查询组合
+     */
+    public static class QueryMix {
+        private final List<String> names = new ArrayList<>();
+        private final List<String> sqls = new ArrayList<>();
+        private final List<Long> cumulative = new ArrayList<>();
+        private long totalWeight;
+
+        public static QueryMix load(File file) throws IOException {
+            return parse(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+        }
+
+        public static QueryMix parse(List<String> lines) {
+            QueryMix mix = new QueryMix();
+            for (String line : lines) {
+                if (line.trim().isEmpty() || line.trim().startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\t", 3);
+                String name = "q" + (mix.sqls.size() + 1);
+                long weight = 1L;
+                String sql = line.trim();
+                if (fields.length == 2 && isNumber(fields[0])) {
+                    weight = Long.parseLong(fields[0].trim());
+                    sql = fields[1].trim();
+                } else if (fields.length == 3 && isNumber(fields[1])) {
+                    name = fields[0].trim();
+                    weight = Long.parseLong(fields[1].trim());
+                    sql = fields[2].trim();
+                }
+                mix.add(name, weight, sql);
+            }
+            if (mix.sqls.isEmpty()) {
+                throw new IllegalArgumentException("No queries in the query mix");
+            }
+            return mix;
+        }
+
+        private static boolean isNumber(String s) {
+            return s.trim().matches("[0-9]+");
+        }
+
+        public QueryMix add(String name, long weight, String sql) {
+            if (weight <= 0) {
+                throw new IllegalArgumentException("Weight must be positive: " + name);
+            }
+            totalWeight += weight;
+            names.add(name);
+            sqls.add(sql);
+            cumulative.add(totalWeight);
+            return this;
+        }
+
+        /**
+         * 按权重随机选一条，返回下标
+         */
+        int pick(Random random) {
+            long r = (long) (random.nextDouble() * totalWeight);
+            int low = 0;
+            int high = cumulative.size() - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (cumulative.get(mid) > r) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low;
+        }
+
+        String name(int i) {
+            return names.get(i);
+        }
+
+        String sql(int i) {
+            return sqls.get(i);
+        }
+
+        int size() {
+            return sqls.size();
+        }
+    }
+
+    /**
+     * 一条查询（或全部查询）的统计，延迟单位毫秒，只记录成功的查询
+     */
+    public static class QueryStats {
+        private final String name;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final StripedCounter errors = new StripedCounter();
+        private final StripedCounter timeouts = new StripedCounter();
+        private final StripedCounter rejected = new StripedCounter();
+
+        QueryStats(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public LatencyHistogram.Snapshot getLatency() {
+            return latency.snapshot();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public long getTimeouts() {
+            return timeouts.sum();
+        }
+
+        public long getRejected() {
+            return rejected.sum();
+        }
+
+        /**
+         * 成功、失败和被拒绝的总数
+         */
+        public long getCount() {
+            return latency.snapshot().getCount() + getErrors() + getRejected();
+        }
+
+        public double getErrorRate() {
+            long count = getCount();
+            return count == 0 ? 0.0 : (double) (getErrors() + getRejected()) / count;
+        }
+    }
+
+    public static class Report {
+        private final Mode mode;
+        private final long measuredMillis;
+        private final Map<String, QueryStats> queries;
+        private final QueryStats total;
+
+        Report(Mode mode, long measuredMillis, Map<String, QueryStats> queries, QueryStats total) {
+            this.mode = mode;
+            this.measuredMillis = measuredMillis;
+            this.queries = queries;
+            this.total = total;
+        }
+
+        public Map<String, QueryStats> getQueries() {
+            return queries;
+        }
+
+        public QueryStats getTotal() {
+            return total;
+        }
+
+        /**
+         * 计入统计的查询数除以测量时间（不含 warmup），单位 条/秒
+         */
+        public double getThroughput() {
+            return total.getCount() * 1000.0 / Math.max(1L, measuredMillis);
+        }
+
+        public void print(PrintStream out) {
+            out.println(String.format(Locale.ROOT, "mode=%s seconds=%.1f count=%d throughput=%.2f/s errors=%.2f%%",
+                    mode.name().toLowerCase(Locale.ROOT), measuredMillis / 1000.0, total.getCount(), getThroughput(),
+                    total.getErrorRate() * 100));
+            out.println(String.format(Locale.ROOT, "%-20s %8s %8s %8s %8s %8s %8s %8s %8s %8s",
+                    "query", "count", "errors", "timeout", "reject", "p50(ms)", "p99", "p999", "max", "mean"));
+            for (QueryStats stats : queries.values()) {
+                print(out, stats);
+            }
+            print(out, total);
+        }
+
+        private static void print(PrintStream out, QueryStats stats) {
+            LatencyHistogram.Snapshot latency = stats.getLatency();
+            out.println(String.format(Locale.ROOT, "%-20s %8d %8d %8d %8d %8d %8d %8d %8d %8d",
+                    stats.getName(), stats.getCount(), stats.getErrors(), stats.getTimeouts(), stats.getRejected(),
+                    latency.getPercentile(0.5), latency.getPercentile(0.99), latency.getPercentile(0.999),
+                    latency.getMax(), latency.getMean()));
+        }
+    }
+
+    private Mode mode = Mode.CLOSED;
+    private double rate = 10.0;
+    private boolean poisson;
+    private int concurrency = 8;
+    private int maxOutstanding = 10000;
+    private long durationMillis = TimeUnit.MINUTES.toMillis(1);
+    private long warmupMillis;
+    private long timeoutMillis = TimeUnit.MINUTES.toMillis(10);
+
+    public LoadGenerator setMode(Mode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    /**
+     * 开环的到达速率，条/秒；poisson 为 true 时到达间隔服从指数分布，否则均匀间隔
+     */
+    public LoadGenerator setRate(double rate, boolean poisson) {
+        this.rate = rate;
+        this.poisson = poisson;
+        return this;
+    }
+
+    /**
+     * 闭环的客户端数；开环时是同时执行的最大语句数（连接池大小）
+     */
+    public LoadGenerator setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    public LoadGenerator setMaxOutstanding(int maxOutstanding) {
+        this.maxOutstanding = maxOutstanding;
+        return this;
+    }
+
+    public LoadGenerator setDuration(long durationMillis, long warmupMillis) {
+        this.durationMillis = durationMillis;
+        this.warmupMillis = warmupMillis;
+        return this;
+    }
+
+    public LoadGenerator setTimeout(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    /**
+     * 运行 duration（含 warmup），等待所有已发出的查询完成后返回
+     */
+    public Report run(HiveConnectionPool pool, final QueryMix mix) throws InterruptedException {
+        final Map<String, QueryStats> queries = new LinkedHashMap<>();
+        final QueryStats[] byIndex = new QueryStats[mix.size()];
+        Map<String, QueryStats> byName = new HashMap<>();
+        for (int i = 0; i < mix.size(); i++) {
+            QueryStats stats = byName.get(mix.name(i));
+            if (stats == null) {
+                stats = new QueryStats(mix.name(i));
+                byName.put(mix.name(i), stats);
+                queries.put(mix.name(i), stats);
+            }
+            byIndex[i] = stats;
+        }
+        final QueryStats total = new QueryStats("ALL");
+        final long start = System.nanoTime();
+        final long measureFrom = start + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+        final long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+
+        try (final ConcurrentQueryExecutor executor = new ConcurrentQueryExecutor(pool, concurrency, timeoutMillis)) {
+            if (mode == Mode.OPEN) {
+                runOpen(executor, mix, byIndex, total, measureFrom, end);
+            } else {
+                runClosed(executor, mix, byIndex, total, measureFrom, end);
+            }
+        }
+        return new Report(mode, TimeUnit.NANOSECONDS.toMillis(end - measureFrom), queries, total);
+    }
+
+    private void runOpen(ConcurrentQueryExecutor executor, QueryMix mix, QueryStats[] byIndex, QueryStats total,
+                         long measureFrom, long end) {
+        Random random = ThreadLocalRandom.current();
+        double intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        double next = System.nanoTime();
+        while (next < end) {
+            long intended = (long) next;
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            int query = mix.pick(random);
+            if (executor.getPending() >= maxOutstanding) {
+                if (intended >= measureFrom) {
+                    byIndex[query].rejected.increment();
+                    total.rejected.increment();
+                }
+            } else {
+                executor.submit(mix.sql(query), ConcurrentQueryExecutor.ROW_COUNT,
+                        recorder(byIndex[query], total, intended, measureFrom));
+            }
+            next += poisson ? -Math.log(1.0 - random.nextDouble()) * intervalNanos : intervalNanos;
+        }
+    }
+
+    private void runClosed(final ConcurrentQueryExecutor executor, final QueryMix mix, final QueryStats[] byIndex,
+                           final QueryStats total, final long measureFrom, final long end) throws InterruptedException {
+        Thread[] clients = new Thread[concurrency];
+        for (int c = 0; c < clients.length; c++) {
+            clients[c] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = ThreadLocalRandom.current();
+                    long intended;
+                    while ((intended = System.nanoTime()) < end) {
+                        int query = mix.pick(random);
+                        try {
+                            executor.submit(mix.sql(query), ConcurrentQueryExecutor.ROW_COUNT,
+                                    recorder(byIndex[query], total, intended, measureFrom)).get();
+                        } catch (InterruptedException e) {
+                            return;
+                        } catch (ExecutionException e) {
+                            //ROW_COUNT 不会抛出异常，语句的错误在 QueryResult 中
+                            throw new IllegalStateException(e.getCause());
+                        }
+                    }
+                }
+            }, "load-client-" + c);
+            clients[c].start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+    }
+
+    /**
+     * 从计划的发送时间到完成的时间
+     */
+    private static ConcurrentQueryExecutor.ResultListener<Long> recorder(final QueryStats stats, final QueryStats total,
+                                                                       final long intended, long measureFrom) {
+        if (intended < measureFrom) {
+            return null;
+        }
+        return new ConcurrentQueryExecutor.ResultListener<Long>() {
+            @Override
+            public void onResult(ConcurrentQueryExecutor.QueryResult<Long> result) {
+                if (result.isSuccess()) {
+                    long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - intended);
+                    stats.latency.record(millis);
+                    total.latency.record(millis);
+                } else {
+                    stats.errors.increment();
+                    total.errors.increment();
+                    if (result.isTimedOut()) {
+                        stats.timeouts.increment();
+                        total.timeouts.increment();
+                    }
+                }
+            }
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            }
+            String key = args[i].substring(2);
+            boolean flag = i + 1 >= args.length || args[i + 1].startsWith("--");
+            options.put(key, flag ? "true" : args[++i]);
+        }
+        if (!options.containsKey("url") || !options.containsKey("queries")) {
+            System.err.println("Usage: LoadGenerator --url <jdbc url> --queries <file> [--user root] [--password ''] "
+                    + "[--mode open|closed] [--rate 10] [--poisson] [--concurrency 8] [--duration 60] [--warmup 0] [--timeout 600]");
+            System.exit(1);
+        }
+        String url = options.get("url");
+        Class.forName(url.startsWith(StubDriver.PREFIX) ? StubDriver.class.getName() : "org.apache.hive.jdbc.HiveDriver");
+        int concurrency = Integer.parseInt(value(options, "concurrency", "8"));
+        LoadGenerator generator = new LoadGenerator()
+                .setMode(Mode.valueOf(value(options, "mode", "closed").toUpperCase(Locale.ROOT)))
+                .setRate(Double.parseDouble(value(options, "rate", "10")), options.containsKey("poisson"))
+                .setConcurrency(concurrency)
+                .setDuration(TimeUnit.SECONDS.toMillis(Long.parseLong(value(options, "duration", "60"))),
+                        TimeUnit.SECONDS.toMillis(Long.parseLong(value(options, "warmup", "0"))))
+                .setTimeout(TimeUnit.SECONDS.toMillis(Long.parseLong(value(options, "timeout", "600"))));
+        try (HiveConnectionPool pool = new HiveConnectionPool(HiveConnectionPool.driverManager(url,
+                value(options, "user", "root"), value(options, "password", "")), concurrency)) {
+            generator.run(pool, QueryMix.load(new File(options.get("queries")))).print(System.out);
+        }
+    }
+
+    private static String value(Map<String, String> options, String key, String defaultValue) {
+        String value = options.get(key);
+        return value == null ? defaultValue : value;
+    }
+}
@@ -0,0 +1,452 @@
+package com.susu;
+
+import org.apache.hadoop.hive.common.FileUtils;
+import org.apache.hadoop.hive.metastore.IMetaStoreClient;
+import org.apache.hadoop.hive.metastore.Warehouse;
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
+import org.apache.hadoop.hive.metastore.api.MetaException;
+import org.apache.hadoop.hive.metastore.api.Partition;
+import org.apache.thrift.TException;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 客户端的分区元数据缓存，避免每次 load 前都 show partitions 一张几十万分区的表
+ * 1、ttlMillis 内直接返回缓存的分区列表
+ * 2、超过 ttlMillis 后增量刷新：只取第一个分区字段的值 >= 上次看到的最大值（marker）的分区，合并到缓存，
+ *    适合按日期等递增字段分区的表；数据源不支持增量时做全量刷新
+ * 3、增量刷新发现不了其它客户端删除的分区和补录的旧分区，超过 fullRefreshMillis 后做一次全量刷新
+ * 4、通过 addPartition / dropPartition 执行的 DDL 直接更新缓存，DDL 失败或删除部分分区字段时整表失效
+ *
+ * 每个分区只保存分区值数组，同一张表中相同的值（city=shanghai 等）只保存一份
+ */
+public class PartitionCache {
+
+    public static final long DEFAULT_TTL_MILLIS = 60 * 1000L;
+    public static final long DEFAULT_FULL_REFRESH_MILLIS = 60 * 60 * 1000L;
+
+    /**
+     * 分区名的来源，分区名的格式和 show partitions 一致，如 city=shanghai/street=jinkelu
+     */
+    public interface PartitionSource {
+        List<String> listPartitions(String table) throws SQLException;
+
+        /**
+         * 第一个分区字段 key 的值 >= marker 的分区，不支持时返回 null
+         */
+        List<String> listPartitionsFrom(String table, String key, String marker) throws SQLException;
+    }
+
+    private static final Comparator<String[]> VALUES_ORDER = new Comparator<String[]>() {
+        @Override
+        public int compare(String[] a, String[] b) {
+            for (int i = 0; i < Math.min(a.length, b.length); i++) {
+                int c = a[i].compareTo(b[i]);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return a.length - b.length;
+        }
+    };
+
+    private static class TableEntry {
+        String[] keys;
+        final TreeSet<String[]> partitions = new TreeSet<>(VALUES_ORDER);
+        final Map<String, String> interned = new HashMap<>();
+        long refreshedAt;
+        long fullRefreshedAt;
+        boolean loaded;
+        /**
+         * getPartitions 的结果，分区变化时置空
+         */
+        List<String> names;
+
+        String intern(String value) {
+            String existing = interned.get(value);
+            if (existing == null) {
+                interned.put(value, value);
+                return value;
+            }
+            return existing;
+        }
+
+        void clear() {
+            keys = null;
+            partitions.clear();
+            interned.clear();
+            names = null;
+            loaded = false;
+        }
+    }
+
+    private final PartitionSource source;
+    private final long ttlMillis;
+    private final long fullRefreshMillis;
+    private final ConcurrentMap<String, TableEntry> tables = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong fullRefreshes = new AtomicLong();
+    private final AtomicLong incrementalRefreshes = new AtomicLong();
+    private final AtomicLong fetched = new AtomicLong();
+
+    public PartitionCache(PartitionSource source) {
+        this(source, DEFAULT_TTL_MILLIS, DEFAULT_FULL_REFRESH_MILLIS);
+    }
+
+    public PartitionCache(PartitionSource source, long ttlMillis, long fullRefreshMillis) {
+        this.source = source;
+        this.ttlMillis = ttlMillis;
+        this.fullRefreshMillis = fullRefreshMillis;
+    }
+
+    /**
+     * 通过 HiveServer2 执行 show partitions，只能全量获取
+     */
+    public static PartitionSource jdbc(final HiveConnectionPool.ConnectionFactory factory) {
+        return new PartitionSource() {
+            @Override
+            public List<String> listPartitions(String table) throws SQLException {
+                List<String> names = new ArrayList<>();
+                try (Connection connection = factory.connect();
+                     Statement statement = connection.createStatement()) {
+                    //hive-jdbc 默认每次只取 50 行，几十万分区要往返上千次
+                    statement.setFetchSize(10000);
+                    try (ResultSet rs = statement.executeQuery("show partitions " + table)) {
+                        while (rs.next()) {
+                            names.add(rs.getString(1));
+                        }
+                    }
+                }
+                return names;
+            }
+
+            @Override
+            public List<String> listPartitionsFrom(String table, String key, String marker) {
+                return null;
+            }
+        };
+    }
+
+    /**
+     * 直接访问 metastore，增量刷新使用 listPartitionsByFilter；
+     * 第一个分区字段不是 string 类型时 metastore 可能不支持过滤，此时退回全量刷新
+     */
+    public static PartitionSource metastore(final IMetaStoreClient client) {
+        return new PartitionSource() {
+            @Override
+            public List<String> listPartitions(String table) throws SQLException {
+                String[] name = qualify(table);
+                try {
+                    return client.listPartitionNames(name[0], name[1], (short) -1);
+                } catch (TException e) {
+                    throw new SQLException("Failed to list partitions of " + table, e);
+                }
+            }
+
+            @Override
+            public List<String> listPartitionsFrom(String table, String key, String marker) throws SQLException {
+                String value = FileUtils.unescapePathName(marker);
+                if (value.indexOf('"') >= 0 || value.indexOf('\\') >= 0) {
+                    return null;
+                }
+                String[] name = qualify(table);
+                try {
+                    List<FieldSchema> keys = client.getTable(name[0], name[1]).getPartitionKeys();
+                    List<String> names = new ArrayList<>();
+                    for (Partition partition : client.listPartitionsByFilter(name[0], name[1],
+                            key + " >= \"" + value + "\"", (short) -1)) {
+                        names.add(Warehouse.makePartName(keys, partition.getValues()));
+                    }
+                    return names;
+                } catch (MetaException e) {
+                    return null;
+                } catch (TException e) {
+                    throw new SQLException("Failed to list partitions of " + table, e);
+                }
+            }
+        };
+    }
+
+    private static String[] qualify(String table) {
+        int dot = table.indexOf('.');
+        return dot < 0 ? new String[]{"default", table} : new String[]{table.substring(0, dot), table.substring(dot + 1)};
+    }
+
+    /**
+     * 表的所有分区名，按分区值排序
+     */
+    public List<String> getPartitions(String table) throws SQLException {
+        TableEntry entry = entry(table);
+        synchronized (entry) {
+            refresh(table, entry);
+            if (entry.names == null) {
+                List<String> names = new ArrayList<>(entry.partitions.size());
+                for (String[] values : entry.partitions) {
+                    names.add(name(entry.keys, values));
+                }
+                entry.names = Collections.unmodifiableList(names);
+            }
+            return entry.names;
+        }
+    }
+
+    /**
+     * spec 必须包含所有分区字段
+     */
+    public boolean contains(String table, Map<String, String> spec) throws SQLException {
+        TableEntry entry = entry(table);
+        synchronized (entry) {
+            refresh(table, entry);
+            String[] values = values(entry.keys, spec);
+            return values != null && entry.partitions.contains(values);
+        }
+    }
+
+    /**
+     * 执行 alter table add partition 并加入缓存
+     */
+    public void addPartition(Statement statement, String table, Map<String, String> spec) throws SQLException {
+        execute(statement, table, "alter table " + table + " add if not exists " + BulkLoader.partitionClause(spec));
+        added(table, spec);
+    }
+
+    /**
+     * 执行 alter table drop partition 并从缓存删除，spec 只包含部分分区字段时整表失效
+     */
+    public void dropPartition(Statement statement, String table, Map<String, String> spec) throws SQLException {
+        execute(statement, table, "alter table " + table + " drop if exists " + BulkLoader.partitionClause(spec));
+        dropped(table, spec);
+    }
+
+    private void execute(Statement statement, String table, String sql) throws SQLException {
+        try {
+            statement.execute(sql);
+        } catch (SQLException e) {
+            //DDL 可能已经部分生效
+            invalidate(table);
+            throw e;
+        }
+    }
+
+    /**
+     * 其它途径新增了分区（如 load data 自动创建）时调用
+     */
+    public void added(String table, Map<String, String> spec) {
+        TableEntry entry = tables.get(normalize(table));
+        if (entry == null) {
+            return;
+        }
+        synchronized (entry) {
+            if (!entry.loaded) {
+                return;
+            }
+            String[] values = values(entry.keys, spec);
+            if (values == null) {
+                entry.clear();
+                return;
+            }
+            for (int i = 0; i < values.length; i++) {
+                values[i] = entry.intern(values[i]);
+            }
+            if (entry.partitions.add(values)) {
+                entry.names = null;
+            }
+        }
+    }
+
+    public void dropped(String table, Map<String, String> spec) {
+        TableEntry entry = tables.get(normalize(table));
+        if (entry == null) {
+            return;
+        }
+        synchronized (entry) {
+            if (!entry.loaded) {
+                return;
+            }
+            String[] values = values(entry.keys, spec);
+            if (values == null) {
+                entry.clear();
+            } else if (entry.partitions.remove(values)) {
+                entry.names = null;
+            }
+        }
+    }
+
+    public void invalidate(String table) {
+        TableEntry entry = tables.get(normalize(table));
+        if (entry != null) {
+            synchronized (entry) {
+                entry.clear();
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        for (String table : tables.keySet()) {
+            invalidate(table);
+        }
+    }
+
+    private TableEntry entry(String table) {
+        String key = normalize(table);
+        TableEntry entry = tables.get(key);
+        if (entry == null) {
+            TableEntry created = new TableEntry();
+            entry = tables.putIfAbsent(key, created);
+            if (entry == null) {
+                entry = created;
+            }
+        }
+        return entry;
+    }
+
+    private static String normalize(String table) {
+        return table.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 判断 TTL 用的当前时间，测试中覆盖以控制时间
+     */
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * 持有表的锁调用，同一张表同时只有一个线程访问数据源
+     */
+    private void refresh(String table, TableEntry entry) throws SQLException {
+        long now = now();
+        if (entry.loaded && now - entry.fullRefreshedAt < fullRefreshMillis) {
+            if (now - entry.refreshedAt < ttlMillis) {
+                hits.incrementAndGet();
+                return;
+            }
+            if (entry.keys != null && !entry.partitions.isEmpty()) {
+                List<String> names = source.listPartitionsFrom(table, entry.keys[0], entry.partitions.last()[0]);
+                if (names != null) {
+                    incrementalRefreshes.incrementAndGet();
+                    merge(entry, names);
+                    entry.refreshedAt = now;
+                    return;
+                }
+            }
+        }
+        List<String> names = source.listPartitions(table);
+        fullRefreshes.incrementAndGet();
+        entry.clear();
+        merge(entry, names);
+        entry.loaded = true;
+        entry.refreshedAt = now;
+        entry.fullRefreshedAt = now;
+    }
+
+    private void merge(TableEntry entry, List<String> names) {
+        fetched.addAndGet(names.size());
+        for (String name : names) {
+            String[] parts = name.split("/");
+            if (entry.keys == null) {
+                entry.keys = new String[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    entry.keys[i] = parts[i].substring(0, Math.max(0, parts[i].indexOf('='))).toLowerCase(Locale.ROOT);
+                }
+            }
+            if (parts.length != entry.keys.length) {
+                continue;
+            }
+            String[] values = new String[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                values[i] = entry.intern(parts[i].substring(parts[i].indexOf('=') + 1));
+            }
+            if (entry.partitions.add(values)) {
+                entry.names = null;
+            }
+        }
+    }
+
+    /**
+     * spec 转成按分区字段顺序排列、按路径规则转义的值；缺少分区字段时返回 null
+     */
+    private static String[] values(String[] keys, Map<String, String> spec) {
+        if (keys == null || spec.size() != keys.length) {
+            return null;
+        }
+        Map<String, String> lower = new HashMap<>();
+        for (Map.Entry<String, String> e : spec.entrySet()) {
+            lower.put(e.getKey().toLowerCase(Locale.ROOT), e.getValue());
+        }
+        String[] values = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            String value = lower.get(keys[i]);
+            if (value == null) {
+                return null;
+            }
+            values[i] = FileUtils.escapePathName(value);
+        }
+        return values;
+    }
+
+    private static String name(String[] keys, String[] values) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < keys.length; i++) {
+            sb.append(i == 0 ? "" : "/").append(keys[i]).append('=').append(values[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 分区名转成 {city=shanghai, street=jinkelu}
+     */
+    public static Map<String, String> spec(String name) {
+        Map<String, String> spec = new LinkedHashMap<>();
+        for (String part : name.split("/")) {
+            int eq = part.indexOf('=');
+            spec.put(part.substring(0, Math.max(0, eq)), FileUtils.unescapePathName(part.substring(eq + 1)));
+        }
+        return spec;
+    }
+
+    /**
+     * 测试用：缓存中的分区值
+     */
+    List<String[]> partitionValues(String table) {
+        TableEntry entry = entry(table);
+        synchronized (entry) {
+            return new ArrayList<>(entry.partitions);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getFullRefreshes() {
+        return fullRefreshes.get();
+    }
+
+    public long getIncrementalRefreshes() {
+        return incrementalRefreshes.get();
+    }
+
+    /**
+     * 从数据源获取的分区数，增量刷新的效果看这个值
+     */
+    public long getFetched() {
+        return fetched.get();
+    }
+}
@@ -0,0 +1,769 @@
+package com.susu;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.common.type.HiveDecimal;
+import org.apache.hadoop.hive.ql.io.orc.CompressionKind;
+import org.apache.hadoop.hive.ql.io.orc.OrcFile;
+import org.apache.hadoop.hive.ql.io.orc.Writer;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import parquet.column.ParquetProperties;
+import parquet.example.data.Group;
+import parquet.example.data.simple.SimpleGroupFactory;
+import parquet.hadoop.ParquetWriter;
+import parquet.hadoop.example.GroupWriteSupport;
+import parquet.hadoop.metadata.CompressionCodecName;
+import parquet.schema.MessageType;
+import parquet.schema.MessageTypeParser;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 把查询结果流式导出到文件，代替逐行 getString 再 println：
+ * 1、setFetchSize 调大每次从 HiveServer2 拉取的行数（hive-jdbc 1.2 默认只有 50 行）
+ * 2、按列类型读取：整数 getLong、浮点 getDouble、布尔 getBoolean，只有字符串类的列才 getString
+ * 3、CSV / JSON lines 直接编码到一个固定大小的 ByteBuffer，写满后通过 FileChannel 写出，不经过 String 拼接；
+ *    ORC / Parquet 使用 hive-exec 中自带的 writer，内存由 stripe / row group 的大小限制
+ * 4、每隔 reportIntervalMillis 输出一次已导出的行数、字节数和 rows/s、MB/s
+ *
+ * 日期、时间戳、复杂类型按 hive-jdbc 返回的字符串导出
+ *
+ * 运行：java com.susu.ResultExporter jdbc:hive2://alinode01:10000/testdb root "select * from emp" csv /tmp/emp.csv [fetchSize]
+ */
+public class ResultExporter {
+
+    public static final int DEFAULT_FETCH_SIZE = 10000;
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+    public static final long DEFAULT_REPORT_INTERVAL_MILLIS = 5000L;
+
+    /**
+     * 每导出这么多行检查一次是否需要输出进度
+     */
+    private static final int REPORT_CHECK_ROWS = 4096;
+
+    public enum Format {
+        CSV, JSON, ORC, PARQUET
+    }
+
+    enum Kind {
+        LONG, DOUBLE, DECIMAL, BOOLEAN, STRING
+    }
+
+    public static class ExportStats {
+        private final long rows;
+        private final long bytes;
+        private final long millis;
+
+        ExportStats(long rows, long bytes, long millis) {
+            this.rows = rows;
+            this.bytes = bytes;
+            this.millis = millis;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = Math.max(1L, millis) / 1000.0;
+            return String.format(Locale.ROOT, "rows=%d bytes=%d seconds=%.1f rows/s=%.0f MB/s=%.2f",
+                    rows, bytes, seconds, rows / seconds, bytes / seconds / 1024 / 1024);
+        }
+    }
+
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private long reportIntervalMillis = DEFAULT_REPORT_INTERVAL_MILLIS;
+    private PrintStream progress = System.err;
+    private Configuration conf = new Configuration();
+
+    public ResultExporter setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+        return this;
+    }
+
+    public ResultExporter setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    /**
+     * progress 为 null 时不输出进度
+     */
+    public ResultExporter setProgress(PrintStream progress, long reportIntervalMillis) {
+        this.progress = progress;
+        this.reportIntervalMillis = reportIntervalMillis;
+        return this;
+    }
+
+    /**
+     * ORC / Parquet 写文件使用的配置
+     */
+    public ResultExporter setConf(Configuration conf) {
+        this.conf = conf;
+        return this;
+    }
+
+    public ExportStats export(Connection connection, String sql, Format format, File output)
+            throws SQLException, IOException {
+        try (Statement statement = connection.createStatement()) {
+            statement.setFetchSize(fetchSize);
+            try (ResultSet resultSet = statement.executeQuery(sql)) {
+                return export(resultSet, format, output);
+            }
+        }
+    }
+
+    public ExportStats export(ResultSet resultSet, Format format, File output) throws SQLException, IOException {
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        int columns = metaData.getColumnCount();
+        String[] labels = new String[columns];
+        Kind[] kinds = new Kind[columns];
+        for (int i = 0; i < columns; i++) {
+            labels[i] = metaData.getColumnLabel(i + 1);
+            kinds[i] = kind(metaData.getColumnType(i + 1));
+        }
+        String[] names = columnNames(labels);
+        long start = System.currentTimeMillis();
+        long lastReport = start;
+        long rows = 0L;
+        RowSink sink = open(format, output, names, kinds);
+        try {
+            while (resultSet.next()) {
+                sink.write(resultSet);
+                rows++;
+                if (progress != null && rows % REPORT_CHECK_ROWS == 0) {
+                    long now = System.currentTimeMillis();
+                    if (now - lastReport >= reportIntervalMillis) {
+                        lastReport = now;
+                        progress.println("exported " + new ExportStats(rows, sink.bytes(), now - start));
+                    }
+                }
+            }
+        } finally {
+            sink.close();
+        }
+        ExportStats stats = new ExportStats(rows, sink.bytes(), System.currentTimeMillis() - start);
+        if (progress != null) {
+            progress.println("finished " + stats);
+        }
+        return stats;
+    }
+
+    private RowSink open(Format format, File output, String[] names, Kind[] kinds) throws IOException {
+        switch (format) {
+            case CSV:
+                return new CsvSink(output, bufferSize, names, kinds);
+            case JSON:
+                return new JsonSink(output, bufferSize, names, kinds);
+            case ORC:
+                return new OrcSink(output, conf, names, kinds);
+            case PARQUET:
+                return new ParquetSink(output, conf, names, kinds);
+            default:
+                throw new IllegalArgumentException("Unsupported format " + format);
+        }
+    }
+
+    /**
+     * hive-jdbc 返回的列名是 表名.列名，去掉表名，其它非法字符换成 _
+     */
+    static String columnName(String label, int index) {
+        String name = label == null ? "" : label.substring(label.lastIndexOf('.') + 1);
+        name = name.replaceAll("[^A-Za-z0-9_]", "_").toLowerCase(Locale.ROOT);
+        return name.isEmpty() || Character.isDigit(name.charAt(0)) ? "_c" + index : name;
+    }
+
+    /**
+     * select * from a join b 时两张表的 id 去掉表名后重名：重名的列保留表名（a_id、b_id），仍然重名时加 _1、_2
+     * JSON 的 key 和 Parquet / ORC 的字段名都不能重复
+     */
+    static String[] columnNames(String[] labels) {
+        String[] names = new String[labels.length];
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < labels.length; i++) {
+            names[i] = columnName(labels[i], i);
+            Integer count = counts.get(names[i]);
+            counts.put(names[i], count == null ? 1 : count + 1);
+        }
+        for (int i = 0; i < labels.length; i++) {
+            if (counts.get(names[i]) > 1 && labels[i] != null && labels[i].indexOf('.') > 0) {
+                names[i] = columnName(labels[i].replace('.', '_'), i);
+            }
+        }
+        Set<String> used = new HashSet<>();
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i];
+            for (int suffix = 1; !used.add(name); suffix++) {
+                name = names[i] + "_" + suffix;
+            }
+            names[i] = name;
+        }
+        return names;
+    }
+
+    static Kind kind(int sqlType) {
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return Kind.LONG;
+            case Types.FLOAT:
+            case Types.REAL:
+            case Types.DOUBLE:
+                return Kind.DOUBLE;
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                return Kind.DECIMAL;
+            case Types.BOOLEAN:
+            case Types.BIT:
+                return Kind.BOOLEAN;
+            default:
+                return Kind.STRING;
+        }
+    }
+
+    interface RowSink extends Closeable {
+        void write(ResultSet resultSet) throws SQLException, IOException;
+
+        /**
+         * 已经写出的字节数
+         */
+        long bytes() throws IOException;
+    }
+
+    /**
+     * CSV 和 JSON lines 共用：字符直接按 UTF-8 编码到 ByteBuffer，满了写到 FileChannel
+     */
+    abstract static class TextSink implements RowSink {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final byte[] digits = new byte[20];
+        private long written;
+        final String[] names;
+        final Kind[] kinds;
+
+        TextSink(File output, int bufferSize, String[] names, Kind[] kinds) throws IOException {
+            this.channel = FileChannel.open(output.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.buffer = ByteBuffer.allocateDirect(bufferSize);
+            this.names = names;
+            this.kinds = kinds;
+        }
+
+        /**
+         * 写第 column 列的值，null 写成 writeNull 的标记，字符串按 quote 转义
+         */
+        void writeValue(ResultSet resultSet, int column) throws SQLException, IOException {
+            switch (kinds[column]) {
+                case LONG: {
+                    long value = resultSet.getLong(column + 1);
+                    if (resultSet.wasNull()) {
+                        writeNull();
+                    } else {
+                        writeLong(value);
+                    }
+                    break;
+                }
+                case DOUBLE: {
+                    double value = resultSet.getDouble(column + 1);
+                    if (resultSet.wasNull()) {
+                        writeNull();
+                    } else {
+                        writeDouble(value);
+                    }
+                    break;
+                }
+                case BOOLEAN: {
+                    boolean value = resultSet.getBoolean(column + 1);
+                    if (resultSet.wasNull()) {
+                        writeNull();
+                    } else {
+                        writeAscii(value ? "true" : "false");
+                    }
+                    break;
+                }
+                case DECIMAL: {
+                    BigDecimal value = resultSet.getBigDecimal(column + 1);
+                    if (value == null) {
+                        writeNull();
+                    } else {
+                        writeAscii(value.toPlainString());
+                    }
+                    break;
+                }
+                default: {
+                    String value = resultSet.getString(column + 1);
+                    if (value == null) {
+                        writeNull();
+                    } else {
+                        writeString(value);
+                    }
+                }
+            }
+        }
+
+        abstract void writeNull() throws IOException;
+
+        void writeDouble(double value) throws IOException {
+            writeAscii(Double.toString(value));
+        }
+
+        abstract void writeString(String value) throws IOException;
+
+        final void writeByte(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.put((byte) b);
+        }
+
+        final void writeAscii(String s) throws IOException {
+            for (int i = 0; i < s.length(); i++) {
+                writeByte(s.charAt(i));
+            }
+        }
+
+        final void writeLong(long value) throws IOException {
+            if (value == Long.MIN_VALUE) {
+                writeAscii("-9223372036854775808");
+                return;
+            }
+            if (value < 0) {
+                writeByte('-');
+                value = -value;
+            }
+            int pos = digits.length;
+            do {
+                digits[--pos] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+            if (buffer.remaining() < digits.length - pos) {
+                flush();
+            }
+            buffer.put(digits, pos, digits.length - pos);
+        }
+
+        /**
+         * 一个字符按 UTF-8 编码，代理对在 writeUtf8 中合并
+         */
+        final void writeChar(char c) throws IOException {
+            if (c < 0x80) {
+                writeByte(c);
+            } else if (c < 0x800) {
+                writeByte(0xC0 | (c >> 6));
+                writeByte(0x80 | (c & 0x3F));
+            } else {
+                writeByte(0xE0 | (c >> 12));
+                writeByte(0x80 | ((c >> 6) & 0x3F));
+                writeByte(0x80 | (c & 0x3F));
+            }
+        }
+
+        final int writeCodePoint(String s, int i) throws IOException {
+            char c = s.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(i + 1));
+                writeByte(0xF0 | (cp >> 18));
+                writeByte(0x80 | ((cp >> 12) & 0x3F));
+                writeByte(0x80 | ((cp >> 6) & 0x3F));
+                writeByte(0x80 | (cp & 0x3F));
+                return 2;
+            }
+            writeChar(c);
+            return 1;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public long bytes() {
+            return written + buffer.position();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * 第一行是列名；null 写成空字段，包含逗号、引号、换行的字符串用引号括起，引号写两次
+     */
+    static class CsvSink extends TextSink {
+
+        CsvSink(File output, int bufferSize, String[] names, Kind[] kinds) throws IOException {
+            super(output, bufferSize, names, kinds);
+            for (int i = 0; i < names.length; i++) {
+                if (i > 0) {
+                    writeByte(',');
+                }
+                writeString(names[i]);
+            }
+            writeByte('\n');
+        }
+
+        @Override
+        public void write(ResultSet resultSet) throws SQLException, IOException {
+            for (int i = 0; i < kinds.length; i++) {
+                if (i > 0) {
+                    writeByte(',');
+                }
+                writeValue(resultSet, i);
+            }
+            writeByte('\n');
+        }
+
+        @Override
+        void writeNull() {
+        }
+
+        @Override
+        void writeString(String value) throws IOException {
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (quote) {
+                writeByte('"');
+            }
+            for (int i = 0; i < value.length(); ) {
+                if (value.charAt(i) == '"') {
+                    writeByte('"');
+                }
+                i += writeCodePoint(value, i);
+            }
+            if (quote) {
+                writeByte('"');
+            }
+        }
+    }
+
+    /**
+     * 每行一个 JSON 对象，列名为 key
+     */
+    static class JsonSink extends TextSink {
+
+        JsonSink(File output, int bufferSize, String[] names, Kind[] kinds) throws IOException {
+            super(output, bufferSize, names, kinds);
+        }
+
+        @Override
+        public void write(ResultSet resultSet) throws SQLException, IOException {
+            writeByte('{');
+            for (int i = 0; i < kinds.length; i++) {
+                if (i > 0) {
+                    writeByte(',');
+                }
+                writeString(names[i]);
+                writeByte(':');
+                writeValue(resultSet, i);
+            }
+            writeByte('}');
+            writeByte('\n');
+        }
+
+        @Override
+        void writeNull() throws IOException {
+            writeAscii("null");
+        }
+
+        /**
+         * NaN 和 Infinity 不是合法的 JSON 数字，写成 null
+         */
+        @Override
+        void writeDouble(double value) throws IOException {
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                writeNull();
+            } else {
+                super.writeDouble(value);
+            }
+        }
+
+        @Override
+        void writeString(String value) throws IOException {
+            writeByte('"');
+            for (int i = 0; i < value.length(); ) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        writeAscii("\\\"");
+                        break;
+                    case '\\':
+                        writeAscii("\\\\");
+                        break;
+                    case '\n':
+                        writeAscii("\\n");
+                        break;
+                    case '\r':
+                        writeAscii("\\r");
+                        break;
+                    case '\t':
+                        writeAscii("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            writeAscii(String.format("\\u%04x", (int) c));
+                        } else {
+                            i += writeCodePoint(value, i);
+                            continue;
+                        }
+                }
+                i++;
+            }
+            writeByte('"');
+        }
+    }
+
+    /**
+     * 用 hive-exec 中的 ORC writer，每行复用同一个 Object[]
+     */
+    static class OrcSink implements RowSink {
+        private final Path path;
+        private final FileSystem fs;
+        private final Writer writer;
+        private final Kind[] kinds;
+        private final Object[] row;
+        private final List<Object> rowList;
+        private long bytes;
+
+        OrcSink(File output, Configuration conf, String[] names, Kind[] kinds) throws IOException {
+            this.kinds = kinds;
+            this.row = new Object[kinds.length];
+            this.rowList = Arrays.asList(row);
+            List<ObjectInspector> inspectors = new ArrayList<>(kinds.length);
+            for (Kind kind : kinds) {
+                switch (kind) {
+                    case LONG:
+                        inspectors.add(PrimitiveObjectInspectorFactory.javaLongObjectInspector);
+                        break;
+                    case DOUBLE:
+                        inspectors.add(PrimitiveObjectInspectorFactory.javaDoubleObjectInspector);
+                        break;
+                    case DECIMAL:
+                        inspectors.add(PrimitiveObjectInspectorFactory.javaHiveDecimalObjectInspector);
+                        break;
+                    case BOOLEAN:
+                        inspectors.add(PrimitiveObjectInspectorFactory.javaBooleanObjectInspector);
+                        break;
+                    default:
+                        inspectors.add(PrimitiveObjectInspectorFactory.javaStringObjectInspector);
+                }
+            }
+            ObjectInspector inspector = ObjectInspectorFactory.getStandardStructObjectInspector(
+                    Arrays.asList(names), inspectors);
+            this.path = new Path(output.getAbsoluteFile().toURI());
+            this.fs = FileSystem.getLocal(conf);
+            fs.delete(path, false);
+            this.writer = OrcFile.createWriter(path, OrcFile.writerOptions(conf).fileSystem(fs)
+                    .inspector(inspector).compress(CompressionKind.ZLIB));
+        }
+
+        @Override
+        public void write(ResultSet resultSet) throws SQLException, IOException {
+            for (int i = 0; i < kinds.length; i++) {
+                Object value;
+                switch (kinds[i]) {
+                    case LONG:
+                        value = resultSet.getLong(i + 1);
+                        break;
+                    case DOUBLE:
+                        value = resultSet.getDouble(i + 1);
+                        break;
+                    case BOOLEAN:
+                        value = resultSet.getBoolean(i + 1);
+                        break;
+                    case DECIMAL: {
+                        BigDecimal decimal = resultSet.getBigDecimal(i + 1);
+                        value = decimal == null ? null : HiveDecimal.create(decimal);
+                        break;
+                    }
+                    default:
+                        value = resultSet.getString(i + 1);
+                }
+                row[i] = resultSet.wasNull() ? null : value;
+            }
+            writer.addRow(rowList);
+        }
+
+        /**
+         * 写出 stripe 之前数据在内存中，文件大小只在 stripe 写出后增长
+         */
+        @Override
+        public long bytes() throws IOException {
+            return bytes > 0 ? bytes : fs.exists(path) ? fs.getFileStatus(path).getLen() : 0L;
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+            bytes = fs.getFileStatus(path).getLen();
+        }
+    }
+
+    /**
+     * 用 hive-exec 中的 parquet（parquet.* 包）的 GroupWriteSupport 写 Parquet
+     */
+    static class ParquetSink implements RowSink {
+        private static final int BLOCK_SIZE = 64 * 1024 * 1024;
+        private static final int PAGE_SIZE = 1024 * 1024;
+
+        private final Path path;
+        private final FileSystem fs;
+        private final ParquetWriter<Group> writer;
+        private final SimpleGroupFactory groups;
+        private final String[] names;
+        private final Kind[] kinds;
+        private long bytes;
+
+        ParquetSink(File output, Configuration conf, String[] names, Kind[] kinds) throws IOException {
+            this.names = names;
+            this.kinds = kinds;
+            StringBuilder schema = new StringBuilder("message export {");
+            for (int i = 0; i < names.length; i++) {
+                switch (kinds[i]) {
+                    case LONG:
+                        schema.append(" optional int64 ");
+                        break;
+                    case DOUBLE:
+                        schema.append(" optional double ");
+                        break;
+                    case BOOLEAN:
+                        schema.append(" optional boolean ");
+                        break;
+                    default:
+                        //decimal 按字符串写，不丢精度
+                        schema.append(" optional binary ");
+                        schema.append(names[i]).append(" (UTF8);");
+                        continue;
+                }
+                schema.append(names[i]).append(';');
+            }
+            MessageType type = MessageTypeParser.parseMessageType(schema.append(" }").toString());
+            Configuration copy = new Configuration(conf);
+            GroupWriteSupport.setSchema(type, copy);
+            this.groups = new SimpleGroupFactory(type);
+            this.path = new Path(output.getAbsoluteFile().toURI());
+            this.fs = FileSystem.getLocal(copy);
+            fs.delete(path, false);
+            this.writer = new ParquetWriter<>(path, new GroupWriteSupport(), CompressionCodecName.GZIP,
+                    BLOCK_SIZE, PAGE_SIZE, PAGE_SIZE, true, false, ParquetProperties.WriterVersion.PARQUET_1_0, copy);
+        }
+
+        @Override
+        public void write(ResultSet resultSet) throws SQLException, IOException {
+            Group group = groups.newGroup();
+            for (int i = 0; i < kinds.length; i++) {
+                switch (kinds[i]) {
+                    case LONG: {
+                        long value = resultSet.getLong(i + 1);
+                        if (!resultSet.wasNull()) {
+                            group.append(names[i], value);
+                        }
+                        break;
+                    }
+                    case DOUBLE: {
+                        double value = resultSet.getDouble(i + 1);
+                        if (!resultSet.wasNull()) {
+                            group.append(names[i], value);
+                        }
+                        break;
+                    }
+                    case BOOLEAN: {
+                        boolean value = resultSet.getBoolean(i + 1);
+                        if (!resultSet.wasNull()) {
+                            group.append(names[i], value);
+                        }
+                        break;
+                    }
+                    case DECIMAL: {
+                        BigDecimal value = resultSet.getBigDecimal(i + 1);
+                        if (value != null) {
+                            group.append(names[i], value.toPlainString());
+                        }
+                        break;
+                    }
+                    default: {
+                        String value = resultSet.getString(i + 1);
+                        if (value != null) {
+                            group.append(names[i], value);
+                        }
+                    }
+                }
+            }
+            writer.write(group);
+        }
+
+        @Override
+        public long bytes() throws IOException {
+            return bytes > 0 ? bytes : fs.exists(path) ? fs.getFileStatus(path).getLen() : 0L;
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+            bytes = fs.getFileStatus(path).getLen();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 5) {
+            System.err.println("Usage: ResultExporter <jdbc url> <user> <sql> <csv|json|orc|parquet> <output> [fetchSize]");
+            System.exit(1);
+        }
+        Class.forName("org.apache.hive.jdbc.HiveDriver");
+        ResultExporter exporter = new ResultExporter();
+        if (args.length > 5) {
+            exporter.setFetchSize(Integer.parseInt(args[5]));
+        }
+        try (Connection connection = DriverManager.getConnection(args[0], args[1], "")) {
+            exporter.export(connection, args[2], Format.valueOf(args[3].toUpperCase(Locale.ROOT)), new File(args[4]));
+        }
+    }
+}
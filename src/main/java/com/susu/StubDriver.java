@@ -0,0 +1,335 @@
+package com.susu;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * 不连接 HiveServer2 的假 JDBC 驱动，用于离线运行 LoadGenerator 等工具：
+ * jdbc:stub:?latency=50&jitter=20&errorRate=0.01&rows=10
+ * 1、每条语句耗时 latency ± jitter 毫秒（均匀分布），可以被 Statement.cancel() 中断
+ * 2、按 errorRate 的概率抛出 SQLException
+ * 3、查询返回 rows 行、一列 bigint
+ * 语句中的 sleep(N) 覆盖本条语句的耗时，如 select sleep(200)；含有 assert_true(false) 的语句总是失败
+ *
+ * 每个实例记录打开、关闭的连接数和同时执行的最大语句数；DriverManager 使用注册的实例，
+ * 需要单独计数时 new StubDriver().factory(url) 直接创建连接
+ */
+public class StubDriver implements Driver {
+
+    public static final String PREFIX = "jdbc:stub:";
+
+    static {
+        try {
+            DriverManager.registerDriver(new StubDriver());
+        } catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final AtomicInteger opened = new AtomicInteger();
+    private final AtomicInteger closed = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    static class Settings {
+        long latency;
+        long jitter;
+        double errorRate;
+        long rows = 1L;
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        final Settings settings = parse(url);
+        opened.incrementAndGet();
+        return proxy(Connection.class, new InvocationHandler() {
+            private volatile boolean isClosed;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+                switch (method.getName()) {
+                    case "createStatement":
+                        if (isClosed) {
+                            throw new SQLException("Connection is closed");
+                        }
+                        return statement(settings);
+                    case "close":
+                        if (!isClosed) {
+                            isClosed = true;
+                            closed.incrementAndGet();
+                        }
+                        return null;
+                    case "isClosed":
+                        return isClosed;
+                    case "isValid":
+                        return !isClosed;
+                    default:
+                        return defaultValue(method);
+                }
+            }
+        });
+    }
+
+    /**
+     * 不经过 DriverManager，连接计入这个实例
+     */
+    public HiveConnectionPool.ConnectionFactory factory(final String url) {
+        return new HiveConnectionPool.ConnectionFactory() {
+            @Override
+            public Connection connect() throws SQLException {
+                return StubDriver.this.connect(url, new Properties());
+            }
+        };
+    }
+
+    public int getOpened() {
+        return opened.get();
+    }
+
+    public int getClosed() {
+        return closed.get();
+    }
+
+    /**
+     * 同时执行的最大语句数
+     */
+    public int getMaxRunning() {
+        return maxRunning.get();
+    }
+
+    static Settings parse(String url) throws SQLException {
+        Settings settings = new Settings();
+        int query = url.indexOf('?');
+        if (query < 0) {
+            return settings;
+        }
+        for (String pair : url.substring(query + 1).split("&")) {
+            String[] kv = pair.split("=", 2);
+            if (kv.length != 2) {
+                continue;
+            }
+            try {
+                switch (kv[0]) {
+                    case "latency":
+                        settings.latency = Long.parseLong(kv[1]);
+                        break;
+                    case "jitter":
+                        settings.jitter = Long.parseLong(kv[1]);
+                        break;
+                    case "errorRate":
+                        settings.errorRate = Double.parseDouble(kv[1]);
+                        break;
+                    case "rows":
+                        settings.rows = Long.parseLong(kv[1]);
+                        break;
+                    default:
+                        throw new SQLException("Unknown stub driver parameter " + kv[0]);
+                }
+            } catch (NumberFormatException e) {
+                throw new SQLException("Invalid stub driver parameter " + pair, e);
+            }
+        }
+        return settings;
+    }
+
+    private Statement statement(final Settings settings) {
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        return proxy(Statement.class, new InvocationHandler() {
+            private ResultSet resultSet;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+                switch (method.getName()) {
+                    case "execute":
+                        resultSet = execute((String) args[0]);
+                        return true;
+                    case "executeQuery":
+                        resultSet = execute((String) args[0]);
+                        return resultSet;
+                    case "getResultSet":
+                        return resultSet;
+                    case "getUpdateCount":
+                        return -1;
+                    case "cancel":
+                        cancelled.countDown();
+                        return null;
+                    default:
+                        return defaultValue(method);
+                }
+            }
+
+            private ResultSet execute(String sql) throws SQLException {
+                int now = running.incrementAndGet();
+                for (int max = maxRunning.get(); max < now && !maxRunning.compareAndSet(max, now); max = maxRunning.get()) {
+                    //重试
+                }
+                try {
+                    return run(sql);
+                } finally {
+                    running.decrementAndGet();
+                }
+            }
+
+            private ResultSet run(String sql) throws SQLException {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long millis = sleepMillis(sql);
+                if (millis < 0) {
+                    millis = settings.latency + (settings.jitter > 0 ? random.nextLong(-settings.jitter, settings.jitter + 1) : 0L);
+                }
+                try {
+                    if (cancelled.await(Math.max(0L, millis), TimeUnit.MILLISECONDS)) {
+                        throw new SQLException("Query was cancelled");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted", e);
+                }
+                if (sql.contains("assert_true(false)")) {
+                    throw new SQLException("ASSERT_TRUE(): assertion failed: " + sql);
+                }
+                if (settings.errorRate > 0 && random.nextDouble() < settings.errorRate) {
+                    throw new SQLException("Simulated failure: " + sql);
+                }
+                return resultSet(settings.rows);
+            }
+        });
+    }
+
+    /**
+     * 语句中 sleep(N) 的 N，没有时返回 -1
+     */
+    static long sleepMillis(String sql) {
+        int i = sql.indexOf("sleep(");
+        if (i < 0) {
+            return -1L;
+        }
+        int end = sql.indexOf(')', i);
+        try {
+            return end < 0 ? -1L : Long.parseLong(sql.substring(i + "sleep(".length(), end).trim());
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    private static ResultSet resultSet(final long rows) {
+        final ResultSetMetaData metaData = proxy(ResultSetMetaData.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "getColumnCount":
+                        return 1;
+                    case "getColumnType":
+                        return Types.BIGINT;
+                    case "getColumnLabel":
+                    case "getColumnName":
+                        return "stub.id";
+                    default:
+                        return defaultValue(method);
+                }
+            }
+        });
+        return proxy(ResultSet.class, new InvocationHandler() {
+            private long row;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "next":
+                        return row++ < rows;
+                    case "getMetaData":
+                        return metaData;
+                    case "getLong":
+                        return row;
+                    case "getString":
+                    case "getObject":
+                        return String.valueOf(row);
+                    default:
+                        return defaultValue(method);
+                }
+            }
+        });
+    }
+
+    /**
+     * 其它方法什么都不做，返回类型的默认值
+     */
+    private static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        if (type == byte.class) {
+            return (byte) 0;
+        }
+        if (type == double.class) {
+            return 0.0;
+        }
+        if (type == float.class) {
+            return 0.0F;
+        }
+        return null;
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+}
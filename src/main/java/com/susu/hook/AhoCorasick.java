@@ -0,0 +1,137 @@
+package com.susu.hook;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 多个字面量的 Aho-Corasick 自动机，忽略大小写
+ * 构造时把 goto 和 fail 合并成一张完整的转移表：扫描时每个字符只查一次表，不回退，与字面量的个数无关
+ *
+ * 用法：
+ * int state = 0;
+ * for (int i = 0; i < s.length(); i++) {
+ *     state = ac.next(state, s.charAt(i));
+ *     for (int k : ac.outputs(state)) { 第 k 个字面量在 i 结束 }
+ * }
+ */
+public class AhoCorasick {
+
+    private static final int[] NONE = new int[0];
+
+    /**
+     * 字符 ──> 字符类，不在任何字面量中的字符都是 0
+     */
+    private final char[] classes = new char[Character.MAX_VALUE + 1];
+    private final int alphabet;
+    /**
+     * state * alphabet + class ──> 下一个状态
+     */
+    private final int[] delta;
+    /**
+     * 在该状态结束的所有字面量的下标（包括 fail 链上的），没有时为同一个空数组
+     */
+    private final int[][] outputs;
+
+    public AhoCorasick(List<String> literals) {
+        int maxStates = 1;
+        char nextClass = 1;
+        for (String literal : literals) {
+            maxStates += literal.length();
+            for (int i = 0; i < literal.length(); i++) {
+                char lower = Character.toLowerCase(literal.charAt(i));
+                if (classes[lower] == 0) {
+                    classes[lower] = nextClass;
+                    classes[Character.toUpperCase(lower)] = nextClass;
+                    classes[Character.toTitleCase(lower)] = nextClass;
+                    nextClass++;
+                }
+            }
+        }
+        this.alphabet = nextClass;
+        int[] delta = new int[maxStates * alphabet];
+        Arrays.fill(delta, -1);
+        List<List<Integer>> own = new ArrayList<>();
+        own.add(null);
+        int states = 1;
+
+        //1、字典树
+        for (int l = 0; l < literals.size(); l++) {
+            String literal = literals.get(l);
+            if (literal.isEmpty()) {
+                continue;
+            }
+            int state = 0;
+            for (int i = 0; i < literal.length(); i++) {
+                int slot = state * alphabet + classes[literal.charAt(i)];
+                if (delta[slot] < 0) {
+                    delta[slot] = states++;
+                    own.add(null);
+                }
+                state = delta[slot];
+            }
+            if (own.get(state) == null) {
+                own.set(state, new ArrayList<Integer>());
+            }
+            own.get(state).add(l);
+        }
+
+        //2、按层遍历，缺失的转移指向 fail 状态的转移；fail 状态更浅，已经处理完
+        int[] fail = new int[states];
+        int[] queue = new int[states];
+        int[][] outputs = new int[states][];
+        outputs[0] = NONE;
+        int head = 0;
+        int tail = 0;
+        for (int c = 0; c < alphabet; c++) {
+            if (delta[c] < 0) {
+                delta[c] = 0;
+            } else {
+                fail[delta[c]] = 0;
+                queue[tail++] = delta[c];
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            outputs[state] = merge(own.get(state), outputs[fail[state]]);
+            for (int c = 0; c < alphabet; c++) {
+                int slot = state * alphabet + c;
+                int target = delta[fail[state] * alphabet + c];
+                if (delta[slot] < 0) {
+                    delta[slot] = target;
+                } else {
+                    fail[delta[slot]] = target;
+                    queue[tail++] = delta[slot];
+                }
+            }
+        }
+        this.delta = Arrays.copyOf(delta, states * alphabet);
+        this.outputs = outputs;
+    }
+
+    /**
+     * 自身的字面量在前，fail 链上更短的在后；没有自身的字面量时直接共用 fail 状态的数组
+     */
+    private static int[] merge(List<Integer> own, int[] inherited) {
+        if (own == null) {
+            return inherited;
+        }
+        int[] merged = new int[own.size() + inherited.length];
+        for (int i = 0; i < own.size(); i++) {
+            merged[i] = own.get(i);
+        }
+        System.arraycopy(inherited, 0, merged, own.size(), inherited.length);
+        return merged;
+    }
+
+    public int next(int state, char c) {
+        return delta[state * alphabet + classes[c]];
+    }
+
+    /**
+     * 返回的数组不能修改
+     */
+    public int[] outputs(int state) {
+        return outputs[state];
+    }
+}
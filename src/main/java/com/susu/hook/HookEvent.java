@@ -0,0 +1,96 @@
+package com.susu.hook;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * hook 产生的一条事件，由 HookEventSink 的后台线程序列化成一行 JSON：
+ * {"time":1500000000000,"hook":"pre_execute","thread":"HiveServer2-Handler-Pool: Thread-42","queryId":"...",...}
+ * 查询线程上只创建这个对象，序列化和写文件都在后台线程
+ */
+public class HookEvent {
+
+    private final long time;
+    private final String hook;
+    private final String thread;
+    private final Map<String, Object> fields = new LinkedHashMap<>();
+
+    public HookEvent(String hook) {
+        this.time = System.currentTimeMillis();
+        this.hook = hook;
+        this.thread = Thread.currentThread().getName();
+    }
+
+    /**
+     * value 为 String、Number、Boolean 或 null，其它对象按 toString() 输出为字符串
+     */
+    public HookEvent put(String name, Object value) {
+        fields.put(name, value);
+        return this;
+    }
+
+    public String getHook() {
+        return hook;
+    }
+
+    public Object get(String name) {
+        return fields.get(name);
+    }
+
+    void appendJson(StringBuilder sb) {
+        sb.append("{\"time\":").append(time);
+        sb.append(",\"hook\":");
+        appendString(sb, hook);
+        sb.append(",\"thread\":");
+        appendString(sb, thread);
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            sb.append(',');
+            appendString(sb, field.getKey());
+            sb.append(':');
+            Object value = field.getValue();
+            if (value == null) {
+                sb.append("null");
+            } else if (value instanceof Number || value instanceof Boolean) {
+                sb.append(value);
+            } else {
+                appendString(sb, value.toString());
+            }
+        }
+        sb.append('}');
+    }
+
+    static void appendString(StringBuilder sb, String s) {
+        if (s == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+}
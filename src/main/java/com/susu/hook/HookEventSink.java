@@ -0,0 +1,279 @@
+package com.susu.hook;
+
+import com.susu.util.StripedCounter;
+
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 各个 hook 共用的异步事件输出，代替在查询线程上同步 System.out.println
+ *
+ * 查询线程只做一次 RingBuffer.offer；一个后台线程批量取出事件，每行一个 JSON 追加到本地文件，每批 flush 一次
+ * 文件超过 susu.hook.events.max.bytes 时滚动：events.jsonl ──> events.jsonl.1 ──> ... ──> events.jsonl.{max.files}，再往后的被覆盖
+ *
+ * 队列满时按 susu.hook.events.full.policy 处理：
+ * 1、drop（默认）：丢弃新事件，dropped 加一，查询线程不等待
+ * 2、block：最多等待 susu.hook.events.block.millis 毫秒，仍然没有空位再丢弃
+ * 写文件失败的整批事件也计入 dropped
+ */
+public class HookEventSink {
+
+    public static final String FILE = "susu.hook.events.file";
+    public static final String CAPACITY = "susu.hook.events.capacity";
+    public static final String BATCH_SIZE = "susu.hook.events.batch.size";
+    public static final String MAX_BYTES = "susu.hook.events.max.bytes";
+    public static final String MAX_FILES = "susu.hook.events.max.files";
+    public static final String FULL_POLICY = "susu.hook.events.full.policy";
+    public static final String BLOCK_MILLIS = "susu.hook.events.block.millis";
+
+    public static final int DEFAULT_CAPACITY = 8192;
+    public static final int DEFAULT_BATCH_SIZE = 512;
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    public static final int DEFAULT_MAX_FILES = 5;
+    public static final long DEFAULT_BLOCK_MILLIS = 10L;
+
+    /**
+     * 队列为空时后台线程的休眠时间
+     */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private static volatile HookEventSink instance;
+
+    private final File file;
+    private final RingBuffer<HookEvent> buffer;
+    private final int batchSize;
+    private final long maxBytes;
+    private final int maxFiles;
+    private final boolean block;
+    private final long blockNanos;
+
+    private final StripedCounter enqueued = new StripedCounter();
+    private final StripedCounter dropped = new StripedCounter();
+    /**
+     * 正在 emit 中的查询线程数，关闭时等它们都结束后才做最后一次 drain
+     */
+    private final AtomicInteger producers = new AtomicInteger();
+    /**
+     * 只有后台线程写
+     */
+    private volatile long written;
+    private volatile long writeErrors;
+
+    private final Thread writerThread;
+    private volatile boolean closed;
+    private Writer writer;
+    private long fileBytes;
+
+    HookEventSink(File file, int capacity, int batchSize, long maxBytes, int maxFiles, boolean block, long blockMillis) {
+        this.file = file;
+        this.buffer = new RingBuffer<>(capacity);
+        this.batchSize = batchSize;
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+        this.block = block;
+        this.blockNanos = TimeUnit.MILLISECONDS.toNanos(blockMillis);
+        this.writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        }, "hook-event-writer");
+        this.writerThread.setDaemon(true);
+    }
+
+    /**
+     * 启动后台线程，在此之前 emit 的事件只进入队列
+     */
+    HookEventSink start() {
+        writerThread.start();
+        return this;
+    }
+
+    public static HookEventSink get(Configuration conf) {
+        HookEventSink sink = instance;
+        if (sink == null) {
+            synchronized (HookEventSink.class) {
+                sink = instance;
+                if (sink == null) {
+                    sink = create(conf == null ? new Configuration(false) : conf);
+                    instance = sink;
+                }
+            }
+        }
+        return sink;
+    }
+
+    /**
+     * 已经创建时返回实例，否则返回 null，不会因为读取指标而启动后台线程
+     */
+    static HookEventSink peek() {
+        return instance;
+    }
+
+    static HookEventSink create(Configuration conf) {
+        String path = conf.get(FILE, new File(System.getProperty("java.io.tmpdir"), "hive-hook-events.jsonl").getPath());
+        return new HookEventSink(new File(path),
+                conf.getInt(CAPACITY, DEFAULT_CAPACITY),
+                conf.getInt(BATCH_SIZE, DEFAULT_BATCH_SIZE),
+                conf.getLong(MAX_BYTES, DEFAULT_MAX_BYTES),
+                Math.max(1, conf.getInt(MAX_FILES, DEFAULT_MAX_FILES)),
+                "block".equalsIgnoreCase(conf.get(FULL_POLICY, "drop")),
+                conf.getLong(BLOCK_MILLIS, DEFAULT_BLOCK_MILLIS)).start();
+    }
+
+    /**
+     * 查询线程调用：成功放入队列返回 true，被丢弃返回 false
+     */
+    public boolean emit(HookEvent event) {
+        //先登记再读 closed：后台线程看到 closed 且 producers 为 0 时，之后的 emit 一定会看到 closed
+        producers.incrementAndGet();
+        try {
+            if (!closed && buffer.offer(event)) {
+                enqueued.increment();
+                return true;
+            }
+            if (!closed && block) {
+                long deadline = System.nanoTime() + blockNanos;
+                while (System.nanoTime() < deadline) {
+                    LockSupport.unpark(writerThread);
+                    LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+                    if (buffer.offer(event)) {
+                        enqueued.increment();
+                        return true;
+                    }
+                }
+            }
+            dropped.increment();
+            return false;
+        } finally {
+            producers.decrementAndGet();
+        }
+    }
+
+    public long getEnqueued() {
+        return enqueued.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    public long getWriteErrors() {
+        return writeErrors;
+    }
+
+    public int getQueued() {
+        return buffer.size();
+    }
+
+    /**
+     * 等正在 emit 的线程结束、写完队列中剩余的事件后停止后台线程
+     */
+    public void close() throws InterruptedException {
+        closed = true;
+        LockSupport.unpark(writerThread);
+        writerThread.join();
+    }
+
+    private void drainLoop() {
+        List<HookEvent> batch = new ArrayList<>(batchSize);
+        StringBuilder sb = new StringBuilder(256);
+        while (true) {
+            //先读 closed 和 producers 再 drain，关闭之前放入以及关闭时正在放入的事件都会被写出
+            boolean last = closed && producers.get() == 0;
+            batch.clear();
+            if (buffer.drainTo(batch, batchSize) > 0) {
+                write(batch, sb);
+            } else if (last) {
+                break;
+            } else {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        closeWriter();
+    }
+
+    private void write(List<HookEvent> batch, StringBuilder sb) {
+        try {
+            if (writer == null) {
+                openWriter();
+            }
+            for (HookEvent event : batch) {
+                sb.setLength(0);
+                event.appendJson(sb);
+                sb.append('\n');
+                String line = sb.toString();
+                writer.write(line);
+                //事件基本都是 ASCII，按字符数估算文件大小
+                fileBytes += line.length();
+            }
+            writer.flush();
+            written += batch.size();
+            if (fileBytes >= maxBytes) {
+                roll();
+            }
+        } catch (IOException e) {
+            //不知道出错前有多少行已经落盘，整批算作丢弃
+            writeErrors++;
+            dropped.add(batch.size());
+            closeWriter();
+        }
+    }
+
+    private void openWriter() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8), 64 * 1024);
+        fileBytes = file.length();
+    }
+
+    /**
+     * file.{n-1} ──> file.{n}，最老的一个被覆盖
+     */
+    private void roll() throws IOException {
+        closeWriter();
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            File from = new File(file.getPath() + "." + i);
+            if (from.exists()) {
+                File to = new File(file.getPath() + "." + (i + 1));
+                to.delete();
+                from.renameTo(to);
+            }
+        }
+        File first = new File(file.getPath() + ".1");
+        first.delete();
+        if (!file.renameTo(first)) {
+            throw new IOException("Failed to roll " + file);
+        }
+        openWriter();
+    }
+
+    private void closeWriter() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                writeErrors++;
+            }
+            writer = null;
+        }
+    }
+}
@@ -1,23 +1,305 @@
 package com.susu.hook;
 
+import org.antlr.runtime.CommonToken;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
 import org.apache.hadoop.hive.ql.exec.Task;
+import org.apache.hadoop.hive.ql.hooks.ReadEntity;
+import org.apache.hadoop.hive.ql.metadata.Table;
 import org.apache.hadoop.hive.ql.parse.ASTNode;
+import org.apache.hadoop.hive.ql.parse.HiveParser;
 import org.apache.hadoop.hive.ql.parse.HiveSemanticAnalyzerHook;
 import org.apache.hadoop.hive.ql.parse.HiveSemanticAnalyzerHookContext;
 import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.session.SessionState;
 
 import java.io.Serializable;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
+/**
+ * hive.semantic.analyzer.hook：检查三种代价很高的查询
+ * 1、分区表全表扫描：where / on 条件中没有出现该表的任何分区字段（如 HiveOption 中按 city、street 分区的 emp、emp1）
+ * 2、select * 直接返回给客户端却没有 limit
+ * 3、笛卡尔积：join 没有 on 条件，所在的查询也没有 where
+ *
+ * 每种情况的处理方式分别由 susu.analyze.full.scan.action、susu.analyze.select.star.action、susu.analyze.cross.join.action 配置：
+ * off 不检查；warn（默认）在控制台输出警告；reject 抛出 SemanticException 拒绝执行；
+ * select * 还可以配置为 limit，自动加上 limit susu.analyze.select.star.limit（默认 10000）
+ *
+ * 只遍历 AST 和已经加载好的 Table 对象，不访问 metastore；检查耗时记录在 QueryMetrics 的 analyze.micros 中
+ * 全表扫描按字段名判断，不区分字段属于哪张表，同名字段出现在其它表的条件里时会漏报
+ */
 public class MyAnalyzeHook implements HiveSemanticAnalyzerHook {
+
+    public static final String FULL_SCAN_ACTION = "susu.analyze.full.scan.action";
+    public static final String SELECT_STAR_ACTION = "susu.analyze.select.star.action";
+    public static final String SELECT_STAR_LIMIT = "susu.analyze.select.star.limit";
+    public static final String CROSS_JOIN_ACTION = "susu.analyze.cross.join.action";
+
+    public static final int DEFAULT_SELECT_STAR_LIMIT = 10000;
+
+    enum Action {
+        OFF, WARN, REJECT, LIMIT;
+
+        static Action get(Configuration conf, String key) {
+            String value = conf == null ? null : conf.get(key);
+            if (value == null) {
+                return WARN;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return WARN;
+            }
+        }
+    }
+
+    /**
+     * Driver.compile 对 preAnalyze 和 postAnalyze 使用同一批 hook 实例，preAnalyze 的结果放在实例中
+     */
+    private Set<String> filterColumns = new HashSet<>();
+    private long inspectNanos;
+    private int warnings;
+    private boolean limitInjected;
+
     @Override
     public ASTNode preAnalyze(HiveSemanticAnalyzerHookContext hiveSemanticAnalyzerHookContext, ASTNode astNode) throws SemanticException {
-        System.out.println("调用MyAnalyzeHook.preAnalyze");
+        long start = System.nanoTime();
+        Configuration conf = hiveSemanticAnalyzerHookContext.getConf();
+        filterColumns = new HashSet<>();
+        warnings = 0;
+        limitInjected = false;
+        try {
+            if (Action.get(conf, FULL_SCAN_ACTION) != Action.OFF) {
+                collectFilterColumns(astNode, filterColumns);
+            }
+
+            Action crossJoin = Action.get(conf, CROSS_JOIN_ACTION);
+            if (crossJoin != Action.OFF && hasCrossJoin(astNode, false)) {
+                handle(conf, crossJoin, "cross join without a join condition or where clause");
+            }
+
+            Action selectStar = Action.get(conf, SELECT_STAR_ACTION);
+            ASTNode insert = selectStarWithoutLimit(astNode);
+            if (selectStar != Action.OFF && insert != null) {
+                if (selectStar == Action.LIMIT) {
+                    int limit = conf.getInt(SELECT_STAR_LIMIT, DEFAULT_SELECT_STAR_LIMIT);
+                    injectLimit(insert, limit);
+                    limitInjected = true;
+                    warn("select * without limit, limit " + limit + " added");
+                } else {
+                    handle(conf, selectStar, "select * without limit");
+                }
+            }
+        } catch (SemanticException e) {
+            //被拒绝的查询不会再调用 postAnalyze
+            inspectNanos = System.nanoTime() - start;
+            finish(hiveSemanticAnalyzerHookContext, null, true, e.getMessage());
+            throw e;
+        }
+        inspectNanos = System.nanoTime() - start;
         return astNode;
     }
 
     @Override
     public void postAnalyze(HiveSemanticAnalyzerHookContext hiveSemanticAnalyzerHookContext, List<Task<? extends Serializable>> list) throws SemanticException {
-        System.out.println("调用MyAnalyzeHook.postAnalyze");
+        long start = System.nanoTime();
+        Configuration conf = hiveSemanticAnalyzerHookContext.getConf();
+        String rejected = null;
+        try {
+            Action fullScan = Action.get(conf, FULL_SCAN_ACTION);
+            if (fullScan != Action.OFF) {
+                for (Map.Entry<String, Integer> table : fullScanTables(hiveSemanticAnalyzerHookContext.getInputs(), filterColumns).entrySet()) {
+                    handle(conf, fullScan, "full scan of partitioned table " + table.getKey() + " ("
+                            + table.getValue() + " partitions), no partition column in the where / on conditions");
+                }
+            }
+        } catch (SemanticException e) {
+            rejected = e.getMessage();
+            throw e;
+        } finally {
+            inspectNanos += System.nanoTime() - start;
+            finish(hiveSemanticAnalyzerHookContext, list, rejected != null, rejected);
+        }
+    }
+
+    /**
+     * 记录检查耗时和结果，每次编译只调用一次
+     */
+    private void finish(HiveSemanticAnalyzerHookContext context, List<Task<? extends Serializable>> rootTasks,
+                        boolean rejected, String reason) {
+        long micros = inspectNanos / 1000L;
+        QueryMetrics.get(context.getConf()).analyzeInspected(micros, warnings, rejected, limitInjected);
+        HookEventSink.get(context.getConf()).emit(new HookEvent("analyze")
+                .put("user", context.getUserName())
+                .put("rootTasks", rootTasks == null ? 0 : rootTasks.size())
+                .put("inspectMicros", micros)
+                .put("warnings", warnings)
+                .put("limitInjected", limitInjected)
+                .put("rejected", reason));
+    }
+
+    private void handle(Configuration conf, Action action, String message) throws SemanticException {
+        if (action == Action.REJECT) {
+            throw new SemanticException("Query rejected by " + getClass().getSimpleName() + ": " + message);
+        }
+        warn(message);
+    }
+
+    private void warn(String message) {
+        warnings++;
+        SessionState.getConsole().printInfo("WARNING: " + message);
+    }
+
+    /**
+     * where 和 join on 条件中出现的字段名（小写），a.city 记录 a 和 city
+     */
+    static void collectFilterColumns(ASTNode node, Set<String> columns) {
+        switch (node.getType()) {
+            case HiveParser.TOK_WHERE:
+                collectIdentifiers(node, columns);
+                return;
+            case HiveParser.TOK_JOIN:
+            case HiveParser.TOK_LEFTOUTERJOIN:
+            case HiveParser.TOK_RIGHTOUTERJOIN:
+            case HiveParser.TOK_FULLOUTERJOIN:
+            case HiveParser.TOK_LEFTSEMIJOIN:
+            case HiveParser.TOK_CROSSJOIN:
+                //前两个子节点是参与 join 的表，第三个是 on 条件
+                if (node.getChildCount() > 2) {
+                    collectIdentifiers((ASTNode) node.getChild(2), columns);
+                }
+                break;
+            default:
+                break;
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            collectFilterColumns((ASTNode) node.getChild(i), columns);
+        }
+    }
+
+    private static void collectIdentifiers(ASTNode node, Set<String> columns) {
+        if (node.getType() == HiveParser.Identifier) {
+            columns.add(node.getText().toLowerCase(Locale.ROOT));
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            collectIdentifiers((ASTNode) node.getChild(i), columns);
+        }
+    }
+
+    /**
+     * inputs 中没有在 filterColumns 中出现任何分区字段的分区表：表名 ──> 读取的分区个数
+     */
+    static Map<String, Integer> fullScanTables(Set<ReadEntity> inputs, Set<String> filterColumns) {
+        Map<String, Integer> tables = new LinkedHashMap<>();
+        if (inputs == null) {
+            return tables;
+        }
+        for (ReadEntity input : inputs) {
+            Table table = input.getTable();
+            if (table == null || !table.isPartitioned() || !isFullScan(table, filterColumns)) {
+                continue;
+            }
+            String name = table.getDbName() + "." + table.getTableName();
+            Integer partitions = tables.get(name);
+            int count = partitions == null ? 0 : partitions;
+            tables.put(name, input.getPartition() != null ? count + 1 : count);
+        }
+        return tables;
+    }
+
+    private static boolean isFullScan(Table table, Set<String> filterColumns) {
+        for (FieldSchema partCol : table.getPartCols()) {
+            if (filterColumns.contains(partCol.getName().toLowerCase(Locale.ROOT))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 没有 on 条件的 join，且所在的查询没有 where（from a, b where a.id = b.id 不算）
+     */
+    static boolean hasCrossJoin(ASTNode node, boolean queryHasWhere) {
+        switch (node.getType()) {
+            case HiveParser.TOK_QUERY:
+                queryHasWhere = hasWhere(node);
+                break;
+            case HiveParser.TOK_JOIN:
+            case HiveParser.TOK_LEFTOUTERJOIN:
+            case HiveParser.TOK_RIGHTOUTERJOIN:
+            case HiveParser.TOK_FULLOUTERJOIN:
+            case HiveParser.TOK_CROSSJOIN:
+                if (node.getChildCount() < 3 && !queryHasWhere) {
+                    return true;
+                }
+                break;
+            default:
+                break;
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            if (hasCrossJoin((ASTNode) node.getChild(i), queryHasWhere)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasWhere(ASTNode query) {
+        for (int i = 0; i < query.getChildCount(); i++) {
+            ASTNode insert = (ASTNode) query.getChild(i);
+            if (insert.getType() == HiveParser.TOK_INSERT && insert.getFirstChildWithType(HiveParser.TOK_WHERE) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 最外层查询结果直接返回给客户端（TOK_DESTINATION 为 TOK_TMP_FILE）、select 中有 *、没有 limit 时返回对应的 TOK_INSERT
+     */
+    static ASTNode selectStarWithoutLimit(ASTNode root) {
+        if (root.getType() != HiveParser.TOK_QUERY) {
+            return null;
+        }
+        ASTNode insert = (ASTNode) root.getFirstChildWithType(HiveParser.TOK_INSERT);
+        if (insert == null || insert.getFirstChildWithType(HiveParser.TOK_LIMIT) != null) {
+            return null;
+        }
+        ASTNode destination = (ASTNode) insert.getFirstChildWithType(HiveParser.TOK_DESTINATION);
+        if (destination == null || destination.getChildCount() == 0
+                || destination.getChild(0).getType() != HiveParser.TOK_DIR
+                || destination.getChild(0).getChildCount() == 0
+                || destination.getChild(0).getChild(0).getType() != HiveParser.TOK_TMP_FILE) {
+            return null;
+        }
+        ASTNode select = (ASTNode) insert.getFirstChildWithType(HiveParser.TOK_SELECT);
+        if (select == null) {
+            select = (ASTNode) insert.getFirstChildWithType(HiveParser.TOK_SELECTDI);
+        }
+        if (select == null) {
+            return null;
+        }
+        for (int i = 0; i < select.getChildCount(); i++) {
+            ASTNode expr = (ASTNode) select.getChild(i);
+            if (expr.getChildCount() > 0 && expr.getChild(0).getType() == HiveParser.TOK_ALLCOLREF) {
+                return insert;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 与解析 "limit n" 得到的子树相同：TOK_LIMIT ──> Number
+     */
+    static void injectLimit(ASTNode insert, int limit) {
+        ASTNode limitNode = new ASTNode(new CommonToken(HiveParser.TOK_LIMIT, "TOK_LIMIT"));
+        limitNode.addChild(new ASTNode(new CommonToken(HiveParser.Number, Integer.toString(limit))));
+        insert.addChild(limitNode);
     }
 }
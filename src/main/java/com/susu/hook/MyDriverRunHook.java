@@ -3,14 +3,24 @@ package com.susu.hook;
 import org.apache.hadoop.hive.ql.HiveDriverRunHook;
 import org.apache.hadoop.hive.ql.HiveDriverRunHookContext;
 
+/**
+ * hive.exec.driver.run.hooks：记录 Driver.run 的总耗时，输出 pre_driver_run / post_driver_run 事件
+ * Driver.run 对 preDriverRun 和 postDriverRun 使用同一批 hook 实例，开始时间直接放在实例中
+ */
 public class MyDriverRunHook implements HiveDriverRunHook {
+
+    private long start;
+
     @Override
     public void preDriverRun(HiveDriverRunHookContext hiveDriverRunHookContext) throws Exception {
-        System.out.println("调用MyDriverRunHook.preDriverRun");
+        start = System.currentTimeMillis();
+        HookEventSink.get(hiveDriverRunHookContext.getConf()).emit(new HookEvent("pre_driver_run"));
     }
 
     @Override
     public void postDriverRun(HiveDriverRunHookContext hiveDriverRunHookContext) throws Exception {
-        System.out.println("调用MyDriverRunHook.postDriverRun");
+        long millis = System.currentTimeMillis() - start;
+        QueryMetrics.get(hiveDriverRunHookContext.getConf()).driverRunFinished(millis);
+        HookEventSink.get(hiveDriverRunHookContext.getConf()).emit(new HookEvent("post_driver_run").put("millis", millis));
     }
 }
@@ -3,9 +3,12 @@ package com.susu.hook;
 import org.apache.hadoop.hive.ql.hooks.ExecuteWithHookContext;
 import org.apache.hadoop.hive.ql.hooks.HookContext;
 
+/**
+ * hive.exec.failure.hooks：与 post hook 记录相同的指标，计入失败的查询，输出一条 on_failure 事件
+ */
 public class MyOnfailureHook implements ExecuteWithHookContext {
     @Override
     public void run(HookContext hookContext) throws Exception {
-        System.out.println("调用MyOnfailureHook.run");
+        MyPostExecuteHook.record(hookContext, false);
     }
 }
@@ -1,17 +1,56 @@
 package com.susu.hook;
 
-import org.apache.hadoop.hive.ql.hooks.LineageInfo;
-import org.apache.hadoop.hive.ql.hooks.PostExecute;
-import org.apache.hadoop.hive.ql.hooks.ReadEntity;
-import org.apache.hadoop.hive.ql.hooks.WriteEntity;
+import org.apache.hadoop.hive.ql.MapRedStats;
+import org.apache.hadoop.hive.ql.QueryPlan;
+import org.apache.hadoop.hive.ql.hooks.ExecuteWithHookContext;
+import org.apache.hadoop.hive.ql.hooks.HookContext;
 import org.apache.hadoop.hive.ql.session.SessionState;
-import org.apache.hadoop.security.UserGroupInformation;
 
-import java.util.Set;
+import java.util.Map;
 
-public class MyPostExecuteHook implements PostExecute {
+/**
+ * hive.exec.post.hooks：记录执行耗时、查询总耗时、执行完的 task 个数以及 MR job 的 map/reduce 个数和 CPU 时间，同时输出一条 post_execute 事件
+ * 配置了 susu.cache.dir 时，把 pre hook 中未命中的查询结果保存到 QueryResultCache
+ */
+public class MyPostExecuteHook implements ExecuteWithHookContext {
     @Override
-    public void run(SessionState sessionState, Set<ReadEntity> set, Set<WriteEntity> set1, LineageInfo lineageInfo, UserGroupInformation userGroupInformation) throws Exception {
-        System.out.println("调用MyPostExecuteHook.run");
+    public void run(HookContext hookContext) throws Exception {
+        record(hookContext, true);
+    }
+
+    /**
+     * post hook 和 failure hook 共用
+     */
+    static void record(HookContext hookContext, boolean success) {
+        QueryPlan plan = hookContext.getQueryPlan();
+        int mappers = 0;
+        int reducers = 0;
+        long cpuMillis = 0L;
+        //Driver.execute 开始时会重置，里面只有本次查询的 MR job
+        SessionState sessionState = SessionState.get();
+        Map<String, MapRedStats> stats = sessionState == null ? null : sessionState.getMapRedStats();
+        if (stats != null) {
+            for (MapRedStats stat : stats.values()) {
+                mappers += stat.getNumMap();
+                reducers += stat.getNumReduce();
+                //拿不到计数器时是 -1
+                cpuMillis += Math.max(0L, stat.getCpuMSec());
+            }
+        }
+        int tasks = hookContext.getCompleteTaskList() == null ? 0 : hookContext.getCompleteTaskList().size();
+        String queryId = plan == null ? null : plan.getQueryId();
+        QueryResultCache cache = QueryResultCache.get(hookContext.getConf());
+        if (cache != null) {
+            cache.afterExecute(queryId, success, plan == null ? null : QueryResultCache.resultDir(plan), hookContext.getConf());
+        }
+        QueryMetrics.get(hookContext.getConf()).queryFinished(queryId, success,
+                plan == null ? null : plan.getQueryStartTime(), tasks, mappers, reducers, cpuMillis);
+        HookEventSink.get(hookContext.getConf()).emit(new HookEvent(success ? "post_execute" : "on_failure")
+                .put("queryId", queryId)
+                .put("user", hookContext.getUserName())
+                .put("tasks", tasks)
+                .put("mappers", mappers)
+                .put("reducers", reducers)
+                .put("cpuMillis", cpuMillis));
     }
 }
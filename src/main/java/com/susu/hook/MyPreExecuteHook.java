@@ -1,19 +1,115 @@
 package com.susu.hook;
 
-
-
-import org.apache.hadoop.hive.ql.hooks.PreExecute;
-import org.apache.hadoop.hive.ql.hooks.ReadEntity;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.QueryPlan;
+import org.apache.hadoop.hive.ql.exec.Task;
+import org.apache.hadoop.hive.ql.hooks.Entity;
+import org.apache.hadoop.hive.ql.hooks.ExecuteWithHookContext;
+import org.apache.hadoop.hive.ql.hooks.HookContext;
 import org.apache.hadoop.hive.ql.hooks.WriteEntity;
-import org.apache.hadoop.hive.ql.session.SessionState;
-import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.hive.ql.log.PerfLogger;
 
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Set;
 
-public class MyPreExecuteHook implements PreExecute {
+/**
+ * hive.exec.pre.hooks：记录编译耗时、计划中的 task 个数、输入输出实体个数，并开始计算执行耗时，同时输出一条 pre_execute 事件
+ * 使用 HookContext 而不是 PreExecute，才能拿到 query id 和执行计划
+ * 配置了 susu.cache.dir 时先查 QueryResultCache，命中则把缓存的结果放到 FetchTask 的读取目录并清空 root task，跳过所有 job
+ */
+public class MyPreExecuteHook implements ExecuteWithHookContext {
     @Override
-    public void run(SessionState sess, Set<ReadEntity> inputs,
-                    Set<WriteEntity> outputs, UserGroupInformation ugi) throws Exception {
-        System.out.println("调用MyPreExecuteHook.run");
+    public void run(HookContext hookContext) throws Exception {
+        QueryPlan plan = hookContext.getQueryPlan();
+        long compileMillis = compileMillis();
+        boolean cacheHit = restoreFromCache(hookContext);
+        int tasks = countTasks(plan.getRootTasks());
+        int inputs = size(hookContext.getInputs());
+        int outputs = size(hookContext.getOutputs());
+        QueryMetrics.get(hookContext.getConf()).queryStarted(plan.getQueryId(), compileMillis, tasks, inputs, outputs);
+        HookEventSink.get(hookContext.getConf()).emit(new HookEvent("pre_execute")
+                .put("queryId", plan.getQueryId())
+                .put("user", hookContext.getUserName())
+                .put("operation", hookContext.getOperationName())
+                .put("compileMillis", compileMillis)
+                .put("tasks", tasks)
+                .put("inputs", inputs)
+                .put("outputs", outputs)
+                .put("cacheHit", cacheHit));
+    }
+
+    /**
+     * 只处理读表并把结果返回给客户端的 QUERY；命中时 root task 被清空，Driver 直接执行 FetchTask
+     */
+    private static boolean restoreFromCache(HookContext hookContext) {
+        QueryResultCache cache = QueryResultCache.get(hookContext.getConf());
+        QueryPlan plan = hookContext.getQueryPlan();
+        if (cache == null || !"QUERY".equals(hookContext.getOperationName())
+                || plan.getRootTasks() == null || plan.getRootTasks().isEmpty()) {
+            return false;
+        }
+        Path resultDir = QueryResultCache.resultDir(plan);
+        if (resultDir == null || writesTable(hookContext.getOutputs())) {
+            return false;
+        }
+        if (!cache.beforeExecute(plan.getQueryId(), plan.getQueryStr(), hookContext.getInputs(), resultDir,
+                hookContext.getConf())) {
+            return false;
+        }
+        plan.getRootTasks().clear();
+        return true;
+    }
+
+    private static boolean writesTable(Set<WriteEntity> outputs) {
+        if (outputs != null) {
+            for (WriteEntity output : outputs) {
+                if (output.getType() == Entity.Type.TABLE || output.getType() == Entity.Type.PARTITION
+                        || output.getType() == Entity.Type.DUMMYPARTITION) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Driver.compile 在 PerfLogger 中记录了 COMPILE 的开始和结束时间，没有记录时返回 -1
+     */
+    private static long compileMillis() {
+        PerfLogger perfLogger = PerfLogger.getPerfLogger();
+        if (perfLogger == null || !perfLogger.startTimeHasMethod(PerfLogger.COMPILE)
+                || !perfLogger.endTimeHasMethod(PerfLogger.COMPILE)) {
+            return -1L;
+        }
+        return perfLogger.getDuration(PerfLogger.COMPILE);
+    }
+
+    /**
+     * task 是一个有向无环图，一个 task 可以是多个 task 的子节点，按对象去重
+     * getDependentTasks 包括子 task 和 ConditionalTask 中的候选 task
+     */
+    static int countTasks(List<Task<? extends Serializable>> rootTasks) {
+        if (rootTasks == null) {
+            return 0;
+        }
+        Set<Task<? extends Serializable>> seen =
+                Collections.newSetFromMap(new IdentityHashMap<Task<? extends Serializable>, Boolean>());
+        Deque<Task<? extends Serializable>> stack = new ArrayDeque<>(rootTasks);
+        while (!stack.isEmpty()) {
+            Task<? extends Serializable> task = stack.pop();
+            if (seen.add(task) && task.getDependentTasks() != null) {
+                stack.addAll(task.getDependentTasks());
+            }
+        }
+        return seen.size();
+    }
+
+    private static int size(Set<?> entities) {
+        return entities == null ? 0 : entities.size();
     }
 }
@@ -2,11 +2,18 @@ package com.susu.hook;
 
 import org.apache.hadoop.hive.ql.hooks.Redactor;
 
+/**
+ * hive.exec.query.redactor.hooks：查询语句写入日志、QueryPlan 之前去掉密码、手机号、身份证号以及配置的敏感字面量
+ * 规则见 RedactionEngine，所有规则一次扫描完成，没有匹配时返回原字符串
+ */
 public class MyRedactor extends Redactor {
 
     @Override
     public String redactQuery(String query) {
-        System.out.println("调用MyRedactor.redactQuery");
-        return super.redactQuery(query);
+        String redacted = RedactionEngine.get(getConf()).redact(query);
+        HookEventSink.get(getConf()).emit(new HookEvent("redact_query")
+                .put("length", query == null ? 0 : query.length())
+                .put("redacted", redacted != query));
+        return redacted;
     }
 }
@@ -0,0 +1,359 @@
+package com.susu.hook;
+
+import com.susu.util.LatencyHistogram;
+import com.susu.util.StripedCounter;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 各个 hook 共用的查询指标：计数用 StripedCounter，耗时用 LatencyHistogram，都不加锁
+ *
+ * hive 每次执行查询都会重新实例化 hook，因此指标放在进程内唯一的实例中，第一次 get 时：
+ * 1、注册 JMX：com.susu.hook:type=QueryMetrics，每个属性对应 snapshot() 中的一项
+ * 2、配置了 susu.hook.metrics.dump.file 时，每 susu.hook.metrics.dump.interval.seconds 秒把 snapshot() 写入该文件（key=value）
+ *
+ * 查询被取消或 HiveServer2 的 handler 线程异常退出时不会调用 post / failure hook，正在执行的查询超过
+ * susu.hook.metrics.running.expire.seconds 后视为已结束，从 queries.running 中移除并计入 queries.expired
+ */
+public class QueryMetrics implements DynamicMBean {
+
+    public static final String DUMP_FILE = "susu.hook.metrics.dump.file";
+    public static final String DUMP_INTERVAL_SECONDS = "susu.hook.metrics.dump.interval.seconds";
+    public static final long DEFAULT_DUMP_INTERVAL_SECONDS = 60L;
+    public static final String JMX_NAME = "com.susu.hook:type=QueryMetrics";
+    public static final String RUNNING_EXPIRE_SECONDS = "susu.hook.metrics.running.expire.seconds";
+    public static final long DEFAULT_RUNNING_EXPIRE_SECONDS = 24L * 3600;
+    /**
+     * 正在执行的查询超过这个数时，记录新查询前先清理过期的
+     */
+    static final int RUNNING_CLEANUP_SIZE = 10000;
+
+    private static final Log LOG = LogFactory.getLog(QueryMetrics.class);
+
+    private static volatile QueryMetrics instance;
+
+    final StripedCounter driverRuns = new StripedCounter();
+    final StripedCounter started = new StripedCounter();
+    final StripedCounter succeeded = new StripedCounter();
+    final StripedCounter failed = new StripedCounter();
+    final StripedCounter plannedTasks = new StripedCounter();
+    final StripedCounter completedTasks = new StripedCounter();
+    final StripedCounter mappers = new StripedCounter();
+    final StripedCounter reducers = new StripedCounter();
+    final StripedCounter cpuMillis = new StripedCounter();
+    final StripedCounter inputs = new StripedCounter();
+    final StripedCounter outputs = new StripedCounter();
+    final StripedCounter analyzeWarnings = new StripedCounter();
+    final StripedCounter analyzeRejected = new StripedCounter();
+    final StripedCounter analyzeLimits = new StripedCounter();
+    final StripedCounter expired = new StripedCounter();
+
+    /**
+     * 编译（解析、语义分析、优化）耗时
+     */
+    final LatencyHistogram compileMillis = new LatencyHistogram();
+    /**
+     * pre hook 到 post / failure hook 之间的执行耗时
+     */
+    final LatencyHistogram executionMillis = new LatencyHistogram();
+    /**
+     * 从 Driver.run 开始到执行结束，包括编译和等锁
+     */
+    final LatencyHistogram queryMillis = new LatencyHistogram();
+    /**
+     * preDriverRun 到 postDriverRun
+     */
+    final LatencyHistogram driverRunMillis = new LatencyHistogram();
+    /**
+     * MyAnalyzeHook 检查 AST 和输入表的耗时（微秒）
+     */
+    final LatencyHistogram analyzeMicros = new LatencyHistogram();
+
+    /**
+     * 正在执行的查询：query id ──> pre hook 的时间
+     */
+    private final ConcurrentHashMap<String, Long> running = new ConcurrentHashMap<>();
+    private final long runningExpireMillis;
+
+    private ScheduledExecutorService dumper;
+
+    QueryMetrics() {
+        this(TimeUnit.SECONDS.toMillis(DEFAULT_RUNNING_EXPIRE_SECONDS));
+    }
+
+    QueryMetrics(long runningExpireMillis) {
+        this.runningExpireMillis = runningExpireMillis;
+    }
+
+    public static QueryMetrics get(Configuration conf) {
+        QueryMetrics metrics = instance;
+        if (metrics == null) {
+            synchronized (QueryMetrics.class) {
+                metrics = instance;
+                if (metrics == null) {
+                    metrics = new QueryMetrics(TimeUnit.SECONDS.toMillis(conf == null ? DEFAULT_RUNNING_EXPIRE_SECONDS
+                            : conf.getLong(RUNNING_EXPIRE_SECONDS, DEFAULT_RUNNING_EXPIRE_SECONDS)));
+                    metrics.registerMBean();
+                    if (conf != null && conf.get(DUMP_FILE) != null) {
+                        metrics.startDump(new File(conf.get(DUMP_FILE)),
+                                conf.getLong(DUMP_INTERVAL_SECONDS, DEFAULT_DUMP_INTERVAL_SECONDS));
+                    }
+                    instance = metrics;
+                }
+            }
+        }
+        return metrics;
+    }
+
+    public void driverRunFinished(long millis) {
+        driverRuns.increment();
+        driverRunMillis.record(millis);
+    }
+
+    public void analyzeInspected(long micros, int warnings, boolean rejected, boolean limitInjected) {
+        analyzeMicros.record(micros);
+        analyzeWarnings.add(warnings);
+        if (rejected) {
+            analyzeRejected.increment();
+        }
+        if (limitInjected) {
+            analyzeLimits.increment();
+        }
+    }
+
+    /**
+     * pre hook：compileMillis 未知时传负数
+     */
+    public void queryStarted(String queryId, long compileMillis, int tasks, int inputs, int outputs) {
+        started.increment();
+        if (compileMillis >= 0L) {
+            this.compileMillis.record(compileMillis);
+        }
+        plannedTasks.add(tasks);
+        this.inputs.add(inputs);
+        this.outputs.add(outputs);
+        if (queryId != null) {
+            long now = System.currentTimeMillis();
+            if (running.size() >= RUNNING_CLEANUP_SIZE) {
+                expireRunning(now);
+            }
+            running.put(queryId, now);
+        }
+    }
+
+    /**
+     * 移除 pre hook 之后超过 runningExpireMillis 仍没有结束的查询
+     */
+    void expireRunning(long now) {
+        for (Iterator<Long> it = running.values().iterator(); it.hasNext(); ) {
+            if (now - it.next() > runningExpireMillis) {
+                it.remove();
+                expired.increment();
+            }
+        }
+    }
+
+    /**
+     * post hook / failure hook：queryStartTime 为 Driver.run 开始的时间，未知时传 null
+     */
+    public void queryFinished(String queryId, boolean success, Long queryStartTime, int tasks,
+                              int mappers, int reducers, long cpuMillis) {
+        long now = System.currentTimeMillis();
+        (success ? succeeded : failed).increment();
+        Long executionStart = queryId == null ? null : running.remove(queryId);
+        if (executionStart != null) {
+            executionMillis.record(now - executionStart);
+        }
+        if (queryStartTime != null) {
+            queryMillis.record(now - queryStartTime);
+        }
+        completedTasks.add(tasks);
+        this.mappers.add(mappers);
+        this.reducers.add(reducers);
+        this.cpuMillis.add(cpuMillis);
+    }
+
+    /**
+     * 当前各项指标，JMX 和文件输出都用这份数据
+     */
+    public Map<String, Long> snapshot() {
+        expireRunning(System.currentTimeMillis());
+        Map<String, Long> snapshot = new LinkedHashMap<>();
+        snapshot.put("driver.runs", driverRuns.sum());
+        snapshot.put("queries.started", started.sum());
+        snapshot.put("queries.succeeded", succeeded.sum());
+        snapshot.put("queries.failed", failed.sum());
+        snapshot.put("queries.running", (long) running.size());
+        snapshot.put("queries.expired", expired.sum());
+        snapshot.put("tasks.planned", plannedTasks.sum());
+        snapshot.put("tasks.completed", completedTasks.sum());
+        snapshot.put("mappers", mappers.sum());
+        snapshot.put("reducers", reducers.sum());
+        snapshot.put("cpu.millis", cpuMillis.sum());
+        snapshot.put("entities.inputs", inputs.sum());
+        snapshot.put("entities.outputs", outputs.sum());
+        putHistogram(snapshot, "compile.millis", compileMillis);
+        putHistogram(snapshot, "execution.millis", executionMillis);
+        putHistogram(snapshot, "query.millis", queryMillis);
+        putHistogram(snapshot, "driver.run.millis", driverRunMillis);
+        snapshot.put("analyze.warnings", analyzeWarnings.sum());
+        snapshot.put("analyze.rejected", analyzeRejected.sum());
+        snapshot.put("analyze.limits.injected", analyzeLimits.sum());
+        putHistogram(snapshot, "analyze.micros", analyzeMicros);
+        QueryResultCache cache = QueryResultCache.peek();
+        if (cache != null) {
+            snapshot.put("cache.hits", cache.getHits());
+            snapshot.put("cache.misses", cache.getMisses());
+            snapshot.put("cache.stores", cache.getStores());
+            snapshot.put("cache.evictions", cache.getEvictions());
+            snapshot.put("cache.expirations", cache.getExpirations());
+            snapshot.put("cache.errors", cache.getErrors());
+            snapshot.put("cache.entries", (long) cache.getEntries());
+            snapshot.put("cache.bytes", cache.getBytes());
+        }
+        HookEventSink sink = HookEventSink.peek();
+        if (sink != null) {
+            snapshot.put("events.enqueued", sink.getEnqueued());
+            snapshot.put("events.dropped", sink.getDropped());
+            snapshot.put("events.written", sink.getWritten());
+            snapshot.put("events.write.errors", sink.getWriteErrors());
+            snapshot.put("events.queued", (long) sink.getQueued());
+        }
+        return snapshot;
+    }
+
+    private static void putHistogram(Map<String, Long> snapshot, String name, LatencyHistogram histogram) {
+        LatencyHistogram.Snapshot s = histogram.snapshot();
+        snapshot.put(name + ".count", s.getCount());
+        snapshot.put(name + ".mean", s.getMean());
+        snapshot.put(name + ".p50", s.getPercentile(0.5D));
+        snapshot.put(name + ".p90", s.getPercentile(0.9D));
+        snapshot.put(name + ".p99", s.getPercentile(0.99D));
+        snapshot.put(name + ".max", s.getMax());
+    }
+
+    private void registerMBean() {
+        try {
+            ObjectName name = new ObjectName(JMX_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            }
+        } catch (Exception e) {
+            //JMX 不可用时只是看不到指标，不影响查询
+            LOG.warn("Failed to register " + JMX_NAME, e);
+        }
+    }
+
+    private void startDump(final File file, long intervalSeconds) {
+        dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "query-metrics-dump");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        dumper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    dump(file);
+                } catch (Exception e) {
+                    LOG.warn("Failed to dump query metrics to " + file, e);
+                }
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 先写临时文件再改名，读取的一方不会看到写了一半的文件
+     */
+    void dump(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            writer.write("timestamp=" + System.currentTimeMillis() + "\n");
+            for (Map.Entry<String, Long> entry : snapshot().entrySet()) {
+                writer.write(entry.getKey() + "=" + entry.getValue() + "\n");
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Long value = snapshot().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("QueryMetrics attributes are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Long> snapshot = snapshot();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            Long value = snapshot.get(attribute);
+            if (value != null) {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        Map<String, Long> snapshot = snapshot();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[snapshot.size()];
+        int i = 0;
+        for (String name : snapshot.keySet()) {
+            attributes[i++] = new MBeanAttributeInfo(name, Long.class.getName(), name, true, false, false);
+        }
+        return new MBeanInfo(getClass().getName(), "Hive query metrics collected by hooks", attributes,
+                null, new MBeanOperationInfo[0], null);
+    }
+}
@@ -0,0 +1,486 @@
+package com.susu.hook;
+
+import com.susu.util.StripedCounter;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.QueryPlan;
+import org.apache.hadoop.hive.ql.hooks.ReadEntity;
+import org.apache.hadoop.hive.ql.metadata.Partition;
+import org.apache.hadoop.hive.ql.metadata.Table;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * 查询结果缓存，由 MyPreExecuteHook / MyPostExecuteHook 使用：
+ * 1、key = sha-256(规范化后的查询语句 + 结果文件格式 + 每个输入表/分区的版本)，版本是表/分区的 transient_lastDdlTime
+ *    加上数据目录下文件的个数、总长度和最大修改时间，数据有任何增删改 key 都会变化
+ * 2、pre hook 命中时把缓存的结果文件复制到本次查询的结果目录（FetchWork.tblDir）并清空 root task，Driver 不再执行任何 job，
+ *    FetchTask 直接读取复制过来的文件；未命中时记下 key，post hook 把结果目录复制到缓存目录
+ * 3、缓存按 LRU 淘汰，限制条目数和总字节数，超过 TTL 的条目在访问时删除
+ *
+ * 只缓存读表的 QUERY：输入中有目录、输出中有表或分区、语句中有 rand()、current_timestamp 之类不确定的函数时不缓存；
+ * 配置了 hive.exec.query.redactor.hooks 时 QueryPlan 中的语句是脱敏后的，不同的常量可能得到相同的语句，也不缓存
+ *
+ * 没有配置 susu.cache.dir 时不启用；缓存目录可以是 hdfs，也可以是本地目录，
+ * 每个进程使用 susu.cache.dir 下单独的一个子目录，进程退出时删除
+ */
+public class QueryResultCache {
+
+    public static final String DIR = "susu.cache.dir";
+    public static final String TTL_SECONDS = "susu.cache.ttl.seconds";
+    public static final String MAX_ENTRIES = "susu.cache.max.entries";
+    public static final String MAX_BYTES = "susu.cache.max.bytes";
+    public static final String MAX_ENTRY_BYTES = "susu.cache.max.entry.bytes";
+    public static final String MAX_INPUTS = "susu.cache.max.inputs";
+    /**
+     * 额外的不确定函数名，逗号分隔，如自定义的 name
+     */
+    public static final String NONDETERMINISTIC_FUNCTIONS = "susu.cache.nondeterministic.functions";
+
+    public static final long DEFAULT_TTL_SECONDS = 600L;
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    public static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+    public static final long DEFAULT_MAX_ENTRY_BYTES = 16L * 1024 * 1024;
+    public static final int DEFAULT_MAX_INPUTS = 1000;
+
+    private static final String REDACTOR_HOOKS = "hive.exec.query.redactor.hooks";
+    private static final String RESULT_FILE_FORMAT = "hive.query.result.fileformat";
+    private static final String LAST_DDL_TIME = "transient_lastDdlTime";
+
+    private static final String BUILTIN_NONDETERMINISTIC = "rand,current_timestamp,current_date,unix_timestamp,"
+            + "current_user,current_database,reflect,reflect2,java_method,in_file,name";
+
+    private static volatile QueryResultCache instance;
+
+    static class Entry {
+        final Path dir;
+        final long bytes;
+        final long expireTime;
+
+        Entry(Path dir, long bytes, long expireTime) {
+            this.dir = dir;
+            this.bytes = bytes;
+            this.expireTime = expireTime;
+        }
+    }
+
+    private final Path root;
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final int maxInputs;
+    private final Pattern nondeterministic;
+
+    /**
+     * 按访问顺序排列，最久没有访问的在最前面；所有访问都在 synchronized (entries) 中
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75F, true);
+    private long totalBytes;
+
+    /**
+     * 未命中的查询：query id ──> key，post hook 据此保存结果
+     */
+    private final ConcurrentHashMap<String, String> pending = new ConcurrentHashMap<>();
+
+    final StripedCounter hits = new StripedCounter();
+    final StripedCounter misses = new StripedCounter();
+    final StripedCounter stores = new StripedCounter();
+    final StripedCounter evictions = new StripedCounter();
+    final StripedCounter expirations = new StripedCounter();
+    final StripedCounter errors = new StripedCounter();
+
+    QueryResultCache(Configuration conf, Path root) {
+        this.root = root;
+        this.ttlMillis = conf.getLong(TTL_SECONDS, DEFAULT_TTL_SECONDS) * 1000L;
+        this.maxEntries = conf.getInt(MAX_ENTRIES, DEFAULT_MAX_ENTRIES);
+        this.maxBytes = conf.getLong(MAX_BYTES, DEFAULT_MAX_BYTES);
+        this.maxEntryBytes = conf.getLong(MAX_ENTRY_BYTES, DEFAULT_MAX_ENTRY_BYTES);
+        this.maxInputs = conf.getInt(MAX_INPUTS, DEFAULT_MAX_INPUTS);
+        StringBuilder names = new StringBuilder();
+        for (String name : (BUILTIN_NONDETERMINISTIC + "," + conf.get(NONDETERMINISTIC_FUNCTIONS, "")).split(",")) {
+            if (!name.trim().isEmpty()) {
+                names.append(names.length() == 0 ? "" : "|").append(Pattern.quote(name.trim().toLowerCase(Locale.ROOT)));
+            }
+        }
+        this.nondeterministic = Pattern.compile("(?<![a-z0-9_])(" + names + ")\\s*\\(");
+    }
+
+    /**
+     * 没有配置 susu.cache.dir 时返回 null
+     */
+    public static QueryResultCache get(Configuration conf) {
+        QueryResultCache cache = instance;
+        if (cache == null) {
+            if (conf == null || conf.get(DIR) == null) {
+                return null;
+            }
+            synchronized (QueryResultCache.class) {
+                cache = instance;
+                if (cache == null) {
+                    final Path root = new Path(conf.get(DIR), UUID.randomUUID().toString());
+                    final Configuration copy = new Configuration(conf);
+                    cache = new QueryResultCache(copy, root);
+                    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                root.getFileSystem(copy).delete(root, true);
+                            } catch (IOException e) {
+                                //进程退出时尽力清理
+                            }
+                        }
+                    }, "query-result-cache-cleanup"));
+                    instance = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    static QueryResultCache peek() {
+        return instance;
+    }
+
+    /**
+     * FetchTask 读取结果的目录；没有 FetchTask（如 insert、ddl）时返回 null
+     * FetchOperator 在编译阶段就已经按这个目录初始化，不能在 hook 中改成缓存目录，只能把缓存的文件复制进去
+     */
+    static Path resultDir(QueryPlan plan) {
+        if (plan.getFetchTask() == null || plan.getFetchTask().getWork() == null
+                || plan.getFetchTask().getWork().getTblDir() == null) {
+            return null;
+        }
+        return plan.getFetchTask().getWork().getTblDir();
+    }
+
+    /**
+     * pre hook：命中时把结果复制到 resultDir 并返回 true；未命中且可以缓存时记下 key，由 afterExecute 保存
+     */
+    public boolean beforeExecute(String queryId, String query, Set<ReadEntity> inputs, Path resultDir, Configuration conf) {
+        String key;
+        try {
+            key = key(query, inputs, conf);
+        } catch (IOException e) {
+            errors.increment();
+            return false;
+        }
+        if (key == null) {
+            return false;
+        }
+        if (restore(key, resultDir, conf)) {
+            hits.increment();
+            return true;
+        }
+        misses.increment();
+        pending.put(queryId, key);
+        return false;
+    }
+
+    /**
+     * post hook / failure hook：success 为 true 时把本次查询的结果保存到缓存
+     */
+    public void afterExecute(String queryId, boolean success, Path resultDir, Configuration conf) {
+        String key = queryId == null ? null : pending.remove(queryId);
+        if (key == null || !success || resultDir == null) {
+            return;
+        }
+        try {
+            store(key, resultDir, conf);
+        } catch (IOException e) {
+            errors.increment();
+        }
+    }
+
+    /**
+     * 不能缓存时返回 null
+     */
+    String key(String query, Set<ReadEntity> inputs, Configuration conf) throws IOException {
+        if (query == null || inputs == null || inputs.isEmpty() || inputs.size() > maxInputs) {
+            return null;
+        }
+        String redactors = conf.get(REDACTOR_HOOKS);
+        if (redactors != null && !redactors.trim().isEmpty()) {
+            return null;
+        }
+        String normalized = normalize(query);
+        if (nondeterministic.matcher(normalized).find()) {
+            return null;
+        }
+        List<String> versions = new ArrayList<>(inputs.size());
+        for (ReadEntity input : inputs) {
+            String version = version(input, conf);
+            if (version == null) {
+                return null;
+            }
+            versions.add(version);
+        }
+        //Set 的遍历顺序不固定
+        Collections.sort(versions);
+
+        StringBuilder sb = new StringBuilder(normalized);
+        sb.append('\n').append(conf.get(RESULT_FILE_FORMAT, ""));
+        for (String version : versions) {
+            sb.append('\n').append(version);
+        }
+        return sha256(sb.toString());
+    }
+
+    /**
+     * 表或分区的版本；输入是目录、函数等无法判断是否变化的实体时返回 null
+     */
+    private static String version(ReadEntity input, Configuration conf) throws IOException {
+        switch (input.getType()) {
+            case DATABASE:
+            case FUNCTION:
+                return "";
+            case TABLE: {
+                Table table = input.getTable();
+                String ddlTime = table.getParameters() == null ? null : table.getParameters().get(LAST_DDL_TIME);
+                //分区表的数据在各个分区中，视图没有数据，只看定义的变化
+                if (table.isView() || table.isPartitioned()) {
+                    return table.getCompleteName() + "@" + ddlTime;
+                }
+                return table.getCompleteName() + "@" + ddlTime + "@" + directoryVersion(table.getDataLocation(), conf);
+            }
+            case PARTITION: {
+                Partition partition = input.getPartition();
+                String ddlTime = partition.getParameters() == null ? null : partition.getParameters().get(LAST_DDL_TIME);
+                return partition.getCompleteName() + "@" + ddlTime + "@" + directoryVersion(partition.getDataLocation(), conf);
+            }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 目录下文件的个数、总长度和最大修改时间
+     */
+    static String directoryVersion(Path dir, Configuration conf) throws IOException {
+        if (dir == null) {
+            return "none";
+        }
+        FileSystem fs = dir.getFileSystem(conf);
+        if (!fs.exists(dir)) {
+            return "missing";
+        }
+        long files = 0L;
+        long length = 0L;
+        long modified = fs.getFileStatus(dir).getModificationTime();
+        for (FileStatus status : fs.listStatus(dir)) {
+            files++;
+            length += status.getLen();
+            modified = Math.max(modified, status.getModificationTime());
+        }
+        return files + ":" + length + ":" + modified;
+    }
+
+    /**
+     * 去掉注释、末尾的分号，连续的空白合并成一个空格，引号外的部分转为小写
+     */
+    static String normalize(String query) {
+        StringBuilder sb = new StringBuilder(query.length());
+        int n = query.length();
+        int i = 0;
+        boolean space = false;
+        while (i < n) {
+            char c = query.charAt(i);
+            if (c == '-' && i + 1 < n && query.charAt(i + 1) == '-') {
+                while (i < n && query.charAt(i) != '\n') {
+                    i++;
+                }
+                space = true;
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                space = true;
+                i++;
+                continue;
+            }
+            if (space && sb.length() > 0) {
+                sb.append(' ');
+            }
+            space = false;
+            if (c == '\'' || c == '"' || c == '`') {
+                //引号中的内容原样保留，支持反斜杠转义
+                int end = i + 1;
+                while (end < n && query.charAt(end) != c) {
+                    end += query.charAt(end) == '\\' ? 2 : 1;
+                }
+                end = Math.min(end + 1, n);
+                sb.append(query, i, end);
+                i = end;
+                continue;
+            }
+            sb.append(Character.toLowerCase(c));
+            i++;
+        }
+        while (sb.length() > 0 && (sb.charAt(sb.length() - 1) == ';' || sb.charAt(sb.length() - 1) == ' ')) {
+            sb.setLength(sb.length() - 1);
+        }
+        return sb.toString();
+    }
+
+    private static String sha256(String s) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 把缓存的文件复制到 resultDir；失败时删除 resultDir，避免 job 的输出被移动到已经存在的目录中
+     */
+    boolean restore(String key, Path resultDir, Configuration conf) {
+        Entry entry;
+        Entry expired = null;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.expireTime <= System.currentTimeMillis()) {
+                remove(key, entry);
+                expirations.increment();
+                expired = entry;
+                entry = null;
+            }
+        }
+        //删除目录放在锁外，其它查询不必等这次 IO
+        if (expired != null) {
+            delete(expired, conf);
+        }
+        if (entry == null) {
+            return false;
+        }
+        FileSystem dstFs = null;
+        try {
+            FileSystem srcFs = entry.dir.getFileSystem(conf);
+            dstFs = resultDir.getFileSystem(conf);
+            dstFs.mkdirs(resultDir);
+            for (FileStatus status : srcFs.listStatus(entry.dir)) {
+                FileUtil.copy(srcFs, status.getPath(), dstFs, new Path(resultDir, status.getPath().getName()), false, conf);
+            }
+            return true;
+        } catch (IOException e) {
+            //并发淘汰时缓存目录可能已经被删除，按未命中处理
+            errors.increment();
+            try {
+                if (dstFs != null) {
+                    dstFs.delete(resultDir, true);
+                }
+            } catch (IOException ignored) {
+                //下面的 job 会因为结果目录已存在而失败，这里已经无能为力
+            }
+            return false;
+        }
+    }
+
+    void store(String key, Path resultDir, Configuration conf) throws IOException {
+        FileSystem srcFs = resultDir.getFileSystem(conf);
+        if (!srcFs.exists(resultDir)) {
+            return;
+        }
+        long bytes = srcFs.getContentSummary(resultDir).getLength();
+        //超过整个缓存容量的结果放进去也会被立即淘汰，不必复制
+        if (bytes > maxEntryBytes || bytes > maxBytes) {
+            return;
+        }
+        Path dir = new Path(root, key + "-" + UUID.randomUUID());
+        FileSystem dstFs = dir.getFileSystem(conf);
+        if (!FileUtil.copy(srcFs, resultDir, dstFs, dir, false, conf)) {
+            throw new IOException("Failed to copy " + resultDir + " to " + dir);
+        }
+        List<Entry> evicted = new ArrayList<>();
+        synchronized (entries) {
+            Entry old = entries.put(key, new Entry(dir, bytes, System.currentTimeMillis() + ttlMillis));
+            totalBytes += bytes;
+            if (old != null) {
+                totalBytes -= old.bytes;
+                evicted.add(old);
+            }
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while ((entries.size() > maxEntries || totalBytes > maxBytes) && it.hasNext()) {
+                Entry eldest = it.next().getValue();
+                it.remove();
+                totalBytes -= eldest.bytes;
+                evicted.add(eldest);
+                evictions.increment();
+            }
+        }
+        stores.increment();
+        for (Entry entry : evicted) {
+            delete(entry, conf);
+        }
+    }
+
+    private void remove(String key, Entry entry) {
+        entries.remove(key);
+        totalBytes -= entry.bytes;
+    }
+
+    private void delete(Entry entry, Configuration conf) {
+        try {
+            entry.dir.getFileSystem(conf).delete(entry.dir, true);
+        } catch (IOException e) {
+            errors.increment();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getStores() {
+        return stores.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public int getEntries() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getBytes() {
+        synchronized (entries) {
+            return totalBytes;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.susu.hook;
+
+import org.apache.hadoop.conf.Configuration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * MyRedactor 使用的脱敏引擎，配置中的所有规则只编译一次：
+ * 1、要替换的字面量（susu.redactor.literals，逗号分隔，忽略大小写）和各个正则规则的触发词编译到同一个 Aho-Corasick 自动机中，
+ *    查询语句只扫描一遍
+ * 2、扫描到规则的触发词时，才从触发词的位置用该规则的正则 lookingAt，正则不会在每个字符上都尝试一遍；
+ *    所以规则的匹配必须以某个触发词开头，例如内置的手机号规则的触发词是 13 ~ 19
+ * 3、没有配置触发词的规则合并成一个 (r1)|(r2)|... 的 Pattern，额外 find 扫描一遍
+ * 4、没有任何匹配时直接返回原字符串，扫描过程中不分配内存；有匹配时按位置合并，只拼接一次结果
+ *
+ * 自定义规则：susu.redactor.rule.{name}.pattern、.replacement（默认 ******）、.triggers（逗号分隔，可选）
+ * 替换串中可以用 $n 引用规则自己的第 n 个分组；没有触发词的规则会被合并，不能使用 \n 形式的反向引用
+ * Redactor 每个查询都会新建，引擎按配置缓存在 get(conf) 中
+ */
+public class RedactionEngine {
+
+    public static final String BUILTIN_RULES = "susu.redactor.builtin.rules";
+    public static final String LITERALS = "susu.redactor.literals";
+    public static final String LITERAL_REPLACEMENT = "susu.redactor.literal.replacement";
+    public static final String RULE_PREFIX = "susu.redactor.rule.";
+
+    public static final String DEFAULT_REPLACEMENT = "******";
+
+    /**
+     * 内置规则：name、pattern、replacement、triggers
+     */
+    static final String[][] BUILTIN = {
+            //password=xxx、'fs.s3a.secret.key'='xxx'、"javax.jdo.option.ConnectionPassword"="xxx"，保留键名
+            {"credential", "(?i)((?:password|passwd|pwd|secret[._-]?key|access[._-]?key|secret|token)['\"]?\\s*[=:]\\s*['\"]?)[^'\"\\s,;)]+",
+                    "$1" + DEFAULT_REPLACEMENT, "password,passwd,pwd,secret,access,token"},
+            //18 位身份证号，保留前 6 位和后 4 位；触发词是省级行政区划代码
+            {"idcard", "(?<![0-9])([1-9][0-9]{5})(?:19|20)[0-9]{2}(?:0[1-9]|1[0-2])(?:0[1-9]|[12][0-9]|3[01])([0-9]{3}[0-9Xx])(?![0-9A-Za-z])",
+                    "$1********$2", "11,12,13,14,15,21,22,23,31,32,33,34,35,36,37,41,42,43,44,45,46,50,51,52,53,54,61,62,63,64,65,71,81,82,91"},
+            //11 位手机号，保留前 3 位和后 4 位
+            {"phone", "(?<![0-9])(1[3-9][0-9])[0-9]{4}([0-9]{4})(?![0-9])", "$1****$2", "13,14,15,16,17,18,19"}
+    };
+
+    private static final int MAX_CACHED_ENGINES = 16;
+    private static final ConcurrentHashMap<String, RedactionEngine> ENGINES = new ConcurrentHashMap<>();
+
+    static class Rule {
+        final String name;
+        final Pattern pattern;
+        final String replacement;
+        final int groups;
+        /**
+         * 合并后的 Pattern 中包住整个规则的分组的编号，有触发词的规则为 -1
+         */
+        final int group;
+
+        Rule(String name, Pattern pattern, String replacement, int group) {
+            this.name = name;
+            this.pattern = pattern;
+            this.replacement = replacement;
+            this.groups = pattern.matcher("").groupCount();
+            this.group = group;
+        }
+    }
+
+    static class Match implements Comparable<Match> {
+        final int start;
+        final int end;
+        final String replacement;
+
+        Match(int start, int end, String replacement) {
+            this.start = start;
+            this.end = end;
+            this.replacement = replacement;
+        }
+
+        /**
+         * 先按开始位置，开始位置相同时长的在前
+         */
+        @Override
+        public int compareTo(Match o) {
+            return start != o.start ? (start < o.start ? -1 : 1) : (o.end < end ? -1 : (o.end == end ? 0 : 1));
+        }
+    }
+
+    /**
+     * 每个线程复用的 Matcher，reset / region 不会分配内存
+     */
+    private class Scratch {
+        final Matcher[] matchers = new Matcher[rules.length];
+        /**
+         * 每个规则上一次匹配的结束位置，在这之前的触发词不再尝试
+         */
+        final int[] lastEnd = new int[rules.length];
+        final Matcher combined = RedactionEngine.this.combined == null ? null : RedactionEngine.this.combined.matcher("");
+
+        Scratch() {
+            for (int i = 0; i < rules.length; i++) {
+                matchers[i] = rules[i].pattern.matcher("");
+                //lookbehind 可以看到触发词之前的字符，^ 不会匹配触发词的位置
+                matchers[i].useTransparentBounds(true);
+                matchers[i].useAnchoringBounds(false);
+            }
+        }
+    }
+
+    private final Rule[] rules;
+    private final String literalReplacement;
+    /**
+     * 下标 [0, literalCount) 是要替换的字面量，之后是触发词，triggerRules[k - literalCount] 是触发词所属的规则
+     */
+    private final AhoCorasick automaton;
+    private final int literalCount;
+    private final int[] triggerRules;
+    private final int[] wordLengths;
+    private final Pattern combined;
+    private final Rule[] combinedRules;
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    /**
+     * rules 中的每一项为 name、pattern、replacement、triggers（逗号分隔，可以为 null）
+     */
+    public RedactionEngine(List<String> literals, String literalReplacement, List<String[]> rules) {
+        this.literalReplacement = literalReplacement;
+        List<String> words = new ArrayList<>();
+        for (String literal : literals) {
+            if (!literal.isEmpty()) {
+                words.add(literal);
+            }
+        }
+        this.literalCount = words.size();
+        List<Integer> triggerRules = new ArrayList<>();
+        List<Rule> combinedRules = new ArrayList<>();
+        StringBuilder combined = new StringBuilder();
+        int group = 1;
+        this.rules = new Rule[rules.size()];
+        for (int i = 0; i < rules.size(); i++) {
+            String[] rule = rules.get(i);
+            Pattern pattern;
+            try {
+                pattern = Pattern.compile(rule[1]);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid redaction rule " + rule[0] + ": " + rule[1], e);
+            }
+            List<String> triggers = new ArrayList<>();
+            if (rule.length > 3 && rule[3] != null) {
+                for (String trigger : rule[3].split(",")) {
+                    if (!trigger.trim().isEmpty()) {
+                        triggers.add(trigger.trim());
+                    }
+                }
+            }
+            if (triggers.isEmpty()) {
+                this.rules[i] = new Rule(rule[0], pattern, rule[2], group);
+                combinedRules.add(this.rules[i]);
+                combined.append(combined.length() == 0 ? "" : "|").append('(').append(rule[1]).append(')');
+                group += this.rules[i].groups + 1;
+            } else {
+                this.rules[i] = new Rule(rule[0], pattern, rule[2], -1);
+                for (String trigger : triggers) {
+                    words.add(trigger);
+                    triggerRules.add(i);
+                }
+            }
+        }
+        this.automaton = words.isEmpty() ? null : new AhoCorasick(words);
+        this.wordLengths = new int[words.size()];
+        for (int i = 0; i < wordLengths.length; i++) {
+            wordLengths[i] = words.get(i).length();
+        }
+        this.triggerRules = new int[triggerRules.size()];
+        for (int i = 0; i < this.triggerRules.length; i++) {
+            this.triggerRules[i] = triggerRules.get(i);
+        }
+        this.combined = combinedRules.isEmpty() ? null : Pattern.compile(combined.toString());
+        this.combinedRules = combinedRules.toArray(new Rule[combinedRules.size()]);
+    }
+
+    /**
+     * 按配置返回缓存的引擎，配置不变时不会重新编译
+     */
+    public static RedactionEngine get(Configuration conf) {
+        boolean builtin = conf.getBoolean(BUILTIN_RULES, true);
+        String literalReplacement = conf.get(LITERAL_REPLACEMENT, DEFAULT_REPLACEMENT);
+        Map<String, String> ruleConf = new TreeMap<>(conf.getValByRegex("^" + Pattern.quote(RULE_PREFIX)));
+        String key = builtin + "\u0000" + conf.get(LITERALS, "") + "\u0000" + literalReplacement + "\u0000" + ruleConf;
+        RedactionEngine engine = ENGINES.get(key);
+        if (engine == null) {
+            List<String[]> rules = new ArrayList<>();
+            if (builtin) {
+                rules.addAll(Arrays.asList(BUILTIN));
+            }
+            for (Map.Entry<String, String> entry : ruleConf.entrySet()) {
+                if (entry.getKey().endsWith(".pattern")) {
+                    String prefix = entry.getKey().substring(0, entry.getKey().length() - "pattern".length());
+                    String replacement = ruleConf.get(prefix + "replacement");
+                    rules.add(new String[]{prefix.substring(RULE_PREFIX.length(), prefix.length() - 1), entry.getValue(),
+                            replacement == null ? DEFAULT_REPLACEMENT : replacement, ruleConf.get(prefix + "triggers")});
+                }
+            }
+            engine = new RedactionEngine(Arrays.asList(conf.getTrimmedStrings(LITERALS)), literalReplacement, rules);
+            //配置很少变化，超过上限时整个清空即可
+            if (ENGINES.size() >= MAX_CACHED_ENGINES) {
+                ENGINES.clear();
+            }
+            ENGINES.put(key, engine);
+        }
+        return engine;
+    }
+
+    /**
+     * 没有匹配时返回 query 本身
+     */
+    public String redact(String query) {
+        if (query == null || query.isEmpty()) {
+            return query;
+        }
+        Scratch scratch = this.scratch.get();
+        List<Match> matches = null;
+        try {
+            if (automaton != null) {
+                matches = scan(query, scratch, matches);
+            }
+            if (combined != null) {
+                matches = findCombined(query, scratch.combined, matches);
+            }
+        } finally {
+            //不持有查询字符串，大的 insert 语句可以及时回收
+            for (Matcher matcher : scratch.matchers) {
+                matcher.reset("");
+            }
+            if (scratch.combined != null) {
+                scratch.combined.reset("");
+            }
+        }
+        if (matches == null) {
+            return query;
+        }
+        //字面量按结束位置、正则按开始位置找到，排序后跳过与前一个重叠的匹配
+        Collections.sort(matches);
+        StringBuilder sb = new StringBuilder(query.length());
+        int last = 0;
+        for (Match match : matches) {
+            if (match.start < last) {
+                continue;
+            }
+            sb.append(query, last, match.start).append(match.replacement);
+            last = match.end;
+        }
+        return sb.append(query, last, query.length()).toString();
+    }
+
+    private List<Match> scan(String query, Scratch scratch, List<Match> matches) {
+        Arrays.fill(scratch.lastEnd, 0);
+        for (Matcher matcher : scratch.matchers) {
+            matcher.reset(query);
+        }
+        int length = query.length();
+        int state = 0;
+        for (int i = 0; i < length; i++) {
+            state = automaton.next(state, query.charAt(i));
+            int[] outputs = automaton.outputs(state);
+            for (int k : outputs) {
+                int start = i + 1 - wordLengths[k];
+                if (k < literalCount) {
+                    matches = add(matches, new Match(start, i + 1, literalReplacement));
+                    continue;
+                }
+                int r = triggerRules[k - literalCount];
+                if (start < scratch.lastEnd[r]) {
+                    continue;
+                }
+                Matcher matcher = scratch.matchers[r];
+                matcher.region(start, length);
+                if (matcher.lookingAt() && matcher.end() > start) {
+                    scratch.lastEnd[r] = matcher.end();
+                    matches = add(matches, new Match(start, matcher.end(), expand(matcher, 0, rules[r])));
+                }
+            }
+        }
+        return matches;
+    }
+
+    private List<Match> findCombined(String query, Matcher matcher, List<Match> matches) {
+        matcher.reset(query);
+        while (matcher.find()) {
+            if (matcher.end() == matcher.start()) {
+                continue;
+            }
+            for (Rule rule : combinedRules) {
+                if (matcher.start(rule.group) >= 0) {
+                    matches = add(matches, new Match(matcher.start(), matcher.end(), expand(matcher, rule.group, rule)));
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    private static List<Match> add(List<Match> matches, Match match) {
+        if (matches == null) {
+            matches = new ArrayList<>();
+        }
+        matches.add(match);
+        return matches;
+    }
+
+    /**
+     * 替换串中的 $n 换成规则自身的第 n 个分组（在 matcher 中是 base + n），没有匹配的分组为空串
+     */
+    private static String expand(Matcher matcher, int base, Rule rule) {
+        String replacement = rule.replacement;
+        if (replacement.indexOf('$') < 0) {
+            return replacement;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < replacement.length(); i++) {
+            char c = replacement.charAt(i);
+            if (c == '$' && i + 1 < replacement.length() && Character.isDigit(replacement.charAt(i + 1))) {
+                int n = replacement.charAt(++i) - '0';
+                if (n >= 1 && n <= rule.groups) {
+                    String value = matcher.group(base + n);
+                    sb.append(value == null ? "" : value);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
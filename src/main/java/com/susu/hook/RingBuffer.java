@@ -0,0 +1,90 @@
+package com.susu.hook;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 有界的多生产者、单消费者环形队列
+ * 生产者（hook 所在的查询线程）用一次 CAS 占位后写入槽位，队列满时 offer 直接返回 false，不加锁也不阻塞；
+ * 只能有一个消费者线程调用 poll / drainTo
+ */
+public class RingBuffer<E> {
+
+    private final AtomicReferenceArray<E> slots;
+    private final int mask;
+
+    /**
+     * 下一个要写入的位置，生产者之间 CAS 竞争
+     */
+    private final AtomicLong producerIndex = new AtomicLong(0L);
+    /**
+     * 下一个要读取的位置，只有消费者写
+     */
+    private final AtomicLong consumerIndex = new AtomicLong(0L);
+
+    public RingBuffer(int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    public int size() {
+        long size = producerIndex.get() - consumerIndex.get();
+        return (int) Math.max(0L, Math.min(size, capacity()));
+    }
+
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long index;
+        do {
+            index = producerIndex.get();
+            if (index - consumerIndex.get() >= capacity()) {
+                return false;
+            }
+        } while (!producerIndex.compareAndSet(index, index + 1));
+        //占位之后再写入，消费者读到 null 说明生产者还没写完
+        slots.lazySet((int) index & mask, e);
+        return true;
+    }
+
+    public E poll() {
+        long index = consumerIndex.get();
+        int slot = (int) index & mask;
+        E e = slots.get(slot);
+        if (e == null) {
+            if (index == producerIndex.get()) {
+                return null;
+            }
+            //已经有生产者占了位，等它写完
+            do {
+                e = slots.get(slot);
+            } while (e == null);
+        }
+        slots.lazySet(slot, null);
+        consumerIndex.lazySet(index + 1);
+        return e;
+    }
+
+    /**
+     * 最多取出 max 个元素追加到 target 中，返回取出的个数
+     */
+    public int drainTo(List<? super E> target, int max) {
+        int count = 0;
+        E e;
+        while (count < max && (e = poll()) != null) {
+            target.add(e);
+            count++;
+        }
+        return count;
+    }
+}
@@ -1,19 +1,36 @@
 package com.susu.udf;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.common.type.HiveDecimal;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.session.SessionState;
 import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFAverage;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.util.JavaDataModel;
 import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.io.HiveDecimalWritable;
 import org.apache.hadoop.hive.serde2.objectinspector.*;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ByteObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.FloatObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.HiveDecimalObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ShortObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.DecimalTypeInfo;
 import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.util.StringUtils;
 
@@ -24,6 +41,14 @@ import java.util.ArrayList;
  */
 public class GenericUDAFMyAverage extends AbstractGenericUDAFResolver {
 
+    private static final Log LOG = LogFactory.getLog(GenericUDAFMyAverage.class);
+
+    /**
+     * 会话级开关：set susu.udaf.average.compensated=true 后，数值/字符串入参使用补偿求和的Evaluator
+     * Evaluator的类名会写入执行计划，因此只需要在编译阶段（getEvaluator）读取一次
+     */
+    public static final String COMPENSATED_SUM_CONF = "susu.udaf.average.compensated";
+
     /**
      * 1、重写getEvaluator方法
      * 该方法的主要目的是校验UDAF的入参个数和入参类型并返回Evaluator对象
@@ -34,18 +59,42 @@ public class GenericUDAFMyAverage extends AbstractGenericUDAFResolver {
      */
     @Override
     public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
-        if (parameters.length != 1) {//若入参个数不对，抛异常
-            throw new UDFArgumentTypeException(parameters.length - 1, "Exactly one argument is expected.");
+        if (parameters.length != 1 && parameters.length != 2) {//若入参个数不对，抛异常
+            throw new UDFArgumentTypeException(parameters.length - 1, "One or two arguments are expected.");
+        } else if (parameters.length == 2 && !isBoolean(parameters[1])) {//第二个参数是可选的compact开关，必须是boolean
+            throw new UDFArgumentTypeException(1, "The second argument must be a constant boolean but " + parameters[1].getTypeName() + " is passed.");
         } else if (parameters[0].getCategory() != ObjectInspector.Category.PRIMITIVE) {//若入参数据类型不对，抛异常
             throw new UDFArgumentTypeException(0, "Only primitive type arguments are accepted but " + parameters[0].getTypeName() + " is passed.");
         } else {
-            switch(((PrimitiveTypeInfo)parameters[0]).getPrimitiveCategory()) {
+            PrimitiveCategory category = ((PrimitiveTypeInfo)parameters[0]).getPrimitiveCategory();
+            //开启补偿求和时，decimal本身已是精确计算，仍走下面的decimal Evaluator
+            if (isCompensatedSum()) {
+                switch (category) {
+                    case BYTE:
+                    case SHORT:
+                    case INT:
+                    case LONG:
+                    case FLOAT:
+                    case DOUBLE:
+                    case STRING:
+                    case TIMESTAMP:
+                        return new GenericUDAFMyAverage.GenericUDAFAverageEvaluatorCompensated();
+                    default:
+                        break;
+                }
+            }
+            switch(category) {
+                //数值类型走专门的Evaluator，string/timestamp仍需通过PrimitiveObjectInspectorUtils转换
                 case BYTE:
                 case SHORT:
                 case INT:
                 case LONG:
+                    return new GenericUDAFMyAverage.GenericUDAFAverageEvaluatorLong();
                 case FLOAT:
                 case DOUBLE:
+                    return new GenericUDAFMyAverage.GenericUDAFAverageEvaluatorDouble();
+                case DECIMAL:
+                    return new GenericUDAFMyAverage.GenericUDAFAverageEvaluatorDecimal();
                 case STRING:
                 case TIMESTAMP:
                     return new GenericUDAFMyAverage.GenericUDAFAverageEvaluator();
@@ -57,11 +106,29 @@ public class GenericUDAFMyAverage extends AbstractGenericUDAFResolver {
 
     }
 
+    static boolean isCompensatedSum() {
+        SessionState ss = SessionState.get();
+        return ss != null && ss.getConf().getBoolean(COMPENSATED_SUM_CONF, false);
+    }
+
+    private static boolean isBoolean(TypeInfo typeInfo) {
+        return typeInfo.getCategory() == ObjectInspector.Category.PRIMITIVE
+                && ((PrimitiveTypeInfo) typeInfo).getPrimitiveCategory() == PrimitiveCategory.BOOLEAN;
+    }
+
     /**
      * 2、构造一个继承抽象类GenericUDAFEvaluator的类，并重写它的几个抽下你个方法
+     * 第二个参数为true时（如 myavg(salary, true)），terminatePartial输出紧凑的binary中间结果：
+     * varint编码的count + 8字节的sum，代替struct(count, sum)，减少shuffle的字节数
+     * merge端根据入参OI是struct还是binary自动识别中间结果格式
      */
     public static class GenericUDAFAverageEvaluator extends GenericUDAFEvaluator {
 
+        /**
+         * 紧凑格式的最大长度：count非负，varint最多9字节 + double 8字节
+         */
+        static final int MAX_COMPACT_PARTIAL_LENGTH = 17;
+
         private PrimitiveObjectInspector inputOi;
         private DoubleWritable result;  //接受结果
         private Object[] partialResult; //存储terminatePartial方法返回值
@@ -71,6 +138,9 @@ public class GenericUDAFMyAverage extends AbstractGenericUDAFResolver {
         LongObjectInspector countFieldOI;
         DoubleObjectInspector sumFieldOI;
         boolean warned = false;
+        boolean compactPartial;
+        BinaryObjectInspector compactPartialOI;
+        BytesWritable compactResult;
 
         /**
          * 确定各个阶段输入输出参数的数据格式 ObjectInspectors
@@ -78,7 +148,7 @@ public class GenericUDAFMyAverage extends AbstractGenericUDAFResolver {
          */
         @Override
         public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
-            assert parameters.length == 0;
+            assert parameters.length == 1 || parameters.length == 2;
             //由super.init方法的具体实现可知，方法中将m赋值给了mode变量，因此在接下来的代码中，可以直接通过this.mode来引用m对象
             super.init(m, parameters);
 
@@ -90,12 +160,18 @@ public class GenericUDAFMyAverage extends AbstractGenericUDAFResolver {
                  * `PARTIAL2` ： `merge` ──> `terminatePartial`
                  * `FINAL`    ： `merge` ──> `terminate`
                  *  无论当前是PARTIAL2还是FINAL阶段，第一个执行的都是merge方法
+                 *  中间结果是binary说明上游使用了紧凑格式，否则是struct(count, sum)
                  */
-                this.soi = (StructObjectInspector)parameters[0];
-                this.countField = this.soi.getStructFieldRef("count");
-                this.sumField = this.soi.getStructFieldRef("sum");
-                this.countFieldOI = (LongObjectInspector)this.countField.getFieldObjectInspector();
-                this.sumFieldOI = (DoubleObjectInspector)this.sumField.getFieldObjectInspector();
+                if (parameters[0].getCategory() == ObjectInspector.Category.PRIMITIVE) {
+                    this.compactPartial = true;
+                    this.compactPartialOI = (BinaryObjectInspector) parameters[0];
+                } else {
+                    this.soi = (StructObjectInspector)parameters[0];
+                    this.countField = this.soi.getStructFieldRef("count");
+                    this.sumField = this.soi.getStructFieldRef("sum");
+                    this.countFieldOI = (LongObjectInspector)this.countField.getFieldObjectInspector();
+                    this.sumFieldOI = (DoubleObjectInspector)this.sumField.getFieldObjectInspector();
+                }
             } else {
                 /**
                  * `PARTIAL1`: `iterate` ──> `terminatePartial`
@@ -104,6 +180,9 @@ public class GenericUDAFMyAverage extends AbstractGenericUDAFResolver {
                  * 因此这里将入参parameters[0]转变为PrimitiveObjectInspector（基本类型）并赋值给inputOi，
                  */
                 this.inputOi = (PrimitiveObjectInspector) parameters[0];
+                if (parameters.length == 2) {
+                    this.compactPartial = getCompactFlag(parameters[1]);
+                }
             }
 
             /**
@@ -132,6 +211,11 @@ public class GenericUDAFMyAverage extends AbstractGenericUDAFResolver {
                  * 若当前是PARTIAL1或PARTIAL2阶段，则最后都是执行的terminatePartial方法，
                  * 因此这里要return的类型，就是terminatePartial方法的返回值类型
                  */
+                if (this.compactPartial) {
+                    //紧凑格式：预先分配好最大长度，terminatePartial中直接写入，不再产生新对象
+                    this.compactResult = new BytesWritable(new byte[MAX_COMPACT_PARTIAL_LENGTH]);
+                    return PrimitiveObjectInspectorFactory.writableBinaryObjectInspector;
+                }
                 //因为terminatePartial方法中要将运算结果保存到partialResult中，所以这里先将partialResult初始化一下
                 this.partialResult = new Object[2];
                 this.partialResult[0] = new LongWritable(0L);
@@ -151,6 +235,17 @@ public class GenericUDAFMyAverage extends AbstractGenericUDAFResolver {
             }
         }
 
+        /**
+         * 读取第二个参数，必须是常量
+         */
+        static boolean getCompactFlag(ObjectInspector flagOi) throws UDFArgumentTypeException {
+            if (!(flagOi instanceof ConstantObjectInspector)) {
+                throw new UDFArgumentTypeException(1, "The second argument must be a constant boolean.");
+            }
+            Object flag = ((ConstantObjectInspector) flagOi).getWritableConstantValue();
+            return flag != null && ((BooleanWritable) flag).get();
+        }
+
         /**
          * 获取buffer类
          */
@@ -164,9 +259,15 @@ public class GenericUDAFMyAverage extends AbstractGenericUDAFResolver {
         /**
          * 内部类，缓冲类
          */
-        public class AvgAggBuffer implements AggregationBuffer {
+        @AggregationType(estimable = true)
+        public class AvgAggBuffer extends AbstractAggregationBuffer {
             long count;
             double sum;
+
+            @Override
+            public int estimate() {
+                return JavaDataModel.PRIMITIVES2 * 2;
+            }
         }
 
         /**
@@ -184,7 +285,7 @@ public class GenericUDAFMyAverage extends AbstractGenericUDAFResolver {
          */
         @Override
         public void iterate(AggregationBuffer aggregationBuffer, Object[] parameters) throws HiveException {
-            assert parameters.length == 1;
+            assert parameters.length == 1 || parameters.length == 2;
             Object parameter = parameters[0];
             if (parameter != null) {
                 AvgAggBuffer buffer = (AvgAggBuffer) aggregationBuffer;
@@ -210,17 +311,40 @@ public class GenericUDAFMyAverage extends AbstractGenericUDAFResolver {
         @Override
         public Object terminatePartial(AggregationBuffer aggregationBuffer) throws HiveException {
             AvgAggBuffer buffer = (AvgAggBuffer) aggregationBuffer;
+            if (this.compactPartial) {
+                this.compactResult.setSize(MAX_COMPACT_PARTIAL_LENGTH);
+                int length = writeCompactPartial(this.compactResult.getBytes(), buffer.count, buffer.sum);
+                this.compactResult.setSize(length);
+                return this.compactResult;
+            }
             ((LongWritable)this.partialResult[0]).set(buffer.count);
             ((DoubleWritable)this.partialResult[1]).set(buffer.sum);
             return this.partialResult;
         }
 
+        /**
+         * 紧凑格式编码：count用varint（每字节7位，最高位表示后面还有字节），sum为8字节大端的double
+         * 返回写入的字节数
+         */
+        static int writeCompactPartial(byte[] bytes, long count, double sum) {
+            int pos = PartialCodec.writeVLong(bytes, 0, count);
+            return PartialCodec.writeDouble(bytes, pos, sum);
+        }
+
         /**
          * combiner 合并 map 返回的结果，还有 reducer 合并 mapper 或 combiner 返回的结果。
          */
         @Override
         public void merge(AggregationBuffer aggregationBuffer, Object partial) throws HiveException {
-            if (partial != null) {
+            if (partial != null && this.compactPartial) {
+                AvgAggBuffer buffer = (AvgAggBuffer) aggregationBuffer;
+                BytesWritable bytes = this.compactPartialOI.getPrimitiveWritableObject(partial);
+                //紧凑格式解码，与writeCompactPartial对应
+                byte[] data = bytes.getBytes();
+                long count = PartialCodec.readVLong(data, 0);
+                buffer.count += count;
+                buffer.sum += PartialCodec.readDouble(data, PartialCodec.vLongLength(count));
+            } else if (partial != null) {
                 AvgAggBuffer buffer = (AvgAggBuffer) aggregationBuffer;
                 //通过StructOI及指定的参数类型，将partial中的数据【按参数类型】分离出
                 Object partialCount = this.soi.getStructFieldData(partial, this.countField);
@@ -247,4 +371,455 @@ public class GenericUDAFMyAverage extends AbstractGenericUDAFResolver {
 
 
     }
+
+    /**
+     * 3、整型入参（tinyint/smallint/int/bigint）的Evaluator
+     * 只重写init和iterate：按init中解析出的具体OI读取，不再经过PrimitiveObjectInspectorUtils.getDouble
+     * buffer、terminatePartial、merge、terminate与父类完全一致，中间结果格式不变
+     */
+    public static class GenericUDAFAverageEvaluatorLong extends GenericUDAFAverageEvaluator {
+
+        private PrimitiveCategory inputCategory;
+        private PrimitiveObjectInspector numericOi;
+
+        @Override
+        public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+            ObjectInspector outputOi = super.init(m, parameters);
+            if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+                this.numericOi = (PrimitiveObjectInspector) parameters[0];
+                this.inputCategory = this.numericOi.getPrimitiveCategory();
+            }
+            return outputOi;
+        }
+
+        @Override
+        public void iterate(AggregationBuffer aggregationBuffer, Object[] parameters) throws HiveException {
+            assert parameters.length == 1 || parameters.length == 2;
+            Object parameter = parameters[0];
+            if (parameter != null) {
+                AvgAggBuffer buffer = (AvgAggBuffer) aggregationBuffer;
+                long value;
+                switch (this.inputCategory) {
+                    case BYTE:
+                        value = ((ByteObjectInspector) this.numericOi).get(parameter);
+                        break;
+                    case SHORT:
+                        value = ((ShortObjectInspector) this.numericOi).get(parameter);
+                        break;
+                    case INT:
+                        value = ((IntObjectInspector) this.numericOi).get(parameter);
+                        break;
+                    default:
+                        value = ((LongObjectInspector) this.numericOi).get(parameter);
+                        break;
+                }
+                ++buffer.count;
+                buffer.sum += value;
+            }
+        }
+    }
+
+    /**
+     * 4、浮点入参（float/double）的Evaluator，同样只重写init和iterate
+     */
+    public static class GenericUDAFAverageEvaluatorDouble extends GenericUDAFAverageEvaluator {
+
+        private boolean isFloat;
+        private PrimitiveObjectInspector numericOi;
+
+        @Override
+        public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+            ObjectInspector outputOi = super.init(m, parameters);
+            if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+                this.numericOi = (PrimitiveObjectInspector) parameters[0];
+                this.isFloat = this.numericOi.getPrimitiveCategory() == PrimitiveCategory.FLOAT;
+            }
+            return outputOi;
+        }
+
+        @Override
+        public void iterate(AggregationBuffer aggregationBuffer, Object[] parameters) throws HiveException {
+            assert parameters.length == 1 || parameters.length == 2;
+            Object parameter = parameters[0];
+            if (parameter != null) {
+                AvgAggBuffer buffer = (AvgAggBuffer) aggregationBuffer;
+                double value = this.isFloat
+                        ? ((FloatObjectInspector) this.numericOi).get(parameter)
+                        : ((DoubleObjectInspector) this.numericOi).get(parameter);
+                ++buffer.count;
+                buffer.sum += value;
+            }
+        }
+    }
+
+    /**
+     * 5、decimal入参的Evaluator，sum用HiveDecimal累加，避免double带来的精度损失
+     * 中间结果为 struct(count bigint, sum decimal(min(38, p + 10), s))
+     * decimal的sum本身是变长的，第二个参数（紧凑格式开关）对它不生效
+     * 最终结果为 decimal(38, min(38, s + 4))，COMPLETE与FINAL阶段得到的类型一致
+     */
+    public static class GenericUDAFAverageEvaluatorDecimal extends GenericUDAFEvaluator {
+
+        private HiveDecimalObjectInspector inputOi;
+        private StructObjectInspector soi;
+        private StructField countField;
+        private StructField sumField;
+        private LongObjectInspector countFieldOi;
+        private HiveDecimalObjectInspector sumFieldOi;
+        private HiveDecimalWritable result;
+        private Object[] partialResult;
+        private int sumPrecision;
+        private int sumScale;
+        private int resultScale;
+
+        @Override
+        public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+            assert parameters.length == 1 || parameters.length == 2;
+            super.init(m, parameters);
+
+            //1、设置入参，同时推导出sum的精度
+            if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+                this.inputOi = (HiveDecimalObjectInspector) parameters[0];
+                DecimalTypeInfo inputTypeInfo = (DecimalTypeInfo) this.inputOi.getTypeInfo();
+                this.sumPrecision = Math.min(HiveDecimal.MAX_PRECISION, inputTypeInfo.precision() + 10);
+                this.sumScale = inputTypeInfo.scale();
+            } else {
+                this.soi = (StructObjectInspector) parameters[0];
+                this.countField = this.soi.getStructFieldRef("count");
+                this.sumField = this.soi.getStructFieldRef("sum");
+                this.countFieldOi = (LongObjectInspector) this.countField.getFieldObjectInspector();
+                this.sumFieldOi = (HiveDecimalObjectInspector) this.sumField.getFieldObjectInspector();
+                DecimalTypeInfo sumTypeInfo = (DecimalTypeInfo) this.sumFieldOi.getTypeInfo();
+                this.sumPrecision = sumTypeInfo.precision();
+                this.sumScale = sumTypeInfo.scale();
+            }
+            this.resultScale = Math.min(HiveDecimal.MAX_SCALE, this.sumScale + 4);
+
+            //2、设置出参
+            if (m == Mode.COMPLETE || m == Mode.FINAL) {
+                this.result = new HiveDecimalWritable(HiveDecimal.ZERO);
+                return PrimitiveObjectInspectorFactory.getPrimitiveWritableObjectInspector(
+                        TypeInfoFactory.getDecimalTypeInfo(HiveDecimal.MAX_PRECISION, this.resultScale));
+            } else {
+                this.partialResult = new Object[2];
+                this.partialResult[0] = new LongWritable(0L);
+                this.partialResult[1] = new HiveDecimalWritable(HiveDecimal.ZERO);
+
+                ArrayList<String> fname = new ArrayList<>();
+                fname.add("count");
+                fname.add("sum");
+                ArrayList<ObjectInspector> foi = new ArrayList<>();
+                foi.add(PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+                foi.add(PrimitiveObjectInspectorFactory.getPrimitiveWritableObjectInspector(
+                        TypeInfoFactory.getDecimalTypeInfo(this.sumPrecision, this.sumScale)));
+                return ObjectInspectorFactory.getStandardStructObjectInspector(fname, foi);
+            }
+        }
+
+        /**
+         * decimal的缓冲类，sum为null表示已超出decimal最大精度
+         */
+        @AggregationType(estimable = true)
+        public class DecimalAvgAggBuffer extends AbstractAggregationBuffer {
+            long count;
+            HiveDecimal sum;
+
+            @Override
+            public int estimate() {
+                return JavaDataModel.PRIMITIVES2 + JavaDataModel.get().lengthOfDecimal();
+            }
+        }
+
+        @Override
+        public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+            DecimalAvgAggBuffer buffer = new DecimalAvgAggBuffer();
+            this.reset(buffer);
+            return buffer;
+        }
+
+        @Override
+        public void reset(AggregationBuffer aggregationBuffer) throws HiveException {
+            DecimalAvgAggBuffer buffer = (DecimalAvgAggBuffer) aggregationBuffer;
+            buffer.count = 0L;
+            buffer.sum = HiveDecimal.ZERO;
+        }
+
+        @Override
+        public void iterate(AggregationBuffer aggregationBuffer, Object[] parameters) throws HiveException {
+            assert parameters.length == 1 || parameters.length == 2;
+            Object parameter = parameters[0];
+            if (parameter != null) {
+                DecimalAvgAggBuffer buffer = (DecimalAvgAggBuffer) aggregationBuffer;
+                ++buffer.count;
+                if (buffer.sum != null) {
+                    buffer.sum = buffer.sum.add(this.inputOi.getPrimitiveJavaObject(parameter));
+                }
+            }
+        }
+
+        @Override
+        public Object terminatePartial(AggregationBuffer aggregationBuffer) throws HiveException {
+            DecimalAvgAggBuffer buffer = (DecimalAvgAggBuffer) aggregationBuffer;
+            ((LongWritable) this.partialResult[0]).set(buffer.count);
+            if (buffer.sum == null) {
+                this.partialResult[1] = null;
+            } else {
+                if (this.partialResult[1] == null) {
+                    this.partialResult[1] = new HiveDecimalWritable(HiveDecimal.ZERO);
+                }
+                ((HiveDecimalWritable) this.partialResult[1]).set(buffer.sum, this.sumPrecision, this.sumScale);
+            }
+            return this.partialResult;
+        }
+
+        @Override
+        public void merge(AggregationBuffer aggregationBuffer, Object partial) throws HiveException {
+            if (partial != null) {
+                DecimalAvgAggBuffer buffer = (DecimalAvgAggBuffer) aggregationBuffer;
+                Object partialCount = this.soi.getStructFieldData(partial, this.countField);
+                Object partialSum = this.soi.getStructFieldData(partial, this.sumField);
+                buffer.count += this.countFieldOi.get(partialCount);
+                if (buffer.sum != null) {
+                    HiveDecimal sum = partialSum == null ? null : this.sumFieldOi.getPrimitiveJavaObject(partialSum);
+                    buffer.sum = sum == null ? null : buffer.sum.add(sum);
+                }
+            }
+        }
+
+        @Override
+        public Object terminate(AggregationBuffer aggregationBuffer) throws HiveException {
+            DecimalAvgAggBuffer buffer = (DecimalAvgAggBuffer) aggregationBuffer;
+            if (buffer.count == 0 || buffer.sum == null) {
+                return null;
+            }
+            HiveDecimal avg = buffer.sum.divide(HiveDecimal.create(buffer.count));
+            avg = avg == null ? null : HiveDecimal.enforcePrecisionScale(avg, HiveDecimal.MAX_PRECISION, this.resultScale);
+            if (avg == null) {
+                return null;
+            }
+            this.result.set(avg);
+            return this.result;
+        }
+    }
+
+    /**
+     * 6、补偿求和（Neumaier算法）的Evaluator，在会话中 set susu.udaf.average.compensated=true 后使用
+     * buffer中多记录一个补偿项compensation，保存每次浮点加法被舍掉的低位，最终结果为 (sum + compensation) / count
+     * 补偿项同样随terminatePartial/merge传递：中间结果为 struct(count, sum, compensation)，
+     * 开启紧凑格式时为 varint count + 8字节sum + 8字节compensation
+     */
+    public static class GenericUDAFAverageEvaluatorCompensated extends GenericUDAFEvaluator {
+
+        static final int MAX_COMPACT_PARTIAL_LENGTH = GenericUDAFAverageEvaluator.MAX_COMPACT_PARTIAL_LENGTH + 8;
+
+        private PrimitiveCategory inputCategory;
+        private PrimitiveObjectInspector inputOi;
+        private DoubleWritable result;
+        private Object[] partialResult;
+        private StructObjectInspector soi;
+        private StructField countField;
+        private StructField sumField;
+        private StructField compensationField;
+        private LongObjectInspector countFieldOI;
+        private DoubleObjectInspector sumFieldOI;
+        private DoubleObjectInspector compensationFieldOI;
+        private boolean compactPartial;
+        private BinaryObjectInspector compactPartialOI;
+        private BytesWritable compactResult;
+        private boolean warned = false;
+
+        @Override
+        public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+            assert parameters.length == 1 || parameters.length == 2;
+            super.init(m, parameters);
+
+            //1、设置入参
+            if (m != Mode.PARTIAL1 && m != Mode.COMPLETE) {
+                if (parameters[0].getCategory() == ObjectInspector.Category.PRIMITIVE) {
+                    this.compactPartial = true;
+                    this.compactPartialOI = (BinaryObjectInspector) parameters[0];
+                } else {
+                    this.soi = (StructObjectInspector) parameters[0];
+                    this.countField = this.soi.getStructFieldRef("count");
+                    this.sumField = this.soi.getStructFieldRef("sum");
+                    this.compensationField = this.soi.getStructFieldRef("compensation");
+                    this.countFieldOI = (LongObjectInspector) this.countField.getFieldObjectInspector();
+                    this.sumFieldOI = (DoubleObjectInspector) this.sumField.getFieldObjectInspector();
+                    this.compensationFieldOI = (DoubleObjectInspector) this.compensationField.getFieldObjectInspector();
+                }
+            } else {
+                this.inputOi = (PrimitiveObjectInspector) parameters[0];
+                this.inputCategory = this.inputOi.getPrimitiveCategory();
+                if (parameters.length == 2) {
+                    this.compactPartial = GenericUDAFAverageEvaluator.getCompactFlag(parameters[1]);
+                }
+            }
+
+            //2、设置出参
+            if (m != Mode.PARTIAL1 && m != Mode.PARTIAL2) {
+                this.result = new DoubleWritable(0.0D);
+                return PrimitiveObjectInspectorFactory.writableDoubleObjectInspector;
+            } else if (this.compactPartial) {
+                this.compactResult = new BytesWritable(new byte[MAX_COMPACT_PARTIAL_LENGTH]);
+                return PrimitiveObjectInspectorFactory.writableBinaryObjectInspector;
+            } else {
+                this.partialResult = new Object[3];
+                this.partialResult[0] = new LongWritable(0L);
+                this.partialResult[1] = new DoubleWritable(0.0D);
+                this.partialResult[2] = new DoubleWritable(0.0D);
+
+                ArrayList<String> fname = new ArrayList<>();
+                fname.add("count");
+                fname.add("sum");
+                fname.add("compensation");
+                ArrayList<ObjectInspector> foi = new ArrayList<>();
+                foi.add(PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+                foi.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+                foi.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+                return ObjectInspectorFactory.getStandardStructObjectInspector(fname, foi);
+            }
+        }
+
+        /**
+         * 缓冲类，仍然是定长的三个基本类型字段
+         */
+        @AggregationType(estimable = true)
+        public class CompensatedAvgAggBuffer extends AbstractAggregationBuffer {
+            long count;
+            double sum;
+            double compensation;
+
+            @Override
+            public int estimate() {
+                return JavaDataModel.PRIMITIVES2 * 3;
+            }
+        }
+
+        @Override
+        public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+            CompensatedAvgAggBuffer buffer = new CompensatedAvgAggBuffer();
+            this.reset(buffer);
+            return buffer;
+        }
+
+        @Override
+        public void reset(AggregationBuffer aggregationBuffer) throws HiveException {
+            CompensatedAvgAggBuffer buffer = (CompensatedAvgAggBuffer) aggregationBuffer;
+            buffer.count = 0L;
+            buffer.sum = 0.0D;
+            buffer.compensation = 0.0D;
+        }
+
+        /**
+         * Neumaier补偿加法：大数加小数时被舍掉的低位累积到compensation中
+         */
+        static void add(CompensatedAvgAggBuffer buffer, double value) {
+            double sum = buffer.sum;
+            double t = sum + value;
+            if (Math.abs(sum) >= Math.abs(value)) {
+                buffer.compensation += (sum - t) + value;
+            } else {
+                buffer.compensation += (value - t) + sum;
+            }
+            buffer.sum = t;
+        }
+
+        @Override
+        public void iterate(AggregationBuffer aggregationBuffer, Object[] parameters) throws HiveException {
+            assert parameters.length == 1 || parameters.length == 2;
+            Object parameter = parameters[0];
+            if (parameter == null) {
+                return;
+            }
+            CompensatedAvgAggBuffer buffer = (CompensatedAvgAggBuffer) aggregationBuffer;
+            double value;
+            switch (this.inputCategory) {
+                case BYTE:
+                    value = ((ByteObjectInspector) this.inputOi).get(parameter);
+                    break;
+                case SHORT:
+                    value = ((ShortObjectInspector) this.inputOi).get(parameter);
+                    break;
+                case INT:
+                    value = ((IntObjectInspector) this.inputOi).get(parameter);
+                    break;
+                case LONG:
+                    value = ((LongObjectInspector) this.inputOi).get(parameter);
+                    break;
+                case FLOAT:
+                    value = ((FloatObjectInspector) this.inputOi).get(parameter);
+                    break;
+                case DOUBLE:
+                    value = ((DoubleObjectInspector) this.inputOi).get(parameter);
+                    break;
+                default:
+                    //string/timestamp 仍需转换
+                    try {
+                        value = PrimitiveObjectInspectorUtils.getDouble(parameter, this.inputOi);
+                    } catch (NumberFormatException e) {
+                        if (!this.warned) {
+                            this.warned = true;
+                            LOG.warn(this.getClass().getSimpleName() + " ignoring similar exceptions.", e);
+                        }
+                        return;
+                    }
+                    break;
+            }
+            ++buffer.count;
+            add(buffer, value);
+        }
+
+        @Override
+        public Object terminatePartial(AggregationBuffer aggregationBuffer) throws HiveException {
+            CompensatedAvgAggBuffer buffer = (CompensatedAvgAggBuffer) aggregationBuffer;
+            if (this.compactPartial) {
+                this.compactResult.setSize(MAX_COMPACT_PARTIAL_LENGTH);
+                byte[] bytes = this.compactResult.getBytes();
+                int pos = PartialCodec.writeVLong(bytes, 0, buffer.count);
+                pos = PartialCodec.writeDouble(bytes, pos, buffer.sum);
+                pos = PartialCodec.writeDouble(bytes, pos, buffer.compensation);
+                this.compactResult.setSize(pos);
+                return this.compactResult;
+            }
+            ((LongWritable) this.partialResult[0]).set(buffer.count);
+            ((DoubleWritable) this.partialResult[1]).set(buffer.sum);
+            ((DoubleWritable) this.partialResult[2]).set(buffer.compensation);
+            return this.partialResult;
+        }
+
+        @Override
+        public void merge(AggregationBuffer aggregationBuffer, Object partial) throws HiveException {
+            if (partial == null) {
+                return;
+            }
+            CompensatedAvgAggBuffer buffer = (CompensatedAvgAggBuffer) aggregationBuffer;
+            long count;
+            double sum;
+            double compensation;
+            if (this.compactPartial) {
+                byte[] data = this.compactPartialOI.getPrimitiveWritableObject(partial).getBytes();
+                count = PartialCodec.readVLong(data, 0);
+                int pos = PartialCodec.vLongLength(count);
+                sum = PartialCodec.readDouble(data, pos);
+                compensation = PartialCodec.readDouble(data, pos + 8);
+            } else {
+                count = this.countFieldOI.get(this.soi.getStructFieldData(partial, this.countField));
+                sum = this.sumFieldOI.get(this.soi.getStructFieldData(partial, this.sumField));
+                compensation = this.compensationFieldOI.get(this.soi.getStructFieldData(partial, this.compensationField));
+            }
+            buffer.count += count;
+            add(buffer, sum);
+            buffer.compensation += compensation;
+        }
+
+        @Override
+        public Object terminate(AggregationBuffer aggregationBuffer) throws HiveException {
+            CompensatedAvgAggBuffer buffer = (CompensatedAvgAggBuffer) aggregationBuffer;
+            if (buffer.count == 0) {
+                return null;
+            }
+            this.result.set((buffer.sum + buffer.compensation) / (double) buffer.count);
+            return this.result;
+        }
+    }
 }
@@ -5,8 +5,10 @@ import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.parse.SemanticException;
 import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.util.JavaDataModel;
 import org.apache.hadoop.hive.serde2.io.DoubleWritable;
 import org.apache.hadoop.hive.serde2.objectinspector.*;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
@@ -31,13 +33,35 @@ public class GenericUDAFMyAverage2 extends AbstractGenericUDAFResolver {
         } else if (parameters[0].getCategory() != ObjectInspector.Category.PRIMITIVE) {
             throw new UDFArgumentTypeException(0, "参数类型不对！只能输入基本类型！");
         } else {
-            switch (((PrimitiveTypeInfo)parameters[0]).getPrimitiveCategory()) {
+            PrimitiveCategory category = ((PrimitiveTypeInfo)parameters[0]).getPrimitiveCategory();
+            if (GenericUDAFMyAverage.isCompensatedSum()) {
+                switch (category) {
+                    case BYTE:
+                    case SHORT:
+                    case INT:
+                    case LONG:
+                    case FLOAT:
+                    case DOUBLE:
+                    case STRING:
+                    case TIMESTAMP:
+                        //补偿求和与GenericUDAFMyAverage共用同一个Evaluator，中间结果同为 struct(count, sum, compensation)
+                        return new GenericUDAFMyAverage.GenericUDAFAverageEvaluatorCompensated();
+                    default:
+                        break;
+                }
+            }
+            switch (category) {
+                //数值类型与GenericUDAFMyAverage共用专门的Evaluator，string/timestamp仍需通过PrimitiveObjectInspectorUtils转换
                 case BYTE:
                 case SHORT:
                 case INT:
                 case LONG:
+                    return new GenericUDAFMyAverage.GenericUDAFAverageEvaluatorLong();
                 case FLOAT:
                 case DOUBLE:
+                    return new GenericUDAFMyAverage.GenericUDAFAverageEvaluatorDouble();
+                case DECIMAL:
+                    return new GenericUDAFMyAverage.GenericUDAFAverageEvaluatorDecimal();
                 case STRING:
                 case TIMESTAMP:
                     return new GenericUDAFMyAverage2.GenericUDAFAverageEvaluator();
@@ -189,9 +213,15 @@ public class GenericUDAFMyAverage2 extends AbstractGenericUDAFResolver {
             }
         }
 
-        public class AggBuffer implements AggregationBuffer{
+        @AggregationType(estimable = true)
+        public class AggBuffer extends AbstractAggregationBuffer {
             long count;
             double sum;
+
+            @Override
+            public int estimate() {
+                return JavaDataModel.PRIMITIVES2 * 2;
+            }
         }
     }
 }
@@ -1,12 +1,317 @@
 package com.susu.udf;
 
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.exec.vector.TimestampUtils;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
 import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFParameterInfo;
+import org.apache.hadoop.hive.ql.util.JavaDataModel;
+import org.apache.hadoop.hive.serde2.io.DateWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BooleanObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ByteObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.DateObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.FloatObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.HiveCharObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.HiveDecimalObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.HiveVarcharObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ShortObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.TimestampObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
 
 /**
  * create by suhaha on 2019/9/20 19:00
+ *
+ * mycount(*) / mycount(col1, col2, ...)：与内置count一样，统计（所有列都）非null的行数
+ * mycount(col, true)：第二个参数为常量true时，用HyperLogLog估算count(distinct col)，误差约0.81%
+ * sketch在map端就能合并，中间结果是序列化的sketch（binary），不需要像精确的count(distinct)那样把所有值shuffle到一个reducer
  */
 public class GenericUDAFMyCount extends AbstractGenericUDAFResolver {
 
+    /**
+     * 只有类型信息时无法判断第二个参数是否是常量，按普通count处理
+     */
+    @Override
+    public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
+        return new GenericUDAFCountEvaluator();
+    }
+
+    /**
+     * 1、重写getEvaluator方法
+     * 需要用到isAllColumns（count(*)）以及参数的ObjectInspector（判断第二个参数是否为常量boolean），所以重写带GenericUDAFParameterInfo的版本
+     */
+    @Override
+    public GenericUDAFEvaluator getEvaluator(GenericUDAFParameterInfo info) throws SemanticException {
+        TypeInfo[] parameters = info.getParameters();
+        if (info.isAllColumns()) {
+            if (parameters.length != 0) {//count(*)不能再带参数
+                throw new UDFArgumentTypeException(0, "* is not supported together with other arguments.");
+            }
+            //count(*)时iterate收到的是空数组，与普通count共用同一个Evaluator
+            return new GenericUDAFCountEvaluator();
+        }
+        if (parameters.length == 0) {
+            throw new UDFArgumentTypeException(-1, "At least one argument is expected.");
+        }
+        if (isDistinctEstimate(info.getParameterObjectInspectors())) {
+            if (info.isDistinct()) {//mycount(distinct col, true)时hive已经做了去重，再估算没有意义
+                throw new UDFArgumentTypeException(0, "DISTINCT is not supported in distinct-estimate mode.");
+            }
+            if (parameters[0].getCategory() != ObjectInspector.Category.PRIMITIVE) {
+                throw new UDFArgumentTypeException(0, "Only primitive type arguments are accepted but " + parameters[0].getTypeName() + " is passed.");
+            }
+            return new GenericUDAFCountDistinctEstimateEvaluator();
+        }
+        return new GenericUDAFCountEvaluator();
+    }
+
+    /**
+     * 两个参数且第二个参数是值为true的常量boolean时，进入去重估算模式
+     */
+    private static boolean isDistinctEstimate(ObjectInspector[] parameters) {
+        if (parameters == null || parameters.length != 2 || !(parameters[1] instanceof ConstantObjectInspector)) {
+            return false;
+        }
+        if (!(parameters[1] instanceof BooleanObjectInspector)) {
+            return false;
+        }
+        Object flag = ((ConstantObjectInspector) parameters[1]).getWritableConstantValue();
+        return flag != null && ((BooleanWritable) flag).get();
+    }
+
+    /**
+     * 2、精确count：buffer里只有一个long，各个阶段的中间结果和最终结果都是bigint
+     */
+    public static class GenericUDAFCountEvaluator extends GenericUDAFEvaluator {
+
+        private LongObjectInspector partialCountAggOI;
+        private LongWritable result;
+
+        @Override
+        public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+            super.init(m, parameters);
+            //merge阶段的入参是上游terminatePartial输出的bigint
+            if (m == Mode.PARTIAL2 || m == Mode.FINAL) {
+                this.partialCountAggOI = (LongObjectInspector) parameters[0];
+            }
+            this.result = new LongWritable(0L);
+            //中间结果和最终结果都是bigint
+            return PrimitiveObjectInspectorFactory.writableLongObjectInspector;
+        }
+
+        /**
+         * 内部类，缓冲类
+         */
+        @AggregationType(estimable = true)
+        public static class CountAgg extends AbstractAggregationBuffer {
+            long value;
+
+            @Override
+            public int estimate() {
+                return JavaDataModel.PRIMITIVES2;
+            }
+        }
+
+        @Override
+        public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+            CountAgg buffer = new CountAgg();
+            this.reset(buffer);
+            return buffer;
+        }
+
+        @Override
+        public void reset(AggregationBuffer aggregationBuffer) throws HiveException {
+            ((CountAgg) aggregationBuffer).value = 0L;
+        }
+
+        /**
+         * count(*)时parameters为空数组，每行都计数；否则只统计所有参数都非null的行
+         */
+        @Override
+        public void iterate(AggregationBuffer aggregationBuffer, Object[] parameters) throws HiveException {
+            if (parameters == null) {
+                return;
+            }
+            for (int i = 0; i < parameters.length; i++) {
+                if (parameters[i] == null) {
+                    return;
+                }
+            }
+            ++((CountAgg) aggregationBuffer).value;
+        }
+
+        @Override
+        public Object terminatePartial(AggregationBuffer aggregationBuffer) throws HiveException {
+            return this.terminate(aggregationBuffer);
+        }
+
+        @Override
+        public void merge(AggregationBuffer aggregationBuffer, Object partial) throws HiveException {
+            if (partial != null) {
+                ((CountAgg) aggregationBuffer).value += this.partialCountAggOI.get(partial);
+            }
+        }
+
+        @Override
+        public Object terminate(AggregationBuffer aggregationBuffer) throws HiveException {
+            this.result.set(((CountAgg) aggregationBuffer).value);
+            return this.result;
+        }
+    }
+
+    /**
+     * 3、去重估算：buffer里是HyperLogLog的寄存器数组
+     * 中间结果是HyperLogLog.serialize输出的binary，最终结果是bigint
+     */
+    public static class GenericUDAFCountDistinctEstimateEvaluator extends GenericUDAFEvaluator {
+
+        private PrimitiveObjectInspector inputOi;
+        private PrimitiveCategory inputCategory;
+        private BinaryObjectInspector partialOi;
+        private BytesWritable partialResult;
+        private LongWritable result;
+
+        @Override
+        public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+            assert parameters.length == 1 || parameters.length == 2;
+            super.init(m, parameters);
+
+            if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+                //iterate阶段：按输入类型取值后计算哈希
+                this.inputOi = (PrimitiveObjectInspector) parameters[0];
+                this.inputCategory = this.inputOi.getPrimitiveCategory();
+            } else {
+                //merge阶段：入参是序列化的sketch
+                this.partialOi = (BinaryObjectInspector) parameters[0];
+            }
+
+            if (m == Mode.PARTIAL1 || m == Mode.PARTIAL2) {
+                //预先分配好最大长度，terminatePartial中直接写入，不再产生新对象
+                this.partialResult = new BytesWritable(new byte[HyperLogLog.MAX_SERIALIZED_LENGTH]);
+                return PrimitiveObjectInspectorFactory.writableBinaryObjectInspector;
+            }
+            this.result = new LongWritable(0L);
+            return PrimitiveObjectInspectorFactory.writableLongObjectInspector;
+        }
+
+        /**
+         * 内部类，缓冲类：寄存器数组大小固定，可以被map端hash聚合准确估算
+         */
+        @AggregationType(estimable = true)
+        public static class HyperLogLogAgg extends AbstractAggregationBuffer {
+            final byte[] registers = HyperLogLog.newRegisters();
+
+            @Override
+            public int estimate() {
+                return JavaDataModel.get().object() + HyperLogLog.registersSize();
+            }
+        }
+
+        @Override
+        public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+            return new HyperLogLogAgg();
+        }
+
+        @Override
+        public void reset(AggregationBuffer aggregationBuffer) throws HiveException {
+            Arrays.fill(((HyperLogLogAgg) aggregationBuffer).registers, (byte) 0);
+        }
+
+        @Override
+        public void iterate(AggregationBuffer aggregationBuffer, Object[] parameters) throws HiveException {
+            Object parameter = parameters[0];
+            if (parameter != null) {
+                HyperLogLog.add(((HyperLogLogAgg) aggregationBuffer).registers, hash(parameter));
+            }
+        }
+
+        /**
+         * 哈希方式要与VectorUDAFMyCountDistinct一致：
+         * 整数（含boolean、date的天数、timestamp的纳秒数）按long哈希，浮点按double哈希，字符串/binary按字节哈希，
+         * char去掉末尾空格后按字符串哈希，decimal按去掉末尾0后的值哈希
+         */
+        private long hash(Object parameter) {
+            switch (this.inputCategory) {
+                case BOOLEAN:
+                    return HyperLogLog.hashLong(((BooleanObjectInspector) this.inputOi).get(parameter) ? 1L : 0L);
+                case BYTE:
+                    return HyperLogLog.hashLong(((ByteObjectInspector) this.inputOi).get(parameter));
+                case SHORT:
+                    return HyperLogLog.hashLong(((ShortObjectInspector) this.inputOi).get(parameter));
+                case INT:
+                    return HyperLogLog.hashLong(((IntObjectInspector) this.inputOi).get(parameter));
+                case LONG:
+                    return HyperLogLog.hashLong(((LongObjectInspector) this.inputOi).get(parameter));
+                case FLOAT:
+                    return HyperLogLog.hashDouble(((FloatObjectInspector) this.inputOi).get(parameter));
+                case DOUBLE:
+                    return HyperLogLog.hashDouble(((DoubleObjectInspector) this.inputOi).get(parameter));
+                case STRING:
+                    Text text = ((StringObjectInspector) this.inputOi).getPrimitiveWritableObject(parameter);
+                    return HyperLogLog.hashString(text.getBytes(), 0, text.getLength());
+                case VARCHAR:
+                    Text varchar = ((HiveVarcharObjectInspector) this.inputOi).getPrimitiveWritableObject(parameter).getTextValue();
+                    return HyperLogLog.hashString(varchar.getBytes(), 0, varchar.getLength());
+                case CHAR:
+                    Text chars = ((HiveCharObjectInspector) this.inputOi).getPrimitiveWritableObject(parameter).getStrippedValue();
+                    return HyperLogLog.hashChar(chars.getBytes(), 0, chars.getLength());
+                case DECIMAL:
+                    return HyperLogLog.hashDecimal(((HiveDecimalObjectInspector) this.inputOi).getPrimitiveJavaObject(parameter));
+                case BINARY:
+                    BytesWritable bytes = ((BinaryObjectInspector) this.inputOi).getPrimitiveWritableObject(parameter);
+                    return HyperLogLog.hashBytes(bytes.getBytes(), 0, bytes.getLength());
+                case DATE:
+                    DateWritable date = ((DateObjectInspector) this.inputOi).getPrimitiveWritableObject(parameter);
+                    return HyperLogLog.hashLong(date.getDays());
+                case TIMESTAMP:
+                    Timestamp timestamp = ((TimestampObjectInspector) this.inputOi).getPrimitiveJavaObject(parameter);
+                    //与向量化中LongColumnVector保存的纳秒数一致
+                    return HyperLogLog.hashLong(TimestampUtils.getTimeNanoSec(timestamp));
+                default:
+                    //interval等没有向量化版本的类型，退回到hive自带的hashCode
+                    return HyperLogLog.hashLong(ObjectInspectorUtils.hashCode(parameter, this.inputOi));
+            }
+        }
+
+        @Override
+        public Object terminatePartial(AggregationBuffer aggregationBuffer) throws HiveException {
+            this.partialResult.setSize(HyperLogLog.MAX_SERIALIZED_LENGTH);
+            int length = HyperLogLog.serialize(((HyperLogLogAgg) aggregationBuffer).registers, this.partialResult.getBytes());
+            this.partialResult.setSize(length);
+            return this.partialResult;
+        }
 
+        @Override
+        public void merge(AggregationBuffer aggregationBuffer, Object partial) throws HiveException {
+            if (partial != null) {
+                BytesWritable bytes = this.partialOi.getPrimitiveWritableObject(partial);
+                HyperLogLog.merge(((HyperLogLogAgg) aggregationBuffer).registers, bytes.getBytes());
+            }
+        }
 
+        @Override
+        public Object terminate(AggregationBuffer aggregationBuffer) throws HiveException {
+            this.result.set(HyperLogLog.estimate(((HyperLogLogAgg) aggregationBuffer).registers));
+            return this.result;
+        }
+    }
 }
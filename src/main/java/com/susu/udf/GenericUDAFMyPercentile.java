@@ -0,0 +1,343 @@
+package com.susu.udf;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.util.JavaDataModel;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.typeinfo.ListTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.BytesWritable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 近似分位数：mypercentile(col, p [, accuracy]) 或 mypercentile(col, array(p1, p2, ...) [, accuracy])
+ * 例如 mypercentile(latency, array(0.5, 0.95, 0.99))
+ *
+ * 与内置的percentile不同，每个分组只保存一个t-digest（见TDigest），内存只与accuracy（t-digest的compression，默认100）有关，
+ * 不会因为热点key的行数太多而OOM；accuracy越大越精确，每组内存和中间结果也越大
+ * 中间结果是紧凑的binary：varint(accuracy) + varint(分位点个数) + 各分位点的double + 序列化的t-digest
+ * FINAL阶段只拿得到中间结果的OI，因此accuracy和分位点都随中间结果一起传给merge
+ */
+public class GenericUDAFMyPercentile extends AbstractGenericUDAFResolver {
+
+    /**
+     * 1、重写getEvaluator方法
+     * 第二个参数是单个分位点时返回double，是数组时返回array<double>，两种返回类型用不同的Evaluator
+     * （FINAL阶段init时看不到原始参数，只能靠Evaluator的类型区分）
+     */
+    @Override
+    public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
+        if (parameters.length != 2 && parameters.length != 3) {//若入参个数不对，抛异常
+            throw new UDFArgumentTypeException(parameters.length - 1, "Two or three arguments are expected.");
+        }
+        if (parameters[0].getCategory() != ObjectInspector.Category.PRIMITIVE) {
+            throw new UDFArgumentTypeException(0, "Only primitive type arguments are accepted but " + parameters[0].getTypeName() + " is passed.");
+        }
+        switch (((PrimitiveTypeInfo) parameters[0]).getPrimitiveCategory()) {
+            case BYTE:
+            case SHORT:
+            case INT:
+            case LONG:
+            case FLOAT:
+            case DOUBLE:
+            case DECIMAL:
+                break;
+            default:
+                throw new UDFArgumentTypeException(0, "Only numeric type arguments are accepted but " + parameters[0].getTypeName() + " is passed.");
+        }
+        if (parameters.length == 3 && !isIntegral(parameters[2])) {
+            throw new UDFArgumentTypeException(2, "The accuracy must be a constant integer but " + parameters[2].getTypeName() + " is passed.");
+        }
+
+        if (isNumeric(parameters[1])) {
+            return new GenericUDAFSinglePercentileEvaluator();
+        } else if (parameters[1].getCategory() == ObjectInspector.Category.LIST
+                && isNumeric(((ListTypeInfo) parameters[1]).getListElementTypeInfo())) {
+            return new GenericUDAFMultiplePercentileEvaluator();
+        }
+        throw new UDFArgumentTypeException(1, "The percentile must be a constant double or array<double> but " + parameters[1].getTypeName() + " is passed.");
+    }
+
+    private static boolean isNumeric(TypeInfo typeInfo) {
+        if (typeInfo.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+            return false;
+        }
+        switch (((PrimitiveTypeInfo) typeInfo).getPrimitiveCategory()) {
+            case FLOAT:
+            case DOUBLE:
+            case DECIMAL:
+                return true;
+            default:
+                return isIntegral(typeInfo);
+        }
+    }
+
+    private static boolean isIntegral(TypeInfo typeInfo) {
+        if (typeInfo.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+            return false;
+        }
+        PrimitiveCategory category = ((PrimitiveTypeInfo) typeInfo).getPrimitiveCategory();
+        return category == PrimitiveCategory.BYTE || category == PrimitiveCategory.SHORT
+                || category == PrimitiveCategory.INT || category == PrimitiveCategory.LONG;
+    }
+
+    /**
+     * 2、公共的Evaluator：iterate/merge/terminatePartial都一样，子类只决定terminate的返回类型
+     */
+    public abstract static class GenericUDAFPercentileEvaluator extends GenericUDAFEvaluator {
+
+        private PrimitiveObjectInspector inputOi;
+        private BinaryObjectInspector partialOi;
+        private BytesWritable partialResult;
+
+        //PARTIAL1/COMPLETE阶段从常量参数中读取，PARTIAL2/FINAL阶段从中间结果中读取
+        private int compression = TDigest.DEFAULT_COMPRESSION;
+        private double[] percentiles;
+
+        @Override
+        public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+            super.init(m, parameters);
+
+            /**
+             * 1、设置入参
+             */
+            if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+                this.inputOi = (PrimitiveObjectInspector) parameters[0];
+                this.percentiles = readPercentiles(parameters[1]);
+                if (parameters.length == 3) {
+                    this.compression = readCompression(parameters[2]);
+                }
+            } else {
+                //merge阶段：入参是terminatePartial输出的binary
+                this.partialOi = (BinaryObjectInspector) parameters[0];
+            }
+
+            /**
+             * 2、设置出参
+             */
+            if (m == Mode.PARTIAL1 || m == Mode.PARTIAL2) {
+                this.partialResult = new BytesWritable();
+                return PrimitiveObjectInspectorFactory.writableBinaryObjectInspector;
+            }
+            return initResult();
+        }
+
+        /**
+         * COMPLETE/FINAL阶段terminate的返回类型
+         */
+        protected abstract ObjectInspector initResult();
+
+        /**
+         * 根据分位点算出最终结果，digest至少有一个值
+         */
+        protected abstract Object getResult(TDigest digest, double[] percentiles);
+
+        /**
+         * 读取分位点，必须是[0, 1]之间的常量
+         */
+        private static double[] readPercentiles(ObjectInspector percentileOi) throws UDFArgumentTypeException {
+            if (!(percentileOi instanceof ConstantObjectInspector)) {
+                throw new UDFArgumentTypeException(1, "The percentile must be a constant.");
+            }
+            Object constant = ((ConstantObjectInspector) percentileOi).getWritableConstantValue();
+            double[] percentiles;
+            if (percentileOi instanceof ListObjectInspector) {
+                PrimitiveObjectInspector elementOi = (PrimitiveObjectInspector)
+                        ((ListObjectInspector) percentileOi).getListElementObjectInspector();
+                List<?> values = (List<?>) constant;
+                if (values == null || values.isEmpty()) {
+                    throw new UDFArgumentTypeException(1, "The percentile array must not be empty.");
+                }
+                percentiles = new double[values.size()];
+                for (int i = 0; i < percentiles.length; i++) {
+                    percentiles[i] = values.get(i) == null ? Double.NaN
+                            : PrimitiveObjectInspectorUtils.getDouble(values.get(i), elementOi);
+                }
+            } else {
+                percentiles = new double[]{constant == null ? Double.NaN
+                        : PrimitiveObjectInspectorUtils.getDouble(constant, (PrimitiveObjectInspector) percentileOi)};
+            }
+            for (double percentile : percentiles) {
+                //NaN也会在这里被拒绝
+                if (!(percentile >= 0.0D && percentile <= 1.0D)) {
+                    throw new UDFArgumentTypeException(1, "The percentile must be between 0 and 1 but " + percentile + " is passed.");
+                }
+            }
+            return percentiles;
+        }
+
+        /**
+         * 读取第三个参数accuracy（t-digest的compression），必须是常量
+         */
+        private static int readCompression(ObjectInspector compressionOi) throws UDFArgumentTypeException {
+            if (!(compressionOi instanceof ConstantObjectInspector)) {
+                throw new UDFArgumentTypeException(2, "The accuracy must be a constant integer.");
+            }
+            Object constant = ((ConstantObjectInspector) compressionOi).getWritableConstantValue();
+            int compression = constant == null ? 0
+                    : PrimitiveObjectInspectorUtils.getInt(constant, (PrimitiveObjectInspector) compressionOi);
+            if (compression < TDigest.MIN_COMPRESSION || compression > TDigest.MAX_COMPRESSION) {
+                throw new UDFArgumentTypeException(2, "The accuracy must be between " + TDigest.MIN_COMPRESSION
+                        + " and " + TDigest.MAX_COMPRESSION + " but " + compression + " is passed.");
+            }
+            return compression;
+        }
+
+        /**
+         * 内部类，缓冲类：t-digest的数组长度只由compression决定，可以被map端hash聚合准确估算
+         * FINAL阶段在第一次merge时才知道compression，digest在那之前为null
+         */
+        @AggregationType(estimable = true)
+        public static class PercentileAgg extends AbstractAggregationBuffer {
+            TDigest digest;
+            double[] percentiles;
+
+            @Override
+            public int estimate() {
+                JavaDataModel model = JavaDataModel.get();
+                int size = model.object() + model.ref() * 2;
+                if (digest != null) {
+                    size += TDigest.estimateSize(digest.getCompression())
+                            + model.lengthForDoubleArrayOfSize(percentiles.length);
+                }
+                return size;
+            }
+        }
+
+        @Override
+        public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+            PercentileAgg buffer = new PercentileAgg();
+            if (this.percentiles != null) {
+                buffer.digest = new TDigest(this.compression);
+                buffer.percentiles = this.percentiles;
+            }
+            return buffer;
+        }
+
+        @Override
+        public void reset(AggregationBuffer aggregationBuffer) throws HiveException {
+            PercentileAgg buffer = (PercentileAgg) aggregationBuffer;
+            if (buffer.digest != null) {
+                buffer.digest.reset();
+            }
+        }
+
+        @Override
+        public void iterate(AggregationBuffer aggregationBuffer, Object[] parameters) throws HiveException {
+            Object parameter = parameters[0];
+            if (parameter != null) {
+                ((PercentileAgg) aggregationBuffer).digest.add(PrimitiveObjectInspectorUtils.getDouble(parameter, this.inputOi));
+            }
+        }
+
+        @Override
+        public Object terminatePartial(AggregationBuffer aggregationBuffer) throws HiveException {
+            PercentileAgg buffer = (PercentileAgg) aggregationBuffer;
+            if (buffer.digest == null) {
+                return null;
+            }
+            int maxLength = 5 + 5 + 8 * buffer.percentiles.length + buffer.digest.maxSerializedLength();
+            this.partialResult.setSize(maxLength);
+            byte[] bytes = this.partialResult.getBytes();
+            int pos = PartialCodec.writeVLong(bytes, 0, buffer.digest.getCompression());
+            pos = PartialCodec.writeVLong(bytes, pos, buffer.percentiles.length);
+            for (double percentile : buffer.percentiles) {
+                pos = PartialCodec.writeDouble(bytes, pos, percentile);
+            }
+            pos = buffer.digest.serialize(bytes, pos);
+            this.partialResult.setSize(pos);
+            return this.partialResult;
+        }
+
+        @Override
+        public void merge(AggregationBuffer aggregationBuffer, Object partial) throws HiveException {
+            if (partial == null) {
+                return;
+            }
+            PercentileAgg buffer = (PercentileAgg) aggregationBuffer;
+            byte[] bytes = this.partialOi.getPrimitiveWritableObject(partial).getBytes();
+            //与terminatePartial的写入顺序对应
+            int compression = (int) PartialCodec.readVLong(bytes, 0);
+            int pos = PartialCodec.vLongLength(compression);
+            int count = (int) PartialCodec.readVLong(bytes, pos);
+            pos += PartialCodec.vLongLength(count);
+            if (buffer.digest == null) {
+                buffer.digest = new TDigest(compression);
+                buffer.percentiles = new double[count];
+                for (int i = 0; i < count; i++) {
+                    buffer.percentiles[i] = PartialCodec.readDouble(bytes, pos + 8 * i);
+                }
+            }
+            buffer.digest.merge(bytes, pos + 8 * count);
+        }
+
+        @Override
+        public Object terminate(AggregationBuffer aggregationBuffer) throws HiveException {
+            PercentileAgg buffer = (PercentileAgg) aggregationBuffer;
+            if (buffer.digest == null || buffer.digest.getTotalWeight() == 0L) {
+                return null;
+            }
+            return getResult(buffer.digest, buffer.percentiles);
+        }
+    }
+
+    /**
+     * 3、单个分位点，返回double
+     */
+    public static class GenericUDAFSinglePercentileEvaluator extends GenericUDAFPercentileEvaluator {
+
+        private DoubleWritable result;
+
+        @Override
+        protected ObjectInspector initResult() {
+            this.result = new DoubleWritable(0.0D);
+            return PrimitiveObjectInspectorFactory.writableDoubleObjectInspector;
+        }
+
+        @Override
+        protected Object getResult(TDigest digest, double[] percentiles) {
+            this.result.set(digest.quantile(percentiles[0]));
+            return this.result;
+        }
+    }
+
+    /**
+     * 4、多个分位点，按参数顺序返回array<double>
+     */
+    public static class GenericUDAFMultiplePercentileEvaluator extends GenericUDAFPercentileEvaluator {
+
+        private ArrayList<DoubleWritable> result;
+
+        @Override
+        protected ObjectInspector initResult() {
+            this.result = new ArrayList<>();
+            return ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+        }
+
+        @Override
+        protected Object getResult(TDigest digest, double[] percentiles) {
+            while (this.result.size() < percentiles.length) {
+                this.result.add(new DoubleWritable());
+            }
+            for (int i = 0; i < percentiles.length; i++) {
+                this.result.get(i).set(digest.quantile(percentiles[i]));
+            }
+            return this.result;
+        }
+    }
+}
@@ -1,21 +1,30 @@
 package com.susu.udf;
 
-import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.common.type.HiveDecimal;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.parse.SemanticException;
 import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
-import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
-import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFParameterInfo;
+import org.apache.hadoop.hive.ql.util.JavaDataModel;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.io.HiveDecimalWritable;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ByteObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.FloatObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.HiveDecimalObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
-import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ShortObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.DecimalTypeInfo;
 import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
 import org.apache.hadoop.io.LongWritable;
-import org.apache.hadoop.util.StringUtils;
 
 /**
  * create by suhaha on 2019/9/18 19:43
@@ -43,13 +52,17 @@ public class GenericUDAFMySum extends AbstractGenericUDAFResolver {
             //3）然后根据入参的类型，用switch判断应该返回的Evaluator类型
         } else {
             switch (((PrimitiveTypeInfo)parameters[0]).getPrimitiveCategory()) {
+                //按入参类型返回专门的Evaluator，整型用long累加，浮点用double累加，decimal用HiveDecimal累加
                 case BYTE:
                 case SHORT:
                 case INT:
                 case LONG:
+                    return new GenericUDAFSumLong();
                 case FLOAT:
                 case DOUBLE:
-                    return new GenericUDAFSumElevator();
+                    return new GenericUDAFSumDouble();
+                case DECIMAL:
+                    return new GenericUDAFSumHiveDecimal();
                 default:
                     throw new UDFArgumentTypeException(0, "只能传输数值类型的入参，但是却传入了 " + parameters[0].getTypeName() + " 类型！");
             }
@@ -59,16 +72,18 @@ public class GenericUDAFMySum extends AbstractGenericUDAFResolver {
 
 
     /**
-     * 2、构造一个继承抽象类GenericUDAFEvaluator的类，并重写它的几个抽下你个方法
+     * 2、整型入参（tinyint/smallint/int/bigint）的Evaluator，用long累加，不经过double，避免大数截断丢精度
      */
-    public static class GenericUDAFSumElevator extends GenericUDAFEvaluator{
+    public static class GenericUDAFSumLong extends GenericUDAFEvaluator {
 
+        private PrimitiveCategory inputCategory;
         private PrimitiveObjectInspector inputOi;
+        private LongObjectInspector partialOi;
         private LongWritable result;
-        private boolean warned = false;
 
         /**
          * 确定各个阶段输入输出参数的数据格式 ObjectInspectors
+         * 在这里把入参OI一次性解析成具体类型，iterate中不再走PrimitiveObjectInspectorUtils的通用转换
          */
         @Override
         public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
@@ -76,15 +91,29 @@ public class GenericUDAFMySum extends AbstractGenericUDAFResolver {
             super.init(m, parameters);
 
             this.result = new LongWritable(0L);
-            //获取入参的数据类型
-            this.inputOi = (PrimitiveObjectInspector) parameters[0];
-
+            if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+                this.inputOi = (PrimitiveObjectInspector) parameters[0];
+                this.inputCategory = this.inputOi.getPrimitiveCategory();
+            } else {
+                this.partialOi = (LongObjectInspector) parameters[0];
+            }
             return PrimitiveObjectInspectorFactory.writableLongObjectInspector;
         }
 
         /**
-         * 保存数据聚集结果的类
+         * 定义缓冲类
          */
+        @AggregationType(estimable = true)
+        static class SumAgg extends AbstractAggregationBuffer {
+            boolean empty;
+            long sum;
+
+            @Override
+            public int estimate() {
+                return JavaDataModel.PRIMITIVES1 + JavaDataModel.PRIMITIVES2;
+            }
+        }
+
         @Override
         public AggregationBuffer getNewAggregationBuffer() throws HiveException {
             SumAgg result = new SumAgg();
@@ -92,75 +121,255 @@ public class GenericUDAFMySum extends AbstractGenericUDAFResolver {
             return result;
         }
 
+        @Override
+        public void reset(AggregationBuffer aggregationBuffer) throws HiveException {
+            SumAgg sumAggBuffer = (SumAgg) aggregationBuffer;
+            sumAggBuffer.empty = true;
+            sumAggBuffer.sum = 0L;
+        }
+
+        @Override
+        public void iterate(AggregationBuffer aggregationBuffer, Object[] parameters) throws HiveException {
+            assert parameters.length == 1;
+            Object parameter = parameters[0];
+            if (parameter != null) {
+                SumAgg sumAggBuffer = (SumAgg) aggregationBuffer;
+                sumAggBuffer.empty = false;
+                sumAggBuffer.sum += this.getLong(parameter);
+            }
+        }
+
         /**
-         * 定义缓冲类，可以根据需求来自定义
+         * 按init中解析出的类型直接读取，switch的分支在一个查询内是固定的
          */
-        static class SumAgg implements AggregationBuffer {
-            boolean empty;
-            long sum;
+        private long getLong(Object parameter) {
+            switch (this.inputCategory) {
+                case BYTE:
+                    return ((ByteObjectInspector) this.inputOi).get(parameter);
+                case SHORT:
+                    return ((ShortObjectInspector) this.inputOi).get(parameter);
+                case INT:
+                    return ((IntObjectInspector) this.inputOi).get(parameter);
+                default:
+                    return ((LongObjectInspector) this.inputOi).get(parameter);
+            }
+        }
+
+        @Override
+        public Object terminatePartial(AggregationBuffer aggregationBuffer) throws HiveException {
+            return this.terminate(aggregationBuffer);
+        }
+
+        @Override
+        public void merge(AggregationBuffer aggregationBuffer, Object partial) throws HiveException {
+            if (partial != null) {
+                SumAgg sumAggBuffer = (SumAgg) aggregationBuffer;
+                sumAggBuffer.empty = false;
+                sumAggBuffer.sum += this.partialOi.get(partial);
+            }
+        }
+
+        @Override
+        public Object terminate(AggregationBuffer aggregationBuffer) throws HiveException {
+            SumAgg sumAggBuffer = (SumAgg) aggregationBuffer;
+            if (sumAggBuffer.empty) {
+                return null;
+            } else {
+                this.result.set(sumAggBuffer.sum);
+                return this.result;
+            }
+        }
+    }
+
+    /**
+     * 3、浮点入参（float/double）的Evaluator，用double累加，输出double
+     */
+    public static class GenericUDAFSumDouble extends GenericUDAFEvaluator {
+
+        private PrimitiveCategory inputCategory;
+        private PrimitiveObjectInspector inputOi;
+        private DoubleObjectInspector partialOi;
+        private DoubleWritable result;
+
+        @Override
+        public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+            assert parameters.length == 1;
+            super.init(m, parameters);
+
+            this.result = new DoubleWritable(0.0D);
+            if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+                this.inputOi = (PrimitiveObjectInspector) parameters[0];
+                this.inputCategory = this.inputOi.getPrimitiveCategory();
+            } else {
+                this.partialOi = (DoubleObjectInspector) parameters[0];
+            }
+            return PrimitiveObjectInspectorFactory.writableDoubleObjectInspector;
         }
 
         /**
-         * 重置聚集结果
+         * 定义缓冲类
          */
+        @AggregationType(estimable = true)
+        static class SumAgg extends AbstractAggregationBuffer {
+            boolean empty;
+            double sum;
+
+            @Override
+            public int estimate() {
+                return JavaDataModel.PRIMITIVES1 + JavaDataModel.PRIMITIVES2;
+            }
+        }
+
+        @Override
+        public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+            SumAgg result = new SumAgg();
+            this.reset(result);
+            return result;
+        }
+
         @Override
         public void reset(AggregationBuffer aggregationBuffer) throws HiveException {
             SumAgg sumAggBuffer = (SumAgg) aggregationBuffer;
             sumAggBuffer.empty = true;
-            sumAggBuffer.sum = 0L;
+            sumAggBuffer.sum = 0.0D;
         }
 
-        /**
-         * map 阶段，迭代处理输入sql传过来的列数据
-         */
         @Override
         public void iterate(AggregationBuffer aggregationBuffer, Object[] parameters) throws HiveException {
             assert parameters.length == 1;
-            try {
-                this.merge(aggregationBuffer, parameters[0]);
-            } catch (NumberFormatException e) {
-                if (!this.warned) {
-                    this.warned = true;
-                    System.out.println(this.getClass().getSimpleName() + " " + StringUtils.stringifyException(e));
+            Object parameter = parameters[0];
+            if (parameter != null) {
+                SumAgg sumAggBuffer = (SumAgg) aggregationBuffer;
+                sumAggBuffer.empty = false;
+                if (this.inputCategory == PrimitiveCategory.FLOAT) {
+                    sumAggBuffer.sum += ((FloatObjectInspector) this.inputOi).get(parameter);
+                } else {
+                    sumAggBuffer.sum += ((DoubleObjectInspector) this.inputOi).get(parameter);
                 }
             }
         }
 
-        /**
-         * map 与 combiner 结束返回结果，得到部分数据聚集结果
-         */
         @Override
         public Object terminatePartial(AggregationBuffer aggregationBuffer) throws HiveException {
             return this.terminate(aggregationBuffer);
         }
 
-        /**
-         * combiner 合并 map 返回的结果，还有 reducer 合并 mapper 或combiner 返回的结果。
-         */
         @Override
         public void merge(AggregationBuffer aggregationBuffer, Object partial) throws HiveException {
             if (partial != null) {
                 SumAgg sumAggBuffer = (SumAgg) aggregationBuffer;
                 sumAggBuffer.empty = false;
-                //根据两个参数partial和this.inputOi，getDouble方法将this.inutOi类型的partial转换为了double类型
-                sumAggBuffer.sum += PrimitiveObjectInspectorUtils.getDouble(partial, this.inputOi);
+                sumAggBuffer.sum += this.partialOi.get(partial);
             }
         }
 
-        /**
-         * reducer 阶段，输出最终结果
-         */
         @Override
         public Object terminate(AggregationBuffer aggregationBuffer) throws HiveException {
             SumAgg sumAggBuffer = (SumAgg) aggregationBuffer;
-
-            if (sumAggBuffer.empty) { //若缓冲区为空，则返回空
+            if (sumAggBuffer.empty) {
                 return null;
-            } else {    //若缓冲区不为空，则取出缓冲区的数据，并添加到result变量中
+            } else {
                 this.result.set(sumAggBuffer.sum);
                 return this.result;
             }
         }
     }
 
+    /**
+     * 4、decimal入参的Evaluator，用HiveDecimal累加，结果精度与hive内置sum一致：decimal(min(38, p + 10), s)
+     */
+    public static class GenericUDAFSumHiveDecimal extends GenericUDAFEvaluator {
+
+        private HiveDecimalObjectInspector inputOi;
+        private HiveDecimalWritable result;
+        private int precision;
+        private int scale;
+
+        @Override
+        public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+            assert parameters.length == 1;
+            super.init(m, parameters);
+
+            //PARTIAL2/FINAL阶段的入参就是上一阶段的输出，同样是decimal，因此统一用HiveDecimalObjectInspector读取
+            this.inputOi = (HiveDecimalObjectInspector) parameters[0];
+            DecimalTypeInfo inputTypeInfo = (DecimalTypeInfo) this.inputOi.getTypeInfo();
+            if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+                this.precision = Math.min(HiveDecimal.MAX_PRECISION, inputTypeInfo.precision() + 10);
+            } else {
+                this.precision = inputTypeInfo.precision();
+            }
+            this.scale = inputTypeInfo.scale();
+            this.result = new HiveDecimalWritable(HiveDecimal.ZERO);
+
+            DecimalTypeInfo outputTypeInfo = TypeInfoFactory.getDecimalTypeInfo(this.precision, this.scale);
+            return PrimitiveObjectInspectorFactory.getPrimitiveWritableObjectInspector(outputTypeInfo);
+        }
+
+        /**
+         * 定义缓冲类
+         */
+        @AggregationType(estimable = true)
+        static class SumAgg extends AbstractAggregationBuffer {
+            boolean empty;
+            HiveDecimal sum;
+
+            @Override
+            public int estimate() {
+                return JavaDataModel.PRIMITIVES1 + JavaDataModel.get().lengthOfDecimal();
+            }
+        }
+
+        @Override
+        public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+            SumAgg result = new SumAgg();
+            this.reset(result);
+            return result;
+        }
+
+        @Override
+        public void reset(AggregationBuffer aggregationBuffer) throws HiveException {
+            SumAgg sumAggBuffer = (SumAgg) aggregationBuffer;
+            sumAggBuffer.empty = true;
+            sumAggBuffer.sum = HiveDecimal.ZERO;
+        }
+
+        @Override
+        public void iterate(AggregationBuffer aggregationBuffer, Object[] parameters) throws HiveException {
+            assert parameters.length == 1;
+            this.merge(aggregationBuffer, parameters[0]);
+        }
+
+        @Override
+        public Object terminatePartial(AggregationBuffer aggregationBuffer) throws HiveException {
+            return this.terminate(aggregationBuffer);
+        }
+
+        @Override
+        public void merge(AggregationBuffer aggregationBuffer, Object partial) throws HiveException {
+            if (partial != null) {
+                SumAgg sumAggBuffer = (SumAgg) aggregationBuffer;
+                //sum为null说明之前已经溢出，之后的数据不必再累加
+                if (sumAggBuffer.sum == null) {
+                    return;
+                }
+                sumAggBuffer.empty = false;
+                sumAggBuffer.sum = sumAggBuffer.sum.add(this.inputOi.getPrimitiveJavaObject(partial));
+            }
+        }
+
+        @Override
+        public Object terminate(AggregationBuffer aggregationBuffer) throws HiveException {
+            SumAgg sumAggBuffer = (SumAgg) aggregationBuffer;
+            if (sumAggBuffer.empty || sumAggBuffer.sum == null) {
+                return null;
+            }
+            HiveDecimal value = HiveDecimal.enforcePrecisionScale(sumAggBuffer.sum, this.precision, this.scale);
+            if (value == null) {
+                return null;
+            }
+            this.result.set(value);
+            return this.result;
+        }
+    }
+
 }
@@ -1,19 +1,30 @@
 package com.susu.udf;
 
+import org.apache.hadoop.hive.common.type.HiveDecimal;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.parse.SemanticException;
 import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.util.JavaDataModel;
 import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.io.HiveDecimalWritable;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ByteObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.FloatObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.HiveDecimalObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
-import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ShortObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.DecimalTypeInfo;
 import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
 import org.apache.hadoop.io.LongWritable;
-import org.apache.hadoop.util.StringUtils;
 
 /**
  * create by suhaha on 2019/9/20 14:48
@@ -32,32 +43,45 @@ public class GenericUDAFMySum2 extends AbstractGenericUDAFResolver {
                 case SHORT:
                 case INT:
                 case LONG:
+                    return new GenericUDAFMySum2.GenericUDAFSumLong();
                 case FLOAT:
                 case DOUBLE:
-                    return new GenericUDAFMySum2.GenericUDAFSumElevator();
+                    return new GenericUDAFMySum2.GenericUDAFSumDouble();
+                case DECIMAL:
+                    return new GenericUDAFMySum2.GenericUDAFSumHiveDecimal();
                 default:
                     throw new UDFArgumentTypeException(0, "只能传输数值类型的入参，但是却传入了 " + parameters[0].getTypeName() + " 类型！");
             }
         }
     }
 
-    public static class GenericUDAFSumElevator extends GenericUDAFEvaluator {
+    /**
+     * 整型入参，long累加
+     */
+    public static class GenericUDAFSumLong extends GenericUDAFEvaluator {
 
+        private PrimitiveCategory inputCategory;
         private PrimitiveObjectInspector inputOi;
+        private LongObjectInspector partialOi;
         private LongWritable result;
-        private boolean warned = false;
+
         @Override
         public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
             assert parameters.length == 1;
             super.init(m, parameters);
-            this.inputOi = (PrimitiveObjectInspector) parameters[0];
+            if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+                this.inputOi = (PrimitiveObjectInspector) parameters[0];
+                this.inputCategory = this.inputOi.getPrimitiveCategory();
+            } else {
+                this.partialOi = (LongObjectInspector) parameters[0];
+            }
             this.result = new LongWritable(0L);
             return PrimitiveObjectInspectorFactory.writableLongObjectInspector;
         }
 
         @Override
         public AggregationBuffer getNewAggregationBuffer() throws HiveException {
-            SumAggBuffer buffer = new GenericUDAFSumElevator.SumAggBuffer();
+            SumAggBuffer buffer = new GenericUDAFSumLong.SumAggBuffer();
             this.reset(buffer);
             return buffer;
         }
@@ -65,7 +89,7 @@ public class GenericUDAFMySum2 extends AbstractGenericUDAFResolver {
         @Override
         public void reset(AggregationBuffer aggregationBuffer) throws HiveException {
             SumAggBuffer buffer = (SumAggBuffer) aggregationBuffer;
-            buffer.sum = 0;
+            buffer.sum = 0L;
         }
 
         @Override
@@ -73,16 +97,23 @@ public class GenericUDAFMySum2 extends AbstractGenericUDAFResolver {
             assert parameters.length == 1;
             SumAggBuffer buffer = (SumAggBuffer) aggregationBuffer;
             Object parameter = parameters[0];
-            try {
-                double value = PrimitiveObjectInspectorUtils.getDouble(parameter, this.inputOi);
-                buffer.sum += value;
-            } catch (NumberFormatException e) {
-                if (!this.warned) {
-                    this.warned = true;
-                    System.out.println(this.getClass().getSimpleName() + " " + StringUtils.stringifyException(e));
-                }
+            if (parameter == null) {
+                return;
+            }
+            switch (this.inputCategory) {
+                case BYTE:
+                    buffer.sum += ((ByteObjectInspector) this.inputOi).get(parameter);
+                    break;
+                case SHORT:
+                    buffer.sum += ((ShortObjectInspector) this.inputOi).get(parameter);
+                    break;
+                case INT:
+                    buffer.sum += ((IntObjectInspector) this.inputOi).get(parameter);
+                    break;
+                default:
+                    buffer.sum += ((LongObjectInspector) this.inputOi).get(parameter);
+                    break;
             }
-
         }
 
         @Override
@@ -96,8 +127,7 @@ public class GenericUDAFMySum2 extends AbstractGenericUDAFResolver {
         public void merge(AggregationBuffer aggregationBuffer, Object partial) throws HiveException {
             SumAggBuffer buffer = (SumAggBuffer) aggregationBuffer;
             if (partial != null) {
-                long value = PrimitiveObjectInspectorUtils.getLong(partial, this.inputOi);
-                buffer.sum += value;
+                buffer.sum += this.partialOi.get(partial);
             }
         }
 
@@ -108,8 +138,184 @@ public class GenericUDAFMySum2 extends AbstractGenericUDAFResolver {
             return this.result;
         }
 
-        public class SumAggBuffer implements AggregationBuffer{
+        @AggregationType(estimable = true)
+        public class SumAggBuffer extends AbstractAggregationBuffer {
             long sum;
+
+            @Override
+            public int estimate() {
+                return JavaDataModel.PRIMITIVES2;
+            }
+        }
+    }
+
+    /**
+     * 浮点入参，double累加
+     */
+    public static class GenericUDAFSumDouble extends GenericUDAFEvaluator {
+
+        private PrimitiveCategory inputCategory;
+        private PrimitiveObjectInspector inputOi;
+        private DoubleObjectInspector partialOi;
+        private DoubleWritable result;
+
+        @Override
+        public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+            assert parameters.length == 1;
+            super.init(m, parameters);
+            if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+                this.inputOi = (PrimitiveObjectInspector) parameters[0];
+                this.inputCategory = this.inputOi.getPrimitiveCategory();
+            } else {
+                this.partialOi = (DoubleObjectInspector) parameters[0];
+            }
+            this.result = new DoubleWritable(0.0D);
+            return PrimitiveObjectInspectorFactory.writableDoubleObjectInspector;
+        }
+
+        @Override
+        public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+            SumAggBuffer buffer = new GenericUDAFSumDouble.SumAggBuffer();
+            this.reset(buffer);
+            return buffer;
+        }
+
+        @Override
+        public void reset(AggregationBuffer aggregationBuffer) throws HiveException {
+            SumAggBuffer buffer = (SumAggBuffer) aggregationBuffer;
+            buffer.sum = 0.0D;
+        }
+
+        @Override
+        public void iterate(AggregationBuffer aggregationBuffer, Object[] parameters) throws HiveException {
+            assert parameters.length == 1;
+            SumAggBuffer buffer = (SumAggBuffer) aggregationBuffer;
+            Object parameter = parameters[0];
+            if (parameter == null) {
+                return;
+            }
+            if (this.inputCategory == PrimitiveCategory.FLOAT) {
+                buffer.sum += ((FloatObjectInspector) this.inputOi).get(parameter);
+            } else {
+                buffer.sum += ((DoubleObjectInspector) this.inputOi).get(parameter);
+            }
+        }
+
+        @Override
+        public Object terminatePartial(AggregationBuffer aggregationBuffer) throws HiveException {
+            SumAggBuffer buffer = (SumAggBuffer) aggregationBuffer;
+            this.result.set(buffer.sum);
+            return result;
+        }
+
+        @Override
+        public void merge(AggregationBuffer aggregationBuffer, Object partial) throws HiveException {
+            SumAggBuffer buffer = (SumAggBuffer) aggregationBuffer;
+            if (partial != null) {
+                buffer.sum += this.partialOi.get(partial);
+            }
+        }
+
+        @Override
+        public Object terminate(AggregationBuffer aggregationBuffer) throws HiveException {
+            SumAggBuffer buffer = (SumAggBuffer) aggregationBuffer;
+            this.result.set(buffer.sum);
+            return this.result;
+        }
+
+        @AggregationType(estimable = true)
+        public class SumAggBuffer extends AbstractAggregationBuffer {
+            double sum;
+
+            @Override
+            public int estimate() {
+                return JavaDataModel.PRIMITIVES2;
+            }
+        }
+    }
+
+    /**
+     * decimal入参，HiveDecimal累加，结果为decimal(min(38, p + 10), s)
+     */
+    public static class GenericUDAFSumHiveDecimal extends GenericUDAFEvaluator {
+
+        private HiveDecimalObjectInspector inputOi;
+        private HiveDecimalWritable result;
+        private int precision;
+        private int scale;
+
+        @Override
+        public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+            assert parameters.length == 1;
+            super.init(m, parameters);
+            this.inputOi = (HiveDecimalObjectInspector) parameters[0];
+            DecimalTypeInfo inputTypeInfo = (DecimalTypeInfo) this.inputOi.getTypeInfo();
+            if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+                this.precision = Math.min(HiveDecimal.MAX_PRECISION, inputTypeInfo.precision() + 10);
+            } else {
+                this.precision = inputTypeInfo.precision();
+            }
+            this.scale = inputTypeInfo.scale();
+            this.result = new HiveDecimalWritable(HiveDecimal.ZERO);
+            return PrimitiveObjectInspectorFactory.getPrimitiveWritableObjectInspector(
+                    TypeInfoFactory.getDecimalTypeInfo(this.precision, this.scale));
+        }
+
+        @Override
+        public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+            SumAggBuffer buffer = new GenericUDAFSumHiveDecimal.SumAggBuffer();
+            this.reset(buffer);
+            return buffer;
+        }
+
+        @Override
+        public void reset(AggregationBuffer aggregationBuffer) throws HiveException {
+            SumAggBuffer buffer = (SumAggBuffer) aggregationBuffer;
+            buffer.sum = HiveDecimal.ZERO;
+        }
+
+        @Override
+        public void iterate(AggregationBuffer aggregationBuffer, Object[] parameters) throws HiveException {
+            assert parameters.length == 1;
+            this.merge(aggregationBuffer, parameters[0]);
+        }
+
+        @Override
+        public Object terminatePartial(AggregationBuffer aggregationBuffer) throws HiveException {
+            return this.terminate(aggregationBuffer);
+        }
+
+        @Override
+        public void merge(AggregationBuffer aggregationBuffer, Object partial) throws HiveException {
+            SumAggBuffer buffer = (SumAggBuffer) aggregationBuffer;
+            //sum为null说明已经超出decimal的最大精度
+            if (partial != null && buffer.sum != null) {
+                buffer.sum = buffer.sum.add(this.inputOi.getPrimitiveJavaObject(partial));
+            }
+        }
+
+        @Override
+        public Object terminate(AggregationBuffer aggregationBuffer) throws HiveException {
+            SumAggBuffer buffer = (SumAggBuffer) aggregationBuffer;
+            if (buffer.sum == null) {
+                return null;
+            }
+            HiveDecimal value = HiveDecimal.enforcePrecisionScale(buffer.sum, this.precision, this.scale);
+            if (value == null) {
+                return null;
+            }
+            this.result.set(value);
+            return this.result;
+        }
+
+        @AggregationType(estimable = true)
+        public class SumAggBuffer extends AbstractAggregationBuffer {
+            HiveDecimal sum;
+
+            @Override
+            public int estimate() {
+                return JavaDataModel.get().lengthOfDecimal();
+            }
         }
     }
 }
@@ -0,0 +1,236 @@
+package com.susu.udf;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.util.JavaDataModel;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+import java.util.ArrayList;
+
+/**
+ * 高频项：mytopk(col, k [, capacity])，返回出现次数最多的k个值 array<struct<item:string, count:bigint>>，按count降序
+ * 例如 select domain, mytopk(url, 100) from access_log group by domain
+ * 一次聚合就能得到每组的top k，不需要先group by (domain, url)再用窗口函数排名，少一次shuffle
+ *
+ * 每组用一个Space-Saving摘要（见SpaceSaving），最多跟踪capacity个值（默认为k的10倍），内存固定；
+ * 返回的count可能偏大，偏大的部分不超过 组内总行数 / capacity，capacity越大越准确
+ * 中间结果是紧凑的binary：varint(k) + varint(capacity) + 序列化的摘要，FINAL阶段从中间结果中拿到k和capacity
+ */
+public class GenericUDAFMyTopK extends AbstractGenericUDAFResolver {
+
+    public static final int MAX_CAPACITY = 100000;
+
+    /**
+     * 1、重写getEvaluator方法
+     * 校验入参个数和类型：第一个参数是任意基本类型（按字符串统计），k和capacity必须是整数
+     */
+    @Override
+    public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
+        if (parameters.length != 2 && parameters.length != 3) {//若入参个数不对，抛异常
+            throw new UDFArgumentTypeException(parameters.length - 1, "Two or three arguments are expected.");
+        }
+        if (parameters[0].getCategory() != ObjectInspector.Category.PRIMITIVE) {//若入参数据类型不对，抛异常
+            throw new UDFArgumentTypeException(0, "Only primitive type arguments are accepted but " + parameters[0].getTypeName() + " is passed.");
+        }
+        for (int i = 1; i < parameters.length; i++) {
+            if (!isIntegral(parameters[i])) {
+                throw new UDFArgumentTypeException(i, "A constant integer is expected but " + parameters[i].getTypeName() + " is passed.");
+            }
+        }
+        return new GenericUDAFMyTopK.GenericUDAFTopKEvaluator();
+    }
+
+    private static boolean isIntegral(TypeInfo typeInfo) {
+        if (typeInfo.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+            return false;
+        }
+        PrimitiveCategory category = ((PrimitiveTypeInfo) typeInfo).getPrimitiveCategory();
+        return category == PrimitiveCategory.BYTE || category == PrimitiveCategory.SHORT
+                || category == PrimitiveCategory.INT || category == PrimitiveCategory.LONG;
+    }
+
+    /**
+     * 2、Evaluator
+     */
+    public static class GenericUDAFTopKEvaluator extends GenericUDAFEvaluator {
+
+        private PrimitiveObjectInspector inputOi;
+        private BinaryObjectInspector partialOi;
+        private BytesWritable partialResult;
+        //非string类型的入参先转成字符串
+        private Text converted;
+
+        //PARTIAL1/COMPLETE阶段从常量参数中读取，PARTIAL2/FINAL阶段从中间结果中读取
+        private int k;
+        private int capacity;
+
+        @Override
+        public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+            super.init(m, parameters);
+
+            /**
+             * 1、设置入参
+             */
+            if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+                this.inputOi = (PrimitiveObjectInspector) parameters[0];
+                this.converted = new Text();
+                this.k = readConstant(parameters[1], 1, 1, MAX_CAPACITY);
+                this.capacity = parameters.length == 3
+                        ? readConstant(parameters[2], 2, this.k, MAX_CAPACITY)
+                        : Math.min(this.k * 10, MAX_CAPACITY);
+            } else {
+                //merge阶段：入参是terminatePartial输出的binary
+                this.partialOi = (BinaryObjectInspector) parameters[0];
+            }
+
+            /**
+             * 2、设置出参
+             */
+            if (m == Mode.PARTIAL1 || m == Mode.PARTIAL2) {
+                this.partialResult = new BytesWritable();
+                return PrimitiveObjectInspectorFactory.writableBinaryObjectInspector;
+            }
+            //array<struct<item:string, count:bigint>>
+            ArrayList<String> fname = new ArrayList<>();
+            fname.add("item");
+            fname.add("count");
+            ArrayList<ObjectInspector> foi = new ArrayList<>();
+            foi.add(PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+            foi.add(PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+            return ObjectInspectorFactory.getStandardListObjectInspector(
+                    ObjectInspectorFactory.getStandardStructObjectInspector(fname, foi));
+        }
+
+        /**
+         * 读取k/capacity，必须是[min, max]之间的常量
+         */
+        private static int readConstant(ObjectInspector oi, int argument, int min, int max) throws UDFArgumentTypeException {
+            if (!(oi instanceof ConstantObjectInspector)) {
+                throw new UDFArgumentTypeException(argument, "A constant integer is expected.");
+            }
+            Object constant = ((ConstantObjectInspector) oi).getWritableConstantValue();
+            long value = constant == null ? 0L : PrimitiveObjectInspectorUtils.getLong(constant, (PrimitiveObjectInspector) oi);
+            if (value < min || value > max) {
+                throw new UDFArgumentTypeException(argument, "The value must be between " + min + " and " + max + " but " + value + " is passed.");
+            }
+            return (int) value;
+        }
+
+        /**
+         * 内部类，缓冲类：FINAL阶段在第一次merge时才知道k和capacity，summary在那之前为null
+         */
+        @AggregationType(estimable = true)
+        public static class TopKAgg extends AbstractAggregationBuffer {
+            int k;
+            SpaceSaving summary;
+
+            @Override
+            public int estimate() {
+                JavaDataModel model = JavaDataModel.get();
+                return model.object() + model.primitive1() + model.ref() + (summary == null ? 0 : summary.estimate());
+            }
+        }
+
+        @Override
+        public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+            TopKAgg buffer = new TopKAgg();
+            if (this.capacity > 0) {
+                buffer.k = this.k;
+                buffer.summary = new SpaceSaving(this.capacity);
+            }
+            return buffer;
+        }
+
+        @Override
+        public void reset(AggregationBuffer aggregationBuffer) throws HiveException {
+            TopKAgg buffer = (TopKAgg) aggregationBuffer;
+            if (buffer.summary != null) {
+                buffer.summary.reset();
+            }
+        }
+
+        @Override
+        public void iterate(AggregationBuffer aggregationBuffer, Object[] parameters) throws HiveException {
+            Object parameter = parameters[0];
+            if (parameter == null) {
+                return;
+            }
+            Text text;
+            if (this.inputOi.getPrimitiveCategory() == PrimitiveCategory.STRING) {
+                text = ((StringObjectInspector) this.inputOi).getPrimitiveWritableObject(parameter);
+            } else {
+                text = this.converted;
+                text.set(PrimitiveObjectInspectorUtils.getString(parameter, this.inputOi));
+            }
+            ((TopKAgg) aggregationBuffer).summary.offer(text.getBytes(), 0, text.getLength());
+        }
+
+        @Override
+        public Object terminatePartial(AggregationBuffer aggregationBuffer) throws HiveException {
+            TopKAgg buffer = (TopKAgg) aggregationBuffer;
+            if (buffer.summary == null) {
+                return null;
+            }
+            this.partialResult.setSize(5 + 5 + buffer.summary.serializedLength());
+            byte[] bytes = this.partialResult.getBytes();
+            int pos = PartialCodec.writeVLong(bytes, 0, buffer.k);
+            pos = PartialCodec.writeVLong(bytes, pos, buffer.summary.getCapacity());
+            pos = buffer.summary.serialize(bytes, pos);
+            this.partialResult.setSize(pos);
+            return this.partialResult;
+        }
+
+        @Override
+        public void merge(AggregationBuffer aggregationBuffer, Object partial) throws HiveException {
+            if (partial == null) {
+                return;
+            }
+            TopKAgg buffer = (TopKAgg) aggregationBuffer;
+            byte[] bytes = this.partialOi.getPrimitiveWritableObject(partial).getBytes();
+            //与terminatePartial的写入顺序对应
+            int k = (int) PartialCodec.readVLong(bytes, 0);
+            int pos = PartialCodec.vLongLength(k);
+            int capacity = (int) PartialCodec.readVLong(bytes, pos);
+            pos += PartialCodec.vLongLength(capacity);
+            if (buffer.summary == null) {
+                buffer.k = k;
+                buffer.summary = new SpaceSaving(capacity);
+            }
+            buffer.summary.merge(bytes, pos);
+        }
+
+        /**
+         * 没有数据时返回空数组
+         */
+        @Override
+        public Object terminate(AggregationBuffer aggregationBuffer) throws HiveException {
+            TopKAgg buffer = (TopKAgg) aggregationBuffer;
+            ArrayList<Object[]> result = new ArrayList<>();
+            if (buffer.summary == null) {
+                return result;
+            }
+            for (int slot : buffer.summary.topK(buffer.k)) {
+                Text item = new Text();
+                item.set(buffer.summary.getItem(slot), 0, buffer.summary.getItemLength(slot));
+                result.add(new Object[]{item, new LongWritable(buffer.summary.getCount(slot))});
+            }
+            return result;
+        }
+    }
+}
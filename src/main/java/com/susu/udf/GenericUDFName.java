@@ -0,0 +1,200 @@
+package com.susu.udf;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedExpressions;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.UDFType;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorConverters;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BooleanObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.Text;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * NameUDF 的 GenericUDF 版本，结果与 NameUDF 相同：name + "**" + 第几次调用
+ *
+ * NameUDF 每行都要经过反射调用 evaluate、把 Text 解码成 String、拼接出新的 String 再编码回 Text；
+ * 这里直接在字节上拼接：入参的 UTF-8 字节 + "**" + 计数器的十进制字节，写入同一个复用的 Text，每行不分配新对象
+ *
+ * 向量化执行时使用 VectorUDFName；注意 hive 1.2 只对内置函数查找 @VectorizedExpressions，
+ * create temporary function 注册的函数仍走 VectorUDFAdaptor，需要作为内置函数注册才能用上
+ *
+ * name(str, true)：按 task 编号，结果为 name + "**" + task id + "_" + 本 task 内的序号（long，从 1 开始）
+ * NameUDF 的计数器与 hive 创建了多少个实例、split 怎么切、JVM 是否重用有关，换一种并行度结果就变了；
+ * task id 取自 task attempt id 去掉 attempt 序号，同一个 task 的重试和推测执行得到相同的结果，不同 task 之间不会重复，不需要任何协调
+ * 不在 MR/Tez task 中执行时（如本地 fetch task）没有 task id，用随机的 UUID 代替
+ */
+@VectorizedExpressions({VectorUDFName.class})
+@UDFType(deterministic = false)
+@Description(name = "name", value = "_FUNC_(str[, perTask]) - Returns str + '**' + the number of rows seen so far by this instance",
+        extended = "If perTask is true, returns str + '**' + task id + '_' + the row number within the task")
+public class GenericUDFName extends GenericUDF {
+
+    private static final byte[] SEPARATOR = new byte[]{'*', '*'};
+
+    /**
+     * hadoop 2 / hadoop 1 中 task attempt id 的配置项，Tez 上 hive 也会设置这两项
+     */
+    private static final String[] TASK_ATTEMPT_ID_KEYS = new String[]{"mapreduce.task.attempt.id", "mapred.task.id"};
+
+    /**
+     * 与 NameUDF 中 name 为 null 时 String 拼接的结果一致
+     */
+    private static final byte[] NULL_BYTES = new byte[]{'n', 'u', 'l', 'l'};
+
+    private transient ObjectInspectorConverters.Converter converter;
+    private transient Text result;
+    /**
+     * long 的十进制最多 20 个字符（含负号）
+     */
+    private transient byte[] digits;
+
+    /**
+     * 与 NameUDF.a 相同，每个实例各自计数
+     */
+    public int a = 0;
+
+    /**
+     * 是否按 task 编号：name(str, true)
+     */
+    private boolean perTask;
+
+    /**
+     * 按 task 编号时本 task 内的序号，long 不会在大的 split 上溢出
+     */
+    private transient long sequence = 0L;
+
+    /**
+     * 按 task 编号时 "**" + task id + "_" 的字节，在 configure 中确定
+     */
+    private transient byte[] prefix;
+
+    @Override
+    public void configure(MapredContext context) {
+        String taskId = taskId(getJobConf(context));
+        if (taskId != null) {
+            prefix = ("**" + taskId + "_").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * MapredContext.getJobConf 返回的 JobConf 在 hadoop-mapreduce 中，本项目只依赖 hadoop-common，这里通过反射取出后按 Configuration 使用
+     */
+    private static Configuration getJobConf(MapredContext context) {
+        try {
+            return (Configuration) MapredContext.class.getMethod("getJobConf").invoke(context);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * 取 task id：attempt_1500000000000_0001_m_000003_0 ──> task_1500000000000_0001_m_000003
+     */
+    static String taskId(Configuration conf) {
+        if (conf == null) {
+            return null;
+        }
+        for (String key : TASK_ATTEMPT_ID_KEYS) {
+            String attemptId = conf.get(key);
+            if (attemptId != null && !attemptId.isEmpty()) {
+                return taskId(attemptId);
+            }
+        }
+        return null;
+    }
+
+    static String taskId(String attemptId) {
+        if (!attemptId.startsWith("attempt_")) {
+            return attemptId;
+        }
+        int end = attemptId.lastIndexOf('_');
+        if (end <= "attempt_".length()) {
+            return attemptId;
+        }
+        return "task_" + attemptId.substring("attempt_".length(), end);
+    }
+
+    @Override
+    public ObjectInspector initialize(ObjectInspector[] arguments) throws UDFArgumentException {
+        if (arguments.length != 1 && arguments.length != 2) {
+            throw new UDFArgumentLengthException("name() requires one or two arguments but " + arguments.length + " are passed.");
+        }
+        if (arguments[0].getCategory() != ObjectInspector.Category.PRIMITIVE) {
+            throw new UDFArgumentTypeException(0, "Only primitive type arguments are accepted but " + arguments[0].getTypeName() + " is passed.");
+        }
+        perTask = false;
+        if (arguments.length == 2) {
+            if (!(arguments[1] instanceof ConstantObjectInspector) || !(arguments[1] instanceof BooleanObjectInspector)) {
+                throw new UDFArgumentTypeException(1, "The second argument of name() must be a constant boolean but "
+                        + arguments[1].getTypeName() + " is passed.");
+            }
+            Object flag = ((ConstantObjectInspector) arguments[1]).getWritableConstantValue();
+            perTask = flag != null && ((BooleanWritable) flag).get();
+        }
+        //string 入参的 converter 直接返回原来的 Text，其它基本类型转换成 Text
+        converter = ObjectInspectorConverters.getConverter(arguments[0],
+                PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+        result = new Text();
+        digits = new byte[20];
+        return PrimitiveObjectInspectorFactory.writableStringObjectInspector;
+    }
+
+    @Override
+    public Object evaluate(DeferredObject[] arguments) throws HiveException {
+        Object name = arguments[0].get();
+        Text text = name == null ? null : (Text) converter.convert(name);
+        if (text == null) {
+            result.set(NULL_BYTES, 0, NULL_BYTES.length);
+        } else {
+            result.set(text.getBytes(), 0, text.getLength());
+        }
+        int length;
+        if (perTask) {
+            if (prefix == null) {
+                prefix = ("**local_" + UUID.randomUUID() + "_").getBytes(StandardCharsets.UTF_8);
+            }
+            result.append(prefix, 0, prefix.length);
+            length = writeDigits(++sequence, digits);
+        } else {
+            result.append(SEPARATOR, 0, SEPARATOR.length);
+            length = writeDigits(++a, digits);
+        }
+        result.append(digits, digits.length - length, length);
+        return result;
+    }
+
+    /**
+     * 把 value 的十进制写到 bytes 的末尾，返回写入的字节数
+     */
+    static int writeDigits(long value, byte[] bytes) {
+        int pos = bytes.length;
+        //按负数处理，Long.MIN_VALUE 取反会溢出
+        boolean negative = value < 0;
+        long remaining = negative ? value : -value;
+        do {
+            bytes[--pos] = (byte) ('0' - remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+        if (negative) {
+            bytes[--pos] = '-';
+        }
+        return bytes.length - pos;
+    }
+
+    @Override
+    public String getDisplayString(String[] children) {
+        return getStandardDisplayString("name", children);
+    }
+}
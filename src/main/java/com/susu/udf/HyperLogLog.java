@@ -0,0 +1,252 @@
+package com.susu.udf;
+
+import org.apache.hadoop.hive.common.type.HiveDecimal;
+import org.apache.hadoop.hive.ql.util.JavaDataModel;
+
+import java.math.BigDecimal;
+
+/**
+ * GenericUDAFMyCount 去重估算使用的 HyperLogLog，寄存器直接用 byte[] 存放，所有方法都是静态的，
+ * 行模式的 Evaluator 和向量化的 VectorUDAFMyCountDistinct 共用同一套哈希和序列化，map 端两种模式产生的 sketch 可以在 reduce 端合并
+ * 每种类型只有一个哈希入口（hashLong/hashDouble/hashString/hashChar/hashDecimal），两种模式对相同的值得到相同的哈希
+ *
+ * 序列化格式（第一个字节的低 6 位为精度 p，最高位表示是否为稀疏格式）：
+ * 稠密：header + 2^p 个寄存器
+ * 稀疏：header + varint(非零寄存器个数) + 每个非零寄存器的 varint(下标差) + 1 字节寄存器值
+ * 分组很多、每组基数很小时稀疏格式只有几十个字节，基数大时自动退回稠密格式
+ */
+public final class HyperLogLog {
+
+    /**
+     * 精度 p = 14：16384 个寄存器，每个 sketch 16KB，标准误差约 1.04 / sqrt(2^14) = 0.81%
+     */
+    public static final int PRECISION = 14;
+
+    public static final int REGISTERS = 1 << PRECISION;
+
+    private static final int SPARSE_FLAG = 0x80;
+
+    /**
+     * 稀疏格式每个寄存器最多占 varint(下标差) 3 字节 + 1 字节值
+     */
+    private static final int MAX_SPARSE_ENTRY_LENGTH = 4;
+
+    /**
+     * 序列化后的最大长度，即稠密格式的长度
+     */
+    public static final int MAX_SERIALIZED_LENGTH = 1 + REGISTERS;
+
+    /**
+     * 估算时用到的 2^-rank，提前算好避免在 estimate 中调用 Math.pow
+     */
+    private static final double[] INVERSE_POW2 = new double[65];
+
+    static {
+        for (int i = 0; i < INVERSE_POW2.length; i++) {
+            INVERSE_POW2[i] = Math.scalb(1.0D, -i);
+        }
+    }
+
+    private HyperLogLog() {
+    }
+
+    public static byte[] newRegisters() {
+        return new byte[REGISTERS];
+    }
+
+    /**
+     * 寄存器数组的内存占用，用于 AggregationBuffer.estimate 和向量化的 getAggregationBufferFixedSize
+     */
+    public static int registersSize() {
+        return JavaDataModel.get().lengthForByteArrayOfSize(REGISTERS);
+    }
+
+    /**
+     * 把一个 64 位哈希值记入寄存器：高 p 位选寄存器，剩余位的前导零个数 + 1 为 rank，寄存器保留最大的 rank
+     */
+    public static void add(byte[] registers, long hash) {
+        int index = (int) (hash >>> (64 - PRECISION));
+        //低位补一个 1，保证剩余位全为 0 时 rank 不会超过 64 - p + 1
+        long w = (hash << PRECISION) | (1L << (PRECISION - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(w) + 1);
+        if (registers[index] < rank) {
+            registers[index] = rank;
+        }
+    }
+
+    /**
+     * 整数类型（含 boolean/date/timestamp 转成的 long）的哈希：murmur3 的 fmix64
+     * 先加一个奇数常量，避免 0 被映射成 0
+     */
+    public static long hashLong(long value) {
+        long h = value + 0x9E3779B97F4A7C15L;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * 浮点类型统一按 double 的位模式哈希，float 先转 double，与向量化 DoubleColumnVector 中的值一致
+     * 0.0 与 -0.0 视为同一个值
+     */
+    public static long hashDouble(double value) {
+        return hashLong(value == 0.0D ? 0L : Double.doubleToLongBits(value));
+    }
+
+    /**
+     * 字节序列的哈希：MurmurHash64A，支持 offset，BytesColumnVector 中的值不需要先拷贝出来
+     */
+    public static long hashBytes(byte[] bytes, int start, int length) {
+        final long m = 0xC6A4A7935BD1E995L;
+        final int r = 47;
+        long h = 0x5BD1E995L ^ (length * m);
+
+        int end = start + (length & ~7);
+        for (int pos = start; pos < end; pos += 8) {
+            long k = (bytes[pos] & 0xFFL)
+                    | (bytes[pos + 1] & 0xFFL) << 8
+                    | (bytes[pos + 2] & 0xFFL) << 16
+                    | (bytes[pos + 3] & 0xFFL) << 24
+                    | (bytes[pos + 4] & 0xFFL) << 32
+                    | (bytes[pos + 5] & 0xFFL) << 40
+                    | (bytes[pos + 6] & 0xFFL) << 48
+                    | (bytes[pos + 7] & 0xFFL) << 56;
+            k *= m;
+            k ^= k >>> r;
+            k *= m;
+            h ^= k;
+            h *= m;
+        }
+
+        int remaining = length & 7;
+        if (remaining > 0) {
+            for (int i = remaining - 1; i >= 0; i--) {
+                h ^= (bytes[end + i] & 0xFFL) << (8 * i);
+            }
+            h *= m;
+        }
+
+        h ^= h >>> r;
+        h *= m;
+        h ^= h >>> r;
+        return h;
+    }
+
+    /**
+     * string/varchar 的哈希：按 utf-8 字节哈希，行模式的 Text 与 BytesColumnVector 中的值相同
+     */
+    public static long hashString(byte[] bytes, int start, int length) {
+        return hashBytes(bytes, start, length);
+    }
+
+    /**
+     * char 的哈希：去掉末尾的空格后按 string 哈希，补齐与否都得到同一个值
+     */
+    public static long hashChar(byte[] bytes, int start, int length) {
+        while (length > 0 && bytes[start + length - 1] == ' ') {
+            --length;
+        }
+        return hashString(bytes, start, length);
+    }
+
+    /**
+     * decimal 的哈希：去掉小数末尾的 0 后按 (unscaled, scale) 哈希，1.5 与 1.50 得到同一个值
+     */
+    public static long hashDecimal(HiveDecimal value) {
+        BigDecimal decimal = value.bigDecimalValue();
+        if (decimal.signum() == 0) {
+            return hashLong(0L);
+        }
+        decimal = decimal.stripTrailingZeros();
+        byte[] unscaled = decimal.unscaledValue().toByteArray();
+        return hashLong(hashBytes(unscaled, 0, unscaled.length) + decimal.scale());
+    }
+
+    /**
+     * 基数估算：原始的调和平均估算，结果较小时（有空寄存器）改用线性计数
+     * 哈希为 64 位，不需要大基数修正
+     */
+    public static long estimate(byte[] registers) {
+        double sum = 0.0D;
+        int zeros = 0;
+        for (int i = 0; i < REGISTERS; i++) {
+            byte rank = registers[i];
+            if (rank == 0) {
+                ++zeros;
+            }
+            sum += INVERSE_POW2[rank];
+        }
+        double m = REGISTERS;
+        double alpha = 0.7213D / (1.0D + 1.079D / m);
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5D * m && zeros != 0) {
+            estimate = m * Math.log(m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * 写入 bytes（长度至少为 MAX_SERIALIZED_LENGTH），返回写入的字节数
+     * 稀疏格式不比稠密格式短时直接写稠密格式
+     */
+    public static int serialize(byte[] registers, byte[] bytes) {
+        int nonZero = 0;
+        for (int i = 0; i < REGISTERS; i++) {
+            if (registers[i] != 0) {
+                ++nonZero;
+            }
+        }
+        //header + 个数的 varint（不超过 3 字节） + 每个寄存器最多 4 字节
+        if (1 + 3 + MAX_SPARSE_ENTRY_LENGTH * nonZero < MAX_SERIALIZED_LENGTH) {
+            bytes[0] = (byte) (SPARSE_FLAG | PRECISION);
+            int pos = PartialCodec.writeVLong(bytes, 1, nonZero);
+            int last = 0;
+            for (int i = 0; i < REGISTERS; i++) {
+                if (registers[i] != 0) {
+                    pos = PartialCodec.writeVLong(bytes, pos, i - last);
+                    bytes[pos++] = registers[i];
+                    last = i;
+                }
+            }
+            return pos;
+        }
+        bytes[0] = (byte) PRECISION;
+        System.arraycopy(registers, 0, bytes, 1, REGISTERS);
+        return MAX_SERIALIZED_LENGTH;
+    }
+
+    /**
+     * 把序列化的 sketch 合并进寄存器：逐个寄存器取最大值
+     */
+    public static void merge(byte[] registers, byte[] bytes) {
+        int header = bytes[0] & 0xFF;
+        if ((header & ~SPARSE_FLAG) != PRECISION) {
+            throw new IllegalArgumentException("HyperLogLog precision mismatch: expected " + PRECISION
+                    + " but got " + (header & ~SPARSE_FLAG));
+        }
+        if ((header & SPARSE_FLAG) == 0) {
+            for (int i = 0; i < REGISTERS; i++) {
+                byte rank = bytes[i + 1];
+                if (registers[i] < rank) {
+                    registers[i] = rank;
+                }
+            }
+            return;
+        }
+        int nonZero = (int) PartialCodec.readVLong(bytes, 1);
+        int pos = 1 + PartialCodec.vLongLength(nonZero);
+        int index = 0;
+        for (int n = 0; n < nonZero; n++) {
+            int delta = (int) PartialCodec.readVLong(bytes, pos);
+            pos += PartialCodec.vLongLength(delta);
+            index += delta;
+            byte rank = bytes[pos++];
+            if (registers[index] < rank) {
+                registers[index] = rank;
+            }
+        }
+    }
+}
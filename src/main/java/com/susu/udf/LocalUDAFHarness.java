@@ -0,0 +1,276 @@
+package com.susu.udf;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFResolver2;
+import org.apache.hadoop.hive.ql.udf.generic.SimpleGenericUDAFParameterInfo;
+import org.apache.hadoop.hive.serde.serdeConstants;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinarySerDe;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 在本地进程内按 hive 的方式执行一个 UDAF（不分组的全局聚合），不需要 hadoop 集群：
+ *
+ * map：数据按 mappers 切分，每个 mapper 在线程池中执行；每处理 flushRows 行就 terminatePartial 一次（模拟 map 端 hash 聚合的 flush），
+ *      中间结果用 LazyBinarySerDe 序列化
+ * combine：每个 mapper 用 PARTIAL2 把自己的中间结果反序列化后 merge，再 terminatePartial 并序列化，作为 shuffle 的数据
+ * reduce：FINAL 阶段把所有 mapper 的中间结果反序列化后 merge，最后 terminate
+ *
+ * 所有中间结果都经过真实的序列化/反序列化，merge 看到的 ObjectInspector 与集群上一样是 LazyBinary 的
+ */
+public class LocalUDAFHarness {
+
+    /**
+     * 一次执行的结果和统计
+     */
+    public static class Result {
+        /**
+         * terminate 的返回值，已拷贝为标准的 java 对象（如 Double、Long、List）
+         */
+        public final Object value;
+        public final long rows;
+        public final int mappers;
+        /**
+         * map 端（含 combine）输出到 shuffle 的总字节数
+         */
+        public final long shuffleBytes;
+        public final long mapNanos;
+        public final long reduceNanos;
+
+        Result(Object value, long rows, int mappers, long shuffleBytes, long mapNanos, long reduceNanos) {
+            this.value = value;
+            this.rows = rows;
+            this.mappers = mappers;
+            this.shuffleBytes = shuffleBytes;
+            this.mapNanos = mapNanos;
+            this.reduceNanos = reduceNanos;
+        }
+
+        public double rowsPerSecond() {
+            return rows * 1000000000.0D / (mapNanos + reduceNanos);
+        }
+
+        @Override
+        public String toString() {
+            return "mappers=" + mappers + ", value=" + value + ", rows/s=" + (long) rowsPerSecond()
+                    + ", map=" + mapNanos / 1000000L + "ms, reduce=" + reduceNanos / 1000000L
+                    + "ms, shuffle=" + shuffleBytes + " bytes";
+        }
+    }
+
+    private final GenericUDAFResolver resolver;
+    private final ObjectInspector[] argOis;
+    private final TypeInfo[] argTypes;
+    private final int flushRows;
+
+    /**
+     * @param argOis    入参的 ObjectInspector，常量参数（如 myavg 的 compact 开关）要传 ConstantObjectInspector
+     * @param flushRows 每个 mapper 处理多少行输出一次中间结果
+     */
+    public LocalUDAFHarness(GenericUDAFResolver resolver, ObjectInspector[] argOis, int flushRows) {
+        this.resolver = resolver;
+        this.argOis = argOis;
+        this.argTypes = new TypeInfo[argOis.length];
+        for (int i = 0; i < argOis.length; i++) {
+            this.argTypes[i] = TypeInfoUtils.getTypeInfoFromObjectInspector(argOis[i]);
+        }
+        this.flushRows = flushRows;
+    }
+
+    /**
+     * 与 hive 编译阶段一样，优先使用 GenericUDAFResolver2（可以看到常量参数）
+     */
+    private GenericUDAFEvaluator newEvaluator() throws HiveException {
+        if (resolver instanceof GenericUDAFResolver2) {
+            return ((GenericUDAFResolver2) resolver).getEvaluator(
+                    new SimpleGenericUDAFParameterInfo(argOis, false, false));
+        }
+        return resolver.getEvaluator(argTypes);
+    }
+
+    /**
+     * 中间结果的序列化：shuffle 的每一行是只有一个 partial 字段的 struct，LazyBinarySerDe 不是线程安全的，每个线程各用一个
+     */
+    private static class PartialSerDe {
+        private final LazyBinarySerDe serDe = new LazyBinarySerDe();
+        private final StructObjectInspector rowOi;
+        private final StructObjectInspector serDeOi;
+        private final StructField serDeField;
+        private final List<Object> row = new ArrayList<>(1);
+
+        PartialSerDe(ObjectInspector partialOi) throws SerDeException {
+            Properties props = new Properties();
+            props.setProperty(serdeConstants.LIST_COLUMNS, "partial");
+            props.setProperty(serdeConstants.LIST_COLUMN_TYPES, partialOi.getTypeName());
+            serDe.initialize(new Configuration(), props);
+            rowOi = ObjectInspectorFactory.getStandardStructObjectInspector(Arrays.asList("partial"), Arrays.asList(partialOi));
+            serDeOi = (StructObjectInspector) serDe.getObjectInspector();
+            serDeField = serDeOi.getStructFieldRef("partial");
+            row.add(null);
+        }
+
+        /**
+         * 序列化后拷贝一份，serialize 返回的对象会被复用
+         */
+        BytesWritable serialize(Object partial) throws SerDeException {
+            row.set(0, partial);
+            BytesWritable serialized = (BytesWritable) serDe.serialize(row, rowOi);
+            return new BytesWritable(Arrays.copyOf(serialized.getBytes(), serialized.getLength()));
+        }
+
+        Object deserialize(BytesWritable bytes) throws SerDeException {
+            return serDeOi.getStructFieldData(serDe.deserialize(bytes), serDeField);
+        }
+
+        ObjectInspector partialOi() {
+            return serDeField.getFieldObjectInspector();
+        }
+    }
+
+    /**
+     * 一个 mapper：PARTIAL1 按 flushRows 输出多个中间结果，再用 PARTIAL2 合并成一个
+     */
+    private BytesWritable map(List<Object[]> split) throws HiveException, SerDeException {
+        GenericUDAFEvaluator partial1 = newEvaluator();
+        ObjectInspector partialOi = partial1.init(Mode.PARTIAL1, argOis);
+        PartialSerDe mapSerDe = new PartialSerDe(partialOi);
+
+        List<BytesWritable> spills = new ArrayList<>();
+        AggregationBuffer buffer = partial1.getNewAggregationBuffer();
+        int buffered = 0;
+        for (Object[] row : split) {
+            partial1.iterate(buffer, row);
+            if (++buffered == flushRows) {
+                spills.add(mapSerDe.serialize(partial1.terminatePartial(buffer)));
+                partial1.reset(buffer);
+                buffered = 0;
+            }
+        }
+        if (buffered > 0 || spills.isEmpty()) {
+            spills.add(mapSerDe.serialize(partial1.terminatePartial(buffer)));
+        }
+
+        GenericUDAFEvaluator combiner = newEvaluator();
+        ObjectInspector combinedOi = combiner.init(Mode.PARTIAL2, new ObjectInspector[]{mapSerDe.partialOi()});
+        AggregationBuffer combined = combiner.getNewAggregationBuffer();
+        for (BytesWritable spill : spills) {
+            combiner.merge(combined, mapSerDe.deserialize(spill));
+        }
+        return new PartialSerDe(combinedOi).serialize(combiner.terminatePartial(combined));
+    }
+
+    /**
+     * 把 rows 平均切成 mappers 份，在 pool 中并行执行 map，当前线程执行 reduce
+     */
+    public Result run(List<Object[]> rows, int mappers, ExecutorService pool) throws HiveException {
+        long start = System.nanoTime();
+        List<Future<BytesWritable>> futures = new ArrayList<>(mappers);
+        int splitSize = (rows.size() + mappers - 1) / mappers;
+        for (int i = 0; i < mappers; i++) {
+            final List<Object[]> split = rows.subList(Math.min(rows.size(), i * splitSize),
+                    Math.min(rows.size(), (i + 1) * splitSize));
+            futures.add(pool.submit(new Callable<BytesWritable>() {
+                @Override
+                public BytesWritable call() throws Exception {
+                    return map(split);
+                }
+            }));
+        }
+        List<BytesWritable> shuffle = new ArrayList<>(mappers);
+        long shuffleBytes = 0L;
+        try {
+            for (Future<BytesWritable> future : futures) {
+                BytesWritable partial = future.get();
+                shuffle.add(partial);
+                shuffleBytes += partial.getLength();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HiveException(e);
+        } catch (ExecutionException e) {
+            throw new HiveException(e.getCause());
+        }
+        long mapNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        try {
+            //reducer 拿到的中间结果类型就是 combiner 的输出类型
+            GenericUDAFEvaluator partial1 = newEvaluator();
+            GenericUDAFEvaluator combiner = newEvaluator();
+            ObjectInspector shuffleOi = combiner.init(Mode.PARTIAL2, new ObjectInspector[]{
+                    new PartialSerDe(partial1.init(Mode.PARTIAL1, argOis)).partialOi()});
+            PartialSerDe reduceSerDe = new PartialSerDe(shuffleOi);
+
+            GenericUDAFEvaluator reducer = newEvaluator();
+            ObjectInspector resultOi = reducer.init(Mode.FINAL, new ObjectInspector[]{reduceSerDe.partialOi()});
+            AggregationBuffer buffer = reducer.getNewAggregationBuffer();
+            for (BytesWritable partial : shuffle) {
+                reducer.merge(buffer, reduceSerDe.deserialize(partial));
+            }
+            Object value = ObjectInspectorUtils.copyToStandardJavaObject(reducer.terminate(buffer), resultOi);
+            return new Result(value, rows.size(), mappers, shuffleBytes, mapNanos, System.nanoTime() - start);
+        } catch (SerDeException e) {
+            throw new HiveException(e);
+        }
+    }
+
+    /**
+     * 示例：用 1、2、4……个 mapper 对 400 万个随机 int 求平均值，打印吞吐量和相对单个 mapper 的加速比
+     */
+    public static void main(String[] args) throws Exception {
+        int rowCount = args.length > 0 ? Integer.parseInt(args[0]) : 4000000;
+        int cores = Runtime.getRuntime().availableProcessors();
+        Random random = new Random(42);
+        List<Object[]> rows = new ArrayList<>(rowCount);
+        double sum = 0.0D;
+        for (int i = 0; i < rowCount; i++) {
+            int value = random.nextInt(100000);
+            sum += value;
+            rows.add(new Object[]{new IntWritable(value)});
+        }
+        System.out.println("exact average: " + sum / rowCount);
+
+        LocalUDAFHarness harness = new LocalUDAFHarness(new GenericUDAFMyAverage(),
+                new ObjectInspector[]{PrimitiveObjectInspectorFactory.writableIntObjectInspector}, 100000);
+        ExecutorService pool = Executors.newFixedThreadPool(cores);
+        try {
+            //预热，让 JIT 编译完热点代码
+            harness.run(rows, cores, pool);
+            double baseline = 0.0D;
+            for (int mappers = 1; mappers <= cores; mappers *= 2) {
+                Result result = harness.run(rows, mappers, pool);
+                if (mappers == 1) {
+                    baseline = result.rowsPerSecond();
+                }
+                System.out.println(result + ", speedup=" + String.format("%.2f", result.rowsPerSecond() / baseline));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.susu.udf;
+
+/**
+ * UDAF 二进制中间结果共用的编码：整数用 varint（每字节7位，最高位表示后面还有字节），double 为8字节大端
+ * GenericUDAFMyAverage 的紧凑格式、HyperLogLog 稀疏格式、TDigest、SpaceSaving 等序列化都使用这里的方法
+ */
+final class PartialCodec {
+
+    private PartialCodec() {
+    }
+
+    /**
+     * 从 pos 开始写入 value 的 varint 编码，返回写完之后的位置
+     */
+    static int writeVLong(byte[] bytes, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            bytes[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[pos++] = (byte) value;
+        return pos;
+    }
+
+    static long readVLong(byte[] bytes, int pos) {
+        long value = 0L;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[pos++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * value按varint编码后占用的字节数
+     */
+    static int vLongLength(long value) {
+        int length = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            ++length;
+        }
+        return length;
+    }
+
+    /**
+     * 从 pos 开始写入8字节大端的 double，返回写完之后的位置
+     */
+    static int writeDouble(byte[] bytes, int pos, double value) {
+        long bits = Double.doubleToLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            bytes[pos++] = (byte) (bits >>> shift);
+        }
+        return pos;
+    }
+
+    static double readDouble(byte[] bytes, int pos) {
+        long bits = 0L;
+        for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | (bytes[pos++] & 0xFF);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+}
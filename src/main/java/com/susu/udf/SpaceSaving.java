@@ -0,0 +1,306 @@
+package com.susu.udf;
+
+import org.apache.hadoop.hive.ql.util.JavaDataModel;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * GenericUDAFMyTopK 使用的 Space-Saving 摘要：最多跟踪 capacity 个 item，每个 item 记录 count 和 error
+ * 已跟踪的 item 直接累加；摘要满了以后新 item 替换 count 最小的那个，继承它的 count 作为 error
+ * 因此 count 总是高估，且高估的部分不超过 error <= 总行数 / capacity
+ *
+ * 除了 item 本身的字节，全部状态都放在固定长度的基本类型数组里：
+ * counts/errors/hashes 按槽位存放，table 是开放寻址（线性探测）的哈希索引，heap 是按 count 排序的最小堆，
+ * 找到最小 count 的槽位是 O(1)，累加后下沉是 O(log capacity)
+ */
+public final class SpaceSaving {
+
+    private final int capacity;
+
+    private final byte[][] items;
+    private final int[] itemLengths;
+    private final long[] counts;
+    private final long[] errors;
+    private final int[] hashes;
+    private int size;
+
+    /**
+     * 哈希索引，存放槽位 + 1，0 表示空位；长度为不小于 2 * capacity 的 2 的幂
+     */
+    private final int[] table;
+    private final int mask;
+
+    /**
+     * heap[i] 为槽位，heapIndex[槽位] 为该槽位在堆中的位置
+     */
+    private final int[] heap;
+    private final int[] heapIndex;
+
+    /**
+     * items 中已分配的字节数，用于 estimate
+     */
+    private long itemBytes;
+
+    public SpaceSaving(int capacity) {
+        this.capacity = capacity;
+        this.items = new byte[capacity][];
+        this.itemLengths = new int[capacity];
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+        this.hashes = new int[capacity];
+        this.table = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+        this.mask = table.length - 1;
+        this.heap = new int[capacity];
+        this.heapIndex = new int[capacity];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 只清空索引，items 中的字节数组留给后续的 item 复用
+     */
+    public void reset() {
+        Arrays.fill(table, 0);
+        size = 0;
+    }
+
+    /**
+     * 固定部分（各个基本类型数组）加上 item 已分配的字节
+     */
+    public int estimate() {
+        JavaDataModel model = JavaDataModel.get();
+        return model.object() + model.ref() * 8 + model.primitive1() * 4 + model.primitive2()
+                + model.lengthForObjectArrayOfSize(capacity)
+                + model.lengthForIntArrayOfSize(capacity) * 4
+                + model.lengthForLongArrayOfSize(capacity) * 2
+                + model.lengthForIntArrayOfSize(table.length)
+                + (int) Math.min(Integer.MAX_VALUE / 2, itemBytes + (long) model.array() * size);
+    }
+
+    public void offer(byte[] bytes, int start, int length) {
+        offer(bytes, start, length, 1L, 0L);
+    }
+
+    /**
+     * 记入 item（count 次，自带 error，merge 时来自另一个摘要）
+     */
+    public void offer(byte[] bytes, int start, int length, long count, long error) {
+        int hash = (int) HyperLogLog.hashBytes(bytes, start, length);
+        int pos = hash & mask;
+        while (table[pos] != 0) {
+            int slot = table[pos] - 1;
+            if (hashes[slot] == hash && equals(slot, bytes, start, length)) {
+                counts[slot] += count;
+                errors[slot] += error;
+                siftDown(heapIndex[slot]);
+                return;
+            }
+            pos = (pos + 1) & mask;
+        }
+
+        int slot;
+        if (size < capacity) {
+            slot = size++;
+            counts[slot] = count;
+            errors[slot] = error;
+            heap[slot] = slot;
+            heapIndex[slot] = slot;
+            setItem(slot, bytes, start, length, hash);
+            table[pos] = slot + 1;
+            siftUp(slot);
+            return;
+        }
+
+        //摘要已满：替换 count 最小的槽位，新 item 继承它的 count
+        slot = heap[0];
+        removeFromTable(slot);
+        long min = counts[slot];
+        counts[slot] = min + count;
+        errors[slot] = min + error;
+        setItem(slot, bytes, start, length, hash);
+        pos = hash & mask;
+        while (table[pos] != 0) {
+            pos = (pos + 1) & mask;
+        }
+        table[pos] = slot + 1;
+        siftDown(0);
+    }
+
+    private boolean equals(int slot, byte[] bytes, int start, int length) {
+        if (itemLengths[slot] != length) {
+            return false;
+        }
+        byte[] item = items[slot];
+        for (int i = 0; i < length; i++) {
+            if (item[i] != bytes[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 槽位原有的字节数组够长就直接复用
+     */
+    private void setItem(int slot, byte[] bytes, int start, int length, int hash) {
+        byte[] item = items[slot];
+        if (item == null || item.length < length) {
+            itemBytes += length - (item == null ? 0 : item.length);
+            item = new byte[length];
+            items[slot] = item;
+        }
+        System.arraycopy(bytes, start, item, 0, length);
+        itemLengths[slot] = length;
+        hashes[slot] = hash;
+    }
+
+    /**
+     * 线性探测的删除：把后面同一探测链上的槽位往前挪，保证查找不会提前遇到空位
+     */
+    private void removeFromTable(int slot) {
+        int i = hashes[slot] & mask;
+        while (table[i] != slot + 1) {
+            i = (i + 1) & mask;
+        }
+        table[i] = 0;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (table[j] == 0) {
+                return;
+            }
+            int home = hashes[table[j] - 1] & mask;
+            //home 在 (i, j] 之间（循环意义下）时，j 上的槽位留在原处仍能被找到
+            boolean stay = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!stay) {
+                table[i] = table[j];
+                table[j] = 0;
+                i = j;
+            }
+        }
+    }
+
+    private void siftUp(int pos) {
+        int slot = heap[pos];
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (counts[heap[parent]] <= counts[slot]) {
+                break;
+            }
+            heap[pos] = heap[parent];
+            heapIndex[heap[pos]] = pos;
+            pos = parent;
+        }
+        heap[pos] = slot;
+        heapIndex[slot] = pos;
+    }
+
+    private void siftDown(int pos) {
+        int slot = heap[pos];
+        int half = size >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            int right = child + 1;
+            if (right < size && counts[heap[right]] < counts[heap[child]]) {
+                child = right;
+            }
+            if (counts[slot] <= counts[heap[child]]) {
+                break;
+            }
+            heap[pos] = heap[child];
+            heapIndex[heap[pos]] = pos;
+            pos = child;
+        }
+        heap[pos] = slot;
+        heapIndex[slot] = pos;
+    }
+
+    /**
+     * 按 count 降序（相同时 error 小的在前）返回前 k 个槽位
+     */
+    public int[] topK(int k) {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                if (counts[a] != counts[b]) {
+                    return counts[a] > counts[b] ? -1 : 1;
+                }
+                return errors[a] < errors[b] ? -1 : (errors[a] == errors[b] ? 0 : 1);
+            }
+        });
+        int[] top = new int[Math.min(k, size)];
+        for (int i = 0; i < top.length; i++) {
+            top[i] = order[i];
+        }
+        return top;
+    }
+
+    public byte[] getItem(int slot) {
+        return items[slot];
+    }
+
+    public int getItemLength(int slot) {
+        return itemLengths[slot];
+    }
+
+    public long getCount(int slot) {
+        return counts[slot];
+    }
+
+    /**
+     * serialize 需要的字节数
+     */
+    public int serializedLength() {
+        int length = 5;
+        for (int slot = 0; slot < size; slot++) {
+            length += 5 + itemLengths[slot] + 9 + 9;
+        }
+        return length;
+    }
+
+    /**
+     * 紧凑格式：varint(item 个数) + 每个 item 的 varint(长度)、字节、varint(count)、varint(error)
+     * 返回写入后的位置
+     */
+    public int serialize(byte[] bytes, int pos) {
+        pos = PartialCodec.writeVLong(bytes, pos, size);
+        for (int slot = 0; slot < size; slot++) {
+            pos = PartialCodec.writeVLong(bytes, pos, itemLengths[slot]);
+            System.arraycopy(items[slot], 0, bytes, pos, itemLengths[slot]);
+            pos += itemLengths[slot];
+            pos = PartialCodec.writeVLong(bytes, pos, counts[slot]);
+            pos = PartialCodec.writeVLong(bytes, pos, errors[slot]);
+        }
+        return pos;
+    }
+
+    /**
+     * 合并另一个摘要：逐个 item 带着 count 和 error 重新 offer，合并后 count 仍然只会高估
+     */
+    public void merge(byte[] bytes, int pos) {
+        long n = PartialCodec.readVLong(bytes, pos);
+        pos += PartialCodec.vLongLength(n);
+        for (long i = 0; i < n; i++) {
+            int length = (int) PartialCodec.readVLong(bytes, pos);
+            pos += PartialCodec.vLongLength(length);
+            int start = pos;
+            pos += length;
+            long count = PartialCodec.readVLong(bytes, pos);
+            pos += PartialCodec.vLongLength(count);
+            long error = PartialCodec.readVLong(bytes, pos);
+            pos += PartialCodec.vLongLength(error);
+            offer(bytes, start, length, count, error);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.susu.udf;
+
+import org.apache.hadoop.hive.ql.util.JavaDataModel;
+
+/**
+ * GenericUDAFMyPercentile 使用的 merging t-digest，质心用基本类型数组保存，内存只与压缩参数 compression 有关，与行数无关
+ *
+ * 质心和未合并的新数据放在同一组数组里：前 centroidCount 个是已合并的质心（按 mean 升序），后面追加新数据
+ * 数组满了以后整体排序，再按 k1 尺度函数 k(q) = compression / (2π) * asin(2q - 1) 原地合并相邻质心：
+ * 两端（q 接近 0 或 1）的质心很小，中间的质心较大，因此 p99 这样的尾部分位数误差很小
+ * 合并后质心个数不超过 compression，数组长度固定为 6 * (compression + 1)，即每次合并之间至少能追加 5 倍质心容量的数据
+ */
+public final class TDigest {
+
+    public static final int DEFAULT_COMPRESSION = 100;
+
+    public static final int MIN_COMPRESSION = 20;
+
+    public static final int MAX_COMPRESSION = 1000;
+
+    private final int compression;
+
+    private final double[] means;
+    private final long[] weights;
+
+    /**
+     * [0, centroidCount) 为已合并的质心，[centroidCount, size) 为新加入的值或 merge 进来的质心
+     */
+    private int centroidCount;
+    private int size;
+
+    private long totalWeight;
+    private double min;
+    private double max;
+
+    public TDigest(int compression) {
+        this.compression = compression;
+        this.means = new double[arrayLength(compression)];
+        this.weights = new long[arrayLength(compression)];
+        reset();
+    }
+
+    public int getCompression() {
+        return compression;
+    }
+
+    public long getTotalWeight() {
+        return totalWeight;
+    }
+
+    public void reset() {
+        centroidCount = 0;
+        size = 0;
+        totalWeight = 0L;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+    }
+
+    private static int arrayLength(int compression) {
+        return (compression + 1) * 6;
+    }
+
+    /**
+     * 对象及两个数组的内存占用，用于 AggregationBuffer.estimate
+     */
+    public static int estimateSize(int compression) {
+        JavaDataModel model = JavaDataModel.get();
+        return model.object() + model.ref() * 2 + model.primitive1() * 3 + model.primitive2() * 3
+                + model.lengthForDoubleArrayOfSize(arrayLength(compression))
+                + model.lengthForLongArrayOfSize(arrayLength(compression));
+    }
+
+    public void add(double value) {
+        add(value, 1L);
+    }
+
+    public void add(double value, long weight) {
+        if (size == means.length) {
+            compress();
+        }
+        means[size] = value;
+        weights[size] = weight;
+        ++size;
+        totalWeight += weight;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    private double k(double q) {
+        return compression / (2.0D * Math.PI) * Math.asin(2.0D * q - 1.0D);
+    }
+
+    /**
+     * 已有质心与新数据一起排序，按 k1 尺度函数原地重新合并（写入位置 out 总是不超过读取位置 i）
+     */
+    public void compress() {
+        if (size == centroidCount) {
+            return;
+        }
+        sort(means, weights, 0, size - 1);
+
+        double total = totalWeight;
+        int out = 0;
+        //当前质心之前的累计权重
+        long weightSoFar = 0L;
+        double kLow = k(0.0D);
+        for (int i = 1; i < size; i++) {
+            long proposed = weights[out] + weights[i];
+            if (k((weightSoFar + proposed) / total) - kLow <= 1.0D) {
+                means[out] += (means[i] - means[out]) * weights[i] / proposed;
+                weights[out] = proposed;
+            } else {
+                weightSoFar += weights[out];
+                kLow = k(weightSoFar / total);
+                ++out;
+                means[out] = means[i];
+                weights[out] = weights[i];
+            }
+        }
+        centroidCount = out + 1;
+        size = centroidCount;
+    }
+
+    /**
+     * 在两个平行数组上按 means 排序：快速排序，小区间改用插入排序
+     */
+    private static void sort(double[] keys, long[] values, int low, int high) {
+        while (high - low > 16) {
+            double pivot = keys[(low + high) >>> 1];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    ++i;
+                }
+                while (keys[j] > pivot) {
+                    --j;
+                }
+                if (i <= j) {
+                    swap(keys, values, i++, j--);
+                }
+            }
+            //先递归较短的一边，保证栈深度为 O(log n)
+            if (j - low < high - i) {
+                sort(keys, values, low, j);
+                low = i;
+            } else {
+                sort(keys, values, i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            double key = keys[i];
+            long value = values[i];
+            int j = i - 1;
+            while (j >= low && keys[j] > key) {
+                keys[j + 1] = keys[j];
+                values[j + 1] = values[j];
+                --j;
+            }
+            keys[j + 1] = key;
+            values[j + 1] = value;
+        }
+    }
+
+    private static void swap(double[] keys, long[] values, int i, int j) {
+        double key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        long value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+
+    /**
+     * 估算分位数 q（0 <= q <= 1），没有数据时返回 NaN
+     * 相邻质心之间线性插值，两端分别在 min/max 与第一个/最后一个质心之间插值
+     */
+    public double quantile(double q) {
+        compress();
+        if (centroidCount == 0) {
+            return Double.NaN;
+        }
+        if (centroidCount == 1) {
+            return means[0];
+        }
+        double total = totalWeight;
+        double index = q * total;
+        double firstHalf = weights[0] / 2.0D;
+        if (index <= firstHalf) {
+            return min + (means[0] - min) * (index / firstHalf);
+        }
+        double lastHalf = weights[centroidCount - 1] / 2.0D;
+        if (index >= total - lastHalf) {
+            return max - (max - means[centroidCount - 1]) * ((total - index) / lastHalf);
+        }
+        double cumulative = firstHalf;
+        for (int i = 0; i < centroidCount - 1; i++) {
+            double dw = (weights[i] + weights[i + 1]) / 2.0D;
+            if (cumulative + dw >= index) {
+                return means[i] + (means[i + 1] - means[i]) * ((index - cumulative) / dw);
+            }
+            cumulative += dw;
+        }
+        return max;
+    }
+
+    /**
+     * 序列化后的最大长度：min + max + varint(质心个数) + 每个质心 8 字节 mean + 最多 9 字节的 varint 权重
+     */
+    public int maxSerializedLength() {
+        return 8 + 8 + 5 + (compression + 1) * 17;
+    }
+
+    /**
+     * 紧凑格式：double min + double max + varint(质心个数) + 每个质心的 double mean、varint 权重
+     * 返回写入后的位置
+     */
+    public int serialize(byte[] bytes, int pos) {
+        compress();
+        pos = PartialCodec.writeDouble(bytes, pos, min);
+        pos = PartialCodec.writeDouble(bytes, pos, max);
+        pos = PartialCodec.writeVLong(bytes, pos, centroidCount);
+        for (int i = 0; i < centroidCount; i++) {
+            pos = PartialCodec.writeDouble(bytes, pos, means[i]);
+            pos = PartialCodec.writeVLong(bytes, pos, weights[i]);
+        }
+        return pos;
+    }
+
+    /**
+     * 把序列化的 digest 合并进来：各个质心作为带权重的点追加到数组末尾，等下一次 compress 时合并
+     */
+    public void merge(byte[] bytes, int pos) {
+        double otherMin = PartialCodec.readDouble(bytes, pos);
+        double otherMax = PartialCodec.readDouble(bytes, pos + 8);
+        pos += 16;
+        long count = PartialCodec.readVLong(bytes, pos);
+        pos += PartialCodec.vLongLength(count);
+        for (long i = 0; i < count; i++) {
+            double mean = PartialCodec.readDouble(bytes, pos);
+            pos += 8;
+            long weight = PartialCodec.readVLong(bytes, pos);
+            pos += PartialCodec.vLongLength(weight);
+            add(mean, weight);
+        }
+        //质心的 mean 不一定等于原始的最小/最大值
+        if (otherMin < min) {
+            min = otherMin;
+        }
+        if (otherMax > max) {
+            max = otherMax;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.susu.udf;
+
+import org.apache.hadoop.hive.ql.exec.vector.DoubleColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorAggregationBufferRow;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpression;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.aggregates.VectorAggregateExpression;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.AggregationDesc;
+import org.apache.hadoop.hive.ql.util.JavaDataModel;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.LongWritable;
+
+import java.util.ArrayList;
+
+/**
+ * GenericUDAFMyAverage 的向量化版本，输入为 float/double（DoubleColumnVector）
+ * 输出与 GenericUDAFMyAverage.terminatePartial 相同的 struct(count, sum)，reduce 端仍由行模式的 merge 接手
+ */
+public class VectorUDAFMyAvgDouble extends VectorAggregateExpression {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 向量化模式下的缓冲类
+     */
+    static class Aggregation implements AggregationBuffer {
+
+        private static final long serialVersionUID = 1L;
+
+        transient long count;
+        transient double sum;
+
+        @Override
+        public int getVariableSize() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void reset() {
+            count = 0L;
+            sum = 0.0D;
+        }
+    }
+
+    private VectorExpression inputExpression;
+    private transient Object[] partialResult;
+    private transient LongWritable resultCount;
+    private transient DoubleWritable resultSum;
+    private transient ObjectInspector soi;
+
+    public VectorUDAFMyAvgDouble(VectorExpression inputExpression) {
+        this();
+        this.inputExpression = inputExpression;
+    }
+
+    public VectorUDAFMyAvgDouble() {
+        super();
+        initPartialResult();
+    }
+
+    /**
+     * 计划反序列化后 transient 字段为空，因此在 init 中也要重新初始化一次
+     */
+    private void initPartialResult() {
+        partialResult = new Object[2];
+        resultCount = new LongWritable();
+        resultSum = new DoubleWritable();
+        partialResult[0] = resultCount;
+        partialResult[1] = resultSum;
+
+        ArrayList<String> fname = new ArrayList<>();
+        fname.add("count");
+        fname.add("sum");
+        ArrayList<ObjectInspector> foi = new ArrayList<>();
+        foi.add(PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+        foi.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+        soi = ObjectInspectorFactory.getStandardStructObjectInspector(fname, foi);
+    }
+
+    private Aggregation getCurrentAggregationBuffer(VectorAggregationBufferRow[] aggregationBufferSets,
+                                                    int aggregateIndex, int row) {
+        VectorAggregationBufferRow mySet = aggregationBufferSets[row];
+        return (Aggregation) mySet.getAggregationBuffer(aggregateIndex);
+    }
+
+    /**
+     * 每一行对应各自分组的 buffer（map 端 hash 聚合）
+     */
+    @Override
+    public void aggregateInputSelection(VectorAggregationBufferRow[] aggregationBufferSets,
+                                        int aggregateIndex, VectorizedRowBatch batch) throws HiveException {
+        int batchSize = batch.size;
+        if (batchSize == 0) {
+            return;
+        }
+
+        inputExpression.evaluate(batch);
+        DoubleColumnVector inputVector = (DoubleColumnVector) batch.cols[this.inputExpression.getOutputColumn()];
+        double[] vector = inputVector.vector;
+        boolean[] isNull = inputVector.isNull;
+        int[] selected = batch.selected;
+
+        //isRepeating：整列都是 vector[0]，若它为 null 则整批都不参与聚合
+        if (inputVector.isRepeating) {
+            if (inputVector.noNulls || !isNull[0]) {
+                double value = vector[0];
+                for (int i = 0; i < batchSize; ++i) {
+                    Aggregation myagg = getCurrentAggregationBuffer(aggregationBufferSets, aggregateIndex, i);
+                    ++myagg.count;
+                    myagg.sum += value;
+                }
+            }
+            return;
+        }
+
+        //按 noNulls / selectedInUse 拆成四个循环，保证热点循环里没有多余的分支
+        if (inputVector.noNulls) {
+            if (batch.selectedInUse) {
+                for (int i = 0; i < batchSize; ++i) {
+                    Aggregation myagg = getCurrentAggregationBuffer(aggregationBufferSets, aggregateIndex, i);
+                    ++myagg.count;
+                    myagg.sum += vector[selected[i]];
+                }
+            } else {
+                for (int i = 0; i < batchSize; ++i) {
+                    Aggregation myagg = getCurrentAggregationBuffer(aggregationBufferSets, aggregateIndex, i);
+                    ++myagg.count;
+                    myagg.sum += vector[i];
+                }
+            }
+        } else {
+            if (batch.selectedInUse) {
+                for (int i = 0; i < batchSize; ++i) {
+                    int row = selected[i];
+                    if (!isNull[row]) {
+                        Aggregation myagg = getCurrentAggregationBuffer(aggregationBufferSets, aggregateIndex, i);
+                        ++myagg.count;
+                        myagg.sum += vector[row];
+                    }
+                }
+            } else {
+                for (int i = 0; i < batchSize; ++i) {
+                    if (!isNull[i]) {
+                        Aggregation myagg = getCurrentAggregationBuffer(aggregationBufferSets, aggregateIndex, i);
+                        ++myagg.count;
+                        myagg.sum += vector[i];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 整批数据聚合到同一个 buffer（无 group by 的全局聚合）
+     */
+    @Override
+    public void aggregateInput(AggregationBuffer agg, VectorizedRowBatch batch) throws HiveException {
+        int batchSize = batch.size;
+        if (batchSize == 0) {
+            return;
+        }
+
+        inputExpression.evaluate(batch);
+        DoubleColumnVector inputVector = (DoubleColumnVector) batch.cols[this.inputExpression.getOutputColumn()];
+        double[] vector = inputVector.vector;
+        boolean[] isNull = inputVector.isNull;
+        int[] selected = batch.selected;
+        Aggregation myagg = (Aggregation) agg;
+
+        if (inputVector.isRepeating) {
+            if (inputVector.noNulls || !isNull[0]) {
+                myagg.count += batchSize;
+                myagg.sum += vector[0] * batchSize;
+            }
+            return;
+        }
+
+        long count = 0L;
+        double sum = 0.0D;
+        if (inputVector.noNulls) {
+            count = batchSize;
+            if (batch.selectedInUse) {
+                for (int i = 0; i < batchSize; ++i) {
+                    sum += vector[selected[i]];
+                }
+            } else {
+                for (int i = 0; i < batchSize; ++i) {
+                    sum += vector[i];
+                }
+            }
+        } else {
+            if (batch.selectedInUse) {
+                for (int i = 0; i < batchSize; ++i) {
+                    int row = selected[i];
+                    if (!isNull[row]) {
+                        ++count;
+                        sum += vector[row];
+                    }
+                }
+            } else {
+                for (int i = 0; i < batchSize; ++i) {
+                    if (!isNull[i]) {
+                        ++count;
+                        sum += vector[i];
+                    }
+                }
+            }
+        }
+        myagg.count += count;
+        myagg.sum += sum;
+    }
+
+    @Override
+    public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+        Aggregation myagg = new Aggregation();
+        myagg.reset();
+        return myagg;
+    }
+
+    @Override
+    public void reset(AggregationBuffer agg) throws HiveException {
+        agg.reset();
+    }
+
+    /**
+     * 与行模式的 terminatePartial 一样，count 为 0 时也输出 struct，由 merge 端累加
+     */
+    @Override
+    public Object evaluateOutput(AggregationBuffer agg) throws HiveException {
+        Aggregation myagg = (Aggregation) agg;
+        resultCount.set(myagg.count);
+        resultSum.set(myagg.sum);
+        return partialResult;
+    }
+
+    @Override
+    public ObjectInspector getOutputObjectInspector() {
+        return soi;
+    }
+
+    @Override
+    public int getAggregationBufferFixedSize() {
+        JavaDataModel model = JavaDataModel.get();
+        return JavaDataModel.alignUp(model.object() + model.primitive2() * 2, model.memoryAlign());
+    }
+
+    @Override
+    public void init(AggregationDesc desc) throws HiveException {
+        initPartialResult();
+    }
+
+    public VectorExpression getInputExpression() {
+        return inputExpression;
+    }
+
+    public void setInputExpression(VectorExpression inputExpression) {
+        this.inputExpression = inputExpression;
+    }
+}
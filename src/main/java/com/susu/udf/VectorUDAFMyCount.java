@@ -0,0 +1,186 @@
+package com.susu.udf;
+
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorAggregationBufferRow;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpression;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.aggregates.VectorAggregateExpression;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.AggregationDesc;
+import org.apache.hadoop.hive.ql.util.JavaDataModel;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * GenericUDAFMyCount 精确 count 的向量化版本，只看 isNull，因此适用于任意类型的 ColumnVector
+ * 输出与 GenericUDAFMyCount.GenericUDAFCountEvaluator.terminatePartial 一致（bigint）
+ */
+public class VectorUDAFMyCount extends VectorAggregateExpression {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 向量化模式下的缓冲类
+     */
+    static class Aggregation implements AggregationBuffer {
+
+        private static final long serialVersionUID = 1L;
+
+        transient long count;
+
+        @Override
+        public int getVariableSize() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void reset() {
+            count = 0L;
+        }
+    }
+
+    private VectorExpression inputExpression;
+    private transient final LongWritable result;
+
+    public VectorUDAFMyCount(VectorExpression inputExpression) {
+        this();
+        this.inputExpression = inputExpression;
+    }
+
+    public VectorUDAFMyCount() {
+        super();
+        result = new LongWritable(0L);
+    }
+
+    private Aggregation getCurrentAggregationBuffer(VectorAggregationBufferRow[] aggregationBufferSets,
+                                                    int aggregateIndex, int row) {
+        VectorAggregationBufferRow mySet = aggregationBufferSets[row];
+        return (Aggregation) mySet.getAggregationBuffer(aggregateIndex);
+    }
+
+    /**
+     * 每一行对应各自分组的 buffer（map 端 hash 聚合）
+     */
+    @Override
+    public void aggregateInputSelection(VectorAggregationBufferRow[] aggregationBufferSets,
+                                        int aggregateIndex, VectorizedRowBatch batch) throws HiveException {
+        int batchSize = batch.size;
+        if (batchSize == 0) {
+            return;
+        }
+
+        inputExpression.evaluate(batch);
+        ColumnVector inputVector = batch.cols[this.inputExpression.getOutputColumn()];
+        boolean[] isNull = inputVector.isNull;
+        int[] selected = batch.selected;
+
+        //整列都非 null（包括重复值非 null）时每行都计数，不需要看 selected
+        if (inputVector.noNulls || (inputVector.isRepeating && !isNull[0])) {
+            for (int i = 0; i < batchSize; ++i) {
+                ++getCurrentAggregationBuffer(aggregationBufferSets, aggregateIndex, i).count;
+            }
+        } else if (inputVector.isRepeating) {
+            //整列都是 null
+            return;
+        } else if (batch.selectedInUse) {
+            for (int i = 0; i < batchSize; ++i) {
+                if (!isNull[selected[i]]) {
+                    ++getCurrentAggregationBuffer(aggregationBufferSets, aggregateIndex, i).count;
+                }
+            }
+        } else {
+            for (int i = 0; i < batchSize; ++i) {
+                if (!isNull[i]) {
+                    ++getCurrentAggregationBuffer(aggregationBufferSets, aggregateIndex, i).count;
+                }
+            }
+        }
+    }
+
+    /**
+     * 整批数据聚合到同一个 buffer（无 group by 的全局聚合）
+     */
+    @Override
+    public void aggregateInput(AggregationBuffer agg, VectorizedRowBatch batch) throws HiveException {
+        int batchSize = batch.size;
+        if (batchSize == 0) {
+            return;
+        }
+
+        inputExpression.evaluate(batch);
+        ColumnVector inputVector = batch.cols[this.inputExpression.getOutputColumn()];
+        boolean[] isNull = inputVector.isNull;
+        int[] selected = batch.selected;
+        Aggregation myagg = (Aggregation) agg;
+
+        if (inputVector.noNulls || (inputVector.isRepeating && !isNull[0])) {
+            myagg.count += batchSize;
+            return;
+        }
+        if (inputVector.isRepeating) {
+            return;
+        }
+
+        long count = 0L;
+        if (batch.selectedInUse) {
+            for (int i = 0; i < batchSize; ++i) {
+                if (!isNull[selected[i]]) {
+                    ++count;
+                }
+            }
+        } else {
+            for (int i = 0; i < batchSize; ++i) {
+                if (!isNull[i]) {
+                    ++count;
+                }
+            }
+        }
+        myagg.count += count;
+    }
+
+    @Override
+    public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+        Aggregation myagg = new Aggregation();
+        myagg.reset();
+        return myagg;
+    }
+
+    @Override
+    public void reset(AggregationBuffer agg) throws HiveException {
+        agg.reset();
+    }
+
+    /**
+     * 与行模式一样，没有数据时输出 0 而不是 null
+     */
+    @Override
+    public Object evaluateOutput(AggregationBuffer agg) throws HiveException {
+        result.set(((Aggregation) agg).count);
+        return result;
+    }
+
+    @Override
+    public ObjectInspector getOutputObjectInspector() {
+        return PrimitiveObjectInspectorFactory.writableLongObjectInspector;
+    }
+
+    @Override
+    public int getAggregationBufferFixedSize() {
+        JavaDataModel model = JavaDataModel.get();
+        return JavaDataModel.alignUp(model.object() + model.primitive2(), model.memoryAlign());
+    }
+
+    @Override
+    public void init(AggregationDesc desc) throws HiveException {
+        // 无需初始化
+    }
+
+    public VectorExpression getInputExpression() {
+        return inputExpression;
+    }
+
+    public void setInputExpression(VectorExpression inputExpression) {
+        this.inputExpression = inputExpression;
+    }
+}
@@ -0,0 +1,222 @@
+package com.susu.udf;
+
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DecimalColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DoubleColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorAggregationBufferRow;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpression;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.aggregates.VectorAggregateExpression;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.AggregationDesc;
+import org.apache.hadoop.hive.ql.util.JavaDataModel;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.BytesWritable;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * GenericUDAFMyCount 去重估算模式（mycount(col, true)）的向量化版本
+ * 支持 LongColumnVector（整数/boolean/date/timestamp）、DoubleColumnVector（float/double）、
+ * BytesColumnVector（string/char/varchar/binary）、DecimalColumnVector（decimal）
+ * 哈希方式与行模式相同，输出的序列化 sketch 可以直接交给行模式的 merge
+ */
+public class VectorUDAFMyCountDistinct extends VectorAggregateExpression {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 向量化模式下的缓冲类
+     */
+    static class Aggregation implements AggregationBuffer {
+
+        private static final long serialVersionUID = 1L;
+
+        transient byte[] registers = HyperLogLog.newRegisters();
+
+        @Override
+        public int getVariableSize() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void reset() {
+            Arrays.fill(registers, (byte) 0);
+        }
+    }
+
+    private VectorExpression inputExpression;
+    private transient BytesWritable result;
+
+    /**
+     * char 与 string 都是 BytesColumnVector，只能按输入表达式的类型区分
+     */
+    private transient boolean charInput;
+
+    public VectorUDAFMyCountDistinct(VectorExpression inputExpression) {
+        this();
+        this.inputExpression = inputExpression;
+        initResult();
+    }
+
+    public VectorUDAFMyCountDistinct() {
+        super();
+        initResult();
+    }
+
+    /**
+     * 计划反序列化后 transient 字段为空，因此在 init 中也要重新初始化一次
+     */
+    private void initResult() {
+        result = new BytesWritable(new byte[HyperLogLog.MAX_SERIALIZED_LENGTH]);
+        String type = inputExpression == null ? null : inputExpression.getOutputType();
+        charInput = type != null && type.toLowerCase(Locale.ROOT).startsWith("char");
+    }
+
+    private Aggregation getCurrentAggregationBuffer(VectorAggregationBufferRow[] aggregationBufferSets,
+                                                    int aggregateIndex, int row) {
+        VectorAggregationBufferRow mySet = aggregationBufferSets[row];
+        return (Aggregation) mySet.getAggregationBuffer(aggregateIndex);
+    }
+
+    /**
+     * 取第 row 行的哈希，每种类型调用的 HyperLogLog 方法与 GenericUDAFCountDistinctEstimateEvaluator.hash 相同
+     */
+    private long hash(ColumnVector inputVector, int row) throws HiveException {
+        if (inputVector instanceof LongColumnVector) {
+            return HyperLogLog.hashLong(((LongColumnVector) inputVector).vector[row]);
+        } else if (inputVector instanceof DoubleColumnVector) {
+            return HyperLogLog.hashDouble(((DoubleColumnVector) inputVector).vector[row]);
+        } else if (inputVector instanceof BytesColumnVector) {
+            BytesColumnVector bytes = (BytesColumnVector) inputVector;
+            return charInput
+                    ? HyperLogLog.hashChar(bytes.vector[row], bytes.start[row], bytes.length[row])
+                    : HyperLogLog.hashString(bytes.vector[row], bytes.start[row], bytes.length[row]);
+        } else if (inputVector instanceof DecimalColumnVector) {
+            return HyperLogLog.hashDecimal(((DecimalColumnVector) inputVector).vector[row].getHiveDecimal());
+        }
+        throw new HiveException("Unsupported column vector " + inputVector.getClass().getSimpleName());
+    }
+
+    /**
+     * 每一行对应各自分组的 buffer（map 端 hash 聚合）
+     * 与求和不同，这里的开销主要在哈希和随机写寄存器上，按 noNulls / selectedInUse 拆循环收益不大，统一成一个循环
+     */
+    @Override
+    public void aggregateInputSelection(VectorAggregationBufferRow[] aggregationBufferSets,
+                                        int aggregateIndex, VectorizedRowBatch batch) throws HiveException {
+        int batchSize = batch.size;
+        if (batchSize == 0) {
+            return;
+        }
+
+        inputExpression.evaluate(batch);
+        ColumnVector inputVector = batch.cols[this.inputExpression.getOutputColumn()];
+        boolean[] isNull = inputVector.isNull;
+        int[] selected = batch.selected;
+
+        //isRepeating：整列都是第 0 行的值，只需算一次哈希
+        if (inputVector.isRepeating) {
+            if (inputVector.noNulls || !isNull[0]) {
+                long hash = hash(inputVector, 0);
+                for (int i = 0; i < batchSize; ++i) {
+                    HyperLogLog.add(getCurrentAggregationBuffer(aggregationBufferSets, aggregateIndex, i).registers, hash);
+                }
+            }
+            return;
+        }
+
+        boolean noNulls = inputVector.noNulls;
+        boolean selectedInUse = batch.selectedInUse;
+        for (int i = 0; i < batchSize; ++i) {
+            int row = selectedInUse ? selected[i] : i;
+            if (noNulls || !isNull[row]) {
+                HyperLogLog.add(getCurrentAggregationBuffer(aggregationBufferSets, aggregateIndex, i).registers,
+                        hash(inputVector, row));
+            }
+        }
+    }
+
+    /**
+     * 整批数据聚合到同一个 buffer（无 group by 的全局聚合）
+     */
+    @Override
+    public void aggregateInput(AggregationBuffer agg, VectorizedRowBatch batch) throws HiveException {
+        int batchSize = batch.size;
+        if (batchSize == 0) {
+            return;
+        }
+
+        inputExpression.evaluate(batch);
+        ColumnVector inputVector = batch.cols[this.inputExpression.getOutputColumn()];
+        boolean[] isNull = inputVector.isNull;
+        int[] selected = batch.selected;
+        byte[] registers = ((Aggregation) agg).registers;
+
+        //重复值对 sketch 的影响与出现一次相同
+        if (inputVector.isRepeating) {
+            if (inputVector.noNulls || !isNull[0]) {
+                HyperLogLog.add(registers, hash(inputVector, 0));
+            }
+            return;
+        }
+
+        boolean noNulls = inputVector.noNulls;
+        boolean selectedInUse = batch.selectedInUse;
+        for (int i = 0; i < batchSize; ++i) {
+            int row = selectedInUse ? selected[i] : i;
+            if (noNulls || !isNull[row]) {
+                HyperLogLog.add(registers, hash(inputVector, row));
+            }
+        }
+    }
+
+    @Override
+    public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+        return new Aggregation();
+    }
+
+    @Override
+    public void reset(AggregationBuffer agg) throws HiveException {
+        agg.reset();
+    }
+
+    /**
+     * 输出序列化的 sketch，与行模式的 terminatePartial 相同
+     */
+    @Override
+    public Object evaluateOutput(AggregationBuffer agg) throws HiveException {
+        result.setSize(HyperLogLog.MAX_SERIALIZED_LENGTH);
+        int length = HyperLogLog.serialize(((Aggregation) agg).registers, result.getBytes());
+        result.setSize(length);
+        return result;
+    }
+
+    @Override
+    public ObjectInspector getOutputObjectInspector() {
+        return PrimitiveObjectInspectorFactory.writableBinaryObjectInspector;
+    }
+
+    @Override
+    public int getAggregationBufferFixedSize() {
+        JavaDataModel model = JavaDataModel.get();
+        return JavaDataModel.alignUp(model.object() + model.ref() + HyperLogLog.registersSize(), model.memoryAlign());
+    }
+
+    @Override
+    public void init(AggregationDesc desc) throws HiveException {
+        initResult();
+    }
+
+    public VectorExpression getInputExpression() {
+        return inputExpression;
+    }
+
+    public void setInputExpression(VectorExpression inputExpression) {
+        this.inputExpression = inputExpression;
+    }
+}
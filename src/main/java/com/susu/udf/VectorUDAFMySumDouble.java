@@ -0,0 +1,238 @@
+package com.susu.udf;
+
+import org.apache.hadoop.hive.ql.exec.vector.DoubleColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorAggregationBufferRow;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpression;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.aggregates.VectorAggregateExpression;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.AggregationDesc;
+import org.apache.hadoop.hive.ql.util.JavaDataModel;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+
+/**
+ * GenericUDAFMySum 的向量化版本，输入为 float/double（DoubleColumnVector）
+ * 输出与 GenericUDAFMySum.GenericUDAFSumDouble.terminatePartial 一致（double），reduce 端仍可由行模式的 merge 接手
+ */
+public class VectorUDAFMySumDouble extends VectorAggregateExpression {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 向量化模式下的缓冲类
+     */
+    static class Aggregation implements AggregationBuffer {
+
+        private static final long serialVersionUID = 1L;
+
+        transient boolean isNull;
+        transient double sum;
+
+        @Override
+        public int getVariableSize() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void reset() {
+            isNull = true;
+            sum = 0.0D;
+        }
+    }
+
+    private VectorExpression inputExpression;
+    private transient final DoubleWritable result;
+
+    public VectorUDAFMySumDouble(VectorExpression inputExpression) {
+        this();
+        this.inputExpression = inputExpression;
+    }
+
+    public VectorUDAFMySumDouble() {
+        super();
+        result = new DoubleWritable();
+    }
+
+    private Aggregation getCurrentAggregationBuffer(VectorAggregationBufferRow[] aggregationBufferSets,
+                                                    int aggregateIndex, int row) {
+        VectorAggregationBufferRow mySet = aggregationBufferSets[row];
+        return (Aggregation) mySet.getAggregationBuffer(aggregateIndex);
+    }
+
+    /**
+     * 每一行对应各自分组的 buffer（map 端 hash 聚合）
+     */
+    @Override
+    public void aggregateInputSelection(VectorAggregationBufferRow[] aggregationBufferSets,
+                                        int aggregateIndex, VectorizedRowBatch batch) throws HiveException {
+        int batchSize = batch.size;
+        if (batchSize == 0) {
+            return;
+        }
+
+        inputExpression.evaluate(batch);
+        DoubleColumnVector inputVector = (DoubleColumnVector) batch.cols[this.inputExpression.getOutputColumn()];
+        double[] vector = inputVector.vector;
+        boolean[] isNull = inputVector.isNull;
+        int[] selected = batch.selected;
+
+        //isRepeating：整列都是 vector[0]，若它为 null 则整批都不参与聚合
+        if (inputVector.isRepeating) {
+            if (inputVector.noNulls || !isNull[0]) {
+                double value = vector[0];
+                for (int i = 0; i < batchSize; ++i) {
+                    Aggregation myagg = getCurrentAggregationBuffer(aggregationBufferSets, aggregateIndex, i);
+                    myagg.isNull = false;
+                    myagg.sum += value;
+                }
+            }
+            return;
+        }
+
+        //按 noNulls / selectedInUse 拆成四个循环，保证热点循环里没有多余的分支
+        if (inputVector.noNulls) {
+            if (batch.selectedInUse) {
+                for (int i = 0; i < batchSize; ++i) {
+                    Aggregation myagg = getCurrentAggregationBuffer(aggregationBufferSets, aggregateIndex, i);
+                    myagg.isNull = false;
+                    myagg.sum += vector[selected[i]];
+                }
+            } else {
+                for (int i = 0; i < batchSize; ++i) {
+                    Aggregation myagg = getCurrentAggregationBuffer(aggregationBufferSets, aggregateIndex, i);
+                    myagg.isNull = false;
+                    myagg.sum += vector[i];
+                }
+            }
+        } else {
+            if (batch.selectedInUse) {
+                for (int i = 0; i < batchSize; ++i) {
+                    int row = selected[i];
+                    if (!isNull[row]) {
+                        Aggregation myagg = getCurrentAggregationBuffer(aggregationBufferSets, aggregateIndex, i);
+                        myagg.isNull = false;
+                        myagg.sum += vector[row];
+                    }
+                }
+            } else {
+                for (int i = 0; i < batchSize; ++i) {
+                    if (!isNull[i]) {
+                        Aggregation myagg = getCurrentAggregationBuffer(aggregationBufferSets, aggregateIndex, i);
+                        myagg.isNull = false;
+                        myagg.sum += vector[i];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 整批数据聚合到同一个 buffer（无 group by 的全局聚合）
+     */
+    @Override
+    public void aggregateInput(AggregationBuffer agg, VectorizedRowBatch batch) throws HiveException {
+        int batchSize = batch.size;
+        if (batchSize == 0) {
+            return;
+        }
+
+        inputExpression.evaluate(batch);
+        DoubleColumnVector inputVector = (DoubleColumnVector) batch.cols[this.inputExpression.getOutputColumn()];
+        double[] vector = inputVector.vector;
+        boolean[] isNull = inputVector.isNull;
+        int[] selected = batch.selected;
+        Aggregation myagg = (Aggregation) agg;
+
+        if (inputVector.isRepeating) {
+            if (inputVector.noNulls || !isNull[0]) {
+                myagg.isNull = false;
+                myagg.sum += vector[0] * batchSize;
+            }
+            return;
+        }
+
+        double sum = 0.0D;
+        boolean empty = true;
+        if (inputVector.noNulls) {
+            empty = false;
+            if (batch.selectedInUse) {
+                for (int i = 0; i < batchSize; ++i) {
+                    sum += vector[selected[i]];
+                }
+            } else {
+                for (int i = 0; i < batchSize; ++i) {
+                    sum += vector[i];
+                }
+            }
+        } else {
+            if (batch.selectedInUse) {
+                for (int i = 0; i < batchSize; ++i) {
+                    int row = selected[i];
+                    if (!isNull[row]) {
+                        empty = false;
+                        sum += vector[row];
+                    }
+                }
+            } else {
+                for (int i = 0; i < batchSize; ++i) {
+                    if (!isNull[i]) {
+                        empty = false;
+                        sum += vector[i];
+                    }
+                }
+            }
+        }
+        if (!empty) {
+            myagg.isNull = false;
+            myagg.sum += sum;
+        }
+    }
+
+    @Override
+    public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+        Aggregation myagg = new Aggregation();
+        myagg.reset();
+        return myagg;
+    }
+
+    @Override
+    public void reset(AggregationBuffer agg) throws HiveException {
+        agg.reset();
+    }
+
+    @Override
+    public Object evaluateOutput(AggregationBuffer agg) throws HiveException {
+        Aggregation myagg = (Aggregation) agg;
+        if (myagg.isNull) {
+            return null;
+        }
+        result.set(myagg.sum);
+        return result;
+    }
+
+    @Override
+    public ObjectInspector getOutputObjectInspector() {
+        return PrimitiveObjectInspectorFactory.writableDoubleObjectInspector;
+    }
+
+    @Override
+    public int getAggregationBufferFixedSize() {
+        JavaDataModel model = JavaDataModel.get();
+        return JavaDataModel.alignUp(model.object() + model.primitive2() + model.primitive1(), model.memoryAlign());
+    }
+
+    @Override
+    public void init(AggregationDesc desc) throws HiveException {
+        // 无需初始化
+    }
+
+    public VectorExpression getInputExpression() {
+        return inputExpression;
+    }
+
+    public void setInputExpression(VectorExpression inputExpression) {
+        this.inputExpression = inputExpression;
+    }
+}
@@ -0,0 +1,174 @@
+package com.susu.udf;
+
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorExpressionDescriptor;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpression;
+
+/**
+ * NameUDF / GenericUDFName 的向量化版本，输入为 string（BytesColumnVector）
+ * 每行的结果是 入参字节 + "**" + 计数器，直接拷贝到输出列共享的缓冲区中，不为每行分配 byte[]
+ *
+ * 与行模式一致：计数器按实际处理的行（selected 中的行）依次加一，每个 task 反序列化出自己的实例，各自从 0 开始计数；
+ * 入参为 null 时 NameUDF 得到的是 "null**n"，因此输出列没有 null
+ * 即使入参 isRepeating，每行的计数器也不同，输出列不会是 isRepeating
+ */
+public class VectorUDFName extends VectorExpression {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final byte[] NULL_BYTES = new byte[]{'n', 'u', 'l', 'l'};
+
+    private int colNum;
+    private int outputColumn;
+
+    /**
+     * 与 NameUDF.a 相同，transient 保证计划序列化后每个 task 从 0 开始
+     */
+    private transient int a = 0;
+
+    /**
+     * "**" + 计数器的十进制，数字由 GenericUDFName.writeDigits 写到末尾，"**" 紧挨在数字前面
+     */
+    private transient byte[] suffix;
+
+    public VectorUDFName(int colNum, int outputColumn) {
+        this();
+        this.colNum = colNum;
+        this.outputColumn = outputColumn;
+    }
+
+    public VectorUDFName() {
+        super();
+    }
+
+    @Override
+    public void evaluate(VectorizedRowBatch batch) {
+        if (childExpressions != null) {
+            evaluateChildren(batch);
+        }
+
+        BytesColumnVector inputColVector = (BytesColumnVector) batch.cols[colNum];
+        BytesColumnVector outV = (BytesColumnVector) batch.cols[outputColumn];
+        int[] sel = batch.selected;
+        int n = batch.size;
+
+        if (n == 0) {
+            return;
+        }
+        if (suffix == null) {
+            suffix = new byte[22];
+        }
+
+        outV.initBuffer();
+        outV.isRepeating = false;
+        outV.noNulls = true;
+
+        if (inputColVector.isRepeating) {
+            //所有行的入参相同，只取一次
+            byte[] bytes;
+            int start;
+            int length;
+            if (!inputColVector.noNulls && inputColVector.isNull[0]) {
+                bytes = NULL_BYTES;
+                start = 0;
+                length = NULL_BYTES.length;
+            } else {
+                bytes = inputColVector.vector[0];
+                start = inputColVector.start[0];
+                length = inputColVector.length[0];
+            }
+            if (batch.selectedInUse) {
+                for (int j = 0; j != n; j++) {
+                    int i = sel[j];
+                    setName(outV, i, bytes, start, length);
+                }
+            } else {
+                for (int i = 0; i != n; i++) {
+                    setName(outV, i, bytes, start, length);
+                }
+            }
+        } else if (inputColVector.noNulls) {
+            byte[][] vector = inputColVector.vector;
+            int[] start = inputColVector.start;
+            int[] length = inputColVector.length;
+            if (batch.selectedInUse) {
+                for (int j = 0; j != n; j++) {
+                    int i = sel[j];
+                    setName(outV, i, vector[i], start[i], length[i]);
+                }
+            } else {
+                for (int i = 0; i != n; i++) {
+                    setName(outV, i, vector[i], start[i], length[i]);
+                }
+            }
+        } else {
+            byte[][] vector = inputColVector.vector;
+            int[] start = inputColVector.start;
+            int[] length = inputColVector.length;
+            boolean[] isNull = inputColVector.isNull;
+            if (batch.selectedInUse) {
+                for (int j = 0; j != n; j++) {
+                    int i = sel[j];
+                    if (isNull[i]) {
+                        setName(outV, i, NULL_BYTES, 0, NULL_BYTES.length);
+                    } else {
+                        setName(outV, i, vector[i], start[i], length[i]);
+                    }
+                }
+            } else {
+                for (int i = 0; i != n; i++) {
+                    if (isNull[i]) {
+                        setName(outV, i, NULL_BYTES, 0, NULL_BYTES.length);
+                    } else {
+                        setName(outV, i, vector[i], start[i], length[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 计数器加一，把 bytes[start, start + length) + "**" + 计数器 写入输出列第 i 行
+     */
+    private void setName(BytesColumnVector outV, int i, byte[] bytes, int start, int length) {
+        a++;
+        int digits = GenericUDFName.writeDigits(a, suffix);
+        int suffixStart = suffix.length - digits - 2;
+        suffix[suffixStart] = '*';
+        suffix[suffixStart + 1] = '*';
+        outV.setConcat(i, bytes, start, length, suffix, suffixStart, digits + 2);
+    }
+
+    @Override
+    public int getOutputColumn() {
+        return outputColumn;
+    }
+
+    @Override
+    public String getOutputType() {
+        return "string";
+    }
+
+    public int getColNum() {
+        return colNum;
+    }
+
+    public void setColNum(int colNum) {
+        this.colNum = colNum;
+    }
+
+    public void setOutputColumn(int outputColumn) {
+        this.outputColumn = outputColumn;
+    }
+
+    @Override
+    public VectorExpressionDescriptor.Descriptor getDescriptor() {
+        return (new VectorExpressionDescriptor.Builder())
+                .setMode(VectorExpressionDescriptor.Mode.PROJECTION)
+                .setNumArguments(1)
+                .setArgumentTypes(VectorExpressionDescriptor.ArgumentType.STRING_FAMILY)
+                .setInputExpressionTypes(VectorExpressionDescriptor.InputExpressionType.COLUMN)
+                .build();
+    }
+}
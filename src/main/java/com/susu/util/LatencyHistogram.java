@@ -0,0 +1,118 @@
+package com.susu.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * HDR 风格的对数-线性直方图，记录非负 long（毫秒）
+ * 小于 32 的值各占一个桶；之后每个 2 的幂区间 [2^e, 2^(e+1)) 再均分成 32 个桶，分位数的相对误差不超过 1/32（约 3%）
+ * 整个 long 的范围只需要 1888 个桶，record 只是一次 AtomicLongArray 的自增，不加锁
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * 精确桶 SUB_BUCKETS 个，加上 e = 5..62 每个区间 SUB_BUCKETS 个
+     */
+    static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final StripedCounter sum = new StripedCounter();
+    private final AtomicLong max = new AtomicLong(0L);
+
+    public void record(long value) {
+        if (value < 0L) {
+            value = 0L;
+        }
+        counts.incrementAndGet(bucket(value));
+        sum.add(value);
+        long current;
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value)) {
+                break;
+            }
+        }
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        //value >>> shift 落在 [SUB_BUCKETS, 2 * SUB_BUCKETS)
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * 桶中最大的值
+     */
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+
+    /**
+     * 复制当前各个桶的计数；与 record 并发时可能少算正在进行的几次记录，但计数、分位数之间是一致的
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, sum.sum(), max.get());
+    }
+
+    public static class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public long getMean() {
+            return count == 0L ? 0L : sum / count;
+        }
+
+        /**
+         * 第 p（0 ~ 1）分位数，返回所在桶中最大的值，不超过记录到的最大值
+         */
+        public long getPercentile(double p) {
+            if (count == 0L) {
+                return 0L;
+            }
+            long rank = Math.max(1L, (long) Math.ceil(p * count));
+            long seen = 0L;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.susu.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 分段计数器：不同线程累加到不同的槽位上，读取时求和，多个 HiveServer2 handler 线程同时更新时不会争抢同一个 long
+ * 每个槽位独占一个缓存行（8 个 long），避免伪共享
+ *
+ * sum() 不是原子快照，只保证包含调用之前已经完成的 add
+ */
+public class StripedCounter {
+
+    /**
+     * 相邻槽位间隔 8 个 long = 64 字节
+     */
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    public StripedCounter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public StripedCounter(int stripes) {
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.cells = new AtomicLongArray(size * PADDING);
+    }
+
+    public void increment() {
+        add(1L);
+    }
+
+    public void add(long x) {
+        cells.getAndAdd(index(), x);
+    }
+
+    public long sum() {
+        long sum = 0L;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * 按线程 id 散列到槽位，线程池中的线程 id 不变，同一个线程总是落在同一个槽位
+     */
+    private int index() {
+        long id = Thread.currentThread().getId();
+        int h = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32);
+        return (h & mask) * PADDING;
+    }
+}
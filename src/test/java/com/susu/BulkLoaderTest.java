@@ -0,0 +1,132 @@
+package com.susu;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.junit.Test;
+
+/**
+ * BulkLoader：本地目录按分区分组、并行暂存压缩、每个分区一条 load 语句（StubDriver 执行）
+ */
+public class BulkLoaderTest
+{
+    private static File write(File root, String path, String content) throws IOException
+    {
+        File file = new File(root, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String gunzip(File file) throws IOException
+    {
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+            java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+            IOUtils.copyBytes(in, out, 4096, false);
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void partitionSpecAndStatement()
+    {
+        Map<String, String> spec = BulkLoader.partitionSpec(new Path("file:/in"),
+                new Path("file:/in/x/City=shang%20hai/street=a'b/part-0"));
+        assertEquals("{city=shang hai, street=a'b}", spec.toString());
+        assertEquals("city=shang%20hai/street=a%27b", BulkLoader.partitionPath(spec));
+        assertEquals("load data local inpath '/s/p' overwrite into table emp partition (city='shang hai', street='a\\'b')",
+                BulkLoader.loadStatement(new Path("file:/s/p"), true, true, "emp", spec));
+        assertEquals("load data inpath 'hdfs://nn/s' into table student",
+                BulkLoader.loadStatement(new Path("hdfs://nn/s"), false, false, "student", new LinkedHashMap<String, String>()));
+    }
+
+    @Test
+    public void loadsOncePerPartition() throws Exception
+    {
+        File dir = Files.createTempDirectory("bulk").toFile();
+        File input = new File(dir, "input");
+        write(input, "city=shanghai/street=jinkelu/a.txt", "tom\t100\n");
+        write(input, "city=shanghai/street=jinkelu/sub/a.txt", "jerry\t200\n");
+        write(input, "city=shanghai/street=jinkelu/_SUCCESS", "");
+        write(input, "city=beijing/street=changan/b.txt", "lily\t300\n");
+
+        Class.forName(StubDriver.class.getName());
+        try (HiveConnectionPool pool = new HiveConnectionPool(
+                HiveConnectionPool.driverManager(StubDriver.PREFIX + "?latency=5", "root", ""), 2, 60000L, null, 0L)) {
+            ConcurrentQueryExecutor executor = new ConcurrentQueryExecutor(pool, 2, 10000L);
+            BulkLoader.LoadResult result = new BulkLoader(executor, new Configuration()).setThreads(3)
+                    .setStagingRoot(new Path(new File(dir, "staging").toURI())).setKeepStaging(true).setProgress(null)
+                    .load(new Path(input.toURI()), "emp");
+            executor.close();
+
+            assertEquals(2, result.getPartitions().size());
+            assertEquals(3, result.getFiles());
+            assertEquals(0, result.getFailed());
+
+            BulkLoader.PartitionLoad beijing = result.getPartitions().get(0);
+            assertEquals("{city=beijing, street=changan}", beijing.getSpec().toString());
+            assertTrue(beijing.getStatement().startsWith("load data local inpath '"));
+            assertTrue(beijing.getStatement().endsWith("' overwrite into table emp partition (city='beijing', street='changan')"));
+
+            BulkLoader.PartitionLoad shanghai = result.getPartitions().get(1);
+            assertTrue(shanghai.isSuccess());
+            assertEquals(2, shanghai.getFiles().size());
+            File staged = new File(shanghai.getStagingDir().toUri());
+            String[] names = staged.list();
+            java.util.Arrays.sort(names);
+            assertEquals("[00000_a.txt.gz, 00001_a.txt.gz]", java.util.Arrays.toString(names));
+            List<String> rows = new java.util.ArrayList<>();
+            for (String name : names) {
+                rows.add(gunzip(new File(staged, name)));
+            }
+            Collections.sort(rows);
+            assertEquals("[jerry\t200\n, tom\t100\n]", rows.toString());
+        }
+    }
+
+    @Test
+    public void failedLoadKeepsOtherPartitions() throws Exception
+    {
+        File dir = Files.createTempDirectory("bulk").toFile();
+        File input = new File(dir, "input");
+        write(input, "data.txt", "tom,18\n");
+        write(input, "data.gz", "already compressed");
+
+        Class.forName(StubDriver.class.getName());
+        try (HiveConnectionPool pool = new HiveConnectionPool(
+                HiveConnectionPool.driverManager(StubDriver.PREFIX + "?errorRate=1", "root", ""), 1, 60000L, null, 0L)) {
+            ConcurrentQueryExecutor executor = new ConcurrentQueryExecutor(pool, 1, 10000L);
+            File staging = new File(dir, "staging");
+            BulkLoader.LoadResult result = new BulkLoader(executor, new Configuration()).setOverwrite(false)
+                    .setStagingRoot(new Path(staging.toURI())).setProgress(null).load(new Path(input.toURI()), "student");
+            executor.close();
+
+            assertEquals(1, result.getPartitions().size());
+            BulkLoader.PartitionLoad partition = result.getPartitions().get(0);
+            assertTrue(partition.getSpec().isEmpty());
+            assertFalse(partition.isSuccess());
+            assertTrue(partition.getError().getMessage().startsWith("Simulated failure: load data local inpath"));
+            assertFalse(partition.getStatement().contains("overwrite"));
+            //失败的分区保留暂存文件，.gz 文件不再压缩
+            String[] names = new File(partition.getStagingDir().toUri()).list();
+            java.util.Arrays.sort(names);
+            assertEquals("[00000_data.gz, 00001_data.txt.gz]", java.util.Arrays.toString(names));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.susu;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * HiveConnectionPool 与 ConcurrentQueryExecutor，使用 StubDriver：
+ * "select sleep(N)" 执行 N 毫秒（可被 cancel），"select assert_true(false)" 抛出 SQLException，每个查询返回 7 行
+ */
+public class ConcurrentQueryExecutorTest
+{
+    private static final String URL = StubDriver.PREFIX + "?rows=7";
+
+    @Test
+    public void concurrencyLimitAndResults() throws Exception
+    {
+        StubDriver driver = new StubDriver();
+        List<String> sqls = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            sqls.add(i % 10 == 9 ? "select assert_true(false)" : "select sleep(20)");
+        }
+        sqls.add("select 1");
+        try (HiveConnectionPool pool = new HiveConnectionPool(driver.factory(URL), 8);
+             ConcurrentQueryExecutor executor = new ConcurrentQueryExecutor(pool, 4, 10000L)) {
+            List<ConcurrentQueryExecutor.QueryResult<Long>> results = executor.runAll(sqls);
+            assertEquals(41, results.size());
+            int failed = 0;
+            for (ConcurrentQueryExecutor.QueryResult<Long> result : results) {
+                failed += result.isSuccess() ? 0 : 1;
+            }
+            assertEquals(4, failed);
+            assertEquals(Long.valueOf(7L), results.get(40).getValue());
+            assertTrue(driver.getMaxRunning() <= 4);
+            //连接被复用，不会超过并发数
+            assertTrue(driver.getOpened() <= 4);
+            assertEquals(0, pool.getActive());
+            assertEquals(41L, executor.getLatency().getCount());
+            assertTrue(executor.getLatency().getPercentile(0.5) >= 19L);
+        }
+        assertEquals(driver.getOpened(), driver.getClosed());
+    }
+
+    @Test
+    public void handlerExceptionBecomesResult() throws Exception
+    {
+        StubDriver driver = new StubDriver();
+        try (HiveConnectionPool pool = new HiveConnectionPool(driver.factory(URL), 1);
+             ConcurrentQueryExecutor executor = new ConcurrentQueryExecutor(pool, 1, 10000L)) {
+            final AtomicInteger calls = new AtomicInteger();
+            List<ConcurrentQueryExecutor.QueryResult<String>> results = executor.runAll(Arrays.asList("select 1", "select 2"),
+                    new ConcurrentQueryExecutor.ResultSetHandler<String>()
+                    {
+                        @Override
+                        public String handle(ResultSet resultSet) throws SQLException
+                        {
+                            int rows = 0;
+                            while (resultSet.next()) {
+                                rows++;
+                            }
+                            //单线程依次执行，第一条语句的 handler 失败
+                            if (calls.incrementAndGet() == 1) {
+                                throw new IllegalStateException("bad row");
+                            }
+                            return String.valueOf(rows);
+                        }
+                    });
+            assertFalse(results.get(0).isSuccess());
+            assertTrue(results.get(0).getError().getCause() instanceof IllegalStateException);
+            assertEquals("7", results.get(1).getValue());
+            //连接已归还，耗时照常记录
+            assertEquals(0, pool.getActive());
+            assertEquals(2L, executor.getLatency().getCount());
+        }
+    }
+
+    @Test
+    public void timeoutCancelsAndDiscardsConnection() throws Exception
+    {
+        StubDriver driver = new StubDriver();
+        try (HiveConnectionPool pool = new HiveConnectionPool(driver.factory(URL), 2);
+             ConcurrentQueryExecutor executor = new ConcurrentQueryExecutor(pool, 2, 100L)) {
+            List<ConcurrentQueryExecutor.QueryResult<Long>> results = executor.runAll(Arrays.asList("select sleep(60000)", "select 1"));
+            assertTrue(results.get(0).isTimedOut());
+            assertFalse(results.get(0).isSuccess());
+            assertTrue(results.get(0).getExecuteMillis() < 10000L);
+            assertTrue(results.get(1).isSuccess());
+            //被取消的连接已关闭，没有回到池中
+            assertEquals(1, pool.getIdle());
+            assertEquals(1L, pool.getDestroyed());
+        }
+    }
+
+    @Test
+    public void poolBoundsBorrowAndEvictsIdle() throws Exception
+    {
+        StubDriver driver = new StubDriver();
+        try (HiveConnectionPool pool = new HiveConnectionPool(driver.factory(URL), 1, 50L, null, 0L)) {
+            Connection first = pool.borrow(1, TimeUnit.SECONDS);
+            try {
+                pool.borrow(50, TimeUnit.MILLISECONDS);
+                throw new AssertionError("pool is exhausted");
+            } catch (SQLException expected) {
+                //只有一个连接
+            }
+            first.close();
+            first.close();
+            assertTrue(first.isClosed());
+            assertEquals(1, pool.getIdle());
+
+            long deadline = System.currentTimeMillis() + 5000L;
+            while (pool.getIdle() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+            assertEquals(0, pool.getIdle());
+            assertEquals(1, driver.getClosed());
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.susu;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+/**
+ * DynamicPartitionPlanner：按分区数选择直接执行、distribute by 或拆分批次，估算每个 reducer 的 writer 数
+ */
+public class DynamicPartitionPlannerTest
+{
+    private static DynamicPartitionPlanner.Insert insert()
+    {
+        return new DynamicPartitionPlanner.Insert("emp1").staticPartition("city", "shanghai")
+                .dynamicPartition("street", "address.street")
+                .select("name, salary, subordinate, deductions, address").from("emp");
+    }
+
+    private static DynamicPartitionPlanner.Profile profile(int partitions)
+    {
+        DynamicPartitionPlanner.Profile profile = new DynamicPartitionPlanner.Profile();
+        for (int i = 0; i < partitions; i++) {
+            profile.add(10, String.format("street%05d", i));
+        }
+        return profile;
+    }
+
+    @Test
+    public void fewPartitionsKeepsOriginalInsert()
+    {
+        List<DynamicPartitionPlanner.Batch> batches = new DynamicPartitionPlanner().plan(insert(), profile(20));
+        assertEquals(1, batches.size());
+        assertEquals("insert overwrite table emp1 partition (city='shanghai', street) "
+                + "select name, salary, subordinate, deductions, address, address.street from emp", batches.get(0).getSql());
+        assertEquals(0, batches.get(0).getReducers());
+        assertEquals(200L, batches.get(0).getRows());
+    }
+
+    @Test
+    public void distributesByPartitionColumns()
+    {
+        List<DynamicPartitionPlanner.Batch> batches = new DynamicPartitionPlanner().setMaxWritersPerTask(50)
+                .plan(insert().where("salary > 0"), profile(900));
+        assertEquals(1, batches.size());
+        DynamicPartitionPlanner.Batch batch = batches.get(0);
+        assertTrue(batch.getSql().endsWith(" from emp where salary > 0 distribute by address.street sort by address.street"));
+        assertTrue(batch.getReducers() >= 18);
+        assertTrue(batch.getMaxWriters() <= 50);
+        assertTrue(batch.getSettings().contains("set mapreduce.job.reduces=" + batch.getReducers()));
+        assertTrue(batch.getSettings().contains("set hive.exec.max.dynamic.partitions.pernode=50"));
+    }
+
+    @Test
+    public void splitsIntoBatchesByFirstColumn()
+    {
+        DynamicPartitionPlanner.Insert insert = new DynamicPartitionPlanner.Insert("emp1")
+                .dynamicPartition("city", "address.city").dynamicPartition("street", "address.street")
+                .select("name").from("emp").where("salary > 0");
+        DynamicPartitionPlanner.Profile profile = new DynamicPartitionPlanner.Profile();
+        for (String city : Arrays.asList("beijing", "shanghai", "it's")) {
+            for (int i = 0; i < 40; i++) {
+                profile.add(1, city, "s" + i);
+            }
+        }
+        profile.add(5, null, "unknown");
+        List<DynamicPartitionPlanner.Batch> batches = new DynamicPartitionPlanner().setMaxWritersPerTask(10)
+                .setMaxPartitionsPerInsert(60).plan(insert, profile);
+
+        assertEquals(3, batches.size());
+        assertEquals(41, batches.get(0).getPartitions());
+        assertEquals("insert overwrite table emp1 partition (city, street) select name, address.city, address.street "
+                        + "from emp where (salary > 0) and (address.city in ('beijing') or address.city is null) "
+                        + "distribute by address.city, address.street sort by address.city, address.street",
+                batches.get(0).getSql());
+        assertTrue(batches.get(1).getSql().contains("address.city in ('it\\'s')"));
+        assertTrue(batches.get(2).getSql().contains("address.city in ('shanghai')"));
+        assertTrue(batches.get(0).getSettings().contains("set hive.exec.dynamic.partition.mode=nonstrict"));
+        for (DynamicPartitionPlanner.Batch batch : batches) {
+            assertTrue(batch.getMaxWriters() <= 10);
+        }
+    }
+
+    @Test
+    public void splitsLargeFirstValueOnNextColumn()
+    {
+        DynamicPartitionPlanner.Insert insert = new DynamicPartitionPlanner.Insert("emp1")
+                .dynamicPartition("city", "address.city").dynamicPartition("street", "address.street")
+                .select("name").from("emp");
+        DynamicPartitionPlanner.Profile profile = new DynamicPartitionPlanner.Profile();
+        for (int i = 0; i < 150; i++) {
+            profile.add(1, "shanghai", String.format("s%03d", i));
+        }
+        for (int i = 0; i < 10; i++) {
+            profile.add(1, "beijing", "s" + i);
+        }
+        List<DynamicPartitionPlanner.Batch> batches = new DynamicPartitionPlanner().setMaxWritersPerTask(10)
+                .setMaxPartitionsPerInsert(60).plan(insert, profile);
+
+        int partitions = 0;
+        for (DynamicPartitionPlanner.Batch batch : batches) {
+            assertTrue(batch.toString(), batch.getPartitions() <= 60);
+            assertTrue(batch.toString(), batch.getMaxWriters() <= 10);
+            assertTrue(batch.getSettings().contains("set hive.exec.max.dynamic.partitions=1000"));
+            partitions += batch.getPartitions();
+        }
+        assertEquals(160, partitions);
+        assertEquals(4, batches.size());
+        assertTrue(batches.get(0).getSql().contains(" where address.city in ('beijing') distribute by"));
+        assertTrue(batches.get(1).getSql().contains(" where address.city = 'shanghai' and address.street in ('s000', "));
+        assertEquals(60, batches.get(1).getPartitions());
+    }
+
+    @Test
+    public void splitsBatchWhenReducersRunOut()
+    {
+        //40 个分区的 hash 都落在 2 个 reducer 中的同一个，每批 20 个分区时一个 reducer 要打开 20 个 writer
+        DynamicPartitionPlanner.Profile profile = new DynamicPartitionPlanner.Profile();
+        for (int i = 0; profile.getPartitions() < 40; i++) {
+            String street = "street" + i;
+            if (new Text(street).hashCode() % 2 == 0) {
+                profile.add(10, street);
+            }
+        }
+        List<DynamicPartitionPlanner.Batch> batches = new DynamicPartitionPlanner().setMaxWritersPerTask(10)
+                .setMaxReducers(2).plan(insert(), profile);
+
+        assertEquals(4, batches.size());
+        for (DynamicPartitionPlanner.Batch batch : batches) {
+            assertEquals(10, batch.getPartitions());
+            assertEquals(10, batch.getMaxWriters());
+            assertTrue(batch.getSettings().contains("set hive.exec.max.dynamic.partitions.pernode=10"));
+        }
+    }
+
+    @Test
+    public void executesBatchesInOneSession() throws Exception
+    {
+        Class.forName(StubDriver.class.getName());
+        DynamicPartitionPlanner planner = new DynamicPartitionPlanner().setMaxWritersPerTask(10).setProgress(null);
+        List<DynamicPartitionPlanner.Batch> batches = planner.plan(insert(), profile(30));
+        try (Connection connection = HiveConnectionPool.driverManager(StubDriver.PREFIX + "?latency=20", "root", "").connect()) {
+            planner.execute(connection, batches);
+        }
+        //4 条 set 和 1 条 insert
+        assertTrue(batches.get(0).getMillis() >= 100L);
+    }
+}
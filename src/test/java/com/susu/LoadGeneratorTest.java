@@ -0,0 +1,81 @@
+package com.susu;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * LoadGenerator：查询文件解析、闭环与开环压测，使用 StubDriver 模拟延迟和错误
+ */
+public class LoadGeneratorTest
+{
+    private static HiveConnectionPool pool(String params, int size) throws Exception
+    {
+        Class.forName(StubDriver.class.getName());
+        return new HiveConnectionPool(HiveConnectionPool.driverManager(StubDriver.PREFIX + "?" + params, "root", ""),
+                size, 60000L, null, 0L);
+    }
+
+    @Test
+    public void parseMix()
+    {
+        LoadGenerator.QueryMix mix = LoadGenerator.QueryMix.parse(Arrays.asList(
+                "# comment", "select 1", "", "3\tselect 2", "top\t6\tselect\t3"));
+        assertEquals(3, mix.size());
+        assertEquals("q1", mix.name(0));
+        assertEquals("select 2", mix.sql(1));
+        assertEquals("top", mix.name(2));
+        assertEquals("select\t3", mix.sql(2));
+        int[] picked = new int[3];
+        java.util.Random random = new java.util.Random(1);
+        for (int i = 0; i < 10000; i++) {
+            picked[mix.pick(random)]++;
+        }
+        assertTrue(picked[0] > 800 && picked[0] < 1200);
+        assertTrue(picked[2] > 5500 && picked[2] < 6500);
+    }
+
+    @Test
+    public void closedLoop() throws Exception
+    {
+        LoadGenerator.QueryMix mix = new LoadGenerator.QueryMix().add("fast", 1, "select 1").add("slow", 1, "select sleep(40)")
+                .add("bad", 1, "select assert_true(false)");
+        try (HiveConnectionPool pool = pool("latency=10", 4)) {
+            LoadGenerator.Report report = new LoadGenerator().setMode(LoadGenerator.Mode.CLOSED).setConcurrency(4)
+                    .setDuration(1000L, 200L).run(pool, mix);
+            //每条至少 10ms，4 个客户端最多 400 条/秒
+            assertTrue(report.getTotal().getCount() > 0);
+            assertTrue(report.getThroughput() <= 400);
+            LoadGenerator.QueryStats fast = report.getQueries().get("fast");
+            LoadGenerator.QueryStats slow = report.getQueries().get("slow");
+            LoadGenerator.QueryStats bad = report.getQueries().get("bad");
+            assertEquals(0L, fast.getErrors());
+            assertEquals(0L, slow.getErrors());
+            assertEquals(bad.getCount(), bad.getErrors());
+            assertEquals(bad.getErrors(), report.getTotal().getErrors());
+            //延迟不会低于 StubDriver 的执行时间
+            assertTrue(fast.getCount() == 0 || fast.getLatency().getPercentile(0.5) >= 10);
+            assertTrue(slow.getCount() == 0 || slow.getLatency().getPercentile(0.5) >= 40);
+        }
+    }
+
+    @Test
+    public void openLoopCountsQueueing() throws Exception
+    {
+        LoadGenerator.QueryMix mix = new LoadGenerator.QueryMix().add("q", 1, "select 1");
+        //每条 50ms、只有 1 个连接；按 40 条/秒（每 25ms 一条）计划发送，1 秒内最多 40 条
+        try (HiveConnectionPool pool = pool("latency=50", 1)) {
+            LoadGenerator.Report report = new LoadGenerator().setMode(LoadGenerator.Mode.OPEN).setRate(40, false)
+                    .setConcurrency(1).setDuration(1000L, 0L).run(pool, mix);
+            long count = report.getTotal().getCount();
+            assertTrue(count > 0 && count <= 40);
+            assertEquals(0L, report.getTotal().getErrors());
+            assertEquals(0L, report.getTotal().getRejected());
+            //第 k 条计划在 25k ms 发送，串行执行最早在 50(k+1) ms 完成，排队时间计入延迟
+            assertTrue(report.getTotal().getLatency().getMax() >= 25 * (count - 1) + 50);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.susu;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * PartitionCache：TTL、按 marker 增量刷新、全量刷新、DDL 后更新缓存
+ */
+public class PartitionCacheTest
+{
+    /**
+     * 内存中的分区列表，记录每次调用
+     */
+    private static class FakeSource implements PartitionCache.PartitionSource
+    {
+        final List<String> partitions = new ArrayList<>();
+        final List<String> calls = new ArrayList<>();
+        boolean incremental = true;
+
+        @Override
+        public List<String> listPartitions(String table)
+        {
+            calls.add("full " + table);
+            return new ArrayList<>(partitions);
+        }
+
+        @Override
+        public List<String> listPartitionsFrom(String table, String key, String marker)
+        {
+            if (!incremental) {
+                return null;
+            }
+            calls.add("from " + key + ">=" + marker);
+            List<String> names = new ArrayList<>();
+            for (String name : partitions) {
+                if (PartitionCache.spec(name).get(key).compareTo(marker) >= 0) {
+                    names.add(name);
+                }
+            }
+            return names;
+        }
+    }
+
+    private static Map<String, String> spec(String dt, String city)
+    {
+        Map<String, String> spec = new LinkedHashMap<>();
+        spec.put("dt", dt);
+        spec.put("city", city);
+        return spec;
+    }
+
+    @Test
+    public void incrementalRefreshFetchesOnlyNewPartitions() throws Exception
+    {
+        FakeSource source = new FakeSource();
+        source.partitions.addAll(Arrays.asList("dt=2020-01-02/city=shanghai", "dt=2020-01-01/city=shanghai",
+                "dt=2020-01-01/city=beijing"));
+        final long[] clock = {1000L};
+        PartitionCache cache = new PartitionCache(source, 20L, 60000L)
+        {
+            @Override
+            long now()
+            {
+                return clock[0];
+            }
+        };
+
+        assertEquals(Arrays.asList("dt=2020-01-01/city=beijing", "dt=2020-01-01/city=shanghai", "dt=2020-01-02/city=shanghai"),
+                cache.getPartitions("emp"));
+        assertTrue(cache.contains("EMP", spec("2020-01-02", "shanghai")));
+        assertEquals(1L, cache.getHits());
+
+        source.partitions.add("dt=2020-01-03/city=beijing");
+        clock[0] += 20L;
+        assertEquals(4, cache.getPartitions("emp").size());
+        assertEquals(Arrays.asList("full emp", "from dt>=2020-01-02"), source.calls);
+        assertEquals(1L, cache.getIncrementalRefreshes());
+        assertEquals(5L, cache.getFetched());
+
+        //相同的值只保存一份
+        List<String[]> values = cache.partitionValues("emp");
+        assertSame(values.get(1)[1], values.get(2)[1]);
+        assertSame(values.get(0)[1], values.get(3)[1]);
+    }
+
+    @Test
+    public void fullRefreshDropsRemovedPartitions() throws Exception
+    {
+        FakeSource source = new FakeSource();
+        source.incremental = false;
+        source.partitions.addAll(Arrays.asList("dt=2020-01-01/city=a", "dt=2020-01-02/city=a%2Fb"));
+        PartitionCache cache = new PartitionCache(source, 0L, 60000L);
+
+        assertTrue(cache.contains("emp", spec("2020-01-02", "a/b")));
+        source.partitions.remove(0);
+        assertEquals(Arrays.asList("dt=2020-01-02/city=a%2Fb"), cache.getPartitions("emp"));
+        assertEquals(2L, cache.getFullRefreshes());
+        assertEquals("{dt=2020-01-02, city=a/b}", PartitionCache.spec("dt=2020-01-02/city=a%2Fb").toString());
+    }
+
+    @Test
+    public void ddlUpdatesCache() throws Exception
+    {
+        FakeSource source = new FakeSource();
+        source.partitions.add("dt=2020-01-01/city=shanghai");
+        PartitionCache cache = new PartitionCache(source, 60000L, 60000L);
+        cache.getPartitions("emp");
+
+        Class.forName(StubDriver.class.getName());
+        try (Connection connection = HiveConnectionPool.driverManager(StubDriver.PREFIX, "root", "").connect();
+             Statement statement = connection.createStatement()) {
+            cache.addPartition(statement, "emp", spec("2020-01-02", "shanghai"));
+            cache.dropPartition(statement, "emp", spec("2020-01-01", "shanghai"));
+            assertEquals(Arrays.asList("dt=2020-01-02/city=shanghai"), cache.getPartitions("emp"));
+            assertEquals(1, source.calls.size());
+
+            //只指定部分分区字段的 drop 可能删除多个分区，整表重新加载
+            Map<String, String> partial = new LinkedHashMap<>();
+            partial.put("dt", "2020-01-02");
+            cache.dropPartition(statement, "emp", partial);
+            assertFalse(cache.contains("emp", spec("2020-01-02", "shanghai")));
+            assertEquals(2, source.calls.size());
+        }
+
+        try (Connection connection = HiveConnectionPool.driverManager(StubDriver.PREFIX + "?errorRate=1", "root", "").connect();
+             Statement statement = connection.createStatement()) {
+            cache.addPartition(statement, "emp", spec("2020-01-03", "shanghai"));
+            fail();
+        } catch (SQLException expected) {
+            cache.getPartitions("emp");
+            assertEquals(3, source.calls.size());
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.susu;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.io.orc.OrcFile;
+import org.apache.hadoop.hive.ql.io.orc.Reader;
+import org.apache.hadoop.hive.ql.io.orc.RecordReader;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.junit.Test;
+
+import parquet.example.data.Group;
+import parquet.hadoop.ParquetReader;
+import parquet.hadoop.example.GroupReadSupport;
+
+/**
+ * ResultExporter：CSV / JSON 的转义和 null、ORC / Parquet 写出后读回，结果集由动态代理模拟
+ */
+public class ResultExporterTest
+{
+    private static final String[] LABELS = {"emp.id", "emp.name", "emp.sal", "emp.bonus", "emp.manager"};
+    private static final int[] TYPES = {Types.BIGINT, Types.VARCHAR, Types.DOUBLE, Types.DECIMAL, Types.BOOLEAN};
+    private static final Object[][] ROWS = {
+            {1L, "alice", 1000.5, new BigDecimal("12.34"), true},
+            {-20L, "b\"o,b\n李", null, null, false},
+            {null, null, 3.0, new BigDecimal("0.10"), null},
+    };
+
+    private static ResultSet resultSet(Object[][] rows)
+    {
+        return resultSet(LABELS, TYPES, rows);
+    }
+
+    private static ResultSet resultSet(final String[] labels, final int[] types, final Object[][] rows)
+    {
+        final ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(ResultSetMetaData.class.getClassLoader(),
+                new Class<?>[]{ResultSetMetaData.class}, new InvocationHandler()
+                {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        switch (method.getName()) {
+                            case "getColumnCount":
+                                return labels.length;
+                            case "getColumnLabel":
+                                return labels[(Integer) args[0] - 1];
+                            default:
+                                return types[(Integer) args[0] - 1];
+                        }
+                    }
+                });
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                new InvocationHandler()
+                {
+                    int row = -1;
+                    Object last;
+
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        switch (method.getName()) {
+                            case "getMetaData":
+                                return metaData;
+                            case "next":
+                                return ++row < rows.length;
+                            case "wasNull":
+                                return last == null;
+                            case "close":
+                                return null;
+                            default:
+                                last = rows[row][(Integer) args[0] - 1];
+                                if (last != null || method.getReturnType().isAssignableFrom(Object.class)
+                                        || !method.getReturnType().isPrimitive()) {
+                                    return last;
+                                }
+                                //与 JDBC 一致，null 的基本类型返回 0 / false
+                                return method.getReturnType() == boolean.class ? (Object) false
+                                        : method.getReturnType() == double.class ? (Object) 0.0 : (Object) 0L;
+                        }
+                    }
+                });
+    }
+
+    private static ResultExporter exporter()
+    {
+        //缓冲区很小，多次写出 channel
+        return new ResultExporter().setBufferSize(16).setProgress(null, 0L).setConf(new Configuration(false));
+    }
+
+    @Test
+    public void csvAndJson() throws Exception
+    {
+        File csv = File.createTempFile("export", ".csv");
+        ResultExporter.ExportStats stats = exporter().export(resultSet(ROWS), ResultExporter.Format.CSV, csv);
+        assertEquals(3L, stats.getRows());
+        byte[] bytes = Files.readAllBytes(csv.toPath());
+        assertEquals(bytes.length, stats.getBytes());
+        assertEquals("id,name,sal,bonus,manager\n"
+                        + "1,alice,1000.5,12.34,true\n"
+                        + "-20,\"b\"\"o,b\n李\",,,false\n"
+                        + ",,3.0,0.10,\n",
+                new String(bytes, StandardCharsets.UTF_8));
+
+        File json = File.createTempFile("export", ".json");
+        exporter().export(resultSet(ROWS), ResultExporter.Format.JSON, json);
+        List<String> lines = Files.readAllLines(json.toPath(), StandardCharsets.UTF_8);
+        assertEquals(3, lines.size());
+        assertEquals("{\"id\":-20,\"name\":\"b\\\"o,b\\n李\",\"sal\":null,\"bonus\":null,\"manager\":false}", lines.get(1));
+    }
+
+    @Test
+    public void joinColumnsAreUnique() throws Exception
+    {
+        String[] labels = {"a.id", "b.id", "id", "_c3", "a.name"};
+        int[] types = {Types.BIGINT, Types.BIGINT, Types.BIGINT, Types.DOUBLE, Types.VARCHAR};
+        Object[][] rows = {{1L, 2L, 3L, Double.NaN, "x"}, {4L, 5L, 6L, Double.POSITIVE_INFINITY, "y"}};
+        assertEquals("[a_id, b_id, id, _c3, name]", Arrays.toString(ResultExporter.columnNames(labels)));
+        assertEquals("[id, id_1, id_1_1]", Arrays.toString(ResultExporter.columnNames(new String[]{"id", "id", "id_1"})));
+
+        File json = File.createTempFile("export", ".json");
+        exporter().export(resultSet(labels, types, rows), ResultExporter.Format.JSON, json);
+        //NaN 和 Infinity 不是合法的 JSON，写成 null
+        assertEquals("{\"a_id\":1,\"b_id\":2,\"id\":3,\"_c3\":null,\"name\":\"x\"}",
+                Files.readAllLines(json.toPath(), StandardCharsets.UTF_8).get(0));
+
+        File parquet = new File(Files.createTempDirectory("export").toFile(), "join.parquet");
+        exporter().export(resultSet(labels, types, rows), ResultExporter.Format.PARQUET, parquet);
+        ParquetReader<Group> parquetReader = new ParquetReader<>(new Path(parquet.toURI()), new GroupReadSupport());
+        Group first = parquetReader.read();
+        assertEquals(1L, first.getLong("a_id", 0));
+        assertEquals(2L, first.getLong("b_id", 0));
+        assertEquals(3L, first.getLong("id", 0));
+        parquetReader.close();
+    }
+
+    @Test
+    public void orc() throws Exception
+    {
+        Configuration conf = new Configuration(false);
+        File orc = new File(Files.createTempDirectory("export").toFile(), "emp.orc");
+        ResultExporter.ExportStats stats = exporter().export(resultSet(ROWS), ResultExporter.Format.ORC, orc);
+        assertEquals(orc.length(), stats.getBytes());
+        Reader reader = OrcFile.createReader(new Path(orc.toURI()), OrcFile.readerOptions(conf));
+        assertEquals(3L, reader.getNumberOfRows());
+        RecordReader rows = reader.rows();
+        Object row = null;
+        for (int i = 0; i < 2; i++) {
+            row = rows.next(row);
+        }
+        List<Object> fields = ((StructObjectInspector) reader.getObjectInspector()).getStructFieldsDataAsList(row);
+        assertEquals("-20", fields.get(0).toString());
+        assertEquals("b\"o,b\n李", fields.get(1).toString());
+        assertNull(fields.get(2));
+        rows.close();
+    }
+
+    @Test
+    public void parquet() throws Exception
+    {
+        File parquet = new File(Files.createTempDirectory("export").toFile(), "emp.parquet");
+        ResultExporter.ExportStats stats = exporter().export(resultSet(ROWS), ResultExporter.Format.PARQUET, parquet);
+        assertEquals(parquet.length(), stats.getBytes());
+        ParquetReader<Group> parquetReader = new ParquetReader<>(new Path(parquet.toURI()), new GroupReadSupport());
+        Group first = parquetReader.read();
+        assertEquals(1L, first.getLong("id", 0));
+        assertEquals("12.34", first.getString("bonus", 0));
+        Group second = parquetReader.read();
+        assertEquals(0, second.getFieldRepetitionCount("sal"));
+        assertTrue(parquetReader.read() != null);
+        assertNull(parquetReader.read());
+        parquetReader.close();
+    }
+}
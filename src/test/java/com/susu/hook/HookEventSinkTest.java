@@ -0,0 +1,125 @@
+package com.susu.hook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * HookEventSink：多线程写入不丢不重、按大小滚动、队列满或写入失败时丢弃并计数
+ */
+public class HookEventSinkTest
+{
+    @Test
+    public void concurrentProducersWriteEveryEventOnce() throws Exception
+    {
+        File dir = Files.createTempDirectory("hook-events").toFile();
+        File file = new File(dir, "events.jsonl");
+        //容量足够，block 策略下不会丢
+        final HookEventSink sink = new HookEventSink(file, 1024, 64, 64 * 1024, 1000, true, 1000L).start();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int producer = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 5000; i++) {
+                        sink.emit(new HookEvent("test").put("id", producer * 100000 + i).put("text", "a\"b\n"));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        sink.close();
+        assertEquals(0L, sink.getDropped());
+        assertEquals(20000L, sink.getWritten());
+
+        //滚动出来的文件加上当前文件，每个 id 恰好出现一次
+        Set<String> ids = new HashSet<>();
+        File[] files = dir.listFiles();
+        assertTrue(files.length > 1);
+        for (File f : files) {
+            for (String line : Files.readAllLines(f.toPath(), StandardCharsets.UTF_8)) {
+                assertTrue(line, line.startsWith("{\"time\":") && line.endsWith(",\"text\":\"a\\\"b\\n\"}"));
+                String id = line.substring(line.indexOf("\"id\":") + 5, line.indexOf(",\"text\""));
+                assertTrue(id, ids.add(id));
+            }
+            f.delete();
+        }
+        dir.delete();
+        assertEquals(20000, ids.size());
+    }
+
+    @Test
+    public void fullBufferDropsAndCounts() throws Exception
+    {
+        RingBuffer<Integer> buffer = new RingBuffer<>(3);
+        assertEquals(4, buffer.capacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(2, buffer.drainTo(drained, 2));
+        assertTrue(buffer.offer(5));
+        assertEquals(3, buffer.drainTo(drained, 10));
+        assertEquals("[0, 1, 2, 3, 5]", drained.toString());
+
+        //后台线程启动前队列不会被取走，第 5 个事件被丢弃
+        File file = File.createTempFile("hook-events", ".jsonl");
+        HookEventSink sink = new HookEventSink(file, 4, 16, 1024 * 1024, 2, false, 0L);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(sink.emit(new HookEvent("test").put("id", i)));
+        }
+        assertFalse(sink.emit(new HookEvent("test").put("id", 4)));
+        assertEquals(4L, sink.getEnqueued());
+        assertEquals(1L, sink.getDropped());
+        sink.start().close();
+        assertEquals(4L, sink.getWritten());
+        assertEquals(1L, sink.getDropped());
+        assertEquals(4, Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size());
+        file.delete();
+    }
+
+    @Test
+    public void failedWriteCountsLostEvents() throws Exception
+    {
+        //文件路径是一个目录，打开失败
+        File dir = Files.createTempDirectory("hook-events").toFile();
+        HookEventSink sink = new HookEventSink(dir, 16, 16, 1024 * 1024, 2, false, 0L);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(sink.emit(new HookEvent("test").put("id", i)));
+        }
+        sink.start().close();
+        assertEquals(1L, sink.getWriteErrors());
+        assertEquals(0L, sink.getWritten());
+        assertEquals(3L, sink.getDropped());
+        dir.delete();
+    }
+
+    @Test
+    public void closedSinkDropsEvents() throws Exception
+    {
+        File file = File.createTempFile("hook-events", ".jsonl");
+        HookEventSink sink = new HookEventSink(file, 16, 16, 1024 * 1024, 2, false, 0L).start();
+        assertTrue(sink.emit(new HookEvent("before")));
+        sink.close();
+        assertFalse(sink.emit(new HookEvent("after")));
+        assertEquals(1L, sink.getDropped());
+        assertEquals(1L, sink.getWritten());
+        assertEquals(1, Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size());
+        file.delete();
+    }
+}
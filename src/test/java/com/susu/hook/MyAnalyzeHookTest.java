@@ -0,0 +1,159 @@
+package com.susu.hook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
+import org.apache.hadoop.hive.ql.exec.Task;
+import org.apache.hadoop.hive.ql.hooks.ReadEntity;
+import org.apache.hadoop.hive.ql.metadata.Table;
+import org.apache.hadoop.hive.ql.parse.ASTNode;
+import org.apache.hadoop.hive.ql.parse.HiveSemanticAnalyzerHookContextImpl;
+import org.apache.hadoop.hive.ql.parse.ParseDriver;
+import org.apache.hadoop.hive.ql.parse.ParseUtils;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.junit.Test;
+
+/**
+ * MyAnalyzeHook：在解析得到的 AST 上识别 select * 无 limit、笛卡尔积、分区表全表扫描
+ */
+public class MyAnalyzeHookTest
+{
+    private static ASTNode parse(String sql) throws Exception
+    {
+        return ParseUtils.findRootNonNullToken(new ParseDriver().parse(sql));
+    }
+
+    private static Table table(String name, FieldSchema... partCols)
+    {
+        org.apache.hadoop.hive.metastore.api.Table table = new org.apache.hadoop.hive.metastore.api.Table();
+        table.setDbName("testdb");
+        table.setTableName(name);
+        table.setPartitionKeys(Arrays.asList(partCols));
+        return new Table(table);
+    }
+
+    @Test
+    public void selectStarWithoutLimit() throws Exception
+    {
+        assertNotNull(MyAnalyzeHook.selectStarWithoutLimit(parse("select * from emp where city = 'bj'")));
+        assertNotNull(MyAnalyzeHook.selectStarWithoutLimit(parse("select e.* from emp e")));
+        assertNull(MyAnalyzeHook.selectStarWithoutLimit(parse("select * from emp limit 10")));
+        assertNull(MyAnalyzeHook.selectStarWithoutLimit(parse("select name from emp")));
+        assertNull(MyAnalyzeHook.selectStarWithoutLimit(parse("insert overwrite table emp2 select * from emp")));
+    }
+
+    @Test
+    public void injectedLimitMatchesParsedLimit() throws Exception
+    {
+        Configuration conf = new Configuration(false);
+        conf.set(MyAnalyzeHook.SELECT_STAR_ACTION, "limit");
+        conf.setInt(MyAnalyzeHook.SELECT_STAR_LIMIT, 500);
+        HiveSemanticAnalyzerHookContextImpl context = new HiveSemanticAnalyzerHookContextImpl();
+        context.setConf(conf);
+
+        ASTNode tree = new MyAnalyzeHook().preAnalyze(context, parse("select * from emp"));
+        assertEquals(parse("select * from emp limit 500").toStringTree(), tree.toStringTree());
+    }
+
+    @Test
+    public void crossJoin() throws Exception
+    {
+        assertTrue(MyAnalyzeHook.hasCrossJoin(parse("select * from a cross join b"), false));
+        assertTrue(MyAnalyzeHook.hasCrossJoin(parse("select * from a join b limit 5"), false));
+        assertTrue(MyAnalyzeHook.hasCrossJoin(parse("select * from t where x in (select y from a join b)"), false));
+        assertFalse(MyAnalyzeHook.hasCrossJoin(parse("select * from a join b on a.id = b.id"), false));
+        assertFalse(MyAnalyzeHook.hasCrossJoin(parse("select a.x from a, b where a.id = b.id"), false));
+    }
+
+    @Test
+    public void fullScanOfPartitionedTable() throws Exception
+    {
+        //与 HiveOption 中的 emp 相同，按 city、street 分区
+        Table emp = table("emp", new FieldSchema("city", "string", null), new FieldSchema("street", "string", null));
+        Table dept = table("dept");
+        Set<ReadEntity> inputs = new HashSet<>(Arrays.asList(new ReadEntity(emp), new ReadEntity(dept)));
+
+        Set<String> columns = new HashSet<>();
+        MyAnalyzeHook.collectFilterColumns(parse("select * from emp e join dept d on e.deptno = d.deptno where e.sal > 100"), columns);
+        Map<String, Integer> fullScans = MyAnalyzeHook.fullScanTables(inputs, columns);
+        assertEquals(1, fullScans.size());
+        assertTrue(fullScans.containsKey("testdb.emp"));
+
+        columns.clear();
+        MyAnalyzeHook.collectFilterColumns(parse("select * from emp e join dept d on e.deptno = d.deptno and e.city = 'bj'"), columns);
+        assertTrue(MyAnalyzeHook.fullScanTables(inputs, columns).isEmpty());
+        columns.clear();
+        MyAnalyzeHook.collectFilterColumns(parse("select * from emp where street = 'a'"), columns);
+        assertTrue(MyAnalyzeHook.fullScanTables(inputs, columns).isEmpty());
+    }
+
+    private static HiveSemanticAnalyzerHookContextImpl context(Configuration conf, final Set<ReadEntity> inputs)
+    {
+        //inputs 正常由 update(BaseSemanticAnalyzer) 填入，这里直接给出
+        HiveSemanticAnalyzerHookContextImpl context = new HiveSemanticAnalyzerHookContextImpl()
+        {
+            @Override
+            public Set<ReadEntity> getInputs()
+            {
+                return inputs;
+            }
+        };
+        context.setConf(conf);
+        return context;
+    }
+
+    @Test
+    public void rejectsCrossJoin() throws Exception
+    {
+        Configuration conf = new Configuration(false);
+        conf.set(MyAnalyzeHook.CROSS_JOIN_ACTION, "reject");
+        MyAnalyzeHook hook = new MyAnalyzeHook();
+        try {
+            hook.preAnalyze(context(conf, Collections.<ReadEntity>emptySet()), parse("select * from a cross join b limit 5"));
+            fail("cross join should be rejected");
+        } catch (SemanticException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("cross join"));
+        }
+
+        //有 join 条件时放行
+        ASTNode tree = parse("select * from a join b on a.id = b.id limit 5");
+        assertEquals(tree, hook.preAnalyze(context(conf, Collections.<ReadEntity>emptySet()), tree));
+    }
+
+    @Test
+    public void rejectsFullScanOfPartitionedTable() throws Exception
+    {
+        Configuration conf = new Configuration(false);
+        conf.set(MyAnalyzeHook.FULL_SCAN_ACTION, "reject");
+        Table emp = table("emp", new FieldSchema("city", "string", null), new FieldSchema("street", "string", null));
+        HiveSemanticAnalyzerHookContextImpl context = context(conf, new HashSet<>(Arrays.asList(new ReadEntity(emp))));
+        List<Task<? extends Serializable>> tasks = Collections.emptyList();
+
+        MyAnalyzeHook hook = new MyAnalyzeHook();
+        hook.preAnalyze(context, parse("select * from emp where sal > 100 limit 5"));
+        try {
+            hook.postAnalyze(context, tasks);
+            fail("full scan of a partitioned table should be rejected");
+        } catch (SemanticException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("full scan of partitioned table testdb.emp"));
+        }
+
+        //where 中带分区字段时放行
+        hook.preAnalyze(context, parse("select * from emp where city = 'bj' limit 5"));
+        hook.postAnalyze(context, tasks);
+    }
+}
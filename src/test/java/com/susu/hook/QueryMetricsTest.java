@@ -0,0 +1,80 @@
+package com.susu.hook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import org.junit.Test;
+
+/**
+ * QueryMetrics：快照经 JMX 和文件输出、未结束查询过期
+ */
+public class QueryMetricsTest
+{
+    @Test
+    public void snapshotThroughJmxAndFile() throws Exception
+    {
+        QueryMetrics metrics = QueryMetrics.get(null);
+        long started = metrics.snapshot().get("queries.started");
+        long queryStart = System.currentTimeMillis() - 500L;
+        metrics.queryStarted("q1", 120L, 3, 2, 1);
+        metrics.queryStarted("q2", -1L, 1, 1, 0);
+        assertTrue(metrics.snapshot().get("queries.running") >= 2L);
+        metrics.queryFinished("q1", true, queryStart, 3, 4, 1, 2000L);
+        metrics.queryFinished("q2", false, null, 0, 0, 0, 0L);
+
+        Map<String, Long> snapshot = metrics.snapshot();
+        assertEquals(started + 2L, (long) snapshot.get("queries.started"));
+        assertTrue(snapshot.get("query.millis.p99") >= 500L);
+        assertTrue(snapshot.get("compile.millis.max") >= 120L);
+
+        Object jmx = ManagementFactory.getPlatformMBeanServer().getAttribute(
+                new ObjectName(QueryMetrics.JMX_NAME), "queries.started");
+        assertEquals(snapshot.get("queries.started"), jmx);
+
+        File file = File.createTempFile("query-metrics", ".properties");
+        try {
+            metrics.dump(file);
+            Properties properties = new Properties();
+            try (InputStream in = new FileInputStream(file)) {
+                properties.load(in);
+            }
+            assertEquals(String.valueOf(snapshot.get("queries.failed")), properties.getProperty("queries.failed"));
+            assertTrue(properties.containsKey("execution.millis.p99"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void unfinishedQueriesExpire() throws Exception
+    {
+        QueryMetrics metrics = new QueryMetrics(1000L);
+        metrics.queryStarted("cancelled", -1L, 1, 1, 0);
+        metrics.queryStarted("running", -1L, 1, 1, 0);
+        metrics.expireRunning(System.currentTimeMillis());
+        assertEquals(2L, (long) metrics.snapshot().get("queries.running"));
+
+        metrics.expireRunning(System.currentTimeMillis() + 2000L);
+        Map<String, Long> snapshot = metrics.snapshot();
+        assertEquals(0L, (long) snapshot.get("queries.running"));
+        assertEquals(2L, (long) snapshot.get("queries.expired"));
+
+        try {
+            metrics.invoke("reset", new Object[0], new String[0]);
+            fail("QueryMetrics has no operations");
+        } catch (ReflectionException e) {
+            assertTrue(e.getTargetException() instanceof NoSuchMethodException);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.susu.hook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.metastore.api.StorageDescriptor;
+import org.apache.hadoop.hive.ql.hooks.ReadEntity;
+import org.apache.hadoop.hive.ql.metadata.Table;
+import org.junit.Test;
+
+/**
+ * QueryResultCache：语句规范化、数据变化后 key 改变、结果的保存与恢复、LRU 淘汰和过期
+ */
+public class QueryResultCacheTest
+{
+    private static Set<ReadEntity> table(File location)
+    {
+        org.apache.hadoop.hive.metastore.api.Table table = new org.apache.hadoop.hive.metastore.api.Table();
+        table.setDbName("testdb");
+        table.setTableName("emp");
+        table.setTableType("MANAGED_TABLE");
+        table.setPartitionKeys(Collections.<org.apache.hadoop.hive.metastore.api.FieldSchema>emptyList());
+        table.setParameters(new HashMap<String, String>());
+        table.getParameters().put("transient_lastDdlTime", "1500000000");
+        StorageDescriptor sd = new StorageDescriptor();
+        sd.setLocation(location.toURI().toString());
+        table.setSd(sd);
+        return Collections.singleton(new ReadEntity(new Table(table)));
+    }
+
+    private static File write(File dir, String name, String content) throws Exception
+    {
+        File file = new File(dir, name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static Configuration conf(long ttlSeconds, int maxEntries)
+    {
+        Configuration conf = new Configuration(false);
+        conf.setLong(QueryResultCache.TTL_SECONDS, ttlSeconds);
+        conf.setInt(QueryResultCache.MAX_ENTRIES, maxEntries);
+        conf.set(QueryResultCache.NONDETERMINISTIC_FUNCTIONS, "my_uuid");
+        return conf;
+    }
+
+    @Test
+    public void normalize()
+    {
+        assertEquals("select a from t where b = 'X  Y' and `C` = 1",
+                QueryResultCache.normalize("SELECT  a\n FROM t -- comment\n WHERE b = 'X  Y'\tAND `C` = 1 ;"));
+        assertEquals(QueryResultCache.normalize("select * from t"), QueryResultCache.normalize("Select *\n  From T;"));
+        assertEquals("select 'it\\'s'", QueryResultCache.normalize("SELECT 'it\\'s'"));
+    }
+
+    @Test
+    public void keyChangesWithData() throws Exception
+    {
+        File data = Files.createTempDirectory("emp").toFile();
+        File part = write(data, "000000_0", "1,a\n");
+        Configuration conf = conf(600L, 10);
+        QueryResultCache cache = new QueryResultCache(conf, new Path(Files.createTempDirectory("cache").toUri()));
+
+        String key = cache.key("select * from emp", table(data), conf);
+        assertNotNull(key);
+        assertEquals(key, cache.key("SELECT *\nFROM emp;", table(data), conf));
+        assertNotEquals(key, cache.key("select * from emp where 1 = 1", table(data), conf));
+
+        Files.write(part.toPath(), "1,a\n2,b\n".getBytes(StandardCharsets.UTF_8));
+        assertNotEquals(key, cache.key("select * from emp", table(data), conf));
+
+        assertNull(cache.key("select rand() from emp", table(data), conf));
+        assertNull(cache.key("select My_Uuid () from emp", table(data), conf));
+        assertNotNull(cache.key("select grand(x) from emp", table(data), conf));
+        conf.set("hive.exec.query.redactor.hooks", "com.susu.hook.MyRedactor");
+        assertNull(cache.key("select * from emp", table(data), conf));
+    }
+
+    @Test
+    public void storeAndRestore() throws Exception
+    {
+        File data = Files.createTempDirectory("emp").toFile();
+        write(data, "000000_0", "1,a\n");
+        Configuration conf = conf(600L, 10);
+        QueryResultCache cache = new QueryResultCache(conf, new Path(Files.createTempDirectory("cache").toUri()));
+
+        File result = Files.createTempDirectory("result").toFile();
+        Path resultDir = new Path(new File(result, "-mr-10000").toURI());
+        assertFalse(cache.beforeExecute("q1", "select * from emp", table(data), resultDir, conf));
+        assertEquals(1L, cache.getMisses());
+        //job 把结果写到 resultDir 中
+        new File(result, "-mr-10000").mkdirs();
+        write(new File(result, "-mr-10000"), "000000_0", "1\ta\n");
+        cache.afterExecute("q1", true, resultDir, conf);
+        assertEquals(1, cache.getEntries());
+        assertEquals(4L, cache.getBytes());
+
+        File other = Files.createTempDirectory("result").toFile();
+        Path otherDir = new Path(new File(other, "-mr-10000").toURI());
+        assertTrue(cache.beforeExecute("q2", "SELECT * FROM emp", table(data), otherDir, conf));
+        assertEquals(1L, cache.getHits());
+        assertEquals("1\ta\n", new String(Files.readAllBytes(new File(other, "-mr-10000/000000_0").toPath()),
+                StandardCharsets.UTF_8));
+
+        //失败的查询不保存
+        File another = Files.createTempDirectory("emp").toFile();
+        write(another, "000000_0", "2,b\n");
+        assertFalse(cache.beforeExecute("q3", "select * from emp", table(another), otherDir, conf));
+        cache.afterExecute("q3", false, otherDir, conf);
+        assertEquals(1, cache.getEntries());
+    }
+
+    @Test
+    public void evictAndExpire() throws Exception
+    {
+        Configuration conf = conf(600L, 2);
+        QueryResultCache cache = new QueryResultCache(conf, new Path(Files.createTempDirectory("cache").toUri()));
+        File result = Files.createTempDirectory("result").toFile();
+        write(result, "000000_0", "x\n");
+        Path resultDir = new Path(result.toURI());
+        cache.store("a", resultDir, conf);
+        cache.store("b", resultDir, conf);
+        //访问 a 之后 b 是最久没有访问的
+        Path target = new Path(Files.createTempDirectory("restore").toUri());
+        assertTrue(cache.restore("a", new Path(target, "a"), conf));
+        cache.store("c", resultDir, conf);
+        assertEquals(2, cache.getEntries());
+        assertEquals(1L, cache.getEvictions());
+        assertFalse(cache.restore("b", new Path(target, "b"), conf));
+        assertTrue(cache.restore("c", new Path(target, "c"), conf));
+
+        File expiringRoot = Files.createTempDirectory("cache").toFile();
+        QueryResultCache expiring = new QueryResultCache(conf(0L, 2), new Path(expiringRoot.toURI()));
+        expiring.store("a", resultDir, conf);
+        assertEquals(1, expiringRoot.list().length);
+        assertFalse(expiring.restore("a", new Path(target, "x"), conf));
+        assertEquals(1L, expiring.getExpirations());
+        assertEquals(0, expiring.getEntries());
+        assertEquals(0L, expiring.getBytes());
+        //过期的目录已经删除
+        assertEquals(0, expiringRoot.list().length);
+    }
+
+    @Test
+    public void skipsEntryLargerThanCache() throws Exception
+    {
+        Configuration conf = conf(600L, 10);
+        conf.setLong(QueryResultCache.MAX_BYTES, 2L);
+        File root = Files.createTempDirectory("cache").toFile();
+        QueryResultCache cache = new QueryResultCache(conf, new Path(root.toURI()));
+        File result = Files.createTempDirectory("result").toFile();
+        write(result, "000000_0", "xyz\n");
+
+        //比整个缓存还大的结果不复制，也不算一次保存或淘汰
+        cache.store("a", new Path(result.toURI()), conf);
+        assertEquals(0, cache.getEntries());
+        assertEquals(0L, cache.getStores());
+        assertEquals(0L, cache.getEvictions());
+        assertEquals(0, root.list().length);
+    }
+}
@@ -0,0 +1,59 @@
+package com.susu.hook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+/**
+ * RedactionEngine：内置规则、忽略大小写的字面量、自定义规则，以及没有匹配时返回原字符串
+ */
+public class RedactionEngineTest
+{
+    @Test
+    public void builtinRules()
+    {
+        RedactionEngine engine = RedactionEngine.get(new Configuration(false));
+        assertEquals("insert into t values ('138****5678', '110105********123X')",
+                engine.redact("insert into t values ('13812345678', '11010519491231123X')"));
+        assertEquals("create table t tblproperties ('hive.sql.dbcp.password'='******', 'x'='1')",
+                engine.redact("create table t tblproperties ('hive.sql.dbcp.password'='abc123', 'x'='1')"));
+        assertEquals("set fs.s3a.secret.key=******", engine.redact("set fs.s3a.secret.key=AKIA/xyz"));
+        //更长的数字串不是手机号
+        assertEquals("select 138123456789", engine.redact("select 138123456789"));
+    }
+
+    @Test
+    public void noMatchReturnsSameInstance()
+    {
+        RedactionEngine engine = RedactionEngine.get(new Configuration(false));
+        String query = "select deptno, count(*) from emp where sal > 1000 group by deptno";
+        assertSame(query, engine.redact(query));
+    }
+
+    @Test
+    public void literalsAndCustomRules()
+    {
+        Configuration conf = new Configuration(false);
+        conf.setBoolean(RedactionEngine.BUILTIN_RULES, false);
+        conf.set(RedactionEngine.LITERALS, "TopSecret, secretive, cret");
+        conf.set(RedactionEngine.LITERAL_REPLACEMENT, "#");
+        conf.set(RedactionEngine.RULE_PREFIX + "mail.pattern", "([a-z]+)@([a-z]+\\.com)");
+        conf.set(RedactionEngine.RULE_PREFIX + "mail.replacement", "***@$2");
+        RedactionEngine engine = RedactionEngine.get(conf);
+        assertSame(engine, RedactionEngine.get(conf));
+
+        assertEquals("select '#', '#', 'se#', '***@b.com' from t",
+                engine.redact("select 'topsecret', 'SECRETIVE', 'secret', 'alice@b.com' from t"));
+        //内置规则关闭后手机号不处理
+        assertEquals("select 13812345678", engine.redact("select 13812345678"));
+
+        RedactionEngine literalsOnly = new RedactionEngine(Arrays.asList("ab", "abcd", "bc"), "_",
+                Collections.<String[]>emptyList());
+        assertEquals("x_y_z_", literalsOnly.redact("xabcdyabzbc"));
+    }
+}
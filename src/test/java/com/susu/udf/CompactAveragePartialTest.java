@@ -0,0 +1,125 @@
+package com.susu.udf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
+import org.apache.hadoop.hive.serde.serdeConstants;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinarySerDe;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.junit.Test;
+
+/**
+ * GenericUDAFMyAverage 紧凑中间结果：用shuffle时真正使用的LazyBinarySerDe序列化，比较两种格式的字节数，
+ * 并把序列化后的中间结果反序列化回来交给FINAL阶段的merge，校验结果不变
+ */
+public class CompactAveragePartialTest
+{
+    private static final int GROUPS = 10000;
+
+    /**
+     * 对每个分组跑一遍PARTIAL1，中间结果经LazyBinarySerDe序列化、反序列化后在FINAL阶段merge
+     * 返回序列化后的总字节数，各分组的平均值写入averages
+     */
+    private static long shuffle(boolean compact, double[] averages) throws Exception
+    {
+        TypeInfo[] argTypes = compact
+                ? new TypeInfo[]{TypeInfoFactory.intTypeInfo, TypeInfoFactory.booleanTypeInfo}
+                : new TypeInfo[]{TypeInfoFactory.intTypeInfo};
+        ObjectInspector[] argOis = compact
+                ? new ObjectInspector[]{PrimitiveObjectInspectorFactory.writableIntObjectInspector,
+                        PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                                TypeInfoFactory.booleanTypeInfo, new BooleanWritable(true))}
+                : new ObjectInspector[]{PrimitiveObjectInspectorFactory.writableIntObjectInspector};
+
+        GenericUDAFEvaluator partial1 = new GenericUDAFMyAverage().getEvaluator(argTypes);
+        ObjectInspector partialOi = partial1.init(Mode.PARTIAL1, argOis);
+
+        //shuffle的value就是一行只有一个中间结果字段的struct
+        LazyBinarySerDe serDe = new LazyBinarySerDe();
+        Properties props = new Properties();
+        props.setProperty(serdeConstants.LIST_COLUMNS, "partial");
+        props.setProperty(serdeConstants.LIST_COLUMN_TYPES, partialOi.getTypeName());
+        serDe.initialize(new Configuration(), props);
+        StructObjectInspector rowOi = ObjectInspectorFactory.getStandardStructObjectInspector(
+                Arrays.asList("partial"), Arrays.asList(partialOi));
+        StructObjectInspector serDeOi = (StructObjectInspector) serDe.getObjectInspector();
+        StructField serDeField = serDeOi.getStructFieldRef("partial");
+
+        GenericUDAFEvaluator last = new GenericUDAFMyAverage().getEvaluator(argTypes);
+        last.init(Mode.FINAL, new ObjectInspector[]{serDeField.getFieldObjectInspector()});
+
+        Random random = new Random(42);
+        long totalBytes = 0L;
+        Object[] row = new Object[argOis.length];
+        List<Object> shuffleRow = new ArrayList<Object>(1);
+        shuffleRow.add(null);
+        for (int group = 0; group < GROUPS; group++) {
+            AggregationBuffer buffer = partial1.getNewAggregationBuffer();
+            int rows = 1 + random.nextInt(200);
+            for (int i = 0; i < rows; i++) {
+                row[0] = new IntWritable(random.nextInt(100000));
+                partial1.iterate(buffer, row);
+            }
+            shuffleRow.set(0, partial1.terminatePartial(buffer));
+            BytesWritable serialized = (BytesWritable) serDe.serialize(shuffleRow, rowOi);
+            totalBytes += serialized.getLength();
+
+            Object deserialized = serDeOi.getStructFieldData(serDe.deserialize(serialized), serDeField);
+            AggregationBuffer finalBuffer = last.getNewAggregationBuffer();
+            last.merge(finalBuffer, deserialized);
+            averages[group] = ((DoubleWritable) last.terminate(finalBuffer)).get();
+        }
+        return totalBytes;
+    }
+
+    @Test
+    public void compactPartialIsSmallerAndGivesSameAverage() throws Exception
+    {
+        double[] structAverages = new double[GROUPS];
+        double[] compactAverages = new double[GROUPS];
+        long structBytes = shuffle(false, structAverages);
+        long compactBytes = shuffle(true, compactAverages);
+
+        assertTrue("struct partial: " + structBytes + " bytes, compact partial: " + compactBytes + " bytes",
+                compactBytes < structBytes);
+        for (int i = 0; i < GROUPS; i++) {
+            assertEquals(structAverages[i], compactAverages[i], 0.0D);
+        }
+    }
+
+    @Test
+    public void compactPartialRoundTripsMultiByteCount() throws Exception
+    {
+        byte[] bytes = new byte[GenericUDAFMyAverage.GenericUDAFAverageEvaluator.MAX_COMPACT_PARTIAL_LENGTH];
+        assertEquals(9, GenericUDAFMyAverage.GenericUDAFAverageEvaluator.writeCompactPartial(bytes, 0L, 1.0D));
+        assertEquals(17, GenericUDAFMyAverage.GenericUDAFAverageEvaluator.writeCompactPartial(bytes, Long.MAX_VALUE, 1.0D));
+
+        int length = GenericUDAFMyAverage.GenericUDAFAverageEvaluator.writeCompactPartial(bytes, 300L, 750.0D);
+        assertEquals(10, length);
+        GenericUDAFEvaluator last = new GenericUDAFMyAverage().getEvaluator(new TypeInfo[]{TypeInfoFactory.intTypeInfo});
+        last.init(Mode.FINAL, new ObjectInspector[]{PrimitiveObjectInspectorFactory.writableBinaryObjectInspector});
+        AggregationBuffer buffer = last.getNewAggregationBuffer();
+        last.merge(buffer, new BytesWritable(Arrays.copyOf(bytes, length)));
+        assertEquals(2.5D, ((DoubleWritable) last.terminate(buffer)).get(), 0.0D);
+    }
+}
@@ -0,0 +1,97 @@
+package com.susu.udf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.session.SessionState;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.BooleanWritable;
+import org.junit.Test;
+
+/**
+ * 补偿求和的 avg：一个大数加上很多小数，普通 double 累加把小数全部舍掉，补偿求和经过 PARTIAL1 ──> merge ──> FINAL
+ * 之后（struct 和紧凑 binary 两种中间结果）仍得到精确的和
+ */
+public class CompensatedAverageTest
+{
+    private static final double LARGE = 1e16;
+    private static final int SMALL = 10000;
+    private static final int MAPPERS = 4;
+
+    /**
+     * 第 i 个 mapper 处理下标 i, i + MAPPERS, ... 的行，大数在第 0 行
+     */
+    private static double run(boolean compact) throws Exception
+    {
+        ObjectInspector[] argOis = compact
+                ? new ObjectInspector[]{PrimitiveObjectInspectorFactory.writableDoubleObjectInspector,
+                        PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                                TypeInfoFactory.booleanTypeInfo, new BooleanWritable(true))}
+                : new ObjectInspector[]{PrimitiveObjectInspectorFactory.writableDoubleObjectInspector};
+        GenericUDAFEvaluator partial1 = new GenericUDAFMyAverage.GenericUDAFAverageEvaluatorCompensated();
+        ObjectInspector partialOi = partial1.init(Mode.PARTIAL1, argOis);
+        GenericUDAFEvaluator fin = new GenericUDAFMyAverage.GenericUDAFAverageEvaluatorCompensated();
+        fin.init(Mode.FINAL, new ObjectInspector[]{partialOi});
+        AggregationBuffer total = fin.getNewAggregationBuffer();
+
+        for (int mapper = 0; mapper < MAPPERS; mapper++) {
+            AggregationBuffer buffer = partial1.getNewAggregationBuffer();
+            for (int row = mapper; row <= SMALL; row += MAPPERS) {
+                partial1.iterate(buffer, new Object[]{new DoubleWritable(row == 0 ? LARGE : 1.0D)});
+            }
+            //terminatePartial 复用输出对象，取出后立即 merge
+            fin.merge(total, partial1.terminatePartial(buffer));
+        }
+        return ((DoubleWritable) fin.terminate(total)).get();
+    }
+
+    @Test
+    public void largeValuePlusManySmallOnes() throws Exception
+    {
+        double exact = new BigDecimal(LARGE).add(BigDecimal.valueOf(SMALL))
+                .divide(BigDecimal.valueOf(SMALL + 1), MathContext.DECIMAL128).doubleValue();
+        //1e16 的 ulp 是 2，每次加 1 都被舍入掉
+        double naiveSum = LARGE;
+        for (int i = 0; i < SMALL; i++) {
+            naiveSum += 1.0D;
+        }
+        assertEquals(LARGE, naiveSum, 0.0D);
+        double naive = naiveSum / (SMALL + 1);
+        assertNotEquals(exact, naive, 0.0D);
+
+        for (boolean compact : new boolean[]{false, true}) {
+            double average = run(compact);
+            assertEquals("compact=" + compact, exact, average, 0.0D);
+            assertNotEquals(naive, average, 0.0D);
+        }
+    }
+
+    @Test
+    public void bothResolversShareTheEvaluator() throws Exception
+    {
+        HiveConf conf = new HiveConf();
+        conf.setBoolean(GenericUDAFMyAverage.COMPENSATED_SUM_CONF, true);
+        SessionState.setCurrentSessionState(new SessionState(conf));
+        try {
+            TypeInfo[] args = {TypeInfoFactory.doubleTypeInfo};
+            assertTrue(new GenericUDAFMyAverage().getEvaluator(args)
+                    instanceof GenericUDAFMyAverage.GenericUDAFAverageEvaluatorCompensated);
+            assertTrue(new GenericUDAFMyAverage2().getEvaluator(args)
+                    instanceof GenericUDAFMyAverage.GenericUDAFAverageEvaluatorCompensated);
+        } finally {
+            SessionState.detachSession();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.susu.udf;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.hadoop.hive.common.type.HiveChar;
+import org.apache.hadoop.hive.common.type.HiveDecimal;
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DecimalColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.IdentityExpression;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
+import org.apache.hadoop.hive.ql.udf.generic.SimpleGenericUDAFParameterInfo;
+import org.apache.hadoop.hive.serde2.io.HiveCharWritable;
+import org.apache.hadoop.hive.serde2.io.HiveDecimalWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Test;
+
+/**
+ * GenericUDAFMyCount 去重估算模式：多个map的sketch在FINAL阶段合并后的误差，以及向量化与行模式输出的sketch一致
+ */
+public class CountDistinctEstimateTest
+{
+    private static final ObjectInspector[] ESTIMATE_ARGS = new ObjectInspector[]{
+            PrimitiveObjectInspectorFactory.writableLongObjectInspector,
+            PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.booleanTypeInfo, new BooleanWritable(true))};
+
+    private static GenericUDAFEvaluator estimateEvaluator() throws Exception
+    {
+        GenericUDAFEvaluator evaluator = new GenericUDAFMyCount().getEvaluator(
+                new SimpleGenericUDAFParameterInfo(ESTIMATE_ARGS, false, false));
+        assertTrue(evaluator instanceof GenericUDAFMyCount.GenericUDAFCountDistinctEstimateEvaluator);
+        return evaluator;
+    }
+
+    private static long countDistinct(long distinct, int mappers) throws Exception
+    {
+        GenericUDAFEvaluator last = estimateEvaluator();
+        last.init(Mode.FINAL, new ObjectInspector[]{PrimitiveObjectInspectorFactory.writableBinaryObjectInspector});
+        AggregationBuffer finalBuffer = last.getNewAggregationBuffer();
+
+        //每个值在每个map上都出现一次，合并后的基数仍是distinct
+        for (int mapper = 0; mapper < mappers; mapper++) {
+            GenericUDAFEvaluator partial1 = estimateEvaluator();
+            partial1.init(Mode.PARTIAL1, ESTIMATE_ARGS);
+            AggregationBuffer buffer = partial1.getNewAggregationBuffer();
+            Object[] row = new Object[]{new LongWritable(), new BooleanWritable(true)};
+            for (long value = 0; value < distinct; value++) {
+                ((LongWritable) row[0]).set(value * 7919L);
+                partial1.iterate(buffer, row);
+            }
+            BytesWritable partial = (BytesWritable) partial1.terminatePartial(buffer);
+            last.merge(finalBuffer, new BytesWritable(Arrays.copyOf(partial.getBytes(), partial.getLength())));
+        }
+        return ((LongWritable) last.terminate(finalBuffer)).get();
+    }
+
+    @Test
+    public void estimateIsWithinErrorBound() throws Exception
+    {
+        for (long distinct : new long[]{10L, 1000L, 100000L, 1000000L}) {
+            long estimate = countDistinct(distinct, 3);
+            double error = Math.abs(estimate - distinct) / (double) distinct;
+            //标准误差0.81%，取4倍
+            assertTrue("estimate " + estimate + " for " + distinct, error < 0.033D);
+        }
+    }
+
+    @Test
+    public void sparseSketchIsSmallAndRoundTrips() throws Exception
+    {
+        byte[] registers = HyperLogLog.newRegisters();
+        for (long value = 0; value < 100; value++) {
+            HyperLogLog.add(registers, HyperLogLog.hashLong(value));
+        }
+        byte[] bytes = new byte[HyperLogLog.MAX_SERIALIZED_LENGTH];
+        int length = HyperLogLog.serialize(registers, bytes);
+        assertTrue("sparse length " + length, length < 500);
+
+        byte[] merged = HyperLogLog.newRegisters();
+        HyperLogLog.merge(merged, Arrays.copyOf(bytes, length));
+        assertArrayEquals(registers, merged);
+        assertEquals(100L, HyperLogLog.estimate(merged));
+    }
+
+    @Test
+    public void vectorizedSketchMatchesRowMode() throws Exception
+    {
+        GenericUDAFEvaluator partial1 = estimateEvaluator();
+        partial1.init(Mode.PARTIAL1, ESTIMATE_ARGS);
+        AggregationBuffer buffer = partial1.getNewAggregationBuffer();
+
+        VectorUDAFMyCountDistinct vector = new VectorUDAFMyCountDistinct(new IdentityExpression(0, "bigint"));
+        VectorUDAFMyCountDistinct.AggregationBuffer vectorBuffer = vector.getNewAggregationBuffer();
+        VectorizedRowBatch batch = new VectorizedRowBatch(1);
+        LongColumnVector column = new LongColumnVector();
+        batch.cols[0] = column;
+
+        for (int b = 0; b < 50; b++) {
+            column.noNulls = false;
+            for (int i = 0; i < VectorizedRowBatch.DEFAULT_SIZE; i++) {
+                long value = b * 1000L + i;
+                column.vector[i] = value;
+                column.isNull[i] = i % 10 == 0;
+                if (!column.isNull[i]) {
+                    partial1.iterate(buffer, new Object[]{new LongWritable(value), new BooleanWritable(true)});
+                }
+            }
+            batch.size = VectorizedRowBatch.DEFAULT_SIZE;
+            vector.aggregateInput(vectorBuffer, batch);
+        }
+
+        assertEquals(partial1.terminatePartial(buffer), vector.evaluateOutput(vectorBuffer));
+    }
+
+    /**
+     * 同一组值分别经过行模式和向量化的 PARTIAL1，两个 sketch 在 FINAL 合并后的估算值
+     */
+    private static long vectorPlusRowMode(String type, ColumnVector column, Object[] values) throws Exception
+    {
+        ObjectInspector[] args = new ObjectInspector[]{
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableObjectInspector(TypeInfoFactory.getPrimitiveTypeInfo(type)),
+                ESTIMATE_ARGS[1]};
+        GenericUDAFEvaluator partial1 = new GenericUDAFMyCount().getEvaluator(new SimpleGenericUDAFParameterInfo(args, false, false));
+        partial1.init(Mode.PARTIAL1, args);
+        AggregationBuffer buffer = partial1.getNewAggregationBuffer();
+        for (Object value : values) {
+            partial1.iterate(buffer, new Object[]{value, new BooleanWritable(true)});
+        }
+        BytesWritable rowPartial = (BytesWritable) partial1.terminatePartial(buffer);
+        rowPartial = new BytesWritable(Arrays.copyOf(rowPartial.getBytes(), rowPartial.getLength()));
+
+        VectorUDAFMyCountDistinct vector = new VectorUDAFMyCountDistinct(new IdentityExpression(0, type));
+        VectorUDAFMyCountDistinct.AggregationBuffer vectorBuffer = vector.getNewAggregationBuffer();
+        VectorizedRowBatch batch = new VectorizedRowBatch(1);
+        batch.cols[0] = column;
+        batch.size = values.length;
+        vector.aggregateInput(vectorBuffer, batch);
+        BytesWritable vectorPartial = (BytesWritable) vector.evaluateOutput(vectorBuffer);
+        vectorPartial = new BytesWritable(Arrays.copyOf(vectorPartial.getBytes(), vectorPartial.getLength()));
+        assertEquals(type, rowPartial, vectorPartial);
+
+        GenericUDAFEvaluator last = estimateEvaluator();
+        last.init(Mode.FINAL, new ObjectInspector[]{PrimitiveObjectInspectorFactory.writableBinaryObjectInspector});
+        AggregationBuffer finalBuffer = last.getNewAggregationBuffer();
+        last.merge(finalBuffer, rowPartial);
+        last.merge(finalBuffer, vectorPartial);
+        return ((LongWritable) last.terminate(finalBuffer)).get();
+    }
+
+    @Test
+    public void charAndDecimalMergeAcrossModes() throws Exception
+    {
+        int distinct = 1000;
+
+        //向量化的 char 按补齐空格后的字节存放，行模式取去掉空格的值
+        BytesColumnVector chars = new BytesColumnVector();
+        chars.initBuffer();
+        Object[] charValues = new Object[distinct];
+        for (int i = 0; i < distinct; i++) {
+            byte[] padded = String.format("%-10s", "v" + i).getBytes(StandardCharsets.UTF_8);
+            chars.setVal(i, padded, 0, padded.length);
+            charValues[i] = new HiveCharWritable(new HiveChar("v" + i, 10));
+        }
+        long estimate = vectorPlusRowMode("char(10)", chars, charValues);
+        assertTrue("char estimate " + estimate, Math.abs(estimate - distinct) < distinct * 0.033D);
+
+        //1.50 与 1.5 是同一个值
+        DecimalColumnVector decimals = new DecimalColumnVector(VectorizedRowBatch.DEFAULT_SIZE, 10, 2);
+        Object[] decimalValues = new Object[distinct];
+        for (int i = 0; i < distinct; i++) {
+            decimals.vector[i].set(HiveDecimal.create(BigDecimal.valueOf(i * 25L, 2)));
+            decimalValues[i] = new HiveDecimalWritable(HiveDecimal.create(BigDecimal.valueOf(i * 2500L, 4)));
+        }
+        estimate = vectorPlusRowMode("decimal(10,2)", decimals, decimalValues);
+        assertTrue("decimal estimate " + estimate, Math.abs(estimate - distinct) < distinct * 0.033D);
+    }
+}
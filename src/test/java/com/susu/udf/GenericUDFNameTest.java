@@ -0,0 +1,149 @@
+package com.susu.udf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredJavaObject;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredObject;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+/**
+ * GenericUDFName、VectorUDFName 的结果与 NameUDF 逐行一致
+ */
+public class GenericUDFNameTest
+{
+    @Test
+    public void sameOutputAsNameUDF() throws Exception
+    {
+        NameUDF legacy = new NameUDF();
+        GenericUDFName udf = new GenericUDFName();
+        udf.initialize(new ObjectInspector[]{PrimitiveObjectInspectorFactory.writableStringObjectInspector});
+
+        String[] names = new String[]{"tom", "", null, "苏苏", "a much longer name than the previous ones"};
+        for (int round = 0; round < 30; round++) {
+            for (String name : names) {
+                DeferredObject[] args = new DeferredObject[]{new DeferredJavaObject(name == null ? null : new Text(name))};
+                assertEquals(legacy.evaluate(name), udf.evaluate(args).toString());
+            }
+        }
+    }
+
+    @Test
+    public void nonStringArgumentsAreConverted() throws Exception
+    {
+        GenericUDFName udf = new GenericUDFName();
+        udf.initialize(new ObjectInspector[]{PrimitiveObjectInspectorFactory.writableIntObjectInspector});
+        assertEquals("42**1", udf.evaluate(new DeferredObject[]{new DeferredJavaObject(new IntWritable(42))}).toString());
+
+        byte[] digits = new byte[20];
+        assertEquals(20, GenericUDFName.writeDigits(Long.MIN_VALUE, digits));
+        assertEquals(Long.toString(Long.MIN_VALUE), new String(digits));
+        assertEquals(1, GenericUDFName.writeDigits(0L, digits));
+    }
+
+    @Test
+    public void perTaskSequence() throws Exception
+    {
+        Configuration conf = new Configuration(false);
+        assertNull(GenericUDFName.taskId(conf));
+        conf.set("mapred.task.id", "attempt_1500000000000_0001_m_000003_1");
+        assertEquals("task_1500000000000_0001_m_000003", GenericUDFName.taskId(conf));
+        conf.set("mapreduce.task.attempt.id", "attempt_1500000000000_0001_r_000012_0");
+        assertEquals("task_1500000000000_0001_r_000012", GenericUDFName.taskId(conf));
+
+        GenericUDFName udf = new GenericUDFName();
+        udf.initialize(new ObjectInspector[]{PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                        TypeInfoFactory.booleanTypeInfo, new BooleanWritable(true))});
+        //不在 task 中执行时前缀是随机的，序号仍然从 1 开始递增
+        String first = udf.evaluate(new DeferredObject[]{new DeferredJavaObject(new Text("tom"))}).toString();
+        String second = udf.evaluate(new DeferredObject[]{new DeferredJavaObject(null)}).toString();
+        assertTrue(first, first.startsWith("tom**local_") && first.endsWith("_1"));
+        assertEquals(first.substring(3, first.length() - 1), second.substring(4, second.length() - 1));
+        assertTrue(second, second.startsWith("null**local_") && second.endsWith("_2"));
+    }
+
+    @Test
+    public void vectorizedSameOutputAsNameUDF() throws Exception
+    {
+        NameUDF legacy = new NameUDF();
+        VectorUDFName expression = new VectorUDFName(0, 1);
+        VectorizedRowBatch batch = new VectorizedRowBatch(2, 8);
+        BytesColumnVector input = new BytesColumnVector(8);
+        BytesColumnVector output = new BytesColumnVector(8);
+        batch.cols[0] = input;
+        batch.cols[1] = output;
+
+        String[] names = new String[]{"tom", null, "苏苏", "", "jerry", null, "x", "long name"};
+        for (int round = 0; round < 3; round++) {
+            //普通批次，含 null
+            input.reset();
+            input.noNulls = false;
+            for (int i = 0; i < names.length; i++) {
+                setString(input, i, names[i]);
+            }
+            batch.size = names.length;
+            batch.selectedInUse = false;
+            expression.evaluate(batch);
+            assertFalse(output.isRepeating);
+            for (int i = 0; i < names.length; i++) {
+                assertEquals(legacy.evaluate(names[i]), getString(output, i));
+            }
+
+            //只处理 selected 中的行
+            batch.selectedInUse = true;
+            batch.selected[0] = 1;
+            batch.selected[1] = 4;
+            batch.selected[2] = 6;
+            batch.size = 3;
+            expression.evaluate(batch);
+            for (int j = 0; j < batch.size; j++) {
+                int i = batch.selected[j];
+                assertEquals(legacy.evaluate(names[i]), getString(output, i));
+            }
+
+            //isRepeating 的入参，输出每行计数不同
+            for (String repeated : new String[]{"same", null}) {
+                input.reset();
+                input.isRepeating = true;
+                input.noNulls = repeated != null;
+                setString(input, 0, repeated);
+                batch.selectedInUse = false;
+                batch.size = names.length;
+                expression.evaluate(batch);
+                assertFalse(output.isRepeating);
+                for (int i = 0; i < names.length; i++) {
+                    assertEquals(legacy.evaluate(repeated), getString(output, i));
+                }
+            }
+        }
+    }
+
+    private static void setString(BytesColumnVector vector, int i, String value)
+    {
+        if (value == null) {
+            vector.isNull[i] = true;
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            vector.setRef(i, bytes, 0, bytes.length);
+        }
+    }
+
+    private static String getString(BytesColumnVector vector, int i)
+    {
+        return new String(vector.vector[i], vector.start[i], vector.length[i], StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,76 @@
+package com.susu.udf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Test;
+
+/**
+ * LocalUDAFHarness：不同mapper个数下结果一致，中间结果都经过LazyBinarySerDe
+ */
+public class LocalUDAFHarnessTest
+{
+    @Test
+    public void resultDoesNotDependOnMapperCount() throws Exception
+    {
+        Random random = new Random(5);
+        List<Object[]> rows = new ArrayList<Object[]>();
+        long sum = 0L;
+        for (int i = 0; i < 100000; i++) {
+            if (i % 7 == 0) {
+                rows.add(new Object[]{null});
+            } else {
+                long value = random.nextInt(1000);
+                sum += value;
+                rows.add(new Object[]{new LongWritable(value)});
+            }
+        }
+
+        LocalUDAFHarness harness = new LocalUDAFHarness(new GenericUDAFMySum(),
+                new ObjectInspector[]{PrimitiveObjectInspectorFactory.writableLongObjectInspector}, 1000);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            for (int mappers : new int[]{1, 3, 8}) {
+                LocalUDAFHarness.Result result = harness.run(rows, mappers, pool);
+                assertEquals(sum, result.value);
+                assertEquals(100000L, result.rows);
+                assertTrue(result.shuffleBytes > 0L);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void constantArgumentsReachTheResolver() throws Exception
+    {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (int i = 0; i < 50000; i++) {
+            rows.add(new Object[]{new IntWritable(i % 5000), new BooleanWritable(true)});
+        }
+        //mycount(col, true)需要GenericUDAFResolver2才能识别出常量参数
+        LocalUDAFHarness harness = new LocalUDAFHarness(new GenericUDAFMyCount(), new ObjectInspector[]{
+                PrimitiveObjectInspectorFactory.writableIntObjectInspector,
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                        TypeInfoFactory.booleanTypeInfo, new BooleanWritable(true))}, 4096);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            long estimate = (Long) harness.run(rows, 4, pool).value;
+            assertEquals(5000.0D, estimate, 5000 * 0.03D);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.susu.udf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.junit.Test;
+
+/**
+ * GenericUDAFMyPercentile：长尾分布的数据分到多个map上，中间结果经binary合并后，分位数的rank误差在t-digest的精度范围内
+ */
+public class PercentileSketchTest
+{
+    private static final double[] PERCENTILES = new double[]{0.5D, 0.95D, 0.99D};
+
+    private static final TypeInfo[] ARG_TYPES = new TypeInfo[]{TypeInfoFactory.doubleTypeInfo,
+            TypeInfoFactory.getListTypeInfo(TypeInfoFactory.doubleTypeInfo), TypeInfoFactory.intTypeInfo};
+
+    private static ObjectInspector[] argOis(int accuracy)
+    {
+        List<DoubleWritable> percentiles = new ArrayList<DoubleWritable>();
+        for (double percentile : PERCENTILES) {
+            percentiles.add(new DoubleWritable(percentile));
+        }
+        return new ObjectInspector[]{PrimitiveObjectInspectorFactory.writableDoubleObjectInspector,
+                ObjectInspectorFactory.getStandardConstantListObjectInspector(
+                        PrimitiveObjectInspectorFactory.writableDoubleObjectInspector, percentiles),
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                        TypeInfoFactory.intTypeInfo, new IntWritable(accuracy))};
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void tailPercentilesAreAccurateAfterMerge() throws Exception
+    {
+        int mappers = 4;
+        int rowsPerMapper = 250000;
+        double[] all = new double[mappers * rowsPerMapper];
+        Random random = new Random(7);
+
+        GenericUDAFEvaluator last = new GenericUDAFMyPercentile().getEvaluator(ARG_TYPES);
+        last.init(Mode.FINAL, new ObjectInspector[]{PrimitiveObjectInspectorFactory.writableBinaryObjectInspector});
+        AggregationBuffer finalBuffer = last.getNewAggregationBuffer();
+
+        int partialBytes = 0;
+        for (int mapper = 0; mapper < mappers; mapper++) {
+            GenericUDAFEvaluator partial1 = new GenericUDAFMyPercentile().getEvaluator(ARG_TYPES);
+            partial1.init(Mode.PARTIAL1, argOis(100));
+            AggregationBuffer buffer = partial1.getNewAggregationBuffer();
+            Object[] row = new Object[]{new DoubleWritable(), null, null};
+            for (int i = 0; i < rowsPerMapper; i++) {
+                //指数分布，模拟请求耗时的长尾
+                double latency = -Math.log(1.0D - random.nextDouble()) * 20.0D;
+                all[mapper * rowsPerMapper + i] = latency;
+                ((DoubleWritable) row[0]).set(latency);
+                partial1.iterate(buffer, row);
+            }
+            BytesWritable partial = (BytesWritable) partial1.terminatePartial(buffer);
+            partialBytes = Math.max(partialBytes, partial.getLength());
+            last.merge(finalBuffer, new BytesWritable(Arrays.copyOf(partial.getBytes(), partial.getLength())));
+        }
+        //中间结果大小只与accuracy有关，不随行数增长
+        assertTrue("partial " + partialBytes + " bytes", partialBytes < 2000);
+
+        Arrays.sort(all);
+        List<DoubleWritable> result = (List<DoubleWritable>) last.terminate(finalBuffer);
+        assertEquals(PERCENTILES.length, result.size());
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            double estimate = result.get(i).get();
+            //估算值在全部数据中的rank
+            double rank = (double) Math.abs(Arrays.binarySearch(all, estimate) + 1) / all.length;
+            assertEquals("p" + PERCENTILES[i] + " estimate " + estimate, PERCENTILES[i], rank, PERCENTILES[i] > 0.9D ? 0.002D : 0.01D);
+        }
+    }
+
+    @Test
+    public void emptyGroupReturnsNull() throws Exception
+    {
+        GenericUDAFEvaluator evaluator = new GenericUDAFMyPercentile().getEvaluator(ARG_TYPES);
+        evaluator.init(Mode.COMPLETE, argOis(50));
+        AggregationBuffer buffer = evaluator.getNewAggregationBuffer();
+        evaluator.iterate(buffer, new Object[]{null, null, null});
+        assertNull(evaluator.terminate(buffer));
+    }
+}
@@ -0,0 +1,115 @@
+package com.susu.udf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+/**
+ * GenericUDAFMyTopK：长尾分布的数据分到多个map上，合并后的top k与精确结果一致，count只高估且不超过误差上界
+ */
+public class TopKSummaryTest
+{
+    private static final int K = 10;
+    private static final int CAPACITY = 200;
+
+    private static final TypeInfo[] ARG_TYPES = new TypeInfo[]{TypeInfoFactory.stringTypeInfo,
+            TypeInfoFactory.intTypeInfo, TypeInfoFactory.intTypeInfo};
+
+    private static final ObjectInspector[] ARG_OIS = new ObjectInspector[]{
+            PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+            PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.intTypeInfo, new IntWritable(K)),
+            PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.intTypeInfo, new IntWritable(CAPACITY))};
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void mergedTopKMatchesExactCounts() throws Exception
+    {
+        int mappers = 4;
+        int rowsPerMapper = 200000;
+        Map<String, Long> exact = new HashMap<String, Long>();
+        Random random = new Random(11);
+
+        GenericUDAFEvaluator last = new GenericUDAFMyTopK().getEvaluator(ARG_TYPES);
+        last.init(Mode.FINAL, new ObjectInspector[]{PrimitiveObjectInspectorFactory.writableBinaryObjectInspector});
+        AggregationBuffer finalBuffer = last.getNewAggregationBuffer();
+
+        for (int mapper = 0; mapper < mappers; mapper++) {
+            GenericUDAFEvaluator partial1 = new GenericUDAFMyTopK().getEvaluator(ARG_TYPES);
+            partial1.init(Mode.PARTIAL1, ARG_OIS);
+            AggregationBuffer buffer = partial1.getNewAggregationBuffer();
+            Object[] row = new Object[]{new Text(), null, null};
+            for (int i = 0; i < rowsPerMapper; i++) {
+                //一半的行来自少数热点url，另一半来自大量只出现几次的url，不断挤占摘要中的槽位
+                String url = random.nextBoolean()
+                        ? "/hot/" + (int) Math.floor(Math.pow(random.nextDouble(), 3) * 50)
+                        : "/cold/" + random.nextInt(1000000);
+                ((Text) row[0]).set(url);
+                partial1.iterate(buffer, row);
+                Long count = exact.get(url);
+                exact.put(url, count == null ? 1L : count + 1L);
+            }
+            BytesWritable partial = (BytesWritable) partial1.terminatePartial(buffer);
+            last.merge(finalBuffer, new BytesWritable(Arrays.copyOf(partial.getBytes(), partial.getLength())));
+        }
+
+        Long[] exactCounts = exact.values().toArray(new Long[0]);
+        Arrays.sort(exactCounts);
+        List<Object[]> result = (List<Object[]>) last.terminate(finalBuffer);
+        assertEquals(K, result.size());
+        //每个map的高估上界为 rowsPerMapper / CAPACITY，合并后累加
+        long maxError = (long) mappers * rowsPerMapper / CAPACITY;
+        for (int i = 0; i < K; i++) {
+            String item = result.get(i)[0].toString();
+            long count = ((LongWritable) result.get(i)[1]).get();
+            long trueCount = exact.get(item);
+            assertTrue(item + " " + count + " < " + trueCount, count >= trueCount);
+            assertTrue(item + " " + count + " vs " + trueCount, count - trueCount <= maxError);
+            //热点之间的差距远大于误差，排名应与精确结果一致
+            assertEquals(exactCounts[exactCounts.length - 1 - i].longValue(), trueCount);
+        }
+    }
+
+    @Test
+    public void summaryKeepsIndexConsistentUnderEviction()
+    {
+        SpaceSaving summary = new SpaceSaving(16);
+        Random random = new Random(3);
+        for (int i = 0; i < 100000; i++) {
+            byte[] item = ("item" + random.nextInt(i % 3 == 0 ? 4 : 100000)).getBytes();
+            summary.offer(item, 0, item.length);
+        }
+        assertEquals(16, summary.size());
+        //哈希索引出错时同一个item会占用多个槽位
+        Set<String> distinct = new HashSet<String>();
+        for (int slot : summary.topK(16)) {
+            distinct.add(new String(summary.getItem(slot), 0, summary.getItemLength(slot)));
+        }
+        assertEquals(16, distinct.size());
+        for (int slot : summary.topK(4)) {
+            String item = new String(summary.getItem(slot), 0, summary.getItemLength(slot));
+            assertTrue(item, item.matches("item[0-3]"));
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.susu.udf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.hadoop.hive.common.type.HiveDecimal;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
+import org.apache.hadoop.hive.serde2.io.HiveDecimalWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.DecimalTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Test;
+
+/**
+ * GenericUDAFMySum / GenericUDAFMyAverage 按入参类型选择的 Evaluator：bigint 用 long 精确累加，
+ * float/double 返回 double，decimal 溢出时返回 null
+ */
+public class TypedSumAverageTest
+{
+    private static LocalUDAFHarness.Result run(GenericUDAFMySum resolver, ObjectInspector oi, List<Object[]> rows) throws Exception
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            //每个 mapper 多次 flush，中间结果经过序列化后再 merge
+            return new LocalUDAFHarness(resolver, new ObjectInspector[]{oi}, 7).run(rows, 3, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void bigintSumIsExactPast2Pow53() throws Exception
+    {
+        long big = 1L << 53;
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{new LongWritable(big)});
+        double naive = big;
+        long exact = big;
+        for (int i = 0; i < 99; i++) {
+            rows.add(new Object[]{new LongWritable(1L)});
+            naive += 1L;
+            exact += 1L;
+        }
+        LocalUDAFHarness.Result result = run(new GenericUDAFMySum(),
+                PrimitiveObjectInspectorFactory.writableLongObjectInspector, rows);
+        assertEquals(exact, result.value);
+        //按 double 累加时每次加 1 都被舍入掉
+        assertNotEquals(exact, (long) naive);
+
+        GenericUDAFEvaluator evaluator = new GenericUDAFMySum().getEvaluator(new TypeInfo[]{TypeInfoFactory.longTypeInfo});
+        assertTrue(evaluator instanceof GenericUDAFMySum.GenericUDAFSumLong);
+        assertEquals("bigint", evaluator.init(Mode.COMPLETE, new ObjectInspector[]{
+                PrimitiveObjectInspectorFactory.writableLongObjectInspector}).getTypeName());
+    }
+
+    @Test
+    public void decimalOverflowReturnsNull() throws Exception
+    {
+        DecimalTypeInfo type = TypeInfoFactory.getDecimalTypeInfo(38, 0);
+        ObjectInspector oi = PrimitiveObjectInspectorFactory.getPrimitiveWritableObjectInspector(type);
+        HiveDecimal max = HiveDecimal.create("99999999999999999999999999999999999999");
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            rows.add(new Object[]{new HiveDecimalWritable(max)});
+        }
+        assertNull(run(new GenericUDAFMySum(), oi, rows).value);
+
+        //不溢出时结果精确，精度为 min(38, p + 10)
+        DecimalTypeInfo small = TypeInfoFactory.getDecimalTypeInfo(10, 2);
+        rows.clear();
+        for (int i = 0; i < 20; i++) {
+            rows.add(new Object[]{new HiveDecimalWritable(HiveDecimal.create("12345678.91"))});
+        }
+        assertEquals(HiveDecimal.create("246913578.20"),
+                run(new GenericUDAFMySum(), PrimitiveObjectInspectorFactory.getPrimitiveWritableObjectInspector(small), rows).value);
+        assertEquals("decimal(20,2)", new GenericUDAFMySum().getEvaluator(new TypeInfo[]{small}).init(Mode.COMPLETE,
+                new ObjectInspector[]{PrimitiveObjectInspectorFactory.getPrimitiveWritableObjectInspector(small)}).getTypeName());
+    }
+
+    @Test
+    public void floatAndDoubleSumReturnDouble() throws Exception
+    {
+        List<Object[]> rows = new ArrayList<>();
+        double expected = 0.0D;
+        for (int i = 0; i < 100; i++) {
+            rows.add(new Object[]{new FloatWritable(0.1F)});
+            expected += 0.1F;
+        }
+        Object value = run(new GenericUDAFMySum(), PrimitiveObjectInspectorFactory.writableFloatObjectInspector, rows).value;
+        assertTrue(value instanceof Double);
+        assertEquals(expected, (Double) value, 1e-9);
+
+        for (TypeInfo type : new TypeInfo[]{TypeInfoFactory.floatTypeInfo, TypeInfoFactory.doubleTypeInfo}) {
+            ObjectInspector[] ois = {PrimitiveObjectInspectorFactory.getPrimitiveWritableObjectInspector(
+                    TypeInfoFactory.getPrimitiveTypeInfo(type.getTypeName()))};
+            GenericUDAFEvaluator sum = new GenericUDAFMySum().getEvaluator(new TypeInfo[]{type});
+            assertTrue(sum instanceof GenericUDAFMySum.GenericUDAFSumDouble);
+            assertEquals("double", sum.init(Mode.COMPLETE, ois).getTypeName());
+            GenericUDAFEvaluator avg = new GenericUDAFMyAverage().getEvaluator(new TypeInfo[]{type});
+            assertTrue(avg instanceof GenericUDAFMyAverage.GenericUDAFAverageEvaluatorDouble);
+            assertEquals("double", avg.init(Mode.COMPLETE, ois).getTypeName());
+        }
+        assertTrue(new GenericUDAFMyAverage().getEvaluator(new TypeInfo[]{TypeInfoFactory.longTypeInfo})
+                instanceof GenericUDAFMyAverage.GenericUDAFAverageEvaluatorLong);
+        assertTrue(new GenericUDAFMyAverage().getEvaluator(new TypeInfo[]{TypeInfoFactory.getDecimalTypeInfo(10, 2)})
+                instanceof GenericUDAFMyAverage.GenericUDAFAverageEvaluatorDecimal);
+        //GenericUDAFMyAverage2 复用同一组 Evaluator
+        assertTrue(new GenericUDAFMyAverage2().getEvaluator(new TypeInfo[]{TypeInfoFactory.longTypeInfo})
+                instanceof GenericUDAFMyAverage.GenericUDAFAverageEvaluatorLong);
+        assertTrue(new GenericUDAFMyAverage2().getEvaluator(new TypeInfo[]{TypeInfoFactory.doubleTypeInfo})
+                instanceof GenericUDAFMyAverage.GenericUDAFAverageEvaluatorDouble);
+        assertTrue(new GenericUDAFMyAverage2().getEvaluator(new TypeInfo[]{TypeInfoFactory.getDecimalTypeInfo(10, 2)})
+                instanceof GenericUDAFMyAverage.GenericUDAFAverageEvaluatorDecimal);
+    }
+}
@@ -0,0 +1,187 @@
+package com.susu.udf;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DoubleColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorAggregationBufferRow;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.IdentityExpression;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.aggregates.VectorAggregateExpression;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.aggregates.VectorAggregateExpression.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Test;
+
+/**
+ * 向量化的 sum / avg：isRepeating、含 null、selectedInUse 的批次，全局聚合和按行分组聚合的输出
+ * 都与行模式 Evaluator 对同样的行做 PARTIAL1 得到的中间结果相同
+ *
+ * double 取 0.25 的整数倍，累加没有舍入误差，可以直接比较
+ */
+public class VectorAggregateTest
+{
+    private static final int SIZE = 100;
+    private static final int GROUPS = 3;
+
+    private enum Layout
+    {
+        NO_NULLS, NULLS, SELECTED, SELECTED_NULLS, REPEATING, REPEATING_NULL
+    }
+
+    private static VectorizedRowBatch batch(boolean isDouble, Layout layout, Random random)
+    {
+        VectorizedRowBatch batch = new VectorizedRowBatch(1, SIZE);
+        ColumnVector column = isDouble ? new DoubleColumnVector(SIZE) : new LongColumnVector(SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            long value = random.nextInt(2000) - 1000;
+            if (isDouble) {
+                ((DoubleColumnVector) column).vector[i] = value * 0.25D;
+            } else {
+                ((LongColumnVector) column).vector[i] = value;
+            }
+        }
+        batch.cols[0] = column;
+        batch.size = SIZE;
+        switch (layout) {
+            case REPEATING_NULL:
+                column.noNulls = false;
+                column.isNull[0] = true;
+                //isRepeating 时只看第 0 行，其它位置的值不应被读取
+                column.isRepeating = true;
+                break;
+            case REPEATING:
+                column.isRepeating = true;
+                break;
+            case NULLS:
+            case SELECTED_NULLS:
+                column.noNulls = false;
+                for (int i = 0; i < SIZE; i += 3) {
+                    column.isNull[i] = true;
+                }
+                break;
+            default:
+                break;
+        }
+        if (layout == Layout.SELECTED || layout == Layout.SELECTED_NULLS) {
+            //过滤后剩下的行，batch.size 随之变小
+            batch.selectedInUse = true;
+            int n = 0;
+            for (int i = 0; i < SIZE; i++) {
+                if (i % 4 != 1) {
+                    batch.selected[n++] = i;
+                }
+            }
+            batch.size = n;
+        }
+        return batch;
+    }
+
+    /**
+     * 批次中参与聚合的第 i 行对应的行模式入参，null 表示该行为 null
+     */
+    private static Object row(VectorizedRowBatch batch, int i)
+    {
+        ColumnVector column = batch.cols[0];
+        int row = column.isRepeating ? 0 : batch.selectedInUse ? batch.selected[i] : i;
+        if (!column.noNulls && column.isNull[row]) {
+            return null;
+        }
+        return column instanceof DoubleColumnVector
+                ? new DoubleWritable(((DoubleColumnVector) column).vector[row])
+                : new LongWritable(((LongColumnVector) column).vector[row]);
+    }
+
+    /**
+     * 行模式 PARTIAL1 中间结果，转成标准 java 对象便于比较；group 为 -1 时包含所有行
+     */
+    private static Object rowMode(AbstractGenericUDAFResolver resolver, boolean isDouble, VectorizedRowBatch batch, int group)
+            throws Exception
+    {
+        TypeInfo type = isDouble ? TypeInfoFactory.doubleTypeInfo : TypeInfoFactory.longTypeInfo;
+        GenericUDAFEvaluator evaluator = resolver.getEvaluator(new TypeInfo[]{type});
+        ObjectInspector partialOi = evaluator.init(Mode.PARTIAL1, new ObjectInspector[]{
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableObjectInspector(TypeInfoFactory.getPrimitiveTypeInfo(type.getTypeName()))});
+        GenericUDAFEvaluator.AggregationBuffer buffer = evaluator.getNewAggregationBuffer();
+        for (int i = 0; i < batch.size; i++) {
+            if (group < 0 || i % GROUPS == group) {
+                evaluator.iterate(buffer, new Object[]{row(batch, i)});
+            }
+        }
+        return ObjectInspectorUtils.copyToStandardJavaObject(evaluator.terminatePartial(buffer), partialOi);
+    }
+
+    private static void check(VectorAggregateExpression vector, AbstractGenericUDAFResolver resolver, boolean isDouble)
+            throws Exception
+    {
+        Random random = new Random(11);
+        for (Layout layout : Layout.values()) {
+            VectorizedRowBatch batch = batch(isDouble, layout, random);
+            String message = vector.getClass().getSimpleName() + " " + layout;
+            ObjectInspector outputOi = vector.getOutputObjectInspector();
+
+            //全局聚合：整批进入同一个 buffer
+            AggregationBuffer global = vector.getNewAggregationBuffer();
+            vector.aggregateInput(global, batch);
+            Object once = ObjectInspectorUtils.copyToStandardJavaObject(vector.evaluateOutput(global), outputOi);
+            assertEquals(message, rowMode(resolver, isDouble, batch, -1), once);
+
+            //按行分组：第 i 行属于分组 i % GROUPS
+            AggregationBuffer[] groups = new AggregationBuffer[GROUPS];
+            for (int g = 0; g < GROUPS; g++) {
+                groups[g] = vector.getNewAggregationBuffer();
+            }
+            VectorAggregationBufferRow[] rows = new VectorAggregationBufferRow[batch.size];
+            for (int i = 0; i < batch.size; i++) {
+                rows[i] = new VectorAggregationBufferRow(new AggregationBuffer[]{groups[i % GROUPS]});
+            }
+            vector.aggregateInputSelection(rows, 0, batch);
+            for (int g = 0; g < GROUPS; g++) {
+                assertEquals(message + " group " + g, rowMode(resolver, isDouble, batch, g),
+                        ObjectInspectorUtils.copyToStandardJavaObject(vector.evaluateOutput(groups[g]), outputOi));
+            }
+
+            //reset 之后 sum 输出 null，avg 输出 (0, 0.0)
+            vector.reset(global);
+            assertEquals(message, once instanceof List ? Arrays.<Object>asList(0L, 0.0D) : null,
+                    ObjectInspectorUtils.copyToStandardJavaObject(vector.evaluateOutput(global), outputOi));
+        }
+    }
+
+    @Test
+    public void sumLong() throws Exception
+    {
+        check(new VectorUDAFMySumLong(new IdentityExpression(0, "bigint")), new GenericUDAFMySum(), false);
+    }
+
+    @Test
+    public void sumDouble() throws Exception
+    {
+        check(new VectorUDAFMySumDouble(new IdentityExpression(0, "double")), new GenericUDAFMySum(), true);
+    }
+
+    @Test
+    public void avgLong() throws Exception
+    {
+        check(new VectorUDAFMyAvgLong(new IdentityExpression(0, "bigint")), new GenericUDAFMyAverage(), false);
+    }
+
+    @Test
+    public void avgDouble() throws Exception
+    {
+        check(new VectorUDAFMyAvgDouble(new IdentityExpression(0, "double")), new GenericUDAFMyAverage(), true);
+    }
+}
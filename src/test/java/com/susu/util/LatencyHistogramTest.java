@@ -0,0 +1,44 @@
+package com.susu.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * LatencyHistogram：分位数相对误差不超过 1/32，桶的边界覆盖整个 long
+ */
+public class LatencyHistogramTest
+{
+    @Test
+    public void percentilesWithinRelativeError()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(3);
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; i++) {
+            //对数分布，从几毫秒到几个小时
+            values[i] = (long) Math.exp(random.nextDouble() * 16);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(values.length, snapshot.getCount());
+        assertEquals(values[values.length - 1], snapshot.getMax());
+        for (double p : new double[]{0.01D, 0.5D, 0.9D, 0.99D, 0.999D}) {
+            long exact = values[(int) Math.ceil(p * values.length) - 1];
+            long estimate = snapshot.getPercentile(p);
+            assertTrue(p + ": " + exact + " vs " + estimate, estimate >= exact && estimate <= exact + exact / 32 + 1);
+        }
+
+        for (long value : new long[]{0L, 31L, 32L, 63L, 64L, 1000000L, Long.MAX_VALUE}) {
+            int bucket = LatencyHistogram.bucket(value);
+            assertTrue(bucket < LatencyHistogram.BUCKETS);
+            assertTrue(LatencyHistogram.highestValue(bucket) >= value);
+            assertTrue(bucket == 0 || LatencyHistogram.highestValue(bucket - 1) < value);
+        }
+    }
+}
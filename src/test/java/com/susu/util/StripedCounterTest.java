@@ -0,0 +1,33 @@
+package com.susu.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * StripedCounter：多线程并发累加不丢失
+ */
+public class StripedCounterTest
+{
+    @Test
+    public void concurrentAdds() throws Exception
+    {
+        final StripedCounter counter = new StripedCounter(4);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 100000; j++) {
+                        counter.increment();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(800000L, counter.sum());
+    }
+}